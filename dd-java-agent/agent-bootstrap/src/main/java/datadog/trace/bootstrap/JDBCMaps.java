@@ -2,17 +2,16 @@ package datadog.trace.bootstrap;
 
 import static datadog.trace.bootstrap.WeakMap.Provider.newWeakMap;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import lombok.Data;
 
 /**
- * JDBC instrumentation shares a global map of connection info.
+ * JDBC instrumentation shares a global map of prepared statements, connection info is kept in a
+ * context store.
  *
  * <p>In the bootstrap project to ensure visibility by all classes.
  */
 public class JDBCMaps {
-  public static final WeakMap<Connection, DBInfo> connectionInfo = newWeakMap();
   public static final WeakMap<PreparedStatement, String> preparedStatements = newWeakMap();
 
   public static final String DB_QUERY = "DB Query";
@@ -0,0 +1,256 @@
+package datadog.trace.bootstrap;
+
+import datadog.trace.api.Config;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host names of peers, without the reverse DNS lookup {@link InetAddress#getHostName()} does for
+ * addresses created from an IP. The name an address was created with is used for that address
+ * only: other names may point to the same IP. When enabled, a background thread looks up the names
+ * of addresses created from an IP, and the result is cached for the next spans.
+ *
+ * <p>The cache is bounded: it is split in segments by address, each dropping its least recently
+ * used name when full.
+ */
+public final class PeerHostNameCache {
+  private static final int MAX_PENDING_LOOKUPS = 64;
+  private static final int MAX_SEGMENTS = 16;
+
+  private static final ThreadFactory FACTORY =
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "dd-peer-hostname-resolver");
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+
+  private static final PeerHostNameCache INSTANCE = create(Config.get());
+
+  private final Segment[] segments;
+  private final Set<InetAddress> pending =
+      Collections.newSetFromMap(new ConcurrentHashMap<InetAddress, Boolean>());
+  private final long ttlNanos;
+  /** Null if host names are not looked up */
+  private final Executor resolver;
+
+  /** A host name and when it must be looked up again, the name is null if none was found */
+  static final class Entry {
+    final String hostName;
+    final long expiresAtNanos;
+
+    Entry(final String hostName, final long expiresAtNanos) {
+      this.hostName = hostName;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    boolean isExpired(final long nowNanos) {
+      return nowNanos - expiresAtNanos >= 0;
+    }
+  }
+
+  /** Names in access order, accessed while holding its lock */
+  static final class Segment extends LinkedHashMap<InetAddress, PeerHostNameCache.Entry> {
+    private final int maxSize;
+
+    Segment(final int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(
+        final Map.Entry<InetAddress, PeerHostNameCache.Entry> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  PeerHostNameCache(final int maxSize, final long ttlNanos, final Executor resolver) {
+    // small caches are not split, to keep the least recently used order across all names
+    final int count = Math.max(1, Math.min(MAX_SEGMENTS, maxSize / MAX_SEGMENTS));
+    segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment((maxSize + count - 1) / count);
+    }
+    this.ttlNanos = ttlNanos;
+    this.resolver = resolver;
+  }
+
+  private static PeerHostNameCache create(final Config config) {
+    Executor resolver = null;
+    if (config.isPeerHostnameAsyncResolution()) {
+      resolver =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(MAX_PENDING_LOOKUPS),
+              FACTORY);
+    }
+    return new PeerHostNameCache(
+        config.getPeerHostnameCacheSize(),
+        TimeUnit.SECONDS.toNanos(config.getPeerHostnameCacheTtl()),
+        resolver);
+  }
+
+  /** @return the host name of the peer if known without a lookup, null otherwise */
+  public static String hostName(final InetSocketAddress address) {
+    if (address == null) {
+      return null;
+    }
+    if (address.getAddress() == null) {
+      // unresolved, the name is all there is
+      return address.getHostString();
+    }
+    return INSTANCE.get(address.getAddress());
+  }
+
+  /** @return the host name of the peer if known without a lookup, null otherwise */
+  public static String hostName(final InetAddress address) {
+    return address == null ? null : INSTANCE.get(address);
+  }
+
+  /** Sets the host name of the peer when known, and its address */
+  public static void setPeer(final Span span, final InetSocketAddress address) {
+    if (address == null) {
+      return;
+    }
+    if (address.getAddress() == null) {
+      Tags.PEER_HOSTNAME.set(span, address.getHostString());
+    } else {
+      setPeer(span, address.getAddress());
+    }
+  }
+
+  /** Sets the host name of the peer when known, and its address */
+  public static void setPeer(final Span span, final InetAddress address) {
+    if (address == null) {
+      return;
+    }
+    final String hostName = INSTANCE.get(address);
+    if (hostName != null) {
+      Tags.PEER_HOSTNAME.set(span, hostName);
+    }
+    if (address instanceof Inet6Address) {
+      Tags.PEER_HOST_IPV6.set(span, address.getHostAddress());
+    } else {
+      Tags.PEER_HOST_IPV4.set(span, address.getHostAddress());
+    }
+  }
+
+  String get(final InetAddress address) {
+    final String known = knownHostName(address);
+    if (known != null) {
+      return known;
+    }
+    final long now = System.nanoTime();
+    final Segment segment = segment(address);
+    final Entry entry;
+    synchronized (segment) {
+      entry = segment.get(address);
+    }
+    if (entry != null && !entry.isExpired(now)) {
+      return entry.hostName;
+    }
+    if (resolver != null) {
+      resolveLater(address);
+      // still better than no name until the lookup completes
+      return entry == null ? null : entry.hostName;
+    }
+    if (entry != null) {
+      synchronized (segment) {
+        if (segment.get(address) == entry) {
+          segment.remove(address);
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Caches the name found by a reverse lookup of the address, null if there is none */
+  void remember(final InetAddress address, final String hostName) {
+    final Entry entry = new Entry(hostName, System.nanoTime() + ttlNanos);
+    final Segment segment = segment(address);
+    synchronized (segment) {
+      segment.put(address, entry);
+    }
+  }
+
+  private Segment segment(final InetAddress address) {
+    final int hash = address.hashCode();
+    return segments[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % segments.length];
+  }
+
+  int size() {
+    int size = 0;
+    for (final Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  private void resolveLater(final InetAddress address) {
+    if (!pending.add(address)) {
+      return;
+    }
+    try {
+      resolver.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                remember(address, lookup(address));
+              } finally {
+                pending.remove(address);
+              }
+            }
+          });
+    } catch (final RejectedExecutionException e) {
+      // too many lookups queued, a later span will ask again
+      pending.remove(address);
+    }
+  }
+
+  /** @return the name found by a reverse lookup of the address, null if there is none */
+  static String lookup(final InetAddress address) {
+    try {
+      // looked up on a copy, the address belongs to the application
+      final InetAddress copy = InetAddress.getByAddress(address.getAddress());
+      final String hostName = copy.getHostName();
+      return hostName.equals(copy.getHostAddress()) ? null : hostName;
+    } catch (final UnknownHostException | SecurityException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the name the address was created with or has already been resolved to, null if
+   *     getting it would require a lookup. The string form of an address is {@code name/ip} and
+   *     only has a name if one is known.
+   */
+  static String knownHostName(final InetAddress address) {
+    final String string = address.toString();
+    final int slash = string.indexOf('/');
+    return slash > 0 ? string.substring(0, slash) : null;
+  }
+}
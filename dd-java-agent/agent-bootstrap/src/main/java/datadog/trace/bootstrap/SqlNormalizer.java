@@ -0,0 +1,233 @@
+package datadog.trace.bootstrap;
+
+import datadog.trace.api.Config;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Turns SQL statements into resource names: literals are replaced by {@code ?}, lists of literals
+ * and bind variables after {@code IN} are collapsed into {@code (?)}, comments are dropped and
+ * whitespace runs are reduced to a single space.
+ *
+ * <p>Only doubled quotes are taken as escapes in string literals, backslashes are not in standard
+ * SQL. A statement with a quote left unterminated, as a backslash escape in some dialects can leave
+ * it, is returned as is rather than with the rest of the statement taken as a literal.
+ *
+ * <p>Applications usually run a handful of statements held in constants, so results are cached by
+ * identity of the SQL string in a set associative cache, each set keeping its most recently used
+ * entries first. Concurrent updates may drop or duplicate an entry, which only costs a new
+ * normalization. Statements longer than {@link #MAX_CACHED_LENGTH} are not cached, which bounds
+ * the memory held by the cache.
+ */
+public final class SqlNormalizer {
+  static final int MAX_CACHED_LENGTH = 2048;
+  private static final int WAYS = 4;
+  private static final int SETS = 256;
+
+  private static final boolean ENABLED = Config.get().isSqlNormalization();
+
+  private static final AtomicReferenceArray<Entry> CACHE =
+      new AtomicReferenceArray<>(SETS * WAYS);
+
+  private static final class Entry {
+    private final String sql;
+    private final String normalized;
+
+    private Entry(final String sql, final String normalized) {
+      this.sql = sql;
+      this.normalized = normalized;
+    }
+  }
+
+  private SqlNormalizer() {}
+
+  /** @return the normalized statement, or the statement itself if normalization is disabled */
+  public static String normalize(final String sql) {
+    if (sql == null || !ENABLED) {
+      return sql;
+    }
+    if (sql.length() > MAX_CACHED_LENGTH) {
+      return compute(sql);
+    }
+    final int hash = System.identityHashCode(sql);
+    final int base = ((hash ^ (hash >>> 16)) & (SETS - 1)) * WAYS;
+    for (int way = 0; way < WAYS; way++) {
+      final Entry entry = CACHE.get(base + way);
+      if (entry == null) {
+        break;
+      }
+      if (entry.sql == sql) {
+        if (way > 0) {
+          moveFirst(base, way, entry);
+        }
+        return entry.normalized;
+      }
+    }
+    final String normalized = compute(sql);
+    moveFirst(base, WAYS - 1, new Entry(sql, normalized));
+    return normalized;
+  }
+
+  /** Shifts the entries before the way down by one, dropping the one in the way */
+  private static void moveFirst(final int base, final int way, final Entry entry) {
+    for (int i = way; i > 0; i--) {
+      CACHE.set(base + i, CACHE.get(base + i - 1));
+    }
+    CACHE.set(base, entry);
+  }
+
+  static String compute(final String sql) {
+    final int length = sql.length();
+    final StringBuilder normalized = new StringBuilder(length);
+    boolean space = false;
+    boolean afterIn = false;
+    int i = 0;
+    while (i < length) {
+      final char c = sql.charAt(i);
+      if (c <= ' ') {
+        space = true;
+        i++;
+        continue;
+      }
+      if (c == '-' && startsWith(sql, i, '-', '-')) {
+        i = indexOrLength(sql, '\n', i);
+        space = true;
+        continue;
+      }
+      if (c == '/' && startsWith(sql, i, '/', '*')) {
+        final int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+        space = true;
+        continue;
+      }
+      if (space && normalized.length() > 0) {
+        normalized.append(' ');
+      }
+      space = false;
+
+      final int end;
+      if (c == '\'') {
+        end = quoteEnd(sql, i);
+        if (end < 0) {
+          return sql;
+        }
+        normalized.append('?');
+      } else if (isDigit(c) || (c == '.' && i + 1 < length && isDigit(sql.charAt(i + 1)))) {
+        end = numberEnd(sql, i);
+        normalized.append('?');
+      } else if (c == '"' || c == '`') {
+        // quoted identifier
+        end = indexOrLength(sql, c, i + 1) + 1;
+        normalized.append(sql, i, Math.min(end, length));
+      } else if (isIdentifierChar(c)) {
+        end = identifierEnd(sql, i);
+        normalized.append(sql, i, end);
+        afterIn = end - i == 2 && sql.regionMatches(true, i, "in", 0, 2);
+        i = end;
+        continue;
+      } else if (c == '(' && afterIn) {
+        final int listEnd = listEnd(sql, i + 1);
+        if (listEnd < 0) {
+          end = i + 1;
+          normalized.append(c);
+        } else {
+          end = listEnd;
+          normalized.append("(?)");
+        }
+      } else {
+        end = i + 1;
+        normalized.append(c);
+      }
+      afterIn = false;
+      i = end;
+    }
+    return normalized.toString();
+  }
+
+  /** @return the index after the closing parenthesis if only literals are listed, or -1 */
+  private static int listEnd(final String sql, final int start) {
+    boolean values = false;
+    int i = start;
+    while (i < sql.length()) {
+      final char c = sql.charAt(i);
+      if (c <= ' ' || c == ',' || c == '-' || c == '+') {
+        i++;
+      } else if (c == '?') {
+        values = true;
+        i++;
+      } else if (c == '\'') {
+        values = true;
+        i = quoteEnd(sql, i);
+        if (i < 0) {
+          return -1;
+        }
+      } else if (isDigit(c) || c == '.') {
+        values = true;
+        i = numberEnd(sql, i);
+      } else if (c == ')') {
+        return values ? i + 1 : -1;
+      } else {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /** @return the index after the closing quote, escaped by doubling it, or -1 if there is none */
+  private static int quoteEnd(final String sql, final int start) {
+    int i = sql.indexOf('\'', start + 1);
+    while (i >= 0) {
+      if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+        i = sql.indexOf('\'', i + 2);
+      } else {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /** Numbers, including decimals, exponents and hexadecimal numbers */
+  private static int numberEnd(final String sql, final int start) {
+    int i = start;
+    while (i < sql.length()) {
+      final char c = sql.charAt(i);
+      if (isDigit(c) || isLetter(c) || c == '.') {
+        i++;
+      } else if ((c == '+' || c == '-') && (sql.charAt(i - 1) == 'e' || sql.charAt(i - 1) == 'E')) {
+        i++;
+      } else {
+        break;
+      }
+    }
+    return i;
+  }
+
+  private static int identifierEnd(final String sql, final int start) {
+    int i = start + 1;
+    while (i < sql.length() && (isIdentifierChar(sql.charAt(i)) || isDigit(sql.charAt(i)))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int indexOrLength(final String sql, final char c, final int from) {
+    final int index = sql.indexOf(c, from);
+    return index < 0 ? sql.length() : index;
+  }
+
+  private static boolean startsWith(final String sql, final int i, final char a, final char b) {
+    return i + 1 < sql.length() && sql.charAt(i) == a && sql.charAt(i + 1) == b;
+  }
+
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLetter(final char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /** Identifiers may also contain digits, $ is included for positional parameters like $1 */
+  private static boolean isIdentifierChar(final char c) {
+    return isLetter(c) || c == '_' || c == '$' || c == '@' || c == '#' || c > 127;
+  }
+}
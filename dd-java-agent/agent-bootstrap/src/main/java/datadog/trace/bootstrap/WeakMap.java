@@ -3,6 +3,7 @@ package datadog.trace.bootstrap;
 import java.util.Collections;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
 
@@ -16,6 +17,9 @@ public interface WeakMap<K, V> {
 
   void put(K key, V value);
 
+  /** @return the value already mapped to the key, or null if the value given was mapped to it */
+  V putIfAbsent(K key, V value);
+
   @Slf4j
   class Provider {
     private static final AtomicReference<Supplier> provider =
@@ -81,6 +85,21 @@ public interface WeakMap<K, V> {
       map.put(key, value);
     }
 
+    @Override
+    public V putIfAbsent(final K key, final V value) {
+      if (map instanceof ConcurrentMap) {
+        return ((ConcurrentMap<K, V>) map).putIfAbsent(key, value);
+      }
+      // synchronized maps lock on themselves
+      synchronized (map) {
+        final V existing = map.get(key);
+        if (existing == null) {
+          map.put(key, value);
+        }
+        return existing;
+      }
+    }
+
     @Override
     public String toString() {
       return map.toString();
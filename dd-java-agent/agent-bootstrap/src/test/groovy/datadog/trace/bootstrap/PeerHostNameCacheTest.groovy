@@ -0,0 +1,122 @@
+package datadog.trace.bootstrap
+
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+class PeerHostNameCacheTest extends Specification {
+  static final long TTL = TimeUnit.MINUTES.toNanos(5)
+
+  static InetAddress address(String name = null, int last = 1) {
+    byte[] ip = [10, 0, 0, last]
+    return name == null ? InetAddress.getByAddress(ip) : InetAddress.getByAddress(name, ip)
+  }
+
+  def "names addresses were created with are only used for them"() {
+    setup:
+    def cache = new PeerHostNameCache(16, TTL, null)
+
+    expect:
+    cache.get(address()) == null
+    cache.get(address("db.local")) == "db.local"
+    cache.get(address("cache.local")) == "cache.local"
+    cache.get(address()) == null
+    cache.size() == 0
+  }
+
+  def "looked up names are used for addresses created from an IP"() {
+    setup:
+    def cache = new PeerHostNameCache(16, TTL, null)
+
+    when:
+    cache.remember(address(), "db.local")
+
+    then:
+    cache.get(address()) == "db.local"
+    cache.get(address("cache.local")) == "cache.local"
+    cache.get(address(null, 2)) == null
+  }
+
+  def "addresses are not looked up on the calling thread"() {
+    setup:
+    def cache = new PeerHostNameCache(16, TTL, null)
+    def address = address()
+
+    when:
+    cache.get(address)
+
+    then:
+    PeerHostNameCache.knownHostName(address) == null
+  }
+
+  def "expired names are dropped"() {
+    setup:
+    def cache = new PeerHostNameCache(16, 0, null)
+
+    when:
+    cache.remember(address(), "db.local")
+
+    then:
+    cache.get(address()) == null
+    cache.size() == 0
+  }
+
+  def "least recently used names are dropped once the cache is full"() {
+    setup:
+    def cache = new PeerHostNameCache(2, TTL, null)
+
+    when:
+    cache.remember(address(null, 1), "first")
+    cache.remember(address(null, 2), "second")
+    cache.get(address(null, 1))
+    cache.remember(address(null, 3), "third")
+
+    then:
+    cache.get(address(null, 1)) == "first"
+    cache.get(address(null, 2)) == null
+    cache.get(address(null, 3)) == "third"
+  }
+
+  def "large caches are split in bounded segments"() {
+    setup:
+    def cache = new PeerHostNameCache(64, TTL, null)
+
+    when:
+    (1..200).each { cache.remember(address(null, it), "host-$it") }
+
+    then:
+    cache.segments.length == 4
+    cache.size() <= 64
+    cache.get(address(null, 200)) == "host-200"
+  }
+
+  def "addresses are looked up once by the resolver"() {
+    setup:
+    def lookups = []
+    def cache = new PeerHostNameCache(16, TTL, { lookups.add(it) } as Executor)
+    def address = InetAddress.getByAddress([127, 0, 0, 1] as byte[])
+
+    when:
+    def first = cache.get(address)
+    def second = cache.get(address)
+
+    then:
+    first == null
+    second == null
+    lookups.size() == 1
+
+    when:
+    lookups[0].run()
+
+    then:
+    cache.get(address) == PeerHostNameCache.lookup(address)
+    cache.pending.isEmpty()
+  }
+
+  def "unresolved socket addresses use their name"() {
+    expect:
+    PeerHostNameCache.hostName(InetSocketAddress.createUnresolved("db.local", 5432)) == "db.local"
+    PeerHostNameCache.hostName((InetSocketAddress) null) == null
+  }
+}
@@ -0,0 +1,60 @@
+package datadog.trace.bootstrap
+
+import spock.lang.Specification
+
+class SqlNormalizerTest extends Specification {
+
+  def "normalize #sql"() {
+    expect:
+    SqlNormalizer.compute(sql) == normalized
+
+    where:
+    sql                                                              | normalized
+    "SELECT 3"                                                       | "SELECT ?"
+    "SELECT 3 FROM SYSIBM.SYSDUMMY1"                                 | "SELECT ? FROM SYSIBM.SYSDUMMY1"
+    "select * from users where name = 'O''Brien' and id = 12"        | "select * from users where name = ? and id = ?"
+    "select * from t where a = 'it''s' and b = -1.5e+10"             | "select * from t where a = ? and b = -?"
+    "select * from t where path = 'C:\\' and b = 1"                  | "select * from t where path = ? and b = ?"
+    "select * from t where a = 'it\\'s' and b = 1"                   | "select * from t where a = 'it\\'s' and b = 1"
+    "select x from t1 where y = .5 or z = 0x1F"                      | "select x from t1 where y = ? or z = ?"
+    "SELECT * FROM t WHERE id IN (1, 2, 3)"                          | "SELECT * FROM t WHERE id IN (?)"
+    "SELECT * FROM t WHERE id in(?,?,?,?)"                           | "SELECT * FROM t WHERE id in(?)"
+    "SELECT * FROM t WHERE id NOT IN ('a','b')"                      | "SELECT * FROM t WHERE id NOT IN (?)"
+    "SELECT * FROM t WHERE id IN (SELECT id FROM u WHERE v = 2)"     | "SELECT * FROM t WHERE id IN (SELECT id FROM u WHERE v = ?)"
+    "SELECT * FROM t WHERE (a, b) IN ((1, 2))"                       | "SELECT * FROM t WHERE (a, b) IN ((?, ?))"
+    "INSERT INTO t (a, b) VALUES (?, ?)"                             | "INSERT INTO t (a, b) VALUES (?, ?)"
+    "  SELECT\n  a,\tb   FROM t  "                                   | "SELECT a, b FROM t"
+    "SELECT a -- the 'a' column\nFROM t /* secret: 42 */ WHERE b=1" | "SELECT a FROM t WHERE b=?"
+    "SELECT \"col 1\", `col2` FROM \"Table3\""                       | "SELECT \"col 1\", `col2` FROM \"Table3\""
+    "SELECT * FROM t WHERE a = \$1 AND b = :name AND c = @p1"        | "SELECT * FROM t WHERE a = \$1 AND b = :name AND c = @p1"
+    "SELECT * FROM t WHERE a = 'unterminated"                        | "SELECT * FROM t WHERE a = 'unterminated"
+    "SELECT * FROM t WHERE a IN ('x', 'y)"                           | "SELECT * FROM t WHERE a IN ('x', 'y)"
+    "CALL USER()"                                                    | "CALL USER()"
+    ""                                                               | ""
+  }
+
+  def "results are cached by identity"() {
+    setup:
+    def sql = new String("SELECT * FROM t WHERE id = 1")
+    def same = new String(sql)
+
+    when:
+    def first = SqlNormalizer.normalize(sql)
+
+    then:
+    first == "SELECT * FROM t WHERE id = ?"
+    SqlNormalizer.normalize(sql).is(first)
+    !SqlNormalizer.normalize(same).is(first)
+    SqlNormalizer.normalize(same) == first
+    SqlNormalizer.normalize(null) == null
+  }
+
+  def "long statements are not cached"() {
+    setup:
+    def sql = "SELECT " + ("a, " * SqlNormalizer.MAX_CACHED_LENGTH) + "1"
+
+    expect:
+    SqlNormalizer.normalize(sql).endsWith("a, ?")
+    !SqlNormalizer.normalize(sql).is(SqlNormalizer.normalize(sql))
+  }
+}
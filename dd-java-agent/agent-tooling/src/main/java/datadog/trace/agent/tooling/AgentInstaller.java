@@ -8,11 +8,20 @@ import static net.bytebuddy.matcher.ElementMatchers.nameStartsWith;
 import static net.bytebuddy.matcher.ElementMatchers.named;
 import static net.bytebuddy.matcher.ElementMatchers.not;
 
+import datadog.trace.api.Config;
 import datadog.trace.bootstrap.WeakMap;
+import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import javax.management.ObjectName;
 import lombok.extern.slf4j.Slf4j;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
@@ -32,6 +41,8 @@ public class AgentInstaller {
 
   public static final DDLocationStrategy LOCATION_STRATEGY = new DDLocationStrategy();
   public static final AgentBuilder.PoolStrategy POOL_STRATEGY = new DDCachingPoolStrategy();
+  /** Null unless enabled */
+  private static final MatchOutcomeCache MATCH_CACHE = MatchOutcomeCache.open(Config.get());
   private static volatile Instrumentation INSTRUMENTATION;
 
   public static Instrumentation getInstrumentation() {
@@ -52,14 +63,65 @@ public class AgentInstaller {
       final Instrumentation inst, final AgentBuilder.Listener... listeners) {
     INSTRUMENTATION = inst;
 
-    AgentBuilder agentBuilder =
+    AgentBuilder agentBuilder = newAgentBuilder(listeners).with(new ClassLoadListener());
+
+    InstrumentationIndex index = null;
+    try {
+      index = InstrumentationIndex.read(Utils.getAgentClassLoader());
+    } catch (final IOException e) {
+      log.debug("Failed to read the instrumentation index, loading all instrumenters", e);
+    }
+    if (index == null) {
+      int numInstrumenters = 0;
+      for (final Instrumenter instrumenter : ServiceLoader.load(Instrumenter.class)) {
+        log.debug("Loading instrumentation {}", instrumenter.getClass().getName());
+        agentBuilder = instrumenter.instrument(agentBuilder);
+        numInstrumenters++;
+      }
+      log.debug("Installed {} instrumenter(s)", numInstrumenters);
+      return agentBuilder.installOn(inst);
+    }
+
+    // libraries already visible are instrumented now, so that their loaded classes are
+    // retransformed, the others once a classloader that can see them shows up
+    final Set<ClassLoader> loaders = loadedClassLoaders(inst);
+    final List<InstrumentationIndex.Entry> deferred = new ArrayList<>();
+    int numInstrumenters = 0;
+    for (final InstrumentationIndex.Entry entry : index.getEntries()) {
+      if (entry.getLibraryClassName() != null && !anyHasResource(loaders, entry)) {
+        deferred.add(entry);
+        continue;
+      }
+      final Instrumenter instrumenter = loadInstrumenter(entry);
+      if (instrumenter != null) {
+        log.debug("Loading instrumentation {}", entry.getInstrumenterClassName());
+        agentBuilder = instrumenter.instrument(agentBuilder);
+        numInstrumenters++;
+      }
+    }
+    log.debug(
+        "Installed {} instrumenter(s), deferred {} until their library is loaded",
+        numInstrumenters,
+        deferred.size());
+
+    final ResettableClassFileTransformer transformer = agentBuilder.installOn(inst);
+    if (!deferred.isEmpty()) {
+      inst.addTransformer(new DeferredInstrumenters(newAgentBuilder(listeners), deferred), true);
+    }
+    return transformer;
+  }
+
+  /**
+   * @return a builder with the agent configuration and ignored types, without any instrumentation
+   */
+  private static AgentBuilder newAgentBuilder(final AgentBuilder.Listener... listeners) {
+    final AgentBuilder.Ignored ignored =
         new AgentBuilder.Default()
             .disableClassFormatChanges()
             .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
             .with(AgentBuilder.DescriptionStrategy.Default.POOL_ONLY)
             .with(POOL_STRATEGY)
             .with(new LoggingListener())
-            .with(new ClassLoadListener())
             .with(LOCATION_STRATEGY)
             // FIXME: we cannot enable it yet due to BB/JVM bug, see
             // https://github.com/raphw/byte-buddy/issues/558
@@ -112,18 +174,65 @@ public class AgentInstaller {
             .or(nameContains("javassist"))
             .or(nameContains(".asm."))
             .or(nameMatches("com\\.mchange\\.v2\\.c3p0\\..*Proxy"));
+    AgentBuilder agentBuilder = ignored;
+    if (MATCH_CACHE != null) {
+      // last, only classes no other rule ignores are looked up and recorded
+      agentBuilder = ignored.or(MATCH_CACHE).with(MATCH_CACHE.recorder());
+    }
     for (final AgentBuilder.Listener listener : listeners) {
       agentBuilder = agentBuilder.with(listener);
     }
-    int numInstrumenters = 0;
-    for (final Instrumenter instrumenter : ServiceLoader.load(Instrumenter.class)) {
-      log.debug("Loading instrumentation {}", instrumenter.getClass().getName());
-      agentBuilder = instrumenter.instrument(agentBuilder);
-      numInstrumenters++;
+    return agentBuilder;
+  }
+
+  /** @return the instrumenter of the entry, or null if it could not be created */
+  static Instrumenter loadInstrumenter(final InstrumentationIndex.Entry entry) {
+    try {
+      return (Instrumenter)
+          Class.forName(entry.getInstrumenterClassName(), true, Utils.getAgentClassLoader())
+              .newInstance();
+    } catch (final Throwable t) {
+      log.warn("Failed to load instrumentation {}", entry.getInstrumenterClassName(), t);
+      return null;
+    }
+  }
+
+  private static Set<ClassLoader> loadedClassLoaders(final Instrumentation inst) {
+    final Set<ClassLoader> loaders =
+        Collections.newSetFromMap(new IdentityHashMap<ClassLoader, Boolean>());
+    for (final Class<?> clazz : inst.getAllLoadedClasses()) {
+      final ClassLoader loader = clazz.getClassLoader();
+      if (loader != null && loader != Utils.getAgentClassLoader()) {
+        loaders.add(loader);
+      }
     }
-    log.debug("Installed {} instrumenter(s)", numInstrumenters);
+    loaders.add(Utils.getBootstrapProxy());
+    return loaders;
+  }
 
-    return agentBuilder.installOn(inst);
+  private static boolean anyHasResource(
+      final Set<ClassLoader> loaders, final InstrumentationIndex.Entry entry) {
+    for (final ClassLoader loader : loaders) {
+      if (loader.getResource(entry.getLibraryResource()) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Registers the agent MBeans. Getting the platform MBean server initializes the global log
+   * manager, so this must not run before the application had a chance to set its own.
+   */
+  public static void registerMBeans() {
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(
+              ((DDCachingPoolStrategy) POOL_STRATEGY).getCache(),
+              new ObjectName("datadog.trace.agent:type=TypePoolCache"));
+    } catch (final Exception e) {
+      log.debug("Failed to register the type pool cache MBean", e);
+    }
   }
 
   private static void registerWeakMapProvider() {
@@ -0,0 +1,85 @@
+package datadog.trace.agent.tooling;
+
+import static datadog.trace.bootstrap.WeakMap.Provider.newWeakMap;
+
+import datadog.trace.bootstrap.WeakMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Facts probed on classloaders, such as whether they can see a class, shared by all the matchers.
+ * Each classloader has one bitset telling which facts were probed and whether they hold.
+ *
+ * <p>No lock is taken, in particular not the classloader's, which its own class loading may hold
+ * on another thread. Once stored, a fact is never probed again. Only threads racing on its first
+ * probe may all probe it, and the first result stored is the one kept.
+ */
+final class ClassLoaderCapabilities {
+  private static final long[] NO_FACTS = new long[0];
+
+  private static final ConcurrentMap<String, Integer> FACTS = new ConcurrentHashMap<>();
+  private static final AtomicInteger NEXT_FACT = new AtomicInteger();
+
+  /**
+   * Two words per 64 facts: whether they were probed, then whether they hold. Replaced on each
+   * update.
+   */
+  private static final WeakMap<ClassLoader, AtomicReference<long[]>> TABLE = newWeakMap();
+
+  /** Probes a fact, without locking the classloader */
+  interface Probe {
+    boolean holds(ClassLoader loader);
+  }
+
+  private ClassLoaderCapabilities() {}
+
+  /** @return the index of the fact, the same for matchers describing it the same way */
+  static int fact(final String description) {
+    Integer index = FACTS.get(description);
+    if (index == null) {
+      final Integer created = NEXT_FACT.getAndIncrement();
+      index = FACTS.putIfAbsent(description, created);
+      if (index == null) {
+        index = created;
+      }
+    }
+    return index;
+  }
+
+  /** @return whether the fact holds for the classloader, probed the first time it is asked */
+  static boolean holds(final ClassLoader loader, final int fact, final Probe probe) {
+    AtomicReference<long[]> facts = TABLE.get(loader);
+    if (facts == null) {
+      final AtomicReference<long[]> created = new AtomicReference<>(NO_FACTS);
+      facts = TABLE.putIfAbsent(loader, created);
+      if (facts == null) {
+        facts = created;
+      }
+    }
+    final int word = (fact >>> 6) << 1;
+    final long mask = 1L << (fact & 63);
+    long[] current = facts.get();
+    if (word < current.length && (current[word] & mask) != 0) {
+      return (current[word + 1] & mask) != 0;
+    }
+
+    final boolean holds = probe.holds(loader);
+    while (true) {
+      current = facts.get();
+      if (word < current.length && (current[word] & mask) != 0) {
+        return (current[word + 1] & mask) != 0;
+      }
+      final long[] updated = Arrays.copyOf(current, Math.max(current.length, word + 2));
+      updated[word] |= mask;
+      if (holds) {
+        updated[word + 1] |= mask;
+      }
+      if (facts.compareAndSet(current, updated)) {
+        return holds;
+      }
+    }
+  }
+}
@@ -1,16 +1,20 @@
 package datadog.trace.agent.tooling;
 
-import static datadog.trace.bootstrap.WeakMap.Provider.newWeakMap;
+import static net.bytebuddy.matcher.ElementMatchers.named;
 
 import datadog.trace.bootstrap.DatadogClassLoader;
 import datadog.trace.bootstrap.PatchLogger;
-import datadog.trace.bootstrap.WeakMap;
 import io.opentracing.util.GlobalTracer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.description.type.TypeList;
 import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.pool.TypePool;
 
 @Slf4j
 public class ClassLoaderMatcher {
@@ -41,11 +45,12 @@ public class ClassLoaderMatcher {
   }
 
   private static class SkipClassLoaderMatcher
-      extends ElementMatcher.Junction.AbstractBase<ClassLoader> {
+      extends ElementMatcher.Junction.AbstractBase<ClassLoader>
+      implements ClassLoaderCapabilities.Probe {
     public static final SkipClassLoaderMatcher INSTANCE = new SkipClassLoaderMatcher();
-    /* Cache of classloader-instance -> (true|false). True = skip instrumentation. False = safe to instrument. */
-    private static final WeakMap<ClassLoader, Boolean> SKIP_CACHE = newWeakMap();
     private static final Set<String> CLASSLOADER_CLASSES_TO_SKIP;
+    private static final int DELEGATES_TO_BOOTSTRAP =
+        ClassLoaderCapabilities.fact("delegates to bootstrap");
 
     static {
       final Set<String> classesToSkip = new HashSet<>();
@@ -73,32 +78,20 @@ public class ClassLoaderMatcher {
     }
 
     private boolean shouldSkipInstance(final ClassLoader loader) {
-      Boolean cached = SKIP_CACHE.get(loader);
-      if (null != cached) {
-        return cached.booleanValue();
-      }
-      synchronized (this) {
-        cached = SKIP_CACHE.get(loader);
-        if (null != cached) {
-          return cached.booleanValue();
-        }
-        final boolean skip = !delegatesToBootstrap(loader);
-        if (skip) {
-          log.debug(
-              "skipping classloader instance {} of type {}", loader, loader.getClass().getName());
-        }
-        SKIP_CACHE.put(loader, skip);
-        return skip;
-      }
+      return !ClassLoaderCapabilities.holds(loader, DELEGATES_TO_BOOTSTRAP, this);
     }
 
     /**
-     * TODO: this turns out to be useless with OSGi: {@code
+     * Classes are loaded rather than looked up as resources: a loader without a parent still finds
+     * the bootstrap resources, while only the loaded class tells whether it delegates.
+     *
+     * <p>TODO: this turns out to be useless with OSGi: {@code
      * }org.eclipse.osgi.internal.loader.BundleLoader#isRequestFromVM} returns {@code true} when
      * class loading is issued from this check and {@code false} for 'real' class loads. We should
      * come up with some sort of hack to avoid this problem.
      */
-    private boolean delegatesToBootstrap(final ClassLoader loader) {
+    @Override
+    public boolean holds(final ClassLoader loader) {
       boolean delegates = true;
       if (!loadsExpectedClass(loader, GlobalTracer.class)) {
         log.debug("loader {} failed to delegate bootstrap opentracing class", loader);
@@ -108,6 +101,10 @@ public class ClassLoaderMatcher {
         log.debug("loader {} failed to delegate bootstrap datadog class", loader);
         delegates = false;
       }
+      if (!delegates) {
+        log.debug(
+            "skipping classloader instance {} of type {}", loader, loader.getClass().getName());
+      }
       return delegates;
     }
 
@@ -138,119 +135,146 @@ public class ClassLoaderMatcher {
   public static class ClassLoaderHasClassMatcher
       extends ElementMatcher.Junction.AbstractBase<ClassLoader> {
 
-    private final WeakMap<ClassLoader, Boolean> cache = newWeakMap();
-
-    private final String[] names;
+    private final ClassProbe[] probes;
 
     private ClassLoaderHasClassMatcher(final String... names) {
-      this.names = names;
+      probes = new ClassProbe[names.length];
+      for (int i = 0; i < names.length; i++) {
+        probes[i] = new ClassProbe(names[i]);
+      }
     }
 
     @Override
     public boolean matches(final ClassLoader target) {
       if (target != null) {
-        synchronized (target) {
-          if (cache.containsKey(target)) {
-            return cache.get(target);
-          }
-          for (final String name : names) {
-            if (target.getResource(Utils.getResourceName(name)) == null) {
-              cache.put(target, false);
-              return false;
-            }
+        for (final ClassProbe probe : probes) {
+          if (!ClassLoaderCapabilities.holds(target, probe.fact, probe)) {
+            return false;
           }
-          cache.put(target, true);
-          return true;
         }
+        return true;
       }
       return false;
     }
   }
 
-  public static class ClassLoaderHasClassWithFieldMatcher
-      extends ElementMatcher.Junction.AbstractBase<ClassLoader> {
+  /** Looks up the class file, the class is not loaded */
+  private static class ClassProbe implements ClassLoaderCapabilities.Probe {
+    private final String resourceName;
+    private final int fact;
+
+    private ClassProbe(final String className) {
+      resourceName = Utils.getResourceName(className);
+      fact = ClassLoaderCapabilities.fact("class " + className);
+    }
+
+    @Override
+    public boolean holds(final ClassLoader loader) {
+      return loader.getResource(resourceName) != null;
+    }
+  }
 
-    private final WeakMap<ClassLoader, Boolean> cache = newWeakMap();
+  public static class ClassLoaderHasClassWithFieldMatcher
+      extends ElementMatcher.Junction.AbstractBase<ClassLoader>
+      implements ClassLoaderCapabilities.Probe {
 
     private final String className;
     private final String fieldName;
+    private final int fact;
 
     private ClassLoaderHasClassWithFieldMatcher(final String className, final String fieldName) {
       this.className = className;
       this.fieldName = fieldName;
+      fact = ClassLoaderCapabilities.fact("field " + className + "#" + fieldName);
     }
 
     @Override
     public boolean matches(final ClassLoader target) {
-      if (target != null) {
-        synchronized (target) {
-          if (cache.containsKey(target)) {
-            return cache.get(target);
-          }
-          try {
-            final Class<?> aClass = Class.forName(className, false, target);
-            aClass.getDeclaredField(fieldName);
-            cache.put(target, true);
-            return true;
-          } catch (final ClassNotFoundException e) {
-            cache.put(target, false);
-            return false;
-          } catch (final NoSuchFieldException e) {
-            cache.put(target, false);
-            return false;
-          }
-        }
-      }
-      return false;
+      return target != null && ClassLoaderCapabilities.holds(target, fact, this);
+    }
+
+    @Override
+    public boolean holds(final ClassLoader loader) {
+      final TypeDescription type = describe(loader, className);
+      return type != null && !type.getDeclaredFields().filter(named(fieldName)).isEmpty();
     }
   }
 
   public static class ClassLoaderHasClassWithMethodMatcher
-      extends ElementMatcher.Junction.AbstractBase<ClassLoader> {
-
-    private final WeakMap<ClassLoader, Boolean> cache = newWeakMap();
+      extends ElementMatcher.Junction.AbstractBase<ClassLoader>
+      implements ClassLoaderCapabilities.Probe {
 
     private final String className;
     private final String methodName;
     private final String[] methodArgs;
+    private final int fact;
 
     private ClassLoaderHasClassWithMethodMatcher(
         final String className, final String methodName, final String... methodArgs) {
       this.className = className;
       this.methodName = methodName;
       this.methodArgs = methodArgs;
+      fact =
+          ClassLoaderCapabilities.fact(
+              "method " + className + "#" + methodName + Arrays.toString(methodArgs));
     }
 
     @Override
     public boolean matches(final ClassLoader target) {
-      if (target != null) {
-        synchronized (target) {
-          if (cache.containsKey(target)) {
-            return cache.get(target);
-          }
-          try {
-            final Class<?> aClass = Class.forName(className, false, target);
-            final Class[] methodArgsClasses = new Class[methodArgs.length];
-            for (int i = 0; i < methodArgs.length; ++i) {
-              methodArgsClasses[i] = target.loadClass(methodArgs[i]);
-            }
-            if (aClass.isInterface()) {
-              aClass.getMethod(methodName, methodArgsClasses);
-            } else {
-              aClass.getDeclaredMethod(methodName, methodArgsClasses);
-            }
-            cache.put(target, true);
+      return target != null && ClassLoaderCapabilities.holds(target, fact, this);
+    }
+
+    @Override
+    public boolean holds(final ClassLoader loader) {
+      final TypeDescription type = describe(loader, className);
+      if (type == null) {
+        return false;
+      }
+      try {
+        // like Class.getMethod for interfaces and Class.getDeclaredMethod otherwise
+        return hasMethod(type, type.isInterface());
+      } catch (final IllegalStateException e) {
+        // a super interface could not be resolved
+        return false;
+      }
+    }
+
+    private boolean hasMethod(final TypeDescription type, final boolean inherited) {
+      for (final MethodDescription method : type.getDeclaredMethods()) {
+        if (method.getName().equals(methodName) && hasArgs(method)) {
+          return true;
+        }
+      }
+      if (inherited) {
+        for (final TypeDescription.Generic superInterface : type.getInterfaces()) {
+          if (hasMethod(superInterface.asErasure(), true)) {
             return true;
-          } catch (final ClassNotFoundException e) {
-            cache.put(target, false);
-            return false;
-          } catch (final NoSuchMethodException e) {
-            cache.put(target, false);
-            return false;
           }
         }
       }
       return false;
     }
+
+    private boolean hasArgs(final MethodDescription method) {
+      final TypeList args = method.getParameters().asTypeList().asErasures();
+      if (args.size() != methodArgs.length) {
+        return false;
+      }
+      for (int i = 0; i < methodArgs.length; i++) {
+        if (!args.get(i).getName().equals(methodArgs[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** @return the class as described from its class file, or null if the loader can't see it */
+  private static TypeDescription describe(final ClassLoader loader, final String className) {
+    final TypePool.Resolution resolution =
+        AgentInstaller.POOL_STRATEGY
+            .typePool(AgentInstaller.LOCATION_STRATEGY.classFileLocator(loader), loader)
+            .describe(className);
+    return resolution.isResolved() ? resolution.resolve() : null;
   }
 }
@@ -3,12 +3,10 @@ package datadog.trace.agent.tooling;
 import static datadog.trace.agent.tooling.ClassLoaderMatcher.BOOTSTRAP_CLASSLOADER;
 import static net.bytebuddy.agent.builder.AgentBuilder.PoolStrategy;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import datadog.trace.api.Config;
 import datadog.trace.bootstrap.WeakMap;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.ClassFileLocator;
 import net.bytebuddy.pool.TypePool;
@@ -16,91 +14,110 @@ import net.bytebuddy.pool.TypePool;
 /**
  * Custom Pool strategy.
  *
- * <p>Here we are using WeakMap.Provider as the backing ClassLoader -> CacheProvider lookup.
+ * <p>Here we are using WeakMap.Provider as the backing ClassLoader -> id lookup.
  *
  * <p>We also use our bootstrap proxy when matching against the bootstrap loader.
  *
- * <p>The CacheProvider is also a custom implementation that uses guava's cache to evict.
- *
- * <p>By eviciting from the cache we are able to reduce the memory overhead of the agent for apps
- * that have many classes.
- *
- * <p>See eviction policy below.
+ * <p>All classloaders share one {@link TypePoolCache}, bounded by the memory configured with
+ * {@link Config#TYPE_POOL_CACHE_MEMORY}. Apps with many classes get a bigger share of it than
+ * apps with many small classloaders, which would each get a fixed size cache otherwise. Entries are
+ * weighed by the size of their class file: the pool registers a type right after locating and
+ * parsing it on the same thread, so the size located last on the thread is the one of the type.
  */
 public class DDCachingPoolStrategy implements PoolStrategy {
-  private static final WeakMap<ClassLoader, TypePool.CacheProvider> typePoolCache =
-      WeakMap.Provider.newWeakMap();
+  private static final WeakMap<ClassLoader, Long> loaderIds = WeakMap.Provider.newWeakMap();
+  private static final AtomicLong nextLoaderId = new AtomicLong();
+
+  private static final TypePool.Resolution OBJECT_RESOLUTION =
+      new TypePool.Resolution.Simple(TypeDescription.OBJECT);
+
+  /** Size of the class file located last on the thread, reset once its type is registered */
+  private static final ThreadLocal<int[]> LOCATED_BYTES =
+      new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+          return new int[1];
+        }
+      };
+
+  private final TypePoolCache cache =
+      new TypePoolCache(Config.get().getTypePoolCacheMemory() * 1024L * 1024L);
 
   @Override
   public TypePool typePool(final ClassFileLocator classFileLocator, final ClassLoader classLoader) {
     final ClassLoader key =
         BOOTSTRAP_CLASSLOADER == classLoader ? Utils.getBootstrapProxy() : classLoader;
-    TypePool.CacheProvider cache = typePoolCache.get(key);
-    if (null == cache) {
+    Long loaderId = loaderIds.get(key);
+    if (null == loaderId) {
       synchronized (key) {
-        cache = typePoolCache.get(key);
-        if (null == cache) {
-          cache = EvictingCacheProvider.withObjectType();
-          typePoolCache.put(key, cache);
+        loaderId = loaderIds.get(key);
+        if (null == loaderId) {
+          loaderId = nextLoaderId.incrementAndGet();
+          loaderIds.put(key, loaderId);
         }
       }
     }
     return new TypePool.Default.WithLazyResolution(
-        cache, classFileLocator, TypePool.Default.ReaderMode.FAST);
+        new SharedCacheProvider(cache, loaderId),
+        new SizingClassFileLocator(classFileLocator),
+        TypePool.Default.ReaderMode.FAST);
   }
 
-  private static class EvictingCacheProvider implements TypePool.CacheProvider {
+  /** Counters of the cache, to expose over JMX */
+  TypePoolCacheMBean getCache() {
+    return cache;
+  }
 
-    /** A map containing all cached resolutions by their names. */
-    private final Cache<String, TypePool.Resolution> cache;
+  /** The entries of one classloader in the shared cache */
+  private static class SharedCacheProvider implements TypePool.CacheProvider {
+    private final TypePoolCache cache;
+    private final long loaderId;
 
-    /** Creates a new simple cache. */
-    private EvictingCacheProvider() {
-      cache =
-          CacheBuilder.newBuilder()
-              .initialCapacity(100)
-              .maximumSize(1000)
-              .expireAfterAccess(1, TimeUnit.MINUTES)
-              .build();
-    }
-
-    private static TypePool.CacheProvider withObjectType() {
-      final TypePool.CacheProvider cacheProvider = new EvictingCacheProvider();
-      cacheProvider.register(
-          Object.class.getName(), new TypePool.Resolution.Simple(TypeDescription.OBJECT));
-      return cacheProvider;
+    private SharedCacheProvider(final TypePoolCache cache, final long loaderId) {
+      this.cache = cache;
+      this.loaderId = loaderId;
     }
 
     @Override
     public TypePool.Resolution find(final String name) {
-      return cache.getIfPresent(name);
+      if (Object.class.getName().equals(name)) {
+        return OBJECT_RESOLUTION;
+      }
+      return cache.find(loaderId, name);
     }
 
     @Override
     public TypePool.Resolution register(final String name, final TypePool.Resolution resolution) {
-      try {
-        return cache.get(name, new ResolutionProvider(resolution));
-      } catch (final ExecutionException e) {
-        return resolution;
-      }
+      final int[] located = LOCATED_BYTES.get();
+      final int classFileBytes = located[0];
+      located[0] = 0;
+      return cache.register(loaderId, name, resolution, classFileBytes);
     }
 
     @Override
     public void clear() {
-      cache.invalidateAll();
+      cache.clear(loaderId);
     }
+  }
 
-    private static class ResolutionProvider implements Callable<TypePool.Resolution> {
-      private final TypePool.Resolution value;
+  /** Records the size of the class files located, see {@link #LOCATED_BYTES} */
+  private static class SizingClassFileLocator implements ClassFileLocator {
+    private final ClassFileLocator delegate;
 
-      private ResolutionProvider(final TypePool.Resolution value) {
-        this.value = value;
-      }
+    private SizingClassFileLocator(final ClassFileLocator delegate) {
+      this.delegate = delegate;
+    }
 
-      @Override
-      public TypePool.Resolution call() {
-        return value;
-      }
+    @Override
+    public Resolution locate(final String name) throws IOException {
+      final Resolution resolution = delegate.locate(name);
+      LOCATED_BYTES.get()[0] = resolution.isResolved() ? resolution.resolve().length : 0;
+      return resolution;
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
     }
   }
 }
@@ -0,0 +1,191 @@
+package datadog.trace.agent.tooling;
+
+import static datadog.trace.agent.tooling.ClassLoaderMatcher.skipClassLoader;
+import static datadog.trace.bootstrap.WeakMap.Provider.newWeakMap;
+
+import datadog.trace.bootstrap.WeakMap;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+import net.bytebuddy.agent.builder.AgentBuilder;
+
+/**
+ * Installs the instrumenters of the {@link InstrumentationIndex} whose library was not visible when
+ * the agent started. The first time a classloader defines a class, it is asked for the library
+ * class of each pending instrumenter, and those it can see are created and installed before the
+ * class is transformed. Instrumenters of libraries the application never loads are never created,
+ * and their matchers never run.
+ *
+ * <p>Libraries are looked up as resources, no class is loaded or described for the check, and
+ * classloaders already checked cost a map lookup per class they define. No lock is held while
+ * checking, so classloaders are checked in parallel: each instrumenter is claimed by the first
+ * thread that finds its library, and the other threads finding it wait until it is installed. A
+ * classloader is only marked as checked once the instrumenters it sees are installed, so that no
+ * class of the library is defined before.
+ *
+ * <p>All the instrumenters installed are added to one builder, made into a single transformer each
+ * time some are added, so that classes are matched in one pass however many were installed.
+ */
+@Slf4j
+class DeferredInstrumenters implements ClassFileTransformer {
+  private final WeakMap<ClassLoader, Boolean> checkedLoaders = newWeakMap();
+
+  /** Set while the thread installs instrumenters, the classes it loads meanwhile are not checked */
+  private final ThreadLocal<Boolean> installing = new ThreadLocal<>();
+
+  /** Instrumenters not installed yet, replaced once some are */
+  private final AtomicReference<List<Deferred>> pending;
+
+  /** Builder of the instrumenters installed so far, only written while holding the lock */
+  private AgentBuilder installed;
+
+  /** Transformer of all the instrumenters installed, null until the first one is */
+  private volatile ClassFileTransformer transformer;
+
+  /** An instrumenter waiting for its library, installed by the thread which claimed it */
+  static final class Deferred {
+    private final InstrumentationIndex.Entry entry;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    /** Released once installed, or once installing it failed */
+    private final CountDownLatch installed = new CountDownLatch(1);
+
+    Deferred(final InstrumentationIndex.Entry entry) {
+      this.entry = entry;
+    }
+
+    InstrumentationIndex.Entry getEntry() {
+      return entry;
+    }
+
+    void awaitInstalled() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          installed.await();
+          break;
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @param agentBuilder builder the instrumenters are added to
+   * @param pending instrumenters to install once their library is seen
+   */
+  DeferredInstrumenters(
+      final AgentBuilder agentBuilder, final List<InstrumentationIndex.Entry> pending) {
+    installed = agentBuilder;
+    final List<Deferred> deferred = new ArrayList<>(pending.size());
+    for (final InstrumentationIndex.Entry entry : pending) {
+      deferred.add(new Deferred(entry));
+    }
+    this.pending = new AtomicReference<>(Collections.unmodifiableList(deferred));
+    // instrumenters are loaded there, while checking another classloader
+    checkedLoaders.put(Utils.getAgentClassLoader(), true);
+  }
+
+  @Override
+  public byte[] transform(
+      final ClassLoader loader,
+      final String className,
+      final Class<?> classBeingRedefined,
+      final ProtectionDomain protectionDomain,
+      final byte[] classfileBuffer)
+      throws IllegalClassFormatException {
+    if (loader != null
+        && !pending.get().isEmpty()
+        && !checkedLoaders.containsKey(loader)
+        && installing.get() == null) {
+      check(loader);
+    }
+    final ClassFileTransformer current = transformer;
+    return current == null
+        ? null
+        : current.transform(
+            loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+  }
+
+  private void check(final ClassLoader loader) {
+    if (skipClassLoader().matches(loader)) {
+      checkedLoaders.put(loader, true);
+      return;
+    }
+    final List<Deferred> claimed = new ArrayList<>();
+    final List<Deferred> claimedElsewhere = new ArrayList<>();
+    for (final Deferred deferred : pending.get()) {
+      if (loader.getResource(deferred.entry.getLibraryResource()) != null) {
+        if (deferred.claimed.compareAndSet(false, true)) {
+          claimed.add(deferred);
+        } else {
+          claimedElsewhere.add(deferred);
+        }
+      }
+    }
+    if (!claimed.isEmpty()) {
+      install(claimed);
+    }
+    for (final Deferred deferred : claimedElsewhere) {
+      deferred.awaitInstalled();
+    }
+    // racing threads may all check the classloader until then, none defines a library class early
+    checkedLoaders.put(loader, true);
+  }
+
+  private void install(final List<Deferred> claimed) {
+    installing.set(true);
+    try {
+      final List<Instrumenter> instrumenters = new ArrayList<>(claimed.size());
+      for (final Deferred deferred : claimed) {
+        final Instrumenter instrumenter = AgentInstaller.loadInstrumenter(deferred.entry);
+        if (instrumenter != null) {
+          log.debug(
+              "Loading instrumentation {} for {}",
+              deferred.entry.getInstrumenterClassName(),
+              deferred.entry.getLibraryClassName());
+          instrumenters.add(instrumenter);
+        }
+      }
+      if (!instrumenters.isEmpty()) {
+        addTransformations(instrumenters);
+      }
+      remove(claimed);
+    } finally {
+      installing.remove();
+      for (final Deferred deferred : claimed) {
+        deferred.installed.countDown();
+      }
+    }
+  }
+
+  private synchronized void addTransformations(final List<Instrumenter> instrumenters) {
+    AgentBuilder agentBuilder = installed;
+    for (final Instrumenter instrumenter : instrumenters) {
+      agentBuilder = instrumenter.instrument(agentBuilder);
+    }
+    installed = agentBuilder;
+    transformer = agentBuilder.makeRaw();
+  }
+
+  private void remove(final List<Deferred> claimed) {
+    while (true) {
+      final List<Deferred> current = pending.get();
+      final List<Deferred> remaining = new ArrayList<>(current);
+      remaining.removeAll(claimed);
+      if (pending.compareAndSet(current, Collections.unmodifiableList(remaining))) {
+        return;
+      }
+    }
+  }
+}
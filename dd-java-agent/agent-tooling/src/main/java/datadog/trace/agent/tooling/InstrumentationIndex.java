@@ -0,0 +1,184 @@
+package datadog.trace.agent.tooling;
+
+import datadog.trace.agent.tooling.muzzle.Reference;
+import datadog.trace.agent.tooling.muzzle.ReferenceMatcher;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Index of the instrumenters, generated at build time so that the agent does not have to load
+ * them all on startup. Each line names an instrumenter and, unless it must always be installed, a
+ * class of the instrumented library: {@code <instrumenter class> [<library class>]}.
+ *
+ * <p>The library class is one of the muzzle references of the instrumenter. Muzzle does not apply
+ * an instrumenter to a classloader that can't see all of its references, so the instrumenter does
+ * not need to exist before a classloader that can see the library class shows up. It is the one
+ * declared by {@link Instrumenter.Default#libraryClassName()}, or else the library class the advice
+ * refers to from the most places, the core type of the library rather than one of its optional
+ * parts.
+ */
+public final class InstrumentationIndex {
+  public static final String RESOURCE = "datadog/trace/agent/tooling/instrumentation.index";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final List<Entry> entries;
+
+  public static final class Entry {
+    private final String instrumenterClassName;
+    /** Null if the instrumenter is always installed */
+    private final String libraryClassName;
+
+    Entry(final String instrumenterClassName, final String libraryClassName) {
+      this.instrumenterClassName = instrumenterClassName;
+      this.libraryClassName = libraryClassName;
+    }
+
+    public String getInstrumenterClassName() {
+      return instrumenterClassName;
+    }
+
+    public String getLibraryClassName() {
+      return libraryClassName;
+    }
+
+    /** @return com/foo/Bar.class, or null if the instrumenter is always installed */
+    public String getLibraryResource() {
+      return libraryClassName == null ? null : Utils.getResourceName(libraryClassName);
+    }
+  }
+
+  InstrumentationIndex(final List<Entry> entries) {
+    this.entries = entries;
+  }
+
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /** @return the index packaged with the agent, or null if there is none */
+  public static InstrumentationIndex read(final ClassLoader loader) throws IOException {
+    final InputStream in = loader.getResourceAsStream(RESOURCE);
+    if (in == null) {
+      return null;
+    }
+    try {
+      return read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  static InstrumentationIndex read(final InputStream in) throws IOException {
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+    final List<Entry> entries = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final int space = line.indexOf(' ');
+      if (space < 0) {
+        entries.add(new Entry(line, null));
+      } else {
+        entries.add(new Entry(line.substring(0, space), line.substring(space + 1).trim()));
+      }
+    }
+    return new InstrumentationIndex(entries);
+  }
+
+  void write(final Writer writer) throws IOException {
+    writer.write("# <instrumenter class> [<library class>], generated at build time\n");
+    for (final Entry entry : entries) {
+      writer.write(entry.instrumenterClassName);
+      if (entry.libraryClassName != null) {
+        writer.write(' ');
+        writer.write(entry.libraryClassName);
+      }
+      writer.write('\n');
+    }
+  }
+
+  /** Indexes the instrumenters found by the {@link ServiceLoader} of the loader */
+  static InstrumentationIndex create(final ClassLoader loader) {
+    // the parent of the system classloader sees the JDK but not the application
+    final ClassLoader platform = ClassLoader.getSystemClassLoader().getParent();
+    final List<Entry> entries = new ArrayList<>();
+    for (final Instrumenter instrumenter : ServiceLoader.load(Instrumenter.class, loader)) {
+      final String libraryClassName =
+          instrumenter instanceof Instrumenter.Default
+              ? libraryClassName((Instrumenter.Default) instrumenter, platform)
+              : null;
+      entries.add(new Entry(instrumenter.getClass().getName(), libraryClassName));
+    }
+    return new InstrumentationIndex(entries);
+  }
+
+  /**
+   * @return the library class declared by the instrumenter, or the library class of the muzzle
+   *     references with the most sources, null if there is none
+   */
+  static String libraryClassName(
+      final Instrumenter.Default instrumenter, final ClassLoader platform) {
+    final String declared = instrumenter.libraryClassName();
+    final ReferenceMatcher muzzle = instrumenter.getInstrumentationMuzzle();
+    if (muzzle == null) {
+      return declared;
+    }
+    final Set<String> helpers = new HashSet<>(Arrays.asList(instrumenter.helperClassNames()));
+    String mostReferenced = null;
+    int mostSources = -1;
+    for (final Reference reference : muzzle.getReferences()) {
+      final String className = reference.getClassName();
+      if (className.equals(declared)) {
+        return declared;
+      }
+      if (!helpers.contains(className)
+          && !className.startsWith("datadog.")
+          && !className.startsWith("io.opentracing.")
+          && platform.getResource(Utils.getResourceName(className)) == null) {
+        final int sources = reference.getSources().size();
+        if (sources > mostSources
+            || (sources == mostSources && className.compareTo(mostReferenced) < 0)) {
+          mostReferenced = className;
+          mostSources = sources;
+        }
+      }
+    }
+    if (declared != null) {
+      // the instrumenter would stay deferred for classloaders muzzle accepts
+      throw new IllegalStateException(
+          instrumenter.getClass().getName()
+              + " declares library class "
+              + declared
+              + " which is not one of its muzzle references");
+    }
+    return mostReferenced;
+  }
+
+  /** Writes the index of the instrumenters on the classpath to the file given as argument */
+  public static void main(final String[] args) throws IOException {
+    final File file = new File(args[0]);
+    file.getParentFile().mkdirs();
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+    try {
+      create(InstrumentationIndex.class.getClassLoader()).write(writer);
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -173,6 +173,16 @@ public interface Instrumenter {
       return new String[0];
     }
 
+    /**
+     * @return a class of the instrumented library, the instrumenter is only created once a
+     *     classloader can see it. It must be one of the muzzle references, so that no classloader
+     *     the instrumenter applies to is missed. Null to use the class the advice refers to from
+     *     the most places.
+     */
+    public String libraryClassName() {
+      return null;
+    }
+
     /** @return A type matcher used to match the classloader under transform */
     public ElementMatcher<ClassLoader> classLoaderMatcher() {
       return any();
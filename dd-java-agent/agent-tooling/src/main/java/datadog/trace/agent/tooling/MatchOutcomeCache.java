@@ -0,0 +1,556 @@
+package datadog.trace.agent.tooling;
+
+import static datadog.trace.bootstrap.WeakMap.Provider.newWeakMap;
+
+import datadog.trace.api.Config;
+import datadog.trace.bootstrap.WeakMap;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.utility.JavaModule;
+
+/**
+ * Remembers across restarts the classes of jars that no instrumentation matched, so that they are
+ * ignored by name before their type is described and any matcher runs. Enabled by {@link
+ * Config#MATCH_CACHE_DIRECTORY}.
+ *
+ * <p>Classes are recorded by jar, a jar is identified by its path, size and modification time so
+ * that a changed jar is not looked up in the entries of the previous one. The whole file is
+ * discarded when the agent, the JVM, the agent settings or the jars of the classpath change, since
+ * they all affect what the matchers decide. A class matched in any classloader or by any
+ * transformer is never recorded.
+ *
+ * <p>Classloader matchers and muzzle decide from the classes the classloader can see, so outcomes
+ * are also recorded by classloader: its class and the jars of it and its parents, a web
+ * application whose libraries changed is looked up in other entries. Only URL classloaders and
+ * the system classloader are known to see just their jars, the classes of other classloaders are
+ * neither looked up nor recorded. The URLs of a classloader are listed for each class it defines,
+ * so that the jars it is given after it is created are taken into account.
+ *
+ * <p>The file is memory mapped and searched in place. It is replaced atomically when the JVM shuts
+ * down, JVMs exiting at the same time keep the outcomes of the last one.
+ */
+@Slf4j
+public final class MatchOutcomeCache implements AgentBuilder.RawMatcher {
+  static final String FILE_NAME = "match-outcomes.bin";
+
+  private static final int MAGIC = 0x44444d43;
+  private static final int FORMAT_VERSION = 2;
+  /** Bounds the classes recorded per run, 8 bytes each in the file */
+  private static final int MAX_RECORDED_CLASSES = 1 << 20;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  /** Marks classes not loaded from a jar, which are neither looked up nor recorded */
+  private static final String NO_JAR = "";
+  /** Context of the system classloader and its parents, whose jars are in the fingerprint */
+  private static final String SYSTEM_CONTEXT = "system";
+
+  private final File file;
+  private final long fingerprint;
+  /** Sections of the mapped file by jar and classloader context, read only */
+  private final Map<String, Section> sections;
+
+  /** Jar of each code source location */
+  private final ConcurrentMap<String, String> jarKeys = new ConcurrentHashMap<>();
+  /** Context of each URL classloader, computed again when its URLs change */
+  private final WeakMap<ClassLoader, LoaderContext> loaderContexts = newWeakMap();
+
+  private final ConcurrentMap<String, Set<Long>> unmatched = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Set<Long>> matched = new ConcurrentHashMap<>();
+  private final AtomicInteger recorded = new AtomicInteger();
+
+  /**
+   * Sections of the classes being transformed on the thread, nested when transforming loads
+   * classes. Pushed when a class is discovered and replaced once its classloader and protection
+   * domain are known.
+   */
+  private final ThreadLocal<Deque<String>> transforming =
+      new ThreadLocal<Deque<String>>() {
+        @Override
+        protected Deque<String> initialValue() {
+          return new ArrayDeque<>();
+        }
+      };
+
+  private final Recorder recorder = new Recorder();
+
+  /** Hash of the classloader and the jars it sees, for the number of URLs it had */
+  static final class LoaderContext {
+    private final int urlCount;
+    private final String key;
+
+    LoaderContext(final int urlCount, final String key) {
+      this.urlCount = urlCount;
+      this.key = key;
+    }
+  }
+
+  /** Sorted hashes of the unmatched class names of a jar, in the mapped file */
+  static final class Section {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int count;
+
+    Section(final ByteBuffer buffer, final int offset, final int count) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.count = count;
+    }
+
+    boolean contains(final long hash) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final long value = buffer.getLong(offset + mid * 8);
+        if (value < hash) {
+          low = mid + 1;
+        } else if (value > hash) {
+          high = mid - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    long[] hashes() {
+      final long[] hashes = new long[count];
+      for (int i = 0; i < count; i++) {
+        hashes[i] = buffer.getLong(offset + i * 8);
+      }
+      return hashes;
+    }
+  }
+
+  MatchOutcomeCache(final File file, final long fingerprint) {
+    this.file = file;
+    this.fingerprint = fingerprint;
+    sections = map(file, fingerprint);
+  }
+
+  /** @return the cache in the configured directory, null if it is not enabled */
+  public static MatchOutcomeCache open(final Config config) {
+    if (config.getMatchCacheDirectory() == null) {
+      return null;
+    }
+    final File directory = new File(config.getMatchCacheDirectory());
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      log.warn("Match cache directory {} can't be created, cache disabled", directory);
+      return null;
+    }
+    final MatchOutcomeCache cache =
+        new MatchOutcomeCache(new File(directory, FILE_NAME), environmentFingerprint());
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    cache.write();
+                  }
+                },
+                "dd-match-cache-writer"));
+    return cache;
+  }
+
+  /** Records the outcomes of the transformations, to add to the agent builder */
+  public AgentBuilder.Listener recorder() {
+    return recorder;
+  }
+
+  /** Ignores the classes no instrumentation matched during previous runs */
+  @Override
+  public boolean matches(
+      final TypeDescription typeDescription,
+      final ClassLoader classLoader,
+      final JavaModule module,
+      final Class<?> classBeingRedefined,
+      final ProtectionDomain protectionDomain) {
+    final String sectionKey = sectionKey(classLoader, protectionDomain);
+    final Deque<String> sectionKeys = transforming.get();
+    if (!sectionKeys.isEmpty()) {
+      sectionKeys.pop();
+      sectionKeys.push(sectionKey);
+    }
+    // the name is known without parsing the class
+    return !sectionKey.isEmpty() && isUnmatched(sectionKey, typeDescription.getName());
+  }
+
+  boolean isUnmatched(final String sectionKey, final String className) {
+    final Section section = sections.get(sectionKey);
+    return section != null && section.contains(hash(className));
+  }
+
+  void recordUnmatched(final String sectionKey, final String className) {
+    if (recorded.get() < MAX_RECORDED_CLASSES && !isUnmatched(sectionKey, className)) {
+      if (hashes(unmatched, sectionKey).add(hash(className))) {
+        recorded.incrementAndGet();
+      }
+    }
+  }
+
+  /** Always recorded, a class matched once must not be skipped */
+  void recordMatched(final String sectionKey, final String className) {
+    hashes(matched, sectionKey).add(hash(className));
+  }
+
+  private static Set<Long> hashes(
+      final ConcurrentMap<String, Set<Long>> outcomes, final String sectionKey) {
+    Set<Long> hashes = outcomes.get(sectionKey);
+    if (hashes == null) {
+      final Set<Long> created = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+      hashes = outcomes.putIfAbsent(sectionKey, created);
+      if (hashes == null) {
+        hashes = created;
+      }
+    }
+    return hashes;
+  }
+
+  /**
+   * Writes the classes unmatched during this run and the previous ones, dropping the jars which
+   * changed since.
+   */
+  synchronized void write() {
+    if (unmatched.isEmpty() && matched.isEmpty()) {
+      return;
+    }
+    final Map<String, long[]> merged = new TreeMap<>();
+    for (final Map.Entry<String, Section> entry : sections.entrySet()) {
+      if (unmatched.containsKey(entry.getKey()) || isCurrent(entry.getKey())) {
+        merged.put(entry.getKey(), entry.getValue().hashes());
+      }
+    }
+    for (final Map.Entry<String, Set<Long>> entry : unmatched.entrySet()) {
+      final Set<Long> hashes = new HashSet<>(entry.getValue());
+      final long[] previous = merged.get(entry.getKey());
+      if (previous != null) {
+        for (final long hash : previous) {
+          hashes.add(hash);
+        }
+      }
+      merged.put(entry.getKey(), toSortedArray(hashes));
+    }
+    for (final Map.Entry<String, Set<Long>> entry : matched.entrySet()) {
+      final long[] hashes = merged.get(entry.getKey());
+      if (hashes != null) {
+        final Set<Long> remaining = new HashSet<>();
+        for (final long hash : hashes) {
+          if (!entry.getValue().contains(hash)) {
+            remaining.add(hash);
+          }
+        }
+        merged.put(entry.getKey(), toSortedArray(remaining));
+      }
+    }
+
+    final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+    try {
+      final DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        writeTo(out, merged);
+      } finally {
+        out.close();
+      }
+      Files.move(
+          temp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException | RuntimeException e) {
+      log.debug("Failed to write the match cache {}", file, e);
+      temp.delete();
+    }
+  }
+
+  private void writeTo(final DataOutputStream out, final Map<String, long[]> merged)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeLong(fingerprint);
+    out.writeInt(merged.size());
+    for (final Map.Entry<String, long[]> entry : merged.entrySet()) {
+      final byte[] key = entry.getKey().getBytes(UTF_8);
+      out.writeInt(key.length);
+      out.write(key);
+      out.writeInt(entry.getValue().length);
+      for (final long hash : entry.getValue()) {
+        out.writeLong(hash);
+      }
+    }
+  }
+
+  /** @return the sections of the file, empty if it is missing, invalid or from another setup */
+  private static Map<String, Section> map(final File file, final long fingerprint) {
+    if (!file.isFile()) {
+      return Collections.emptyMap();
+    }
+    try {
+      final ByteBuffer buffer;
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      } finally {
+        raf.close();
+      }
+      if (buffer.getInt() != MAGIC
+          || buffer.getInt() != FORMAT_VERSION
+          || buffer.getLong() != fingerprint) {
+        log.debug("Match cache {} is outdated", file);
+        return Collections.emptyMap();
+      }
+      final int jars = buffer.getInt();
+      final Map<String, Section> sections = new HashMap<>();
+      for (int i = 0; i < jars; i++) {
+        final byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 8) {
+          throw new IllegalStateException("Truncated section");
+        }
+        sections.put(new String(key, UTF_8), new Section(buffer, buffer.position(), count));
+        buffer.position(buffer.position() + count * 8);
+      }
+      log.debug("Match cache {} mapped, {} jar(s)", file, sections.size());
+      return sections;
+    } catch (final IOException | RuntimeException e) {
+      log.debug("Failed to read the match cache {}", file, e);
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * @return the jar of the class and the context of its classloader, or an empty string if the
+   *     class is neither looked up nor recorded
+   */
+  String sectionKey(final ClassLoader loader, final ProtectionDomain protectionDomain) {
+    final String jarKey = jarKey(protectionDomain);
+    if (jarKey.isEmpty()) {
+      return NO_JAR;
+    }
+    final String context = loaderContext(loader);
+    return context.isEmpty() ? NO_JAR : jarKey + '#' + context;
+  }
+
+  /** @return what the classloader sees, or an empty string if it is not known */
+  private String loaderContext(final ClassLoader loader) {
+    for (ClassLoader system = ClassLoader.getSystemClassLoader();
+        system != null;
+        system = system.getParent()) {
+      if (loader == system) {
+        return SYSTEM_CONTEXT;
+      }
+    }
+    if (!(loader instanceof URLClassLoader)) {
+      // the bootstrap classloader or one whose classes do not come from its URLs only
+      return NO_JAR;
+    }
+    final URL[] urls = ((URLClassLoader) loader).getURLs();
+    LoaderContext context = loaderContexts.get(loader);
+    if (context == null || context.urlCount != urls.length) {
+      final String parent = loaderContext(loader.getParent());
+      context =
+          new LoaderContext(
+              urls.length,
+              parent.isEmpty() ? NO_JAR : Long.toHexString(hash(describe(loader, urls, parent))));
+      loaderContexts.put(loader, context);
+    }
+    return context.key;
+  }
+
+  /** Classloader class, then its jars as path, size and modification time, then its parent */
+  private static String describe(final ClassLoader loader, final URL[] urls, final String parent) {
+    final StringBuilder description = new StringBuilder(loader.getClass().getName()).append('\n');
+    for (final URL url : urls) {
+      String urlKey = url.toString();
+      if ("file".equals(url.getProtocol())) {
+        try {
+          final File file = new File(url.toURI());
+          if (file.isFile()) {
+            urlKey = jarKey(file);
+          }
+        } catch (final Exception e) {
+          // not a plain file path
+        }
+      }
+      description.append(urlKey).append('\n');
+    }
+    return description.append(parent).toString();
+  }
+
+  private String jarKey(final ProtectionDomain protectionDomain) {
+    final CodeSource codeSource =
+        protectionDomain == null ? null : protectionDomain.getCodeSource();
+    final URL location = codeSource == null ? null : codeSource.getLocation();
+    if (location == null) {
+      return NO_JAR;
+    }
+    // URL equality may resolve host names
+    final String spec = location.toString();
+    String jarKey = jarKeys.get(spec);
+    if (jarKey == null) {
+      jarKey = NO_JAR;
+      if ("file".equals(location.getProtocol()) && spec.endsWith(".jar")) {
+        try {
+          jarKey = jarKey(new File(location.toURI()));
+        } catch (final Exception e) {
+          // not a plain file path
+        }
+      }
+      jarKeys.putIfAbsent(spec, jarKey);
+    }
+    return jarKey;
+  }
+
+  /** @return path, size and modification time of the jar, or an empty string if it is missing */
+  static String jarKey(final File jar) {
+    if (!jar.isFile()) {
+      return NO_JAR;
+    }
+    return jar.getAbsolutePath() + '|' + jar.length() + '|' + jar.lastModified();
+  }
+
+  private static boolean isCurrent(final String sectionKey) {
+    final int end = sectionKey.indexOf('|');
+    final int context = sectionKey.lastIndexOf('#');
+    return end > 0
+        && context > end
+        && sectionKey
+            .substring(0, context)
+            .equals(jarKey(new File(sectionKey.substring(0, end))));
+  }
+
+  private static long[] toSortedArray(final Set<Long> hashes) {
+    final long[] array = new long[hashes.size()];
+    int i = 0;
+    for (final Long hash : hashes) {
+      array[i++] = hash;
+    }
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** 64 bit FNV-1a, collisions would make a class skipped */
+  static long hash(final String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** Agent build, JVM, agent settings and classpath jars */
+  private static long environmentFingerprint() {
+    final StringBuilder environment = new StringBuilder();
+    final URL version = ClassLoader.getSystemClassLoader().getResource("dd-java-agent.version");
+    environment.append(version).append('\n');
+    if (version != null && "jar".equals(version.getProtocol())) {
+      final String path = version.getPath();
+      final int separator = path.indexOf("!/");
+      if (path.startsWith("file:") && separator > 0) {
+        environment.append(jarKey(new File(path.substring("file:".length(), separator))));
+      }
+    }
+    environment.append('\n').append(System.getProperty("java.vm.version")).append('\n');
+    for (final Map.Entry<String, String> setting : settings().entrySet()) {
+      environment.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+    }
+    final String classPath = System.getProperty("java.class.path", "");
+    for (final String entry : classPath.split(File.pathSeparator)) {
+      environment.append(jarKey(new File(entry))).append('\n');
+    }
+    return hash(environment.toString());
+  }
+
+  /** System properties and environment variables read by {@link Config}, sorted */
+  private static Map<String, String> settings() {
+    final Map<String, String> settings = new TreeMap<>();
+    for (final String name : System.getProperties().stringPropertyNames()) {
+      if (name.startsWith("dd.") || name.startsWith("signalfx.")) {
+        settings.put(name, System.getProperty(name));
+      }
+    }
+    for (final Map.Entry<String, String> variable : System.getenv().entrySet()) {
+      if (variable.getKey().startsWith("DD_") || variable.getKey().startsWith("SIGNALFX_")) {
+        settings.put(variable.getKey(), variable.getValue());
+      }
+    }
+    return settings;
+  }
+
+  private class Recorder extends AgentBuilder.Listener.Adapter {
+    @Override
+    public void onDiscovery(
+        final String typeName,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final boolean loaded) {
+      transforming.get().push(NO_JAR);
+    }
+
+    @Override
+    public void onTransformation(
+        final TypeDescription typeDescription,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final boolean loaded,
+        final DynamicType dynamicType) {
+      final String sectionKey = transforming.get().peek();
+      if (sectionKey != null && !sectionKey.isEmpty()) {
+        recordMatched(sectionKey, typeDescription.getName());
+      }
+    }
+
+    @Override
+    public void onIgnored(
+        final TypeDescription typeDescription,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final boolean loaded) {
+      final String sectionKey = transforming.get().peek();
+      if (sectionKey != null && !sectionKey.isEmpty()) {
+        recordUnmatched(sectionKey, typeDescription.getName());
+      }
+    }
+
+    @Override
+    public void onComplete(
+        final String typeName,
+        final ClassLoader classLoader,
+        final JavaModule module,
+        final boolean loaded) {
+      transforming.get().poll();
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package datadog.trace.agent.tooling;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.bytebuddy.pool.TypePool;
+
+/**
+ * Type resolutions of all classloaders, bounded by an estimate of the memory they use.
+ *
+ * <p>Matching queries the same super types and interfaces again and again, while most classes are
+ * described once when they load. New entries are therefore put on probation in a fifth of the
+ * budget, and only those looked up again are promoted to the protected part. Entries evicted from
+ * the protected part go back on probation, so that a burst of classes loaded once does not push
+ * out the types matchers keep asking for.
+ *
+ * <p>Entries are weighed by the size of the class file they were described from, which the
+ * names, descriptors and annotations held by the description grow with.
+ *
+ * <p>Entries not used for a minute expire, which also releases the classloaders they refer to.
+ * The keys of each classloader are indexed so that clearing one only removes its own entries.
+ */
+public final class TypePoolCache implements TypePoolCacheMBean {
+  /** Rough size of an entry and of a type description besides what its class file accounts for */
+  static final int ENTRY_OVERHEAD_BYTES = 256;
+
+  private final long maximumBytes;
+  private final Cache<Key, Entry> probation;
+  private final Cache<Key, Entry> protectedEntries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong demotions = new AtomicLong();
+
+  /**
+   * Keys of each classloader, dropped once their entry is evicted or expires. Best effort: an entry
+   * evicted from probation while it is promoted, or indexed while the empty set of its classloader
+   * is dropped, is not cleared with its classloader but still expires.
+   */
+  private final ConcurrentMap<Long, Set<Key>> keysByLoader = new ConcurrentHashMap<>();
+
+  /**
+   * Type name in a classloader, identified by a number so that keys are cheap to hash and compare.
+   * The classloader is still reachable from the cached resolution, through the type pool and class
+   * file locator it was described with, until the entry expires or is cleared.
+   */
+  static final class Key {
+    private final long loaderId;
+    private final String name;
+    private final int hashCode;
+
+    Key(final long loaderId, final String name) {
+      this.loaderId = loaderId;
+      this.name = name;
+      hashCode = 31 * (int) (loaderId ^ (loaderId >>> 32)) + name.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return loaderId == other.loaderId && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /** A resolution and the size of the class file it was described from */
+  static final class Entry {
+    private final TypePool.Resolution resolution;
+    private final int classFileBytes;
+
+    Entry(final TypePool.Resolution resolution, final int classFileBytes) {
+      this.resolution = resolution;
+      this.classFileBytes = classFileBytes;
+    }
+  }
+
+  private static final Weigher<Key, Entry> WEIGHER =
+      new Weigher<Key, Entry>() {
+        @Override
+        public int weigh(final Key key, final Entry entry) {
+          return ENTRY_OVERHEAD_BYTES + entry.classFileBytes + 2 * key.name.length();
+        }
+      };
+
+  TypePoolCache(final long maximumBytes) {
+    this.maximumBytes = maximumBytes;
+    probation =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes / 5)
+            .weigher(WEIGHER)
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .removalListener(
+                new RemovalListener<Key, Entry>() {
+                  @Override
+                  public void onRemoval(final RemovalNotification<Key, Entry> notification) {
+                    if (notification.wasEvicted()) {
+                      evictions.incrementAndGet();
+                      unindex(notification.getKey());
+                    }
+                  }
+                })
+            .build();
+    protectedEntries =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes - maximumBytes / 5)
+            .weigher(WEIGHER)
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .removalListener(
+                new RemovalListener<Key, Entry>() {
+                  @Override
+                  public void onRemoval(final RemovalNotification<Key, Entry> notification) {
+                    if (!notification.wasEvicted()) {
+                      return;
+                    }
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                      // demoted, still indexed, counted as evicted if it leaves probation
+                      demotions.incrementAndGet();
+                      probation.put(notification.getKey(), notification.getValue());
+                    } else {
+                      evictions.incrementAndGet();
+                      unindex(notification.getKey());
+                    }
+                  }
+                })
+            .build();
+  }
+
+  TypePool.Resolution find(final long loaderId, final String name) {
+    final Key key = new Key(loaderId, name);
+    Entry entry = protectedEntries.getIfPresent(key);
+    if (entry == null) {
+      entry = probation.getIfPresent(key);
+      if (entry == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      // looked up again, worth keeping
+      protectedEntries.put(key, entry);
+      probation.invalidate(key);
+    }
+    hits.incrementAndGet();
+    return entry.resolution;
+  }
+
+  /**
+   * @param classFileBytes size of the class file the type was described from, 0 if unknown
+   * @return the resolution already cached for the type, or the one given
+   */
+  TypePool.Resolution register(
+      final long loaderId,
+      final String name,
+      final TypePool.Resolution resolution,
+      final int classFileBytes) {
+    final Key key = new Key(loaderId, name);
+    Entry cached = protectedEntries.getIfPresent(key);
+    if (cached == null) {
+      cached = probation.asMap().putIfAbsent(key, new Entry(resolution, classFileBytes));
+      if (cached == null) {
+        index(key);
+      }
+    }
+    return cached == null ? resolution : cached.resolution;
+  }
+
+  void clear(final long loaderId) {
+    final Set<Key> keys = keysByLoader.remove(loaderId);
+    if (keys != null) {
+      probation.invalidateAll(keys);
+      protectedEntries.invalidateAll(keys);
+    }
+  }
+
+  private void index(final Key key) {
+    Set<Key> keys = keysByLoader.get(key.loaderId);
+    if (keys == null) {
+      final Set<Key> created = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+      keys = keysByLoader.putIfAbsent(key.loaderId, created);
+      if (keys == null) {
+        keys = created;
+      }
+    }
+    keys.add(key);
+  }
+
+  private void unindex(final Key key) {
+    final Set<Key> keys = keysByLoader.get(key.loaderId);
+    if (keys != null) {
+      keys.remove(key);
+      if (keys.isEmpty()) {
+        // classloaders come and go, their empty sets must not pile up
+        keysByLoader.remove(key.loaderId, keys);
+      }
+    }
+  }
+
+  @Override
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  @Override
+  public long getDemotionCount() {
+    return demotions.get();
+  }
+
+  @Override
+  public double getHitRate() {
+    final long hitCount = hits.get();
+    final long lookups = hitCount + misses.get();
+    return lookups == 0 ? 1 : (double) hitCount / lookups;
+  }
+
+  @Override
+  public long getEntryCount() {
+    return probation.size() + protectedEntries.size();
+  }
+
+  @Override
+  public long getMaximumBytes() {
+    return maximumBytes;
+  }
+}
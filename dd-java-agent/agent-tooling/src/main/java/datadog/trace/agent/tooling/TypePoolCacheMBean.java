@@ -0,0 +1,21 @@
+package datadog.trace.agent.tooling;
+
+/** Counters of the type descriptions cache used for matching, see {@link TypePoolCache} */
+public interface TypePoolCacheMBean {
+  long getHitCount();
+
+  long getMissCount();
+
+  /** Entries removed to make room or because they were not used recently */
+  long getEvictionCount();
+
+  /** Entries looked up again moved back on probation to make room for others, still cached */
+  long getDemotionCount();
+
+  /** @return hits over lookups, or 1 if there was none */
+  double getHitRate();
+
+  long getEntryCount();
+
+  long getMaximumBytes();
+}
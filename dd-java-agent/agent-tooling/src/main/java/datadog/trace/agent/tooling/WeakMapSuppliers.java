@@ -170,6 +170,16 @@ class WeakMapSuppliers {
       public void put(final K key, final V value) {
         map.put(key, value);
       }
+
+      /** Locks the adapter, reads of the map are not blocked */
+      @Override
+      public synchronized V putIfAbsent(final K key, final V value) {
+        final V existing = map.get(key);
+        if (existing == null) {
+          map.put(key, value);
+        }
+        return existing;
+      }
     }
 
     static class Inline implements WeakMap.Supplier {
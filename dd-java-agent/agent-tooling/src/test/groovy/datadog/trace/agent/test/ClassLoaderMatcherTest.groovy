@@ -33,6 +33,46 @@ class ClassLoaderMatcherTest extends Specification {
     !ClassLoaderMatcher.skipClassLoader().matches(null)
   }
 
+  def "class loader has classes #names"() {
+    expect:
+    ClassLoaderMatcher.classLoaderHasClasses(names as String[]).matches(ClassLoaderMatcherTest.classLoader) == expected
+    // second lookup answered from the capabilities table
+    ClassLoaderMatcher.classLoaderHasClasses(names as String[]).matches(ClassLoaderMatcherTest.classLoader) == expected
+
+    where:
+    names                                              | expected
+    ["java.lang.String", "spock.lang.Specification"]   | true
+    ["java.lang.String", "com.example.MissingClass"]   | false
+  }
+
+  def "class loader has class #className with field #fieldName"() {
+    expect:
+    ClassLoaderMatcher.classLoaderHasClassWithField(className, fieldName).matches(ClassLoaderMatcherTest.classLoader) == expected
+
+    where:
+    className                  | fieldName   | expected
+    "java.lang.Integer"        | "MAX_VALUE" | true
+    "java.lang.Integer"        | "missing"   | false
+    "com.example.MissingClass" | "MAX_VALUE" | false
+  }
+
+  def "class loader has class #className with method #methodName#methodArgs"() {
+    expect:
+    ClassLoaderMatcher.classLoaderHasClassWithMethod(className, methodName, methodArgs as String[]).matches(ClassLoaderMatcherTest.classLoader) == expected
+
+    where:
+    className                                 | methodName | methodArgs                       | expected
+    "java.lang.String"                        | "indexOf"  | ["java.lang.String", "int"]      | true
+    "java.lang.String"                        | "indexOf"  | ["java.lang.Object"]             | false
+    "java.util.concurrent.BlockingQueue"      | "isEmpty"  | []                               | true
+    "com.example.MissingClass"                | "indexOf"  | []                               | false
+  }
+
+  def "bootstrap class loader has no classes"() {
+    expect:
+    !ClassLoaderMatcher.classLoaderHasClasses("java.lang.String").matches(null)
+  }
+
   /*
    * A URLClassloader which only delegates java.* classes
    */
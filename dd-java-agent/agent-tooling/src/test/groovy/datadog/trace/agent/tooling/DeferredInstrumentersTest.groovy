@@ -0,0 +1,209 @@
+package datadog.trace.agent.tooling
+
+import datadog.trace.agent.tooling.muzzle.Reference
+import datadog.trace.agent.tooling.muzzle.ReferenceMatcher
+import net.bytebuddy.agent.builder.AgentBuilder
+import net.bytebuddy.description.method.MethodDescription
+import net.bytebuddy.description.type.TypeDescription
+import net.bytebuddy.matcher.ElementMatcher
+import net.bytebuddy.utility.JavaModule
+import spock.lang.Specification
+
+import java.security.ProtectionDomain
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static net.bytebuddy.matcher.ElementMatchers.named
+
+class DeferredInstrumentersTest extends Specification {
+  /** Instrumenter class name -> last class it matched */
+  static final Map<String, String> MATCHED = new ConcurrentHashMap<>()
+  /** Classloaders of the classes matched */
+  static final Set<ClassLoader> MATCHED_LOADERS = Collections.newSetFromMap(new ConcurrentHashMap<ClassLoader, Boolean>())
+  static final ClassLoader PLATFORM = ClassLoader.systemClassLoader.parent
+  static final CountDownLatch INSTALLING = new CountDownLatch(1)
+  static final CountDownLatch RELEASE = new CountDownLatch(1)
+
+  static final String TARGET = InstrumentationIndex.name.replace('.', '/')
+  static final byte[] TARGET_BYTES = InstrumentationIndex.getResourceAsStream("/${TARGET}.class").bytes
+
+  def setup() {
+    MATCHED.clear()
+    MATCHED_LOADERS.clear()
+  }
+
+  def "instrumenters are installed once a classloader sees their library"() {
+    setup:
+    def deferred = new DeferredInstrumenters(new AgentBuilder.Default(), [
+      new InstrumentationIndex.Entry(ClientInstrumenter.name, "org.library.Client"),
+      new InstrumentationIndex.Entry(ServerInstrumenter.name, "org.library.Server")
+    ])
+
+    when:
+    deferred.transform(libraryLoader(), TARGET, null, null, TARGET_BYTES)
+
+    then:
+    MATCHED.isEmpty()
+    deferred.pending.get().size() == 2
+
+    when:
+    deferred.transform(libraryLoader("org/library/Client.class"), TARGET, null, null, TARGET_BYTES)
+
+    then:
+    MATCHED == [(ClientInstrumenter.name): InstrumentationIndex.name]
+    deferred.pending.get()*.entry*.instrumenterClassName == [ServerInstrumenter.name]
+
+    when:
+    MATCHED.clear()
+    deferred.transform(libraryLoader("org/library/Server.class"), TARGET, null, null, TARGET_BYTES)
+
+    then:
+    // installed together, both match the classes defined from now on
+    MATCHED.keySet() == [ClientInstrumenter.name, ServerInstrumenter.name] as Set
+    deferred.pending.get().isEmpty()
+  }
+
+  def "classloaders are checked once"() {
+    setup:
+    def deferred = new DeferredInstrumenters(new AgentBuilder.Default(), [
+      new InstrumentationIndex.Entry(ClientInstrumenter.name, "org.library.Client")
+    ])
+    def loader = libraryLoader()
+
+    when:
+    deferred.transform(loader, TARGET, null, null, TARGET_BYTES)
+    // the library is visible now, but the classloader was already checked
+    def library = new File(new File(loader.URLs[0].toURI()), "org/library/Client.class")
+    library.parentFile.mkdirs()
+    library.bytes = new byte[0]
+    deferred.transform(loader, TARGET, null, null, TARGET_BYTES)
+
+    then:
+    MATCHED.isEmpty()
+    deferred.pending.get().size() == 1
+  }
+
+  def "classes are not defined before the instrumenter claimed by another thread is installed"() {
+    setup:
+    def deferred = new DeferredInstrumenters(new AgentBuilder.Default(), [
+      new InstrumentationIndex.Entry(BlockingInstrumenter.name, "org.library.Client")
+    ])
+    def first = libraryLoader("org/library/Client.class")
+    def second = libraryLoader("org/library/Client.class")
+
+    when:
+    def claiming = Thread.start { deferred.transform(first, TARGET, null, null, TARGET_BYTES) }
+    INSTALLING.await(10, TimeUnit.SECONDS)
+    def waiting = Thread.start { deferred.transform(second, TARGET, null, null, TARGET_BYTES) }
+    waiting.join(200)
+
+    then:
+    waiting.alive
+    MATCHED_LOADERS.isEmpty()
+
+    when:
+    RELEASE.countDown()
+    claiming.join(10000)
+    waiting.join(10000)
+
+    then:
+    MATCHED_LOADERS == [first, second] as Set
+    deferred.pending.get().isEmpty()
+  }
+
+  def "the declared library class is used as marker"() {
+    expect:
+    InstrumentationIndex.libraryClassName(new MarkedInstrumenter(declared), PLATFORM) == expected
+
+    where:
+    declared             | expected
+    null                 | "org.library.Client"
+    "org.library.Server" | "org.library.Server"
+  }
+
+  def "library classes outside the muzzle references are rejected"() {
+    when:
+    InstrumentationIndex.libraryClassName(new MarkedInstrumenter("org.library.Other"), PLATFORM)
+
+    then:
+    thrown(IllegalStateException)
+  }
+
+  static URLClassLoader libraryLoader(String... resources) {
+    def dir = File.createTempDir()
+    dir.deleteOnExit()
+    resources.each {
+      def file = new File(dir, it)
+      file.parentFile.mkdirs()
+      file.bytes = new byte[0]
+    }
+    return new URLClassLoader([dir.toURI().toURL()] as URL[], (ClassLoader) null)
+  }
+
+  static class RecordingInstrumenter implements Instrumenter {
+    @Override
+    AgentBuilder instrument(AgentBuilder agentBuilder) {
+      def name = getClass().name
+      return agentBuilder.type(new AgentBuilder.RawMatcher() {
+        @Override
+        boolean matches(
+          TypeDescription typeDescription,
+          ClassLoader classLoader,
+          JavaModule module,
+          Class<?> classBeingRedefined,
+          ProtectionDomain protectionDomain) {
+          MATCHED.put(name, typeDescription.name)
+          MATCHED_LOADERS.add(classLoader)
+          return false
+        }
+      }).transform({ builder, type, loader, module -> builder } as AgentBuilder.Transformer)
+    }
+  }
+
+  static class ClientInstrumenter extends RecordingInstrumenter {}
+
+  static class ServerInstrumenter extends RecordingInstrumenter {}
+
+  /** Installed once released by the test */
+  static class BlockingInstrumenter extends RecordingInstrumenter {
+    @Override
+    AgentBuilder instrument(AgentBuilder agentBuilder) {
+      INSTALLING.countDown()
+      RELEASE.await(10, TimeUnit.SECONDS)
+      return super.instrument(agentBuilder)
+    }
+  }
+
+  static class MarkedInstrumenter extends Instrumenter.Default {
+    final String declared
+
+    MarkedInstrumenter(String declared) {
+      super("marked")
+      this.declared = declared
+    }
+
+    @Override
+    String libraryClassName() {
+      return declared
+    }
+
+    @Override
+    protected ReferenceMatcher getInstrumentationMuzzle() {
+      return new ReferenceMatcher(
+        new Reference.Builder("org.library.Client").withSource("Advice", 1).withSource("Advice", 2).build(),
+        new Reference.Builder("org.library.Server").withSource("Advice", 3).build(),
+        new Reference.Builder("datadog.trace.Helper").withSource("Advice", 4).withSource("Advice", 5).withSource("Advice", 6).build())
+    }
+
+    @Override
+    ElementMatcher<? super TypeDescription> typeMatcher() {
+      return named("org.library.Client")
+    }
+
+    @Override
+    Map<? extends ElementMatcher<? super MethodDescription>, String> transformers() {
+      return [:]
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package datadog.trace.agent.tooling
+
+import spock.lang.Specification
+
+class InstrumentationIndexTest extends Specification {
+
+  def "index is read back as written"() {
+    setup:
+    def index = new InstrumentationIndex([
+      new InstrumentationIndex.Entry("com.example.EagerInstrumentation", null),
+      new InstrumentationIndex.Entry("com.example.LibraryInstrumentation", "org.library.Client")
+    ])
+    def writer = new StringWriter()
+    index.write(writer)
+
+    when:
+    def read = InstrumentationIndex.read(new ByteArrayInputStream(writer.toString().getBytes("UTF-8")))
+
+    then:
+    read.entries*.instrumenterClassName == ["com.example.EagerInstrumentation", "com.example.LibraryInstrumentation"]
+    read.entries*.libraryClassName == [null, "org.library.Client"]
+    read.entries*.libraryResource == [null, "org/library/Client.class"]
+  }
+
+  def "comments and blank lines are ignored"() {
+    when:
+    def read = InstrumentationIndex.read(new ByteArrayInputStream("# comment\n\n  com.example.A  org.B \n".getBytes("UTF-8")))
+
+    then:
+    read.entries.size() == 1
+    read.entries[0].instrumenterClassName == "com.example.A"
+    read.entries[0].libraryClassName == "org.B"
+  }
+
+  def "index is absent from test classpath"() {
+    expect:
+    InstrumentationIndex.read(InstrumentationIndexTest.classLoader) == null
+  }
+}
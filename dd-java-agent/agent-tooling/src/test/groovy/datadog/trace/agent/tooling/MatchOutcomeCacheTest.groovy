@@ -0,0 +1,206 @@
+package datadog.trace.agent.tooling
+
+import net.bytebuddy.ByteBuddy
+import net.bytebuddy.agent.builder.AgentBuilder
+import net.bytebuddy.description.type.TypeDescription
+import net.bytebuddy.matcher.ElementMatcher
+import spock.lang.Specification
+
+import java.lang.instrument.ClassFileTransformer
+import java.nio.file.Files
+import java.security.CodeSource
+import java.security.ProtectionDomain
+import java.security.cert.Certificate
+
+import static net.bytebuddy.matcher.ElementMatchers.none
+
+class MatchOutcomeCacheTest extends Specification {
+  def directory = Files.createTempDirectory("match-cache").toFile()
+  def file = new File(directory, MatchOutcomeCache.FILE_NAME)
+  def jar = new File(directory, "library.jar")
+  def dependency = new File(directory, "dependency.jar")
+
+  def setup() {
+    jar.bytes = [1, 2, 3] as byte[]
+    dependency.bytes = [4, 5, 6] as byte[]
+  }
+
+  def cleanup() {
+    directory.deleteDir()
+  }
+
+  def "unmatched classes are known after a restart"() {
+    setup:
+    def jarKey = MatchOutcomeCache.jarKey(jar)
+    def cache = new MatchOutcomeCache(file, 42)
+    cache.recordUnmatched(jarKey, "com.library.Unmatched")
+    cache.recordUnmatched(jarKey, "com.library.MatchedElsewhere")
+    cache.recordMatched(jarKey, "com.library.MatchedElsewhere")
+
+    expect:
+    !cache.isUnmatched(jarKey, "com.library.Unmatched")
+
+    when:
+    cache.write()
+    def restarted = new MatchOutcomeCache(file, 42)
+
+    then:
+    restarted.isUnmatched(jarKey, "com.library.Unmatched")
+    !restarted.isUnmatched(jarKey, "com.library.MatchedElsewhere")
+    !restarted.isUnmatched(jarKey, "com.library.Unknown")
+  }
+
+  def "outcomes are merged with the previous run"() {
+    setup:
+    def jarKey = MatchOutcomeCache.jarKey(jar)
+    def first = new MatchOutcomeCache(file, 42)
+    first.recordUnmatched(jarKey, "com.library.First")
+    first.recordUnmatched(jarKey, "com.library.Second")
+    first.write()
+
+    when:
+    def second = new MatchOutcomeCache(file, 42)
+    second.recordUnmatched(jarKey, "com.library.Third")
+    second.recordMatched(jarKey, "com.library.Second")
+    second.write()
+    def third = new MatchOutcomeCache(file, 42)
+
+    then:
+    third.isUnmatched(jarKey, "com.library.First")
+    !third.isUnmatched(jarKey, "com.library.Second")
+    third.isUnmatched(jarKey, "com.library.Third")
+  }
+
+  def "cache is discarded when the environment changes"() {
+    setup:
+    def jarKey = MatchOutcomeCache.jarKey(jar)
+    def cache = new MatchOutcomeCache(file, 42)
+    cache.recordUnmatched(jarKey, "com.library.Unmatched")
+    cache.write()
+
+    expect:
+    !new MatchOutcomeCache(file, 43).isUnmatched(jarKey, "com.library.Unmatched")
+  }
+
+  def "changed jars are not looked up"() {
+    setup:
+    def jarKey = MatchOutcomeCache.jarKey(jar)
+    def cache = new MatchOutcomeCache(file, 42)
+    cache.recordUnmatched(jarKey, "com.library.Unmatched")
+    cache.write()
+
+    when:
+    jar.bytes = [1, 2, 3, 4] as byte[]
+    def changedKey = MatchOutcomeCache.jarKey(jar)
+
+    then:
+    changedKey != jarKey
+    !new MatchOutcomeCache(file, 42).isUnmatched(changedKey, "com.library.Unmatched")
+  }
+
+  def "invalid files are ignored"() {
+    setup:
+    file.bytes = [0, 1, 2] as byte[]
+
+    expect:
+    !new MatchOutcomeCache(file, 42).isUnmatched(MatchOutcomeCache.jarKey(jar), "com.library.Unmatched")
+  }
+
+  def "outcomes are recorded by classloader"() {
+    setup:
+    def cache = new MatchOutcomeCache(file, 42)
+    cache.recordUnmatched(cache.sectionKey(loader(jar), domain(jar)), "com.library.Unmatched")
+    cache.write()
+
+    when:
+    def restarted = new MatchOutcomeCache(file, 42)
+
+    then:
+    restarted.matches(type("com.library.Unmatched"), loader(jar), null, null, domain(jar))
+    !restarted.matches(type("com.library.Unmatched"), loader(jar, dependency), null, null, domain(jar))
+  }
+
+  def "changed jars of the classloader are not looked up"() {
+    setup:
+    def cache = new MatchOutcomeCache(file, 42)
+    cache.recordUnmatched(cache.sectionKey(loader(jar, dependency), domain(jar)), "com.library.Unmatched")
+    cache.write()
+
+    when:
+    dependency.bytes = [4, 5, 6, 7] as byte[]
+    def restarted = new MatchOutcomeCache(file, 42)
+
+    then:
+    !restarted.matches(type("com.library.Unmatched"), loader(jar, dependency), null, null, domain(jar))
+  }
+
+  def "classes of classloaders not known to see only their URLs are not cached"() {
+    setup:
+    def cache = new MatchOutcomeCache(file, 42)
+    def custom = new ClassLoader(null) {}
+
+    expect:
+    cache.sectionKey(custom, domain(jar)) == ""
+    cache.sectionKey(null, domain(jar)) == ""
+    cache.sectionKey(loader(jar), null) == ""
+    cache.sectionKey(loader(jar), domain(jar)) != ""
+  }
+
+  def "classes no instrumentation matched are not described after a restart"() {
+    setup:
+    def unmatched = new ByteBuddy().subclass(Object).name("com.library.Unmatched").make().bytes
+    def matched = new ByteBuddy().subclass(Object).name("com.library.Matched").make().bytes
+    def described = []
+    def cache = new MatchOutcomeCache(file, 42)
+
+    when:
+    def transformer = agentTransformer(cache, described)
+    transformer.transform(loader(jar), "com/library/Unmatched", null, domain(jar), unmatched)
+    transformer.transform(loader(jar), "com/library/Matched", null, domain(jar), matched)
+    cache.write()
+
+    then:
+    described == ["com.library.Unmatched", "com.library.Matched"]
+
+    when:
+    described.clear()
+    transformer = agentTransformer(new MatchOutcomeCache(file, 42), described)
+    transformer.transform(loader(jar), "com/library/Unmatched", null, domain(jar), unmatched)
+    transformer.transform(loader(jar), "com/library/Matched", null, domain(jar), matched)
+
+    then:
+    described == ["com.library.Matched"]
+  }
+
+  /** Matches com.library.Matched, recording the classes it is given */
+  static ClassFileTransformer agentTransformer(MatchOutcomeCache cache, List<String> described) {
+    return new AgentBuilder.Default()
+      .disableClassFormatChanges()
+      .ignore(none())
+      .or(cache)
+      .with(cache.recorder())
+      .type(new ElementMatcher<TypeDescription>() {
+        @Override
+        boolean matches(TypeDescription target) {
+          described << target.name
+          return target.name == "com.library.Matched"
+        }
+      })
+      .transform({ builder, type, classLoader, module -> builder } as AgentBuilder.Transformer)
+      .makeRaw()
+  }
+
+  static URLClassLoader loader(File... jars) {
+    return new URLClassLoader(jars.collect { it.toURI().toURL() } as URL[], (ClassLoader) null)
+  }
+
+  static ProtectionDomain domain(File jar) {
+    return new ProtectionDomain(new CodeSource(jar.toURI().toURL(), (Certificate[]) null), null)
+  }
+
+  TypeDescription type(String name) {
+    return Stub(TypeDescription) {
+      getName() >> name
+    }
+  }
+}
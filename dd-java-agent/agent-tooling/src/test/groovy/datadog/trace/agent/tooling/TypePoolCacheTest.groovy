@@ -0,0 +1,118 @@
+package datadog.trace.agent.tooling
+
+import net.bytebuddy.description.type.TypeDescription
+import net.bytebuddy.pool.TypePool
+import spock.lang.Specification
+
+class TypePoolCacheTest extends Specification {
+  def resolution = new TypePool.Resolution.Simple(TypeDescription.OBJECT)
+
+  def "lookups are counted"() {
+    setup:
+    def cache = new TypePoolCache(1024 * 1024)
+
+    when:
+    def missed = cache.find(1, "com.example.Type")
+    cache.register(1, "com.example.Type", resolution, 1000)
+    def found = cache.find(1, "com.example.Type")
+
+    then:
+    missed == null
+    found == resolution
+    cache.hitCount == 1
+    cache.missCount == 1
+    cache.hitRate == 0.5
+    cache.entryCount == 1
+  }
+
+  def "classloaders do not share entries"() {
+    setup:
+    def cache = new TypePoolCache(1024 * 1024)
+    cache.register(1, "com.example.Type", resolution, 1000)
+
+    expect:
+    cache.find(2, "com.example.Type") == null
+    cache.find(1, "com.example.Type") == resolution
+  }
+
+  def "registering keeps the cached resolution"() {
+    setup:
+    def cache = new TypePoolCache(1024 * 1024)
+    def other = new TypePool.Resolution.Simple(TypeDescription.STRING)
+
+    when:
+    def first = cache.register(1, "com.example.Type", resolution, 1000)
+    def second = cache.register(1, "com.example.Type", other, 1000)
+
+    then:
+    first == resolution
+    second == resolution
+  }
+
+  def "entries looked up again survive a burst of new entries"() {
+    setup:
+    def entryBytes = TypePoolCache.ENTRY_OVERHEAD_BYTES + 1000 + 64
+    def cache = new TypePoolCache(100 * entryBytes)
+    cache.register(1, "com.example.Hot", resolution, 1000)
+    cache.find(1, "com.example.Hot")
+
+    when:
+    (1..1000).each {
+      cache.register(1, "com.example.Cold" + it, resolution, 1000)
+    }
+
+    then:
+    cache.find(1, "com.example.Hot") == resolution
+    cache.evictionCount > 0
+    cache.entryCount <= 100
+  }
+
+  def "entries are weighed by the size of their class file"() {
+    setup:
+    def cache = new TypePoolCache(1024 * 1024)
+
+    when:
+    cache.register(1, "com.example.Small", resolution, 1000)
+    cache.register(1, "com.example.Huge", resolution, 1024 * 1024)
+
+    then:
+    cache.find(1, "com.example.Small") == resolution
+    cache.find(1, "com.example.Huge") == null
+    cache.evictionCount == 1
+  }
+
+  def "entries moved back on probation are counted as demoted"() {
+    setup:
+    def entryBytes = TypePoolCache.ENTRY_OVERHEAD_BYTES + 1000 + 64
+    def cache = new TypePoolCache(1000 * entryBytes)
+
+    when:
+    (1..850).each {
+      cache.register(1, "com.example.Type" + it, resolution, 1000)
+      cache.find(1, "com.example.Type" + it)
+    }
+
+    then:
+    // the protected part is full, probation still has room for all those moved back
+    cache.demotionCount > 0
+    cache.evictionCount == 0
+    cache.entryCount == 850
+  }
+
+  def "clearing removes the entries of one classloader"() {
+    setup:
+    def cache = new TypePoolCache(1024 * 1024)
+    cache.register(1, "com.example.Type", resolution, 1000)
+    cache.register(2, "com.example.Type", resolution, 1000)
+    cache.find(2, "com.example.Type")
+
+    when:
+    cache.clear(2)
+
+    then:
+    cache.entryCount == 1
+    cache.keysByLoader.keySet() == [1L] as Set
+    cache.find(1, "com.example.Type") == resolution
+    cache.find(2, "com.example.Type") == null
+  }
+}
@@ -39,6 +39,25 @@ class WeakConcurrentSupplierTest extends Specification {
     "Guava"          | guavaSupplier
   }
 
+  def "putIfAbsent keeps the first value on #name"() {
+    setup:
+    WeakMap.Provider.provider.set(supplier)
+    def key = new Object()
+    def map = WeakMap.Provider.newWeakMap()
+
+    expect:
+    map.putIfAbsent(key, "value1") == null
+    map.putIfAbsent(key, "value2") == "value1"
+    map.get(key) == "value1"
+
+    where:
+    name             | supplier
+    "WeakConcurrent" | weakConcurrentSupplier
+    "WeakInline"     | weakInlineSupplier
+    "Guava"          | guavaSupplier
+    "Default"        | WeakMap.Supplier.DEFAULT
+  }
+
   def "Unreferenced supplier gets cleaned up on #name"() {
     setup:
     // Note: we use 'double supplier' here because Groovy keeps reference to test data preventing it from being GCed
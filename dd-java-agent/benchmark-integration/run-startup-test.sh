@@ -0,0 +1,90 @@
+#!/usr/bin/env bash
+
+# A script for measuring how long a server takes to start with or without a java agent.
+test_csv_file=/tmp/startup_results.csv
+server_package=$1
+iterations=$2
+agent_jars="${@:3}"
+server_pid=""
+if [[ "$server_package" = "" ]] || ! [[ "$iterations" =~ ^[0-9]+$ ]]; then
+    echo "usage: ./run-startup-test.sh path-to-server-jar iterations path-to-agent1 path-to-agent2..."
+    echo ""
+    echo "path-to-server-jar : Must be a jar which creates an http server on local port 8080 when started."
+    echo "iterations         : Number of times the server is started with each agent."
+    echo "path-to-agent*     : Each must be a javaagent jar, or NoAgent."
+    echo ""
+    echo "Example: This will start myserver.jar 10 times without an agent as a baseline, then 10 times with myagent-1.0.jar."
+    echo "  ./run-startup-test.sh /tmp/myserver.jar 10 NoAgent /tmp/myagent-1.0.jar"
+    echo ""
+    echo "Test results are saved to $test_csv_file"
+    exit 1
+fi
+
+# Current time in milliseconds
+function now_millis {
+    echo $(( $(date +%s%N) / 1000000 ))
+}
+
+# Start up the server and block until it is bound to local port 8080
+# echos out the milliseconds it took, runs in a subshell so the server pid is looked up after
+function time_startup {
+    agent_jar="$1"
+    javaagent_arg=""
+    if [ "$agent_jar" != "" -a -f "$agent_jar" ]; then
+        javaagent_arg="-javaagent:$agent_jar -Ddatadog.slf4j.simpleLogger.defaultLogLevel=off -Ddd.writer.type=LoggingWriter -Ddd.service.name=startup-test-app"
+    fi
+
+    start=$(now_millis)
+    java $javaagent_arg -Xms256m -Xmx256m -jar $server_package &> /dev/null &
+    until nc -z localhost 8080 &> /dev/null; do
+        sleep 0.05
+    done
+    echo $(( $(now_millis) - start ))
+}
+
+# Send a kill signal to the running server
+# and block until the server is stopped
+function stop_server {
+    kill $server_pid
+    while nc -z localhost 8080 &> /dev/null; do
+        sleep 0.05
+    done
+    server_pid=""
+}
+
+trap 'stop_server; exit' SIGINT SIGTERM
+echo "Client Version,Min Startup (ms),Average Startup (ms),Max Startup (ms)" > $test_csv_file
+
+for agent_jar in $agent_jars; do
+    echo "----Testing agent $agent_jar----"
+    if [ "$agent_jar" == "NoAgent" ]; then
+        result_row="NoAgent"
+        agent_jar=""
+    else
+        result_row=$(java -jar $agent_jar 2>/dev/null)
+    fi
+
+    min=""
+    max=0
+    total=0
+    for (( i = 1; i <= $iterations; i++ )); do
+        millis=$(time_startup $agent_jar)
+        server_pid=$(lsof -i tcp:8080 -s tcp:listen -t | uniq)
+        stop_server
+        echo "startup $i: ${millis}ms"
+        let total=$total+$millis
+        if [ "$min" = "" ] || [ $millis -lt $min ]; then
+            min=$millis
+        fi
+        if [ $millis -gt $max ]; then
+            max=$millis
+        fi
+    done
+
+    echo "$result_row,$min,$(( total / iterations )),$max" >> $test_csv_file
+    echo "----/Testing agent $agent_jar----"
+    echo ""
+done
+
+echo ""
+echo "DONE. Test results saved to $test_csv_file"
@@ -110,4 +110,16 @@ public class ClassRetransformingBenchmark {
 
   @Fork(jvmArgsAppend = "-javaagent:../build/libs/dd-java-agent.jar")
   public static class WithAgent extends ClassRetransformingBenchmark {}
+
+  /**
+   * Forks after the first one find the classes no instrumentation matched in the match cache, when
+   * the benchmark runs from the jmh jar.
+   */
+  @Fork(
+      value = 2,
+      jvmArgsAppend = {
+        "-javaagent:../build/libs/dd-java-agent.jar",
+        "-Ddd.trace.match-cache.directory=build/match-cache"
+      })
+  public static class WithAgentMatchCache extends ClassRetransformingBenchmark {}
 }
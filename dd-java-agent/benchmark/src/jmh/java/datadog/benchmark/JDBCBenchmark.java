@@ -0,0 +1,66 @@
+package datadog.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Queries on an in-memory H2 database through a long lived connection. Run with {@code jmh} for the
+ * baseline and with {@code jmhAgent} to get the steady state overhead of the JDBC instrumentation,
+ * once the connection info has been resolved.
+ */
+public class JDBCBenchmark {
+  private static final String QUERY = "SELECT id, name FROM users WHERE id = 1";
+
+  @State(Scope.Thread)
+  public static class ConnectionState {
+    Connection connection;
+    Statement statement;
+    PreparedStatement preparedStatement;
+
+    @Setup
+    public void openConnection() throws SQLException {
+      connection = DriverManager.getConnection("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1", "sa", "");
+      statement = connection.createStatement();
+      statement.execute("CREATE TABLE IF NOT EXISTS users (id INT PRIMARY KEY, name VARCHAR(64))");
+      statement.execute("MERGE INTO users VALUES (1, 'benchmark')");
+      preparedStatement = connection.prepareStatement("SELECT id, name FROM users WHERE id = ?");
+    }
+
+    @TearDown
+    public void closeConnection() throws SQLException {
+      connection.close();
+    }
+  }
+
+  @Benchmark
+  public boolean statement(final ConnectionState state) throws SQLException {
+    try (final ResultSet resultSet = state.statement.executeQuery(QUERY)) {
+      return resultSet.next();
+    }
+  }
+
+  @Benchmark
+  public boolean preparedStatement(final ConnectionState state) throws SQLException {
+    state.preparedStatement.setInt(1, 1);
+    try (final ResultSet resultSet = state.preparedStatement.executeQuery()) {
+      return resultSet.next();
+    }
+  }
+
+  @Benchmark
+  public boolean newStatement(final ConnectionState state) throws SQLException {
+    try (final Statement statement = state.connection.createStatement();
+        final ResultSet resultSet = statement.executeQuery(QUERY)) {
+      return resultSet.next();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package datadog.trace.bootstrap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * SQL normalization over common statement shapes. {@link #tokenize} measures the tokenizer alone,
+ * {@link #cached} the identity cache lookup done on each execution of the same statement.
+ */
+public class SqlNormalizerBenchmark {
+
+  @State(Scope.Thread)
+  public static class StatementState {
+    @Param({"select", "selectIn", "insert", "update", "join", "commented"})
+    String shape;
+
+    String sql;
+
+    @Setup
+    public void selectStatement() {
+      switch (shape) {
+        case "select":
+          sql = "SELECT id, name, email FROM users WHERE id = 42";
+          break;
+        case "selectIn":
+          sql =
+              "SELECT id, status FROM orders WHERE customer_id = 'c-1234' "
+                  + "AND status IN ('NEW', 'PAID', 'SHIPPED', 'RETURNED') AND id IN (?, ?, ?, ?, ?)";
+          break;
+        case "insert":
+          sql =
+              "INSERT INTO events (id, type, payload, created_at) "
+                  + "VALUES (9876543210, 'login', '{\"ip\":\"203.0.113.195\"}', '2019-03-27 10:15:00')";
+          break;
+        case "update":
+          sql = "UPDATE accounts SET balance = balance - 12.50, updated_at = ? WHERE id = ?";
+          break;
+        case "join":
+          sql =
+              "SELECT o.id, o.total, c.name FROM orders o JOIN customers c ON c.id = o.customer_id "
+                  + "WHERE o.created_at > '2019-01-01' AND o.total >= 100 ORDER BY o.id DESC LIMIT 50";
+          break;
+        default:
+          sql =
+              "/* service=checkout, request=7f3a */ SELECT sku, qty -- line items\n"
+                  + "FROM cart_items WHERE cart_id = 5531 AND deleted = 0";
+      }
+    }
+  }
+
+  @Benchmark
+  public String tokenize(final StatementState state) {
+    return SqlNormalizer.compute(state.sql);
+  }
+
+  @Benchmark
+  public String cached(final StatementState state) {
+    return SqlNormalizer.normalize(state.sql);
+  }
+}
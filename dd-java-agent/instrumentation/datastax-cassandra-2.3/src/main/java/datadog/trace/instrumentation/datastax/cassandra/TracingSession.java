@@ -34,6 +34,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import datadog.trace.api.DDSpanTypes;
 import datadog.trace.api.DDTags;
+import datadog.trace.bootstrap.PeerHostNameCache;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
 import io.opentracing.tag.Tags;
@@ -284,7 +285,7 @@ class TracingSession implements Session {
       final Host host = resultSet.getExecutionInfo().getQueriedHost();
       Tags.PEER_PORT.set(span, host.getSocketAddress().getPort());
 
-      Tags.PEER_HOSTNAME.set(span, host.getAddress().getHostName());
+      Tags.PEER_HOSTNAME.set(span, PeerHostNameCache.hostName(host.getAddress()));
       final InetAddress inetAddress = host.getSocketAddress().getAddress();
 
       if (inetAddress instanceof Inet4Address) {
@@ -3,6 +3,7 @@ package datadog.trace.instrumentation.elasticsearch6;
 import static io.opentracing.log.Fields.ERROR_OBJECT;
 
 import com.google.common.base.Joiner;
+import datadog.trace.bootstrap.PeerHostNameCache;
 import io.opentracing.Span;
 import io.opentracing.tag.Tags;
 import java.util.Collections;
@@ -57,7 +58,7 @@ public class TransportActionListener<T extends ActionResponse> implements Action
   @Override
   public void onResponse(final T response) {
     if (response.remoteAddress() != null) {
-      Tags.PEER_HOSTNAME.set(span, response.remoteAddress().address().getHostName());
+      Tags.PEER_HOSTNAME.set(span, PeerHostNameCache.hostName(response.remoteAddress().address()));
       Tags.PEER_HOST_IPV4.set(span, response.remoteAddress().getAddress());
       Tags.PEER_PORT.set(span, response.remoteAddress().getPort());
     }
@@ -32,7 +32,7 @@ class SlickTest extends AgentTestRunner {
         span(1) {
           operationName "${SlickUtils.Driver()}.query"
           serviceName SlickUtils.Driver()
-          resourceName SlickUtils.TestQuery()
+          resourceName "SELECT ?"
           childOf span(0)
           errored false
           tags {
@@ -0,0 +1,81 @@
+package datadog.trace.instrumentation.jdbc;
+
+import datadog.trace.bootstrap.ContextStore;
+import datadog.trace.bootstrap.JDBCMaps.DBInfo;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Shared by the statement instrumentations, java.sql.* are on the platform classloader in Java 9,
+ * which prevents us from referencing them in the bootstrap utils.
+ */
+public final class JDBCUtils {
+
+  private JDBCUtils() {}
+
+  /**
+   * Gets the database of the statement connection. It is resolved once per physical connection, and
+   * also kept on the wrappers pools hand out so that later statements skip the unwrapping. If the
+   * DBInfo can't be extracted, the connection keeps the DEFAULT DBInfo to avoid retry overhead.
+   *
+   * @throws SQLException if the statement connection can't be obtained
+   */
+  public static DBInfo connectionInfo(
+      final Statement statement, final ContextStore<Connection, DBInfo> contextStore)
+      throws SQLException {
+    final Connection connection = statement.getConnection();
+    DBInfo dbInfo = contextStore.get(connection);
+    if (dbInfo != null) {
+      return dbInfo;
+    }
+    final Connection physical = unwrap(connection);
+    if (physical != connection) {
+      dbInfo = contextStore.get(physical);
+    }
+    if (dbInfo == null) {
+      dbInfo = extractDBInfo(physical);
+      contextStore.put(physical, dbInfo);
+    }
+    if (physical != connection) {
+      contextStore.put(connection, dbInfo);
+    }
+    return dbInfo;
+  }
+
+  /** Unwraps the connection to not key DBInfo by short lived proxy objects */
+  private static Connection unwrap(final Connection connection) {
+    try {
+      if (connection.isWrapperFor(Connection.class)) {
+        final Connection unwrapped = connection.unwrap(Connection.class);
+        if (unwrapped != null) {
+          return unwrapped;
+        }
+      }
+    } catch (final Exception | AbstractMethodError e) {
+      // perhaps wrapping isn't supported?
+      // ex: org.h2.jdbc.JdbcConnection v1.3.175
+      // or: jdts.jdbc which always throws `AbstractMethodError` (at least up to version 1.3)
+      // Stick with original connection.
+    }
+    return connection;
+  }
+
+  private static DBInfo extractDBInfo(final Connection connection) {
+    try {
+      final DatabaseMetaData metaData = connection.getMetaData();
+      final String url = metaData.getURL();
+      if (url == null) {
+        return DBInfo.DEFAULT;
+      }
+      String user = metaData.getUserName();
+      if (user != null && user.trim().isEmpty()) {
+        user = null;
+      }
+      return JDBCConnectionUrlParser.parse(url, user);
+    } catch (final SQLException se) {
+      return DBInfo.DEFAULT;
+    }
+  }
+}
@@ -16,6 +16,7 @@ import datadog.trace.api.DDSpanTypes;
 import datadog.trace.api.DDTags;
 import datadog.trace.bootstrap.CallDepthThreadLocalMap;
 import datadog.trace.bootstrap.ExceptionLogger;
+import datadog.trace.bootstrap.InstrumentationContext;
 import datadog.trace.bootstrap.JDBCMaps;
 import io.opentracing.Scope;
 import io.opentracing.Span;
@@ -23,9 +24,7 @@ import io.opentracing.noop.NoopScopeManager.NoopScope;
 import io.opentracing.tag.Tags;
 import io.opentracing.util.GlobalTracer;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.Collections;
 import java.util.Map;
 import net.bytebuddy.asm.Advice;
@@ -44,6 +43,18 @@ public final class PreparedStatementInstrumentation extends Instrumenter.Default
     return not(isInterface()).and(safeHasSuperType(named("java.sql.PreparedStatement")));
   }
 
+  @Override
+  public String[] helperClassNames() {
+    return new String[] {
+      JDBCConnectionUrlParser.class.getName(), JDBCUtils.class.getName(),
+    };
+  }
+
+  @Override
+  public Map<String, String> contextStore() {
+    return singletonMap(Connection.class.getName(), JDBCMaps.DBInfo.class.getName());
+  }
+
   @Override
   public Map<? extends ElementMatcher<? super MethodDescription>, String> transformers() {
     return singletonMap(
@@ -60,62 +71,17 @@ public final class PreparedStatementInstrumentation extends Instrumenter.Default
         return null;
       }
       final String sql = JDBCMaps.preparedStatements.get(statement);
-      Connection connection;
+      final JDBCMaps.DBInfo dbInfo;
       try {
-        connection = statement.getConnection();
-        try {
-          // unwrap the connection to cache the underlying actual connection and to not cache proxy
-          // objects
-          if (connection.isWrapperFor(Connection.class)) {
-            connection = connection.unwrap(Connection.class);
-          }
-        } catch (final Exception | AbstractMethodError e) {
-          // perhaps wrapping isn't supported?
-          // ex: org.h2.jdbc.JdbcConnection v1.3.175
-          // or: jdts.jdbc which always throws `AbstractMethodError` (at least up to version 1.3)
-          // Stick with original connection.
-        }
+        dbInfo =
+            JDBCUtils.connectionInfo(
+                statement, InstrumentationContext.get(Connection.class, JDBCMaps.DBInfo.class));
       } catch (final Throwable e) {
         // Had some problem getting the connection.
         ExceptionLogger.LOGGER.debug("Could not get connection for PreparedStatementAdvice", e);
         return NoopScope.INSTANCE;
       }
 
-      JDBCMaps.DBInfo dbInfo = JDBCMaps.connectionInfo.get(connection);
-      /**
-       * Logic to get the DBInfo from a JDBC Connection, if the connection was never seen before,
-       * the connectionInfo map will return null and will attempt to extract DBInfo from the
-       * connection. If the DBInfo can't be extracted, then the connection will be stored with the
-       * DEFAULT DBInfo as the value in the connectionInfo map to avoid retry overhead.
-       *
-       * <p>This should be a util method to be shared between PreparedStatementInstrumentation and
-       * StatementInstrumentation class, but java.sql.* are on the platform classloaders in Java 9,
-       * which prevents us from referencing them in the bootstrap utils.
-       */
-      {
-        if (dbInfo == null) {
-          try {
-            final DatabaseMetaData metaData = connection.getMetaData();
-            final String url = metaData.getURL();
-            if (url != null) {
-              // Remove end of url to prevent passwords from leaking:
-              final String sanitizedURL = url.replaceAll("[?;].*", "");
-              final String type = url.split(":", -1)[1];
-              String user = metaData.getUserName();
-              if (user != null && user.trim().equals("")) {
-                user = null;
-              }
-              dbInfo = new JDBCMaps.DBInfo(sanitizedURL, type, user);
-            } else {
-              dbInfo = JDBCMaps.DBInfo.DEFAULT;
-            }
-          } catch (final SQLException se) {
-            dbInfo = JDBCMaps.DBInfo.DEFAULT;
-          }
-          JDBCMaps.connectionInfo.put(connection, dbInfo);
-        }
-      }
-
       final Scope scope =
           GlobalTracer.get().buildSpan(dbInfo.getType() + ".query").startActive(true);
 
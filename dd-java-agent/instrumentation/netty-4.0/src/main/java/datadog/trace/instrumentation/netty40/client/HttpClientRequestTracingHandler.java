@@ -5,6 +5,7 @@ import static io.opentracing.log.Fields.ERROR_OBJECT;
 
 import datadog.trace.api.DDSpanTypes;
 import datadog.trace.api.DDTags;
+import datadog.trace.bootstrap.PeerHostNameCache;
 import datadog.trace.context.TraceScope;
 import datadog.trace.instrumentation.netty40.AttributeKeys;
 import io.netty.channel.ChannelHandlerContext;
@@ -45,13 +46,13 @@ public class HttpClientRequestTracingHandler extends ChannelOutboundHandlerAdapt
         GlobalTracer.get()
             .buildSpan("netty.client.request")
             .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
-            .withTag(Tags.PEER_HOSTNAME.getKey(), remoteAddress.getHostName())
             .withTag(Tags.PEER_PORT.getKey(), remoteAddress.getPort())
             .withTag(Tags.HTTP_METHOD.getKey(), request.getMethod().name())
             .withTag(Tags.HTTP_URL.getKey(), formatUrl(request))
             .withTag(Tags.COMPONENT.getKey(), "netty-client")
             .withTag(DDTags.SPAN_TYPE, DDSpanTypes.HTTP_CLIENT)
             .start();
+    PeerHostNameCache.setPeer(span, remoteAddress);
 
     // AWS calls are often signed, so we can't add headers without breaking the signature.
     if (!request.headers().contains("amz-sdk-invocation-id")) {
@@ -5,6 +5,7 @@ import static io.opentracing.log.Fields.ERROR_OBJECT;
 
 import datadog.trace.api.DDSpanTypes;
 import datadog.trace.api.DDTags;
+import datadog.trace.bootstrap.PeerHostNameCache;
 import datadog.trace.context.TraceScope;
 import datadog.trace.instrumentation.netty40.AttributeKeys;
 import io.netty.channel.ChannelHandlerContext;
@@ -43,7 +44,6 @@ public class HttpServerRequestTracingHandler extends ChannelInboundHandlerAdapte
             .buildSpan("netty.request")
             .asChildOf(extractedContext)
             .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
-            .withTag(Tags.PEER_HOSTNAME.getKey(), remoteAddress.getHostName())
             .withTag(Tags.PEER_PORT.getKey(), remoteAddress.getPort())
             .withTag(Tags.HTTP_METHOD.getKey(), request.getMethod().name())
             .withTag(Tags.HTTP_URL.getKey(), url)
@@ -56,6 +56,7 @@ public class HttpServerRequestTracingHandler extends ChannelInboundHandlerAdapte
     }
 
     final Span span = scope.span();
+    PeerHostNameCache.setPeer(span, remoteAddress);
     ctx.channel().attr(AttributeKeys.SERVER_ATTRIBUTE_KEY).set(span);
 
     try {
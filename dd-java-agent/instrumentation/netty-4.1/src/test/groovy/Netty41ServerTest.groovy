@@ -3,6 +3,7 @@ import datadog.trace.agent.test.utils.OkHttpUtils
 import datadog.trace.agent.test.utils.PortUtils
 import datadog.trace.api.DDSpanTypes
 import datadog.trace.api.DDTags
+import datadog.trace.bootstrap.PeerHostNameCache
 import io.netty.bootstrap.ServerBootstrap
 import io.netty.buffer.ByteBuf
 import io.netty.buffer.Unpooled
@@ -34,6 +35,11 @@ class Netty41ServerTest extends AgentTestRunner {
   @Shared
   OkHttpClient client = OkHttpUtils.client()
 
+  def setup() {
+    // the server sees the client address without a name, cache it as if it had been looked up
+    PeerHostNameCache.INSTANCE.remember(InetAddress.getByAddress([127, 0, 0, 1] as byte[]), "localhost")
+  }
+
   def "test server request/response"() {
     setup:
     EventLoopGroup eventLoopGroup = new NioEventLoopGroup()
@@ -69,6 +75,7 @@ class Netty41ServerTest extends AgentTestRunner {
             "$Tags.HTTP_STATUS.key" 200
             "$Tags.HTTP_URL.key" "http://localhost:$port/"
             "$Tags.PEER_HOSTNAME.key" "localhost"
+            "$Tags.PEER_HOST_IPV4.key" "127.0.0.1"
             "$Tags.PEER_PORT.key" Integer
             "$Tags.SPAN_KIND.key" Tags.SPAN_KIND_SERVER
             "$DDTags.SPAN_TYPE" DDSpanTypes.HTTP_SERVER
@@ -115,6 +122,7 @@ class Netty41ServerTest extends AgentTestRunner {
             "$Tags.HTTP_STATUS.key" responseCode.code()
             "$Tags.HTTP_URL.key" "http://localhost:$port/"
             "$Tags.PEER_HOSTNAME.key" "localhost"
+            "$Tags.PEER_HOST_IPV4.key" "127.0.0.1"
             "$Tags.PEER_PORT.key" Integer
             "$Tags.SPAN_KIND.key" Tags.SPAN_KIND_SERVER
             "$DDTags.SPAN_TYPE" DDSpanTypes.HTTP_SERVER
@@ -4,6 +4,7 @@ import static io.opentracing.log.Fields.ERROR_OBJECT;
 
 import datadog.trace.api.Config;
 import datadog.trace.api.DDTags;
+import datadog.trace.bootstrap.PeerHostNameCache;
 import io.opentracing.Span;
 import io.opentracing.tag.Tags;
 import java.net.Inet6Address;
@@ -79,7 +80,7 @@ public interface OkHttpClientSpanDecorator {
           final InetAddress inetAddress = connection.socket().getInetAddress();
 
           Tags.HTTP_STATUS.set(span, response.code());
-          Tags.PEER_HOSTNAME.set(span, inetAddress.getHostName());
+          Tags.PEER_HOSTNAME.set(span, PeerHostNameCache.hostName(inetAddress));
           Tags.PEER_PORT.set(span, connection.socket().getPort());
 
           String ipvKey = Tags.PEER_HOST_IPV4.getKey();
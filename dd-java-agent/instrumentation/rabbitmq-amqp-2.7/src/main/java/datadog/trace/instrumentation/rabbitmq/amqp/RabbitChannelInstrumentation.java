@@ -25,6 +25,7 @@ import datadog.trace.agent.tooling.Instrumenter;
 import datadog.trace.api.DDSpanTypes;
 import datadog.trace.api.DDTags;
 import datadog.trace.bootstrap.CallDepthThreadLocalMap;
+import datadog.trace.bootstrap.PeerHostNameCache;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
@@ -111,16 +112,18 @@ public class RabbitChannelInstrumentation extends Instrumenter.Default {
 
       final Connection connection = channel.getConnection();
 
-      return GlobalTracer.get()
-          .buildSpan("amqp.command")
-          .withTag(DDTags.SERVICE_NAME, "rabbitmq")
-          .withTag(DDTags.RESOURCE_NAME, method)
-          .withTag(DDTags.SPAN_TYPE, DDSpanTypes.MESSAGE_CLIENT)
-          .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
-          .withTag(Tags.COMPONENT.getKey(), "rabbitmq-amqp")
-          .withTag(Tags.PEER_HOSTNAME.getKey(), connection.getAddress().getHostName())
-          .withTag(Tags.PEER_PORT.getKey(), connection.getPort())
-          .startActive(true);
+      final Scope scope =
+          GlobalTracer.get()
+              .buildSpan("amqp.command")
+              .withTag(DDTags.SERVICE_NAME, "rabbitmq")
+              .withTag(DDTags.RESOURCE_NAME, method)
+              .withTag(DDTags.SPAN_TYPE, DDSpanTypes.MESSAGE_CLIENT)
+              .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+              .withTag(Tags.COMPONENT.getKey(), "rabbitmq-amqp")
+              .withTag(Tags.PEER_PORT.getKey(), connection.getPort())
+              .startActive(true);
+      PeerHostNameCache.setPeer(scope.span(), connection.getAddress());
+      return scope;
     }
 
     @Advice.OnMethodExit(onThrowable = Throwable.class, suppress = Throwable.class)
@@ -258,9 +261,9 @@ public class RabbitChannelInstrumentation extends Instrumenter.Default {
               .withTag("amqp.command", "basic.get")
               .withTag("amqp.queue", queue)
               .withTag("message.size", length)
-              .withTag(Tags.PEER_HOSTNAME.getKey(), connection.getAddress().getHostName())
               .withTag(Tags.PEER_PORT.getKey(), connection.getPort())
               .start();
+      PeerHostNameCache.setPeer(span, connection.getAddress());
 
       if (throwable != null) {
         Tags.ERROR.set(span, true);
@@ -69,6 +69,7 @@ public class TracingAgent {
             public void run() {
               try {
                 startJmxFetch();
+                registerMBeans();
               } catch (final Exception e) {
                 throw new RuntimeException(e);
               }
@@ -76,6 +77,7 @@ public class TracingAgent {
           });
     } else {
       startJmxFetch();
+      registerMBeans();
     }
   }
 
@@ -112,6 +114,15 @@ public class TracingAgent {
     }
   }
 
+  /** Must run after the global log manager is set, like JMXFetch */
+  public static synchronized void registerMBeans() throws Exception {
+    if (AGENT_CLASSLOADER != null) {
+      final Class<?> agentInstallerClass =
+          AGENT_CLASSLOADER.loadClass("datadog.trace.agent.tooling.AgentInstaller");
+      agentInstallerClass.getMethod("registerMBeans").invoke(null);
+    }
+  }
+
   public static synchronized void startJmxFetch() throws Exception {
     initializeJars();
     if (JMXFETCH_CLASSLOADER == null) {
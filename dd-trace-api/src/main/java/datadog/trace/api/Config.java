@@ -48,7 +48,19 @@ public class Config {
   public static final String AGENT_PATH = "agent.path";
   public static final String AGENT_USE_HTTPS = "agent.https";
   public static final String ENDPOINT_URL = "endpoint.url";
+  public static final String API_COMPRESSION = "api.compression";
+  public static final String API_CONNECT_TIMEOUT = "api.connect.timeout";
+  public static final String API_READ_TIMEOUT = "api.read.timeout";
+  public static final String WRITER_FLUSH_INTERVAL = "writer.flush.interval";
+  public static final String WRITER_MAX_QUEUED_TRACES = "writer.max.queued.traces";
+  public static final String WRITER_FLUSH_SPANS_THRESHOLD = "writer.flush.spans.threshold";
+  public static final String WRITER_FLUSH_BYTES_THRESHOLD = "writer.flush.bytes.threshold";
+  public static final String WRITER_MAX_INFLIGHT_REQUESTS = "writer.max.inflight.requests";
+  public static final String WRITER_SEND_RETRIES = "writer.send.retries";
+  public static final String WRITER_SPILL_DIRECTORY = "writer.spill.directory";
+  public static final String WRITER_SPILL_MAX_SIZE = "writer.spill.max.size";
   public static final String PRIORITY_SAMPLING = "priority.sampling";
+  public static final String TRACE_RATE_LIMIT = "trace.rate.limit";
   public static final String TRACE_RESOLVER_ENABLED = "trace.resolver.enabled";
   public static final String SERVICE_MAPPING = "service.mapping";
   public static final String GLOBAL_TAGS = "trace.global.tags";
@@ -59,7 +71,24 @@ public class Config {
   public static final String TRACE_METHODS = "trace.methods";
   public static final String HEADER_TAGS = "trace.header.tags";
   public static final String HTTP_CLIENT_HOST_SPLIT_BY_DOMAIN = "trace.http.client.split-by-domain";
+  public static final String HTTP_RESOURCE_TEMPLATES = "trace.http.resource.templates";
+  public static final String HTTP_RESOURCE_CACHE_SIZE = "trace.http.resource.cache-size";
+  public static final String SQL_NORMALIZATION = "trace.sql.normalization";
+  public static final String PEER_HOSTNAME_CACHE_SIZE = "trace.peer.hostname.cache-size";
+  public static final String PEER_HOSTNAME_CACHE_TTL = "trace.peer.hostname.cache-ttl";
+  public static final String PEER_HOSTNAME_ASYNC_RESOLUTION =
+      "trace.peer.hostname.async-resolution";
+  public static final String MATCH_CACHE_DIRECTORY = "trace.match-cache.directory";
+  public static final String TYPE_POOL_CACHE_MEMORY = "trace.type-pool.cache.memory";
   public static final String PARTIAL_FLUSH_MIN_SPANS = "trace.partial.flush.min.spans";
+  public static final String TRACE_STRICT_LIFECYCLE = "trace.strict.lifecycle";
+  public static final String TRACE_PENDING_TIMEOUT = "trace.pending.timeout";
+  public static final String TAIL_SAMPLING_ENABLED = "trace.tail.sampling.enabled";
+  public static final String TAIL_SAMPLING_RATE = "trace.tail.sampling.rate";
+  public static final String TAIL_SAMPLING_LATENCY_PERCENTILE =
+      "trace.tail.sampling.latency.percentile";
+  public static final String TAIL_SAMPLING_TAGS = "trace.tail.sampling.tags";
+  public static final String DECORATORS_DEFERRED = "trace.decorators.deferred";
   public static final String RUNTIME_CONTEXT_FIELD_INJECTION =
       "trace.runtime.context.field.injection";
   public static final String JMX_FETCH_ENABLED = "jmxfetch.enabled";
@@ -84,15 +113,42 @@ public class Config {
 
   public static final String DEFAULT_AGENT_ENDPOINT = "http://localhost:9080/v1/trace";
 
+  public static final String NO_API_COMPRESSION = "none";
+  public static final String GZIP_API_COMPRESSION = "gzip";
+  private static final String DEFAULT_API_COMPRESSION = NO_API_COMPRESSION;
+  private static final int DEFAULT_API_CONNECT_TIMEOUT_MILLIS = 1000;
+  private static final int DEFAULT_API_READ_TIMEOUT_MILLIS = 5000;
+
+  public static final int DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS = 1000;
+  public static final int DEFAULT_WRITER_MAX_QUEUED_TRACES = 7000;
+  public static final int DEFAULT_WRITER_FLUSH_SPANS_THRESHOLD = 5000;
+  public static final int DEFAULT_WRITER_FLUSH_BYTES_THRESHOLD = 4 * 1024 * 1024;
+  public static final int DEFAULT_WRITER_MAX_INFLIGHT_REQUESTS = 2;
+  public static final int DEFAULT_WRITER_SEND_RETRIES = 3;
+  private static final int DEFAULT_WRITER_SPILL_MAX_SIZE = 64 * 1024 * 1024;
+
   public static final String LOGS_INJECTION_ENABLED = "logs.injection";
   public static final boolean DEFAULT_LOGS_INJECTION_ENABLED = false;
 
   private static final boolean DEFAULT_RUNTIME_CONTEXT_FIELD_INJECTION = true;
 
   private static final boolean DEFAULT_PRIORITY_SAMPLING_ENABLED = false;
+  private static final int DEFAULT_TRACE_RATE_LIMIT = 0;
   private static final boolean DEFAULT_TRACE_RESOLVER_ENABLED = true;
   private static final boolean DEFAULT_HTTP_CLIENT_SPLIT_BY_DOMAIN = false;
+  private static final int DEFAULT_HTTP_RESOURCE_CACHE_SIZE = 1024;
+  private static final boolean DEFAULT_SQL_NORMALIZATION = true;
+  private static final int DEFAULT_PEER_HOSTNAME_CACHE_SIZE = 1024;
+  private static final int DEFAULT_PEER_HOSTNAME_CACHE_TTL_SECONDS = 300;
+  private static final boolean DEFAULT_PEER_HOSTNAME_ASYNC_RESOLUTION = false;
+  private static final int DEFAULT_TYPE_POOL_CACHE_MEMORY_MB = 16;
   private static final int DEFAULT_PARTIAL_FLUSH_MIN_SPANS = 0;
+  private static final boolean DEFAULT_TRACE_STRICT_LIFECYCLE = false;
+  private static final int DEFAULT_TRACE_PENDING_TIMEOUT_SECONDS = 300;
+  private static final boolean DEFAULT_TAIL_SAMPLING_ENABLED = false;
+  private static final double DEFAULT_TAIL_SAMPLING_RATE = 0.1;
+  private static final double DEFAULT_TAIL_SAMPLING_LATENCY_PERCENTILE = 99;
+  private static final boolean DEFAULT_DECORATORS_DEFERRED = false;
   private static final boolean DEFAULT_JMX_FETCH_ENABLED = false;
 
   public static final int DEFAULT_JMX_FETCH_STATSD_PORT = 8125;
@@ -114,7 +170,23 @@ public class Config {
   private final String agentPath;
   private final Boolean agentUseHTTPS;
   @Getter private final URL endpointUrl;
+  @Getter private final String apiCompression;
+  @Getter private final Integer apiConnectTimeout;
+  @Getter private final Integer apiReadTimeout;
+  @Getter private final Integer writerFlushInterval;
+  @Getter private final Integer writerMaxQueuedTraces;
+  @Getter private final Integer writerFlushSpansThreshold;
+  @Getter private final Integer writerFlushBytesThreshold;
+  @Getter private final Integer writerMaxInflightRequests;
+  @Getter private final Integer writerSendRetries;
+  @Getter private final String writerSpillDirectory;
+  @Getter private final Integer writerSpillMaxSize;
   @Getter private final boolean prioritySamplingEnabled;
+  /**
+   * Traces kept per second for each service and resource name, 0 to keep them all. Ignored when
+   * priority sampling is enabled.
+   */
+  @Getter private final Integer traceRateLimit;
   @Getter private final boolean traceResolverEnabled;
   @Getter private final Map<String, String> serviceMapping;
   private final Map<String, String> globalTags;
@@ -122,7 +194,34 @@ public class Config {
   private final Map<String, String> jmxTags;
   @Getter private final Map<String, String> headerTags;
   @Getter private final boolean httpClientSplitByDomain;
+  /** Route templates like /users/{id} used as resource names for the urls they match */
+  @Getter private final List<String> httpResourceTemplates;
+  /** Number of urls whose resource name is kept, 0 to disable the cache */
+  @Getter private final Integer httpResourceCacheSize;
+  /** Replace the literals of SQL statements used as resource names */
+  @Getter private final boolean sqlNormalization;
+  /** Number of peer addresses whose host name is kept */
+  @Getter private final Integer peerHostnameCacheSize;
+  /** Seconds before a cached peer host name is looked up again */
+  @Getter private final Integer peerHostnameCacheTtl;
+  /** Look up the host name of peers known by address only, in a background thread */
+  @Getter private final boolean peerHostnameAsyncResolution;
+  /** Where the classes no instrumentation matched are kept across restarts, disabled if null */
+  @Getter private final String matchCacheDirectory;
+  /** Megabytes of type descriptions cached for matching, shared by all classloaders */
+  @Getter private final Integer typePoolCacheMemory;
   @Getter private final Integer partialFlushMinSpans;
+  @Getter private final boolean traceStrictLifecycle;
+  @Getter private final Integer tracePendingTimeout;
+  @Getter private final boolean tailSamplingEnabled;
+  /** Share of the traces without errors, latency outliers or matching tags that are kept */
+  @Getter private final Double tailSamplingRate;
+  /** Traces slower than this percentile of their resource are always kept */
+  @Getter private final Double tailSamplingLatencyPercentile;
+  /** Traces with a span matching one of these tags are always kept, a * value matches any */
+  @Getter private final Map<String, String> tailSamplingTags;
+  /** Decorators that support it run when the span finishes instead of on each tag */
+  @Getter private final boolean decoratorsDeferred;
   @Getter private final boolean runtimeContextFieldInjection;
   @Getter private final boolean jmxFetchEnabled;
   @Getter private final List<String> jmxFetchMetricsConfigs;
@@ -149,8 +248,50 @@ public class Config {
     agentPath = getSettingFromEnvironment(AGENT_PATH, null);
     agentUseHTTPS = getBooleanSettingFromEnvironment(AGENT_USE_HTTPS, null);
     endpointUrl = getURLSettingFromEnvironment(ENDPOINT_URL, DEFAULT_AGENT_ENDPOINT);
+    apiCompression = getSettingFromEnvironment(API_COMPRESSION, DEFAULT_API_COMPRESSION);
+    apiConnectTimeout =
+        positiveOrDefault(
+            API_CONNECT_TIMEOUT,
+            getIntegerSettingFromEnvironment(
+                API_CONNECT_TIMEOUT, DEFAULT_API_CONNECT_TIMEOUT_MILLIS),
+            DEFAULT_API_CONNECT_TIMEOUT_MILLIS);
+    apiReadTimeout =
+        positiveOrDefault(
+            API_READ_TIMEOUT,
+            getIntegerSettingFromEnvironment(API_READ_TIMEOUT, DEFAULT_API_READ_TIMEOUT_MILLIS),
+            DEFAULT_API_READ_TIMEOUT_MILLIS);
+    writerFlushInterval =
+        positiveOrDefault(
+            WRITER_FLUSH_INTERVAL,
+            getIntegerSettingFromEnvironment(
+                WRITER_FLUSH_INTERVAL, DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS),
+            DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS);
+    writerMaxQueuedTraces =
+        positiveOrDefault(
+            WRITER_MAX_QUEUED_TRACES,
+            getIntegerSettingFromEnvironment(
+                WRITER_MAX_QUEUED_TRACES, DEFAULT_WRITER_MAX_QUEUED_TRACES),
+            DEFAULT_WRITER_MAX_QUEUED_TRACES);
+    writerFlushSpansThreshold =
+        getIntegerSettingFromEnvironment(
+            WRITER_FLUSH_SPANS_THRESHOLD, DEFAULT_WRITER_FLUSH_SPANS_THRESHOLD);
+    writerFlushBytesThreshold =
+        getIntegerSettingFromEnvironment(
+            WRITER_FLUSH_BYTES_THRESHOLD, DEFAULT_WRITER_FLUSH_BYTES_THRESHOLD);
+    writerMaxInflightRequests =
+        positiveOrDefault(
+            WRITER_MAX_INFLIGHT_REQUESTS,
+            getIntegerSettingFromEnvironment(
+                WRITER_MAX_INFLIGHT_REQUESTS, DEFAULT_WRITER_MAX_INFLIGHT_REQUESTS),
+            DEFAULT_WRITER_MAX_INFLIGHT_REQUESTS);
+    writerSendRetries =
+        getIntegerSettingFromEnvironment(WRITER_SEND_RETRIES, DEFAULT_WRITER_SEND_RETRIES);
+    writerSpillDirectory = getSettingFromEnvironment(WRITER_SPILL_DIRECTORY, null);
+    writerSpillMaxSize =
+        getIntegerSettingFromEnvironment(WRITER_SPILL_MAX_SIZE, DEFAULT_WRITER_SPILL_MAX_SIZE);
     prioritySamplingEnabled =
         getBooleanSettingFromEnvironment(PRIORITY_SAMPLING, DEFAULT_PRIORITY_SAMPLING_ENABLED);
+    traceRateLimit = getIntegerSettingFromEnvironment(TRACE_RATE_LIMIT, DEFAULT_TRACE_RATE_LIMIT);
     traceResolverEnabled =
         getBooleanSettingFromEnvironment(TRACE_RESOLVER_ENABLED, DEFAULT_TRACE_RESOLVER_ENABLED);
     serviceMapping = getMapSettingFromEnvironment(SERVICE_MAPPING, null);
@@ -164,8 +305,50 @@ public class Config {
         getBooleanSettingFromEnvironment(
             HTTP_CLIENT_HOST_SPLIT_BY_DOMAIN, DEFAULT_HTTP_CLIENT_SPLIT_BY_DOMAIN);
 
+    httpResourceTemplates = getListSettingFromEnvironment(HTTP_RESOURCE_TEMPLATES, null);
+    httpResourceCacheSize =
+        getIntegerSettingFromEnvironment(
+            HTTP_RESOURCE_CACHE_SIZE, DEFAULT_HTTP_RESOURCE_CACHE_SIZE);
+
+    sqlNormalization =
+        getBooleanSettingFromEnvironment(SQL_NORMALIZATION, DEFAULT_SQL_NORMALIZATION);
+
+    peerHostnameCacheSize =
+        getIntegerSettingFromEnvironment(
+            PEER_HOSTNAME_CACHE_SIZE, DEFAULT_PEER_HOSTNAME_CACHE_SIZE);
+    peerHostnameCacheTtl =
+        getIntegerSettingFromEnvironment(
+            PEER_HOSTNAME_CACHE_TTL, DEFAULT_PEER_HOSTNAME_CACHE_TTL_SECONDS);
+    peerHostnameAsyncResolution =
+        getBooleanSettingFromEnvironment(
+            PEER_HOSTNAME_ASYNC_RESOLUTION, DEFAULT_PEER_HOSTNAME_ASYNC_RESOLUTION);
+    matchCacheDirectory = getSettingFromEnvironment(MATCH_CACHE_DIRECTORY, null);
+    typePoolCacheMemory =
+        positiveOrDefault(
+            TYPE_POOL_CACHE_MEMORY,
+            getIntegerSettingFromEnvironment(
+                TYPE_POOL_CACHE_MEMORY, DEFAULT_TYPE_POOL_CACHE_MEMORY_MB),
+            DEFAULT_TYPE_POOL_CACHE_MEMORY_MB);
+
     partialFlushMinSpans =
         getIntegerSettingFromEnvironment(PARTIAL_FLUSH_MIN_SPANS, DEFAULT_PARTIAL_FLUSH_MIN_SPANS);
+    traceStrictLifecycle =
+        getBooleanSettingFromEnvironment(TRACE_STRICT_LIFECYCLE, DEFAULT_TRACE_STRICT_LIFECYCLE);
+    tracePendingTimeout =
+        getIntegerSettingFromEnvironment(
+            TRACE_PENDING_TIMEOUT, DEFAULT_TRACE_PENDING_TIMEOUT_SECONDS);
+
+    tailSamplingEnabled =
+        getBooleanSettingFromEnvironment(TAIL_SAMPLING_ENABLED, DEFAULT_TAIL_SAMPLING_ENABLED);
+    tailSamplingRate =
+        getDoubleSettingFromEnvironment(TAIL_SAMPLING_RATE, DEFAULT_TAIL_SAMPLING_RATE);
+    tailSamplingLatencyPercentile =
+        getDoubleSettingFromEnvironment(
+            TAIL_SAMPLING_LATENCY_PERCENTILE, DEFAULT_TAIL_SAMPLING_LATENCY_PERCENTILE);
+    tailSamplingTags = getMapSettingFromEnvironment(TAIL_SAMPLING_TAGS, null);
+
+    decoratorsDeferred =
+        getBooleanSettingFromEnvironment(DECORATORS_DEFERRED, DEFAULT_DECORATORS_DEFERRED);
 
     runtimeContextFieldInjection =
         getBooleanSettingFromEnvironment(
@@ -206,8 +389,49 @@ public class Config {
     agentPath = properties.getProperty(AGENT_PATH, parent.agentPath);
     agentUseHTTPS = getPropertyBooleanValue(properties, AGENT_USE_HTTPS, parent.agentUseHTTPS);
     endpointUrl = getPropertyURLValue(properties, ENDPOINT_URL, parent.endpointUrl);
+    apiCompression = properties.getProperty(API_COMPRESSION, parent.apiCompression);
+    apiConnectTimeout =
+        positiveOrDefault(
+            API_CONNECT_TIMEOUT,
+            getPropertyIntegerValue(properties, API_CONNECT_TIMEOUT, parent.apiConnectTimeout),
+            DEFAULT_API_CONNECT_TIMEOUT_MILLIS);
+    apiReadTimeout =
+        positiveOrDefault(
+            API_READ_TIMEOUT,
+            getPropertyIntegerValue(properties, API_READ_TIMEOUT, parent.apiReadTimeout),
+            DEFAULT_API_READ_TIMEOUT_MILLIS);
+    writerFlushInterval =
+        positiveOrDefault(
+            WRITER_FLUSH_INTERVAL,
+            getPropertyIntegerValue(properties, WRITER_FLUSH_INTERVAL, parent.writerFlushInterval),
+            DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS);
+    writerMaxQueuedTraces =
+        positiveOrDefault(
+            WRITER_MAX_QUEUED_TRACES,
+            getPropertyIntegerValue(
+                properties, WRITER_MAX_QUEUED_TRACES, parent.writerMaxQueuedTraces),
+            DEFAULT_WRITER_MAX_QUEUED_TRACES);
+    writerFlushSpansThreshold =
+        getPropertyIntegerValue(
+            properties, WRITER_FLUSH_SPANS_THRESHOLD, parent.writerFlushSpansThreshold);
+    writerFlushBytesThreshold =
+        getPropertyIntegerValue(
+            properties, WRITER_FLUSH_BYTES_THRESHOLD, parent.writerFlushBytesThreshold);
+    writerMaxInflightRequests =
+        positiveOrDefault(
+            WRITER_MAX_INFLIGHT_REQUESTS,
+            getPropertyIntegerValue(
+                properties, WRITER_MAX_INFLIGHT_REQUESTS, parent.writerMaxInflightRequests),
+            DEFAULT_WRITER_MAX_INFLIGHT_REQUESTS);
+    writerSendRetries =
+        getPropertyIntegerValue(properties, WRITER_SEND_RETRIES, parent.writerSendRetries);
+    writerSpillDirectory =
+        properties.getProperty(WRITER_SPILL_DIRECTORY, parent.writerSpillDirectory);
+    writerSpillMaxSize =
+        getPropertyIntegerValue(properties, WRITER_SPILL_MAX_SIZE, parent.writerSpillMaxSize);
     prioritySamplingEnabled =
         getPropertyBooleanValue(properties, PRIORITY_SAMPLING, parent.prioritySamplingEnabled);
+    traceRateLimit = getPropertyIntegerValue(properties, TRACE_RATE_LIMIT, parent.traceRateLimit);
     traceResolverEnabled =
         getPropertyBooleanValue(properties, TRACE_RESOLVER_ENABLED, parent.traceResolverEnabled);
     serviceMapping = getPropertyMapValue(properties, SERVICE_MAPPING, parent.serviceMapping);
@@ -221,8 +445,47 @@ public class Config {
         getPropertyBooleanValue(
             properties, HTTP_CLIENT_HOST_SPLIT_BY_DOMAIN, parent.httpClientSplitByDomain);
 
+    httpResourceTemplates =
+        getPropertyListValue(properties, HTTP_RESOURCE_TEMPLATES, parent.httpResourceTemplates);
+    httpResourceCacheSize =
+        getPropertyIntegerValue(properties, HTTP_RESOURCE_CACHE_SIZE, parent.httpResourceCacheSize);
+
+    sqlNormalization =
+        getPropertyBooleanValue(properties, SQL_NORMALIZATION, parent.sqlNormalization);
+
+    peerHostnameCacheSize =
+        getPropertyIntegerValue(properties, PEER_HOSTNAME_CACHE_SIZE, parent.peerHostnameCacheSize);
+    peerHostnameCacheTtl =
+        getPropertyIntegerValue(properties, PEER_HOSTNAME_CACHE_TTL, parent.peerHostnameCacheTtl);
+    peerHostnameAsyncResolution =
+        getPropertyBooleanValue(
+            properties, PEER_HOSTNAME_ASYNC_RESOLUTION, parent.peerHostnameAsyncResolution);
+    matchCacheDirectory =
+        getPropertyStringValue(properties, MATCH_CACHE_DIRECTORY, parent.matchCacheDirectory);
+    typePoolCacheMemory =
+        positiveOrDefault(
+            TYPE_POOL_CACHE_MEMORY,
+            getPropertyIntegerValue(properties, TYPE_POOL_CACHE_MEMORY, parent.typePoolCacheMemory),
+            DEFAULT_TYPE_POOL_CACHE_MEMORY_MB);
+
     partialFlushMinSpans =
         getPropertyIntegerValue(properties, PARTIAL_FLUSH_MIN_SPANS, parent.partialFlushMinSpans);
+    traceStrictLifecycle =
+        getPropertyBooleanValue(properties, TRACE_STRICT_LIFECYCLE, parent.traceStrictLifecycle);
+    tracePendingTimeout =
+        getPropertyIntegerValue(properties, TRACE_PENDING_TIMEOUT, parent.tracePendingTimeout);
+
+    tailSamplingEnabled =
+        getPropertyBooleanValue(properties, TAIL_SAMPLING_ENABLED, parent.tailSamplingEnabled);
+    tailSamplingRate =
+        getPropertyDoubleValue(properties, TAIL_SAMPLING_RATE, parent.tailSamplingRate);
+    tailSamplingLatencyPercentile =
+        getPropertyDoubleValue(
+            properties, TAIL_SAMPLING_LATENCY_PERCENTILE, parent.tailSamplingLatencyPercentile);
+    tailSamplingTags = getPropertyMapValue(properties, TAIL_SAMPLING_TAGS, parent.tailSamplingTags);
+
+    decoratorsDeferred =
+        getPropertyBooleanValue(properties, DECORATORS_DEFERRED, parent.decoratorsDeferred);
 
     runtimeContextFieldInjection =
         getPropertyBooleanValue(
@@ -433,6 +696,27 @@ public class Config {
     }
   }
 
+  private static Double getDoubleSettingFromEnvironment(
+      final String name, final Double defaultValue) {
+    final String value = getSettingFromEnvironment(name, null);
+    try {
+      return value == null ? defaultValue : Double.valueOf(value);
+    } catch (final NumberFormatException e) {
+      log.warn("Invalid configuration for " + name, e);
+      return defaultValue;
+    }
+  }
+
+  private static Integer positiveOrDefault(
+      final String name, final Integer value, final Integer defaultValue) {
+    if (value != null && value < 1) {
+      log.warn(
+          "Invalid configuration for {}: {} is not positive, using {}", name, value, defaultValue);
+      return defaultValue;
+    }
+    return value;
+  }
+
   private static String propertyToEnvironmentName(final String name) {
     return ENV_REPLACEMENT.matcher(name.toUpperCase()).replaceAll("_");
   }
@@ -455,6 +739,12 @@ public class Config {
     return value == null ? defaultValue : parseURL(value, name);
   }
 
+  private static String getPropertyStringValue(
+      final Properties properties, final String name, final String defaultValue) {
+    final String value = properties.getProperty(name);
+    return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+  }
+
   private static Boolean getPropertyBooleanValue(
       final Properties properties, final String name, final Boolean defaultValue) {
     final String value = properties.getProperty(name);
@@ -467,6 +757,12 @@ public class Config {
     return value == null || value.trim().isEmpty() ? defaultValue : Integer.valueOf(value);
   }
 
+  private static Double getPropertyDoubleValue(
+      final Properties properties, final String name, final Double defaultValue) {
+    final String value = properties.getProperty(name);
+    return value == null || value.trim().isEmpty() ? defaultValue : Double.valueOf(value);
+  }
+
   private static Map<String, String> parseMap(final String str, final String settingName) {
     if (str == null || str.trim().isEmpty()) {
       return Collections.emptyMap();
@@ -10,10 +10,16 @@ import static datadog.trace.api.Config.ENDPOINT_URL
 import static datadog.trace.api.Config.AGENT_HOST
 import static datadog.trace.api.Config.AGENT_PATH
 import static datadog.trace.api.Config.AGENT_PORT_LEGACY
+import static datadog.trace.api.Config.API_COMPRESSION
+import static datadog.trace.api.Config.API_CONNECT_TIMEOUT
+import static datadog.trace.api.Config.API_READ_TIMEOUT
+import static datadog.trace.api.Config.DECORATORS_DEFERRED
 import static datadog.trace.api.Config.DEFAULT_JMX_FETCH_STATSD_PORT
 import static datadog.trace.api.Config.GLOBAL_TAGS
 import static datadog.trace.api.Config.HEADER_TAGS
 import static datadog.trace.api.Config.HTTP_CLIENT_HOST_SPLIT_BY_DOMAIN
+import static datadog.trace.api.Config.HTTP_RESOURCE_CACHE_SIZE
+import static datadog.trace.api.Config.HTTP_RESOURCE_TEMPLATES
 import static datadog.trace.api.Config.JMX_FETCH_CHECK_PERIOD
 import static datadog.trace.api.Config.JMX_FETCH_ENABLED
 import static datadog.trace.api.Config.JMX_FETCH_METRICS_CONFIGS
@@ -23,7 +29,11 @@ import static datadog.trace.api.Config.JMX_FETCH_STATSD_PORT
 import static datadog.trace.api.Config.JMX_TAGS
 import static datadog.trace.api.Config.LANGUAGE_TAG_KEY
 import static datadog.trace.api.Config.LANGUAGE_TAG_VALUE
+import static datadog.trace.api.Config.MATCH_CACHE_DIRECTORY
 import static datadog.trace.api.Config.PARTIAL_FLUSH_MIN_SPANS
+import static datadog.trace.api.Config.PEER_HOSTNAME_ASYNC_RESOLUTION
+import static datadog.trace.api.Config.PEER_HOSTNAME_CACHE_SIZE
+import static datadog.trace.api.Config.PEER_HOSTNAME_CACHE_TTL
 import static datadog.trace.api.Config.PREFIX
 import static datadog.trace.api.Config.PRIORITY_SAMPLING
 import static datadog.trace.api.Config.RUNTIME_CONTEXT_FIELD_INJECTION
@@ -32,9 +42,26 @@ import static datadog.trace.api.Config.SERVICE
 import static datadog.trace.api.Config.SERVICE_MAPPING
 import static datadog.trace.api.Config.SERVICE_NAME
 import static datadog.trace.api.Config.SPAN_TAGS
+import static datadog.trace.api.Config.SQL_NORMALIZATION
+import static datadog.trace.api.Config.TAIL_SAMPLING_ENABLED
+import static datadog.trace.api.Config.TAIL_SAMPLING_LATENCY_PERCENTILE
+import static datadog.trace.api.Config.TAIL_SAMPLING_RATE
+import static datadog.trace.api.Config.TAIL_SAMPLING_TAGS
 import static datadog.trace.api.Config.TRACE_AGENT_PORT
+import static datadog.trace.api.Config.TRACE_PENDING_TIMEOUT
+import static datadog.trace.api.Config.TRACE_RATE_LIMIT
 import static datadog.trace.api.Config.TRACE_RESOLVER_ENABLED
+import static datadog.trace.api.Config.TRACE_STRICT_LIFECYCLE
+import static datadog.trace.api.Config.TYPE_POOL_CACHE_MEMORY
 import static datadog.trace.api.Config.USE_B3_PROPAGATION
+import static datadog.trace.api.Config.WRITER_FLUSH_BYTES_THRESHOLD
+import static datadog.trace.api.Config.WRITER_FLUSH_INTERVAL
+import static datadog.trace.api.Config.WRITER_FLUSH_SPANS_THRESHOLD
+import static datadog.trace.api.Config.WRITER_MAX_INFLIGHT_REQUESTS
+import static datadog.trace.api.Config.WRITER_MAX_QUEUED_TRACES
+import static datadog.trace.api.Config.WRITER_SEND_RETRIES
+import static datadog.trace.api.Config.WRITER_SPILL_DIRECTORY
+import static datadog.trace.api.Config.WRITER_SPILL_MAX_SIZE
 import static datadog.trace.api.Config.WRITER_TYPE
 
 class ConfigTest extends Specification {
@@ -66,6 +93,18 @@ class ConfigTest extends Specification {
     config.getAgentPath() == "/v1/trace"
     config.getAgentUseHTTPS() == false
     config.endpointUrl.toString() == "http://localhost:9080/v1/trace"
+    config.apiCompression == "none"
+    config.apiConnectTimeout == 1000
+    config.apiReadTimeout == 5000
+    config.writerFlushInterval == 1000
+    config.writerMaxQueuedTraces == 7000
+    config.writerFlushSpansThreshold == 5000
+    config.writerFlushBytesThreshold == 4 * 1024 * 1024
+    config.writerMaxInflightRequests == 2
+    config.writerSendRetries == 3
+    config.writerSpillDirectory == null
+    config.writerSpillMaxSize == 64 * 1024 * 1024
+    config.traceRateLimit == 0
     config.prioritySamplingEnabled == false
     config.traceResolverEnabled == true
     config.serviceMapping == [:]
@@ -73,7 +112,22 @@ class ConfigTest extends Specification {
     config.mergedJmxTags == [(RUNTIME_ID_TAG): config.getRuntimeId(), (SERVICE): config.serviceName, (LANGUAGE_TAG_KEY): LANGUAGE_TAG_VALUE]
     config.headerTags == [:]
     config.httpClientSplitByDomain == false
+    config.httpResourceTemplates == []
+    config.httpResourceCacheSize == 1024
+    config.sqlNormalization == true
+    config.peerHostnameCacheSize == 1024
+    config.peerHostnameCacheTtl == 300
+    config.peerHostnameAsyncResolution == false
+    config.matchCacheDirectory == null
+    config.typePoolCacheMemory == 16
     config.partialFlushMinSpans == 0
+    config.traceStrictLifecycle == false
+    config.tracePendingTimeout == 300
+    config.tailSamplingEnabled == false
+    config.tailSamplingRate == 0.1
+    config.tailSamplingLatencyPercentile == 99
+    config.tailSamplingTags == [:]
+    config.decoratorsDeferred == false
     config.runtimeContextFieldInjection == true
     config.jmxFetchEnabled == false
     config.jmxFetchMetricsConfigs == []
@@ -94,6 +148,18 @@ class ConfigTest extends Specification {
     System.setProperty(prefix + AGENT_PATH, "/v2/trace")
     System.setProperty(prefix + ENDPOINT_URL, "https://example.com/")
     System.setProperty(prefix + AGENT_PORT_LEGACY, "456")
+    System.setProperty(prefix + API_COMPRESSION, "gzip")
+    System.setProperty(prefix + API_CONNECT_TIMEOUT, "250")
+    System.setProperty(prefix + API_READ_TIMEOUT, "750")
+    System.setProperty(prefix + WRITER_FLUSH_INTERVAL, "500")
+    System.setProperty(prefix + WRITER_MAX_QUEUED_TRACES, "1000")
+    System.setProperty(prefix + WRITER_FLUSH_SPANS_THRESHOLD, "200")
+    System.setProperty(prefix + WRITER_FLUSH_BYTES_THRESHOLD, "65536")
+    System.setProperty(prefix + WRITER_MAX_INFLIGHT_REQUESTS, "8")
+    System.setProperty(prefix + WRITER_SEND_RETRIES, "0")
+    System.setProperty(prefix + WRITER_SPILL_DIRECTORY, "/tmp/spill")
+    System.setProperty(prefix + WRITER_SPILL_MAX_SIZE, "1048576")
+    System.setProperty(prefix + TRACE_RATE_LIMIT, "10")
     System.setProperty(prefix + PRIORITY_SAMPLING, "false")
     System.setProperty(prefix + TRACE_RESOLVER_ENABLED, "false")
     System.setProperty(prefix + SERVICE_MAPPING, "a:1")
@@ -102,7 +168,22 @@ class ConfigTest extends Specification {
     System.setProperty(prefix + JMX_TAGS, "d:4")
     System.setProperty(prefix + HEADER_TAGS, "e:5")
     System.setProperty(prefix + HTTP_CLIENT_HOST_SPLIT_BY_DOMAIN, "true")
+    System.setProperty(prefix + HTTP_RESOURCE_TEMPLATES, "/users/{id},/users/{id}/orders")
+    System.setProperty(prefix + HTTP_RESOURCE_CACHE_SIZE, "0")
+    System.setProperty(prefix + SQL_NORMALIZATION, "false")
+    System.setProperty(prefix + PEER_HOSTNAME_CACHE_SIZE, "16")
+    System.setProperty(prefix + PEER_HOSTNAME_CACHE_TTL, "60")
+    System.setProperty(prefix + PEER_HOSTNAME_ASYNC_RESOLUTION, "true")
+    System.setProperty(prefix + MATCH_CACHE_DIRECTORY, "/tmp/match-cache")
+    System.setProperty(prefix + TYPE_POOL_CACHE_MEMORY, "64")
     System.setProperty(prefix + PARTIAL_FLUSH_MIN_SPANS, "15")
+    System.setProperty(prefix + TRACE_STRICT_LIFECYCLE, "true")
+    System.setProperty(prefix + TRACE_PENDING_TIMEOUT, "60")
+    System.setProperty(prefix + TAIL_SAMPLING_ENABLED, "true")
+    System.setProperty(prefix + TAIL_SAMPLING_RATE, "0.05")
+    System.setProperty(prefix + TAIL_SAMPLING_LATENCY_PERCENTILE, "95.5")
+    System.setProperty(prefix + TAIL_SAMPLING_TAGS, "http.status_code:500,debug:*")
+    System.setProperty(prefix + DECORATORS_DEFERRED, "true")
     System.setProperty(prefix + RUNTIME_CONTEXT_FIELD_INJECTION, "false")
     System.setProperty(prefix + JMX_FETCH_ENABLED, "true")
     System.setProperty(prefix + JMX_FETCH_METRICS_CONFIGS, "/foo.yaml,/bar.yaml")
@@ -122,6 +203,18 @@ class ConfigTest extends Specification {
     config.getAgentPort() == 123
     config.getAgentPath() == "/v2/trace"
     config.getAgentUseHTTPS() == true
+    config.apiCompression == "gzip"
+    config.apiConnectTimeout == 250
+    config.apiReadTimeout == 750
+    config.writerFlushInterval == 500
+    config.writerMaxQueuedTraces == 1000
+    config.writerFlushSpansThreshold == 200
+    config.writerFlushBytesThreshold == 65536
+    config.writerMaxInflightRequests == 8
+    config.writerSendRetries == 0
+    config.writerSpillDirectory == "/tmp/spill"
+    config.writerSpillMaxSize == 1048576
+    config.traceRateLimit == 10
     config.prioritySamplingEnabled == false
     config.traceResolverEnabled == false
     config.serviceMapping == [a: "1"]
@@ -129,7 +222,22 @@ class ConfigTest extends Specification {
     config.mergedJmxTags == [b: "2", d: "4", (RUNTIME_ID_TAG): config.getRuntimeId(), (SERVICE): config.serviceName, (LANGUAGE_TAG_KEY): LANGUAGE_TAG_VALUE]
     config.headerTags == [e: "5"]
     config.httpClientSplitByDomain == true
+    config.httpResourceTemplates == ["/users/{id}", "/users/{id}/orders"]
+    config.httpResourceCacheSize == 0
+    config.sqlNormalization == false
+    config.peerHostnameCacheSize == 16
+    config.peerHostnameCacheTtl == 60
+    config.peerHostnameAsyncResolution == true
+    config.matchCacheDirectory == "/tmp/match-cache"
+    config.typePoolCacheMemory == 64
     config.partialFlushMinSpans == 15
+    config.traceStrictLifecycle == true
+    config.tracePendingTimeout == 60
+    config.tailSamplingEnabled == true
+    config.tailSamplingRate == 0.05
+    config.tailSamplingLatencyPercentile == 95.5
+    config.tailSamplingTags == ["http.status_code": "500", debug: "*"]
+    config.decoratorsDeferred == true
     config.runtimeContextFieldInjection == false
     config.jmxFetchEnabled == true
     config.jmxFetchMetricsConfigs == ["/foo.yaml", "/bar.yaml"]
@@ -204,6 +312,12 @@ class ConfigTest extends Specification {
     System.setProperty(PREFIX + HEADER_TAGS, "1")
     System.setProperty(PREFIX + SPAN_TAGS, "invalid")
     System.setProperty(PREFIX + HTTP_CLIENT_HOST_SPLIT_BY_DOMAIN, "invalid")
+    System.setProperty(PREFIX + WRITER_FLUSH_INTERVAL, "0")
+    System.setProperty(PREFIX + WRITER_MAX_QUEUED_TRACES, "0")
+    System.setProperty(PREFIX + WRITER_MAX_INFLIGHT_REQUESTS, "-1")
+    System.setProperty(PREFIX + TYPE_POOL_CACHE_MEMORY, "-16")
+    System.setProperty(PREFIX + API_CONNECT_TIMEOUT, "0")
+    System.setProperty(PREFIX + API_READ_TIMEOUT, "-1")
 
     when:
     def config = new Config()
@@ -219,6 +333,12 @@ class ConfigTest extends Specification {
     config.mergedSpanTags == [:]
     config.headerTags == [:]
     config.httpClientSplitByDomain == false
+    config.writerFlushInterval == 1000
+    config.writerMaxQueuedTraces == 7000
+    config.writerMaxInflightRequests == 2
+    config.typePoolCacheMemory == 16
+    config.apiConnectTimeout == 1000
+    config.apiReadTimeout == 5000
   }
 
   def "sys props and env vars overrides for trace_agent_port and agent_port_legacy as expected"() {
@@ -270,6 +390,7 @@ class ConfigTest extends Specification {
     properties.setProperty(WRITER_TYPE, "LoggingWriter")
     properties.setProperty(AGENT_HOST, "somehost")
     properties.setProperty(TRACE_AGENT_PORT, "123")
+    properties.setProperty(TRACE_RATE_LIMIT, "10")
     properties.setProperty(PRIORITY_SAMPLING, "false")
     properties.setProperty(TRACE_RESOLVER_ENABLED, "false")
     properties.setProperty(SERVICE_MAPPING, "a:1")
@@ -278,12 +399,15 @@ class ConfigTest extends Specification {
     properties.setProperty(JMX_TAGS, "d:4")
     properties.setProperty(HEADER_TAGS, "e:5")
     properties.setProperty(HTTP_CLIENT_HOST_SPLIT_BY_DOMAIN, "true")
+    properties.setProperty(HTTP_RESOURCE_TEMPLATES, "/users/{id}")
     properties.setProperty(PARTIAL_FLUSH_MIN_SPANS, "15")
+    properties.setProperty(TAIL_SAMPLING_RATE, "0.05")
     properties.setProperty(JMX_FETCH_METRICS_CONFIGS, "/foo.yaml,/bar.yaml")
     properties.setProperty(JMX_FETCH_CHECK_PERIOD, "100")
     properties.setProperty(JMX_FETCH_REFRESH_BEANS_PERIOD, "200")
     properties.setProperty(JMX_FETCH_STATSD_HOST, "statsd host")
     properties.setProperty(JMX_FETCH_STATSD_PORT, "321")
+    properties.setProperty(MATCH_CACHE_DIRECTORY, " /tmp/match-cache ")
 
     when:
     def config = Config.get(properties)
@@ -293,6 +417,7 @@ class ConfigTest extends Specification {
     config.writerType == "LoggingWriter"
     config.agentHost == "somehost"
     config.agentPort == 123
+    config.traceRateLimit == 10
     config.prioritySamplingEnabled == false
     config.traceResolverEnabled == false
     config.serviceMapping == [a: "1"]
@@ -300,12 +425,27 @@ class ConfigTest extends Specification {
     config.mergedJmxTags == [b: "2", d: "4", (RUNTIME_ID_TAG): config.getRuntimeId(), (SERVICE): config.serviceName, (LANGUAGE_TAG_KEY): LANGUAGE_TAG_VALUE]
     config.headerTags == [e: "5"]
     config.httpClientSplitByDomain == true
+    config.httpResourceTemplates == ["/users/{id}"]
     config.partialFlushMinSpans == 15
+    config.tailSamplingRate == 0.05
     config.jmxFetchMetricsConfigs == ["/foo.yaml", "/bar.yaml"]
     config.jmxFetchCheckPeriod == 100
     config.jmxFetchRefreshBeansPeriod == 200
     config.jmxFetchStatsdHost == "statsd host"
     config.jmxFetchStatsdPort == 321
+    config.matchCacheDirectory == "/tmp/match-cache"
+  }
+
+  def "blank properties keep the default"() {
+    setup:
+    Properties properties = new Properties()
+    properties.setProperty(MATCH_CACHE_DIRECTORY, " ")
+
+    when:
+    def config = Config.get(properties)
+
+    then:
+    config.matchCacheDirectory == null
   }
 
   def "override null properties"() {
@@ -0,0 +1,107 @@
+package datadog.opentracing;
+
+import datadog.opentracing.propagation.B3HttpCodec;
+import datadog.opentracing.propagation.DatadogHttpCodec;
+import datadog.trace.common.writer.ListWriter;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.TextMapExtractAdapter;
+import io.opentracing.propagation.TextMapInjectAdapter;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per span and per extract/inject cost of the trace and span ids. Run with {@code -prof gc} to get
+ * the allocated bytes per operation ({@code gc.alloc.rate.norm}). The {@code stringIds*} methods
+ * replay what the tracer did when ids were carried as decimal strings and serve as a baseline.
+ */
+public class SpanIdBenchmark {
+  private static final BigInteger UINT64_MAX =
+      new BigInteger("2").pow(64).subtract(BigInteger.ONE);
+
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class IdState {
+    final DDTracer tracer = new DDTracer(new ListWriter());
+    final B3HttpCodec b3 = new B3HttpCodec();
+    final DatadogHttpCodec.Injector datadogInjector = new DatadogHttpCodec.Injector();
+    final DatadogHttpCodec.Extractor datadogExtractor =
+        new DatadogHttpCodec.Extractor(Collections.<String, String>emptyMap());
+    final Map<String, String> b3Headers = new HashMap<>();
+    final Map<String, String> datadogHeaders = new HashMap<>();
+    final Map<String, String> injected = new HashMap<>();
+    DDSpanContext context;
+
+    @Setup
+    public void createHeaders() {
+      b3Headers.put("x-b3-traceid", "463ac35c9f6413ad");
+      b3Headers.put("x-b3-spanid", "db7c3c56c2ce5306");
+      b3Headers.put("x-b3-sampled", "1");
+      datadogHeaders.put("x-datadog-trace-id", "5060571933882717101");
+      datadogHeaders.put("x-datadog-parent-id", "15815582334751494918");
+      datadogHeaders.put("x-datadog-sampling-priority", "1");
+      context = (DDSpanContext) tracer.buildSpan("benchmark").start().context();
+    }
+  }
+
+  @Benchmark
+  public Object startAndFinishSpan(final IdState state) {
+    final Span span = state.tracer.buildSpan("benchmark").start();
+    span.finish();
+    return span;
+  }
+
+  @Benchmark
+  public SpanContext b3Extract(final IdState state) {
+    return state.b3.extract(new TextMapExtractAdapter(state.b3Headers));
+  }
+
+  @Benchmark
+  public Map<String, String> b3Inject(final IdState state) {
+    state.injected.clear();
+    state.b3.inject(state.context, new TextMapInjectAdapter(state.injected));
+    return state.injected;
+  }
+
+  @Benchmark
+  public SpanContext datadogExtract(final IdState state) {
+    return state.datadogExtractor.extract(new TextMapExtractAdapter(state.datadogHeaders));
+  }
+
+  @Benchmark
+  public Map<String, String> datadogInject(final IdState state) {
+    state.injected.clear();
+    state.datadogInjector.inject(state.context, new TextMapInjectAdapter(state.injected));
+    return state.injected;
+  }
+
+  /** The two ids generated for a root span, and the trace id check done as it is registered. */
+  @Benchmark
+  public boolean stringIdsPerSpan() {
+    final String traceId = String.valueOf(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE));
+    final String spanId = String.valueOf(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE));
+    return traceId.equals(spanId);
+  }
+
+  /** The hex to decimal conversion and range check done on each B3 id header. */
+  @Benchmark
+  public String stringIdsB3Extract(final IdState state) {
+    final String traceId = validate(new BigInteger(state.b3Headers.get("x-b3-traceid"), 16));
+    final String spanId = validate(new BigInteger(state.b3Headers.get("x-b3-spanid"), 16));
+    return traceId.length() > spanId.length() ? traceId : spanId;
+  }
+
+  private static String validate(final BigInteger id) {
+    final String decimal = id.toString();
+    final BigInteger validate = new BigInteger(decimal);
+    if (validate.signum() < 0 || validate.compareTo(UINT64_MAX) > 0) {
+      throw new IllegalArgumentException(decimal);
+    }
+    return decimal;
+  }
+}
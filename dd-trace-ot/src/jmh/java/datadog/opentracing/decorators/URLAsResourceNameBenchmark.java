@@ -0,0 +1,88 @@
+package datadog.opentracing.decorators;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Resource names of the urls seen by http server and client spans. Run with {@code -prof gc} to get
+ * the allocated bytes per operation ({@code gc.alloc.rate.norm}). {@link #regexBaseline} replays
+ * the {@link URL} parsing and regular expressions used before and serves as a baseline.
+ */
+public class URLAsResourceNameBenchmark {
+  private static final Pattern QUERYSTRING = Pattern.compile("\\?.*$");
+  private static final Pattern PATH_MIXED_ALPHANUMERICS =
+      Pattern.compile("(?<=/)(?![vV]\\d{1,2}/)(?:[^\\/\\d\\?]*[\\d]+[^\\/\\?]*)");
+
+  private static final String[] URLS = {
+    "http://localhost:8080/",
+    "http://localhost:8080/health",
+    "http://shop.example.com/cart?session=2f1a9c0b7d",
+    "http://shop.example.com/products/1234",
+    "http://shop.example.com/products/1234/reviews?page=2&size=20",
+    "http://shop.example.com/static/js/main.8a3c1b2e.chunk.js",
+    "https://api.example.com/v1/users/42",
+    "https://api.example.com/v1/users/42/orders/9f8e7d6c-5b4a-3c2d-1e0f-a9b8c7d6e5f4",
+    "https://api.example.com/v2/search?q=running+shoes&sort=price",
+    "https://api.example.com/v2/accounts/ACC-000123/statements/2019-03",
+    "http://10.0.12.7:9200/logs-2019.03.27/_search",
+    "http://payments.internal:8443/charges/ch_1EHcGm2eZvKYlo2C",
+    "http://inventory.internal/items/sku_55521/stock#warehouse",
+    "/users/me/settings",
+    "/api/orders/77/items/3",
+    "/assets/images/logo.png",
+  };
+
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class UrlState {
+    final URLPathNormalizer cached = new URLPathNormalizer(null, 1024);
+    final URLPathNormalizer uncached = new URLPathNormalizer(null, 0);
+    final URLPathNormalizer templates =
+        new URLPathNormalizer(
+            Arrays.asList(
+                "/products/{id}",
+                "/products/{id}/reviews",
+                "/v1/users/{id}",
+                "/v1/users/{id}/orders/{order}",
+                "/v2/accounts/{account}/statements/{month}",
+                "/api/orders/{order}/items/{item}"),
+            0);
+    int index;
+
+    String next() {
+      index = (index + 1) % URLS.length;
+      return URLS[index];
+    }
+  }
+
+  @Benchmark
+  public String cached(final UrlState state) {
+    return state.cached.normalize(state.next());
+  }
+
+  @Benchmark
+  public String uncached(final UrlState state) {
+    return state.uncached.normalize(state.next());
+  }
+
+  @Benchmark
+  public String uncachedWithTemplates(final UrlState state) {
+    return state.templates.normalize(state.next());
+  }
+
+  @Benchmark
+  public String regexBaseline(final UrlState state) {
+    String path = state.next();
+    try {
+      path = new URL(path).getPath();
+    } catch (final MalformedURLException e) {
+      // use the value
+    }
+    path = QUERYSTRING.matcher(path).replaceAll("");
+    path = PATH_MIXED_ALPHANUMERICS.matcher(path).replaceAll("?");
+    return path.trim().isEmpty() ? "/" : path;
+  }
+}
@@ -0,0 +1,101 @@
+package datadog.opentracing.propagation;
+
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.TextMapExtractAdapter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Extraction over the headers of a typical browser request, as servlet and netty carriers hand
+ * them out. Run with {@code -prof gc} to get the allocated bytes per operation ({@code
+ * gc.alloc.rate.norm}). {@link #lowerCasedKeys} replays the per header work done before header
+ * names were looked up in place and serves as a baseline.
+ */
+public class HttpCodecBenchmark {
+
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class HeaderState {
+    @Param({"false", "true"})
+    boolean baggage;
+
+    final B3HttpCodec b3 = new B3HttpCodec();
+    final DatadogHttpCodec.Extractor datadog =
+        new DatadogHttpCodec.Extractor(Collections.<String, String>emptyMap());
+    final Map<String, String> b3Headers = new LinkedHashMap<>();
+    final Map<String, String> datadogHeaders = new LinkedHashMap<>();
+
+    @Setup
+    public void createHeaders() {
+      browserHeaders(b3Headers);
+      b3Headers.put("X-B3-TraceId", "463ac35c9f6413ad");
+      b3Headers.put("X-B3-SpanId", "a2fb4a1d1a96d312");
+      b3Headers.put("X-B3-ParentSpanId", "0020000000000001");
+      b3Headers.put("X-B3-Sampled", "1");
+
+      browserHeaders(datadogHeaders);
+      datadogHeaders.put("X-Datadog-Trace-Id", "5060571933882717101");
+      datadogHeaders.put("X-Datadog-Parent-Id", "11743375093733479186");
+      datadogHeaders.put("X-Datadog-Sampling-Priority", "1");
+
+      if (baggage) {
+        b3Headers.put("Ot-Baggage-User", "john.doe");
+        b3Headers.put("Ot-Baggage-Region", "eu west");
+        datadogHeaders.put("Ot-Baggage-User", "john.doe");
+        datadogHeaders.put("Ot-Baggage-Region", "eu west");
+      }
+    }
+
+    private static void browserHeaders(final Map<String, String> headers) {
+      headers.put("Host", "shop.example.com");
+      headers.put("Connection", "keep-alive");
+      headers.put("Cache-Control", "max-age=0");
+      headers.put("Upgrade-Insecure-Requests", "1");
+      headers.put(
+          "User-Agent",
+          "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) "
+              + "Chrome/73.0.3683.86 Safari/537.36");
+      headers.put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+      headers.put("Referer", "https://shop.example.com/cart");
+      headers.put("Accept-Encoding", "gzip, deflate, br");
+      headers.put("Accept-Language", "en-US,en;q=0.9");
+      headers.put("Cookie", "session=2f1a9c0b7d; _ga=GA1.2.1469211112.1553612845");
+      headers.put("X-Forwarded-For", "203.0.113.195");
+      headers.put("X-Request-Id", "f058ebd6-02f7-4d3f-942e-904344e8cde5");
+    }
+  }
+
+  @Benchmark
+  public SpanContext b3Extract(final HeaderState state) {
+    return state.b3.extract(new TextMapExtractAdapter(state.b3Headers));
+  }
+
+  @Benchmark
+  public SpanContext datadogExtract(final HeaderState state) {
+    return state.datadog.extract(new TextMapExtractAdapter(state.datadogHeaders));
+  }
+
+  /** Header matching as done before, without the id parsing. */
+  @Benchmark
+  public int lowerCasedKeys(final HeaderState state) throws UnsupportedEncodingException {
+    int matched = 0;
+    for (final Map.Entry<String, String> entry : state.b3Headers.entrySet()) {
+      final String key = entry.getKey().toLowerCase();
+      if ("x-b3-traceid".equalsIgnoreCase(key)
+          || "x-b3-spanid".equalsIgnoreCase(key)
+          || "x-b3-sampled".equalsIgnoreCase(key)
+          || "x-b3-flags".equalsIgnoreCase(key)) {
+        matched++;
+      } else if (key.startsWith("ot-baggage-")) {
+        matched += URLDecoder.decode(entry.getValue(), "UTF-8").length();
+      }
+    }
+    return matched;
+  }
+}
@@ -0,0 +1,73 @@
+package datadog.opentracing.scopemanager;
+
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDTracer;
+import datadog.trace.common.writer.ListWriter;
+import datadog.trace.context.ScopeListener;
+import io.opentracing.Scope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Nested activate/close cycles, like reactive operators activating the span of the subscription
+ * around each signal. {@link #sameSpan} activates the active span again, {@link #childSpans}
+ * activates a different span at each level. A listener counting notifications stands in for the
+ * MDC injection.
+ */
+public class ScopeManagerBenchmark {
+
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class ScopeState {
+    @Param({"1", "4"})
+    int depth;
+
+    final DDTracer tracer = new DDTracer(new ListWriter());
+    final ContextualScopeManager scopeManager = tracer.scopeManager();
+    DDSpan[] spans;
+    long notifications;
+
+    @Setup
+    public void createSpans() {
+      scopeManager.addScopeListener(
+          new ScopeListener() {
+            @Override
+            public void afterScopeActivated() {
+              notifications++;
+            }
+
+            @Override
+            public void afterScopeClosed() {
+              notifications++;
+            }
+          });
+      spans = new DDSpan[depth + 1];
+      for (int i = 0; i < spans.length; i++) {
+        spans[i] = (DDSpan) tracer.buildSpan("span-" + i).ignoreActiveSpan().start();
+      }
+    }
+  }
+
+  @Benchmark
+  public void sameSpan(final ScopeState state, final Blackhole blackhole) {
+    activate(state, 0, 0, blackhole);
+  }
+
+  @Benchmark
+  public void childSpans(final ScopeState state, final Blackhole blackhole) {
+    activate(state, 0, 1, blackhole);
+  }
+
+  private static void activate(
+      final ScopeState state, final int level, final int step, final Blackhole blackhole) {
+    final Scope scope = state.scopeManager.activate(state.spans[level * step], false);
+    if (level < state.depth) {
+      activate(state, level + 1, step, blackhole);
+    } else {
+      blackhole.consume(state.scopeManager.active());
+    }
+    scope.close();
+  }
+}
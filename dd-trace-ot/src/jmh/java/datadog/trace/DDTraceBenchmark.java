@@ -7,6 +7,10 @@ import io.opentracing.Tracer;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.State;
 
+/**
+ * Run with {@code -prof gc} to get the allocated bytes per span ({@code gc.alloc.rate.norm}), most
+ * of it is the span context and its tags.
+ */
 public class DDTraceBenchmark {
   public static String SPAN_NAME = "span-benchmark";
 
@@ -35,6 +39,25 @@ public class DDTraceBenchmark {
     return span;
   }
 
+  /** The tags a typical http client integration sets, decorators included. */
+  @Benchmark
+  public Object testFullSpanWithTags(final TraceState state) {
+    final Span span =
+        state
+            .tracer
+            .buildSpan(SPAN_NAME)
+            .withTag("component", "okhttp")
+            .withTag("span.kind", "client")
+            .withTag("http.method", "GET")
+            .withTag("http.url", "http://localhost:8080/users")
+            .withTag("peer.hostname", "localhost")
+            .withTag("peer.port", 8080)
+            .start();
+    span.setTag("http.status_code", 200);
+    span.finish();
+    return span;
+  }
+
   @Benchmark
   public Object testBuildStartSpanActive(final TraceState state) {
     return state.tracer.buildSpan(SPAN_NAME).startActive(true);
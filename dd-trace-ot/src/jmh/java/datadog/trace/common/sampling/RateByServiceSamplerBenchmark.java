@@ -0,0 +1,70 @@
+package datadog.trace.common.sampling;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDTracer;
+import datadog.trace.common.writer.ListWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Priority sampling of root spans from many threads sharing one sampler, as every request thread
+ * of an application server does. {@link #synchronizedBaseline} replays the sampler as it was
+ * before the rates were published as a snapshot: one monitor, a key string built per span and a
+ * random draw.
+ */
+@Threads(32)
+public class RateByServiceSamplerBenchmark {
+  private static final String RATES =
+      "{\"rate_by_service\": {\"service:,env:\":1.0, \"service:spock,env:test\":0.5,"
+          + " \"service:web,env:prod\":0.25, \"service:db,env:prod\":0.75}}";
+
+  @State(Scope.Benchmark)
+  public static class SamplerState {
+    final RateByServiceSampler sampler = new RateByServiceSampler();
+    final Map<String, Double> baselineRates = new HashMap<>();
+
+    @Setup
+    public void updateRates() throws IOException {
+      sampler.onResponse("traces", new ObjectMapper().readTree(RATES));
+      baselineRates.put("service:spock,env:test", 0.5);
+      baselineRates.put("service:web,env:prod", 0.25);
+      baselineRates.put("service:db,env:prod", 0.75);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class SpanState {
+    DDSpan span;
+
+    @Setup
+    public void createSpan() {
+      final DDTracer tracer = new DDTracer(new ListWriter());
+      span = (DDSpan) tracer.buildSpan("servlet.request").withServiceName("web").start();
+      span.setTag("env", "prod");
+    }
+  }
+
+  @Benchmark
+  public DDSpan initializeSamplingPriority(final SamplerState sampler, final SpanState state) {
+    sampler.sampler.initializeSamplingPriority(state.span);
+    return state.span;
+  }
+
+  @Benchmark
+  public boolean synchronizedBaseline(final SamplerState sampler, final SpanState state) {
+    synchronized (sampler) {
+      final Object env = state.span.getTags().get("env");
+      final String key =
+          "service:" + state.span.getServiceName() + ",env:" + (env == null ? "" : env);
+      final Double rate = sampler.baselineRates.get(key);
+      return Math.random() <= (rate == null ? 1.0 : rate);
+    }
+  }
+}
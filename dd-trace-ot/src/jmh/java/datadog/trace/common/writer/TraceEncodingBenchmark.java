@@ -0,0 +1,144 @@
+package datadog.trace.common.writer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDTracer;
+import datadog.trace.api.DDSpanTypes;
+import datadog.trace.api.DDTags;
+import datadog.trace.common.util.Ids;
+import io.opentracing.Scope;
+import io.opentracing.tag.Tags;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the Jackson based serializations used before with {@link MsgPackTraceEncoder} and
+ * {@link ZipkinV2JsonEncoder}. Run with {@code -prof gc} to get the allocated bytes per operation
+ * ({@code gc.alloc.rate.norm}).
+ */
+public class TraceEncodingBenchmark {
+  private static final int TRACE_COUNT = 100;
+
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class TraceState {
+    final ObjectMapper msgPackMapper = new ObjectMapper(new MessagePackFactory());
+    final ObjectMapper jsonMapper = new ObjectMapper();
+    final MsgPackTraceEncoder msgPackEncoder = new MsgPackTraceEncoder();
+    final ZipkinV2JsonEncoder zipkinEncoder = new ZipkinV2JsonEncoder(jsonMapper.getFactory());
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+    final List<List<DDSpan>> traces = new ArrayList<>();
+
+    @Setup
+    public void createTraces() throws IOException {
+      final ListWriter writer = new ListWriter();
+      final DDTracer tracer = new DDTracer(writer);
+      for (int i = 0; i < TRACE_COUNT; i++) {
+        try (final Scope root =
+            tracer
+                .buildSpan("servlet.request")
+                .withTag("span.kind", "server")
+                .withTag("http.method", "GET")
+                .withTag("http.url", "http://localhost:8080/users/" + i)
+                .withTag("http.status_code", 200)
+                .startActive(true)) {
+          tracer
+              .buildSpan("database.query")
+              .withTag("db.type", "postgresql")
+              .withTag("db.instance", "users")
+              .withTag("db.statement", "SELECT * FROM users WHERE id = ?")
+              .start()
+              .finish();
+        }
+      }
+      traces.addAll(writer);
+      tracer.close();
+
+      // The streaming encoder is only a valid replacement if it writes exactly the same bytes.
+      zipkinEncoder.encode(traces, out);
+      final byte[] streamed = out.toByteArray();
+      if (!Arrays.equals(streamed, jsonMapper.writeValueAsBytes(encodeZipkinTree(this)))) {
+        throw new IllegalStateException("Streamed Zipkin JSON differs from the tree encoding");
+      }
+    }
+  }
+
+  @Benchmark
+  public byte[] msgPackJackson(final TraceState state) throws IOException {
+    return state.msgPackMapper.writeValueAsBytes(state.traces);
+  }
+
+  @Benchmark
+  public int msgPackStreaming(final TraceState state) {
+    final MsgPackTraceEncoder.Buffer buffer = state.msgPackEncoder.encode(state.traces);
+    final int size = buffer.size();
+    state.msgPackEncoder.release(buffer);
+    return size;
+  }
+
+  @Benchmark
+  public int zipkinTree(final TraceState state) throws IOException {
+    state.out.reset();
+    state.jsonMapper.writeValue(state.out, encodeZipkinTree(state));
+    return state.out.size();
+  }
+
+  @Benchmark
+  public int zipkinStreaming(final TraceState state) throws IOException {
+    state.out.reset();
+    state.zipkinEncoder.encode(state.traces, state.out);
+    return state.out.size();
+  }
+
+  /** The tree based encoding ZipkinV2Api used before streaming, kept here as a baseline. */
+  static ArrayNode encodeZipkinTree(final TraceState state) {
+    final ArrayNode spanArr = state.jsonMapper.createArrayNode();
+    for (final List<DDSpan> trace : state.traces) {
+      for (final DDSpan span : trace) {
+        final ObjectNode spanNode = state.jsonMapper.createObjectNode();
+        spanNode.put("id", Ids.idToHex(span.getSpanId()));
+        spanNode.put("name", span.getOperationName());
+        spanNode.put("traceId", Ids.idToHex(span.getTraceId()));
+        spanNode.put("parentId", Ids.idToHex(span.getParentId()));
+        spanNode.put("kind", deriveKind(span));
+        spanNode.putObject("localEndpoint").put("serviceName", span.getServiceName());
+        spanNode.put("timestamp", span.getStartTime() / 1000);
+        spanNode.put("duration", span.getDurationNano() / 1000);
+        final ObjectNode tagNode = spanNode.putObject("tags");
+        for (final Map.Entry<String, Object> tag : span.getTags().entrySet()) {
+          if (Tags.SPAN_KIND.getKey().equals(tag.getKey())) {
+            continue;
+          }
+          tagNode.put(tag.getKey(), tag.getValue().toString());
+        }
+        if (span.getResourceName() != null && !span.getResourceName().isEmpty()) {
+          tagNode.put(DDTags.RESOURCE_NAME, span.getResourceName());
+        }
+        spanArr.add(spanNode);
+      }
+    }
+    return spanArr;
+  }
+
+  private static String deriveKind(final DDSpan span) {
+    final Object kind = span.getTags().get(Tags.SPAN_KIND.getKey());
+    if (kind instanceof String) {
+      return (String) kind;
+    }
+    if (DDSpanTypes.HTTP_CLIENT.equals(span.getSpanType())) {
+      return Tags.SPAN_KIND_CLIENT;
+    } else if (DDSpanTypes.HTTP_SERVER.equals(span.getSpanType())) {
+      return Tags.SPAN_KIND_SERVER;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,167 @@
+package datadog.trace.common.writer;
+
+import datadog.trace.api.Config;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compares the lock-free {@link WriterQueue} with the previous synchronized implementation. A
+ * background thread drains each queue every millisecond, like the agent writer flush does.
+ */
+public class WriterQueueBenchmark {
+  private static final int CAPACITY = Config.DEFAULT_WRITER_MAX_QUEUED_TRACES;
+  private static final Object TRACE = new Object();
+
+  @State(Scope.Benchmark)
+  public static class LockFreeState {
+    final WriterQueue<Object> queue = new WriterQueue<>(CAPACITY);
+    Thread drainer;
+
+    @Setup(Level.Trial)
+    public void startDrainer() {
+      drainer =
+          startDrainer(
+              new Runnable() {
+                @Override
+                public void run() {
+                  queue.getAll();
+                }
+              });
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDrainer() throws InterruptedException {
+      drainer.interrupt();
+      drainer.join();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class SynchronizedState {
+    final SynchronizedWriterQueue<Object> queue = new SynchronizedWriterQueue<>(CAPACITY);
+    Thread drainer;
+
+    @Setup(Level.Trial)
+    public void startDrainer() {
+      drainer =
+          startDrainer(
+              new Runnable() {
+                @Override
+                public void run() {
+                  queue.getAll();
+                }
+              });
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDrainer() throws InterruptedException {
+      drainer.interrupt();
+      drainer.join();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object lockFree01(final LockFreeState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object lockFree04(final LockFreeState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Object lockFree16(final LockFreeState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Object lockFree64(final LockFreeState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object synchronized01(final SynchronizedState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object synchronized04(final SynchronizedState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Object synchronized16(final SynchronizedState state) {
+    return state.queue.add(TRACE);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public Object synchronized64(final SynchronizedState state) {
+    return state.queue.add(TRACE);
+  }
+
+  private static Thread startDrainer(final Runnable drain) {
+    final Thread thread =
+        new Thread("writer-queue-drainer") {
+          @Override
+          public void run() {
+            while (!isInterrupted()) {
+              drain.run();
+              try {
+                TimeUnit.MILLISECONDS.sleep(1);
+              } catch (final InterruptedException e) {
+                return;
+              }
+            }
+          }
+        };
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /** The monitor based queue used before the lock-free one, kept here as a baseline. */
+  static class SynchronizedWriterQueue<T> {
+    private final int capacity;
+    private volatile ArrayList<T> list;
+
+    SynchronizedWriterQueue(final int capacity) {
+      this.capacity = capacity;
+      list = new ArrayList<>(capacity);
+    }
+
+    synchronized List<T> getAll() {
+      final List<T> all = list;
+      list = new ArrayList<>(capacity);
+      return all;
+    }
+
+    synchronized T add(final T element) {
+      T removed = null;
+      if (list.size() < capacity) {
+        list.add(element);
+      } else {
+        final int index = ThreadLocalRandom.current().nextInt(0, list.size());
+        removed = list.set(index, element);
+      }
+      return removed;
+    }
+  }
+}
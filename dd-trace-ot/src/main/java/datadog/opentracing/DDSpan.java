@@ -58,6 +58,9 @@ public class DDSpan implements Span, MutableSpan {
   /** Implementation detail. Stores the weak reference to this span. Used by TraceCollection. */
   volatile WeakReference<DDSpan> ref;
 
+  /** Taken once the span is handed to the writer, see {@link #snapshot()} */
+  private volatile SpanSnapshot snapshot;
+
   /**
    * Spans should be constructed using the builder, not by calling the constructor directly.
    *
@@ -85,9 +88,23 @@ public class DDSpan implements Span, MutableSpan {
     return durationNano.get() != 0;
   }
 
+  /**
+   * Immutable copy of the span, taken on the first call. The tracer takes it when the trace is
+   * written, so tags set on the span after that are not exported.
+   */
+  public SpanSnapshot snapshot() {
+    SpanSnapshot snapshot = this.snapshot;
+    if (snapshot == null) {
+      snapshot = context.snapshot(getStartTime(), getDurationNano());
+      this.snapshot = snapshot;
+    }
+    return snapshot;
+  }
+
   private void finishAndAddToTrace(final long durationNano) {
     // ensure a min duration of 1
     if (this.durationNano.compareAndSet(0, Math.max(1, durationNano))) {
+      context.runDeferredDecorators();
       log.debug("Finished: {}", this);
       context.getTrace().addSpan(this);
     } else {
@@ -117,7 +134,7 @@ public class DDSpan implements Span, MutableSpan {
    */
   @JsonIgnore
   public final boolean isRootSpan() {
-    return "0".equals(context.getParentId());
+    return context.getParentIdBits() == 0;
   }
 
   @Override
@@ -1,15 +1,14 @@
 package datadog.opentracing;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import datadog.opentracing.decorators.AbstractDecorator;
 import datadog.trace.api.DDTags;
 import datadog.trace.api.sampling.PrioritySampling;
+import datadog.trace.common.util.Ids;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -38,17 +37,30 @@ public class DDSpanContext implements io.opentracing.SpanContext {
   private final Map<String, String> baggageItems;
 
   // Not Shared with other span contexts
-  private final String traceId;
-  private final String spanId;
-  private final String parentId;
+  /** Upper 64 bits of the trace id, only set for 128 bit B3 trace ids */
+  private final long traceIdHigh;
+
+  private final long traceIdLow;
+  private final long spanId;
+  /** Zero for root spans */
+  private final long parentId;
+
+  // Decimal forms of the ids, only built when something asks for them
+  private String traceIdString;
+  private String spanIdString;
+  private String parentIdString;
 
   /** Tags are associated to the current span, they will not propagate to the children span */
-  private final Map<String, Object> tags = new ConcurrentHashMap<>();
+  private final TagMap tags;
 
   /** The service name is required, otherwise the span are dropped by the agent */
   private volatile String serviceName;
   /** The resource associated to the service (server_web, database, etc.) */
   private volatile String resourceName;
+  /** Set when a tag with deferred decorators is set, see {@link #runDeferredDecorators()} */
+  private boolean decorationDeferred;
+  /** The resource name when deferred decorators were last due */
+  private String resourceNameBeforeDeferral;
   /** Each span have an operation name describing the current span */
   private volatile String operationName;
   /** The type of the span. If null, the Datadog Agent will report as a custom */
@@ -63,12 +75,16 @@ public class DDSpanContext implements io.opentracing.SpanContext {
    */
   private boolean samplingPriorityLocked = false;
   /** Metrics on the span */
-  private final AtomicReference<Map<String, Number>> metrics = new AtomicReference<>();
+  private volatile MetricMap metrics;
 
   // Additional Metadata
   private final String threadName = Thread.currentThread().getName();
   private final long threadId = Thread.currentThread().getId();
 
+  /**
+   * Creates a context from decimal ids. Trace ids above the unsigned 64 bit range are split into
+   * high and low bits.
+   */
   public DDSpanContext(
       final String traceId,
       final String spanId,
@@ -83,16 +99,46 @@ public class DDSpanContext implements io.opentracing.SpanContext {
       final Map<String, Object> tags,
       final PendingTrace trace,
       final DDTracer tracer) {
+    this(
+        Ids.parseHighBits(traceId),
+        Ids.parseLowBits(traceId),
+        Ids.parseUnsignedLong(spanId),
+        Ids.parseUnsignedLong(parentId),
+        serviceName,
+        operationName,
+        resourceName,
+        samplingPriority,
+        baggageItems,
+        errorFlag,
+        spanType,
+        tags,
+        trace,
+        tracer);
+  }
+
+  public DDSpanContext(
+      final long traceIdHigh,
+      final long traceIdLow,
+      final long spanId,
+      final long parentId,
+      final String serviceName,
+      final String operationName,
+      final String resourceName,
+      final int samplingPriority,
+      final Map<String, String> baggageItems,
+      final boolean errorFlag,
+      final String spanType,
+      final Map<String, Object> tags,
+      final PendingTrace trace,
+      final DDTracer tracer) {
 
     assert tracer != null;
     assert trace != null;
     this.tracer = tracer;
     this.trace = trace;
 
-    assert traceId != null;
-    assert spanId != null;
-    assert parentId != null;
-    this.traceId = traceId;
+    this.traceIdHigh = traceIdHigh;
+    this.traceIdLow = traceIdLow;
     this.spanId = spanId;
     this.parentId = parentId;
 
@@ -102,8 +148,11 @@ public class DDSpanContext implements io.opentracing.SpanContext {
       this.baggageItems = baggageItems;
     }
 
-    if (tags != null) {
-      this.tags.putAll(tags);
+    if (tags instanceof TagMap) {
+      // Built for this context by the span builder
+      this.tags = (TagMap) tags;
+    } else {
+      this.tags = tags == null ? new TagMap() : new TagMap(tags);
     }
 
     this.serviceName = serviceName;
@@ -117,18 +166,51 @@ public class DDSpanContext implements io.opentracing.SpanContext {
     }
   }
 
+  /** @return the trace id in decimal form */
   public String getTraceId() {
+    String traceId = traceIdString;
+    if (traceId == null) {
+      traceId = traceIdString = Ids.toUnsignedString(traceIdHigh, traceIdLow);
+    }
     return traceId;
   }
 
+  /** @return the parent span id in decimal form, "0" for root spans */
   public String getParentId() {
+    String parentId = parentIdString;
+    if (parentId == null) {
+      parentId = parentIdString = Ids.toUnsignedString(this.parentId);
+    }
     return parentId;
   }
 
+  /** @return the span id in decimal form */
   public String getSpanId() {
+    String spanId = spanIdString;
+    if (spanId == null) {
+      spanId = spanIdString = Ids.toUnsignedString(this.spanId);
+    }
     return spanId;
   }
 
+  /** @return the upper 64 bits of a 128 bit trace id, zero for 64 bit trace ids */
+  public long getTraceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /** @return the lower 64 bits of the trace id, the whole id for 64 bit trace ids */
+  public long getTraceIdLow() {
+    return traceIdLow;
+  }
+
+  public long getSpanIdBits() {
+    return spanId;
+  }
+
+  public long getParentIdBits() {
+    return parentId;
+  }
+
   public String getServiceName() {
     return serviceName;
   }
@@ -267,15 +349,15 @@ public class DDSpanContext implements io.opentracing.SpanContext {
   }
 
   public Map<String, Number> getMetrics() {
-    final Map<String, Number> metrics = this.metrics.get();
+    final Map<String, Number> metrics = this.metrics;
     return metrics == null ? EMPTY_METRICS : metrics;
   }
 
-  public void setMetric(final String key, final Number value) {
-    if (metrics.get() == null) {
-      metrics.compareAndSet(null, new ConcurrentHashMap<String, Number>());
+  public synchronized void setMetric(final String key, final Number value) {
+    if (metrics == null) {
+      metrics = new MetricMap();
     }
-    metrics.get().put(key, value);
+    metrics.put(key, value);
   }
   /**
    * Add a tag to the span. Tags are not propagated to the children
@@ -289,26 +371,51 @@ public class DDSpanContext implements io.opentracing.SpanContext {
       return;
     }
 
-    boolean addTag = true;
-
-    // Call decorators
-    final List<AbstractDecorator> decorators = tracer.getSpanContextDecorators(tag);
-    if (decorators != null) {
-      for (final AbstractDecorator decorator : decorators) {
-        try {
-          addTag &= decorator.shouldSetTag(this, tag, value);
-        } catch (final Throwable ex) {
-          log.debug(
-              "Could not decorate the span decorator={}: {}",
-              decorator.getClass().getSimpleName(),
-              ex.getMessage());
-        }
-      }
+    final DecoratorTable.Entry decorators = tracer.getDecoratorTable().get(tag);
+    if (decorators == null || decorate(decorators, tag, value)) {
+      tags.put(tag, value);
     }
+  }
 
-    if (addTag) {
-      tags.put(tag, value);
+  /** @return false if one of the decorators asked for the tag not to be set */
+  synchronized boolean decorate(
+      final DecoratorTable.Entry decorators, final String tag, final Object value) {
+    if (decorators.deferred.length > 0) {
+      decorationDeferred = true;
+      resourceNameBeforeDeferral = resourceName;
     }
+    return DecoratorTable.apply(decorators.immediate, this, tag, value);
+  }
+
+  /**
+   * Runs the deferred decorators against the final tags, called once as the span finishes. Like
+   * when decorators run as the tag is set, a resource name set after the tag takes precedence.
+   */
+  synchronized void runDeferredDecorators() {
+    if (!decorationDeferred) {
+      return;
+    }
+    decorationDeferred = false;
+    if (resourceName != resourceNameBeforeDeferral) {
+      return;
+    }
+    for (final DecoratorTable.Entry decorators : tracer.getDecoratorTable().deferredEntries()) {
+      final Object value = tags.get(decorators.tag);
+      if (value != null
+          && !DecoratorTable.apply(decorators.deferred, this, decorators.tag, value)) {
+        tags.remove(decorators.tag);
+      }
+    }
+  }
+
+  /** @return the value of a single tag, without the thread and type tags added by getTags */
+  public Object getTag(final String tag) {
+    return tags.get(tag);
+  }
+
+  /** @return the number of tags set, read without locking, so possibly not up to date */
+  public int getTagCount() {
+    return tags.size();
   }
 
   public synchronized Map<String, Object> getTags() {
@@ -321,16 +428,98 @@ public class DDSpanContext implements io.opentracing.SpanContext {
     return Collections.unmodifiableMap(tags);
   }
 
+  /** Copies the span state in one go, without adding the thread and type tags to the tag map. */
+  synchronized SpanSnapshot snapshot(final long startTime, final long durationNano) {
+    final String spanType = getSpanType();
+    final int extraTags = spanType == null ? 2 : 3;
+    final String[] tagKeys = new String[tags.size() + extraTags];
+    final Object[] tagValues = new Object[tagKeys.length];
+    int tagCount = 0;
+    for (int i = 0; i < tags.slotCount(); i++) {
+      final String key = tags.keyAt(i);
+      final Object value = tags.valueAt(i);
+      if (value != null && tagCount < tagKeys.length - extraTags && !isAddedTag(key)) {
+        tagKeys[tagCount] = key;
+        tagValues[tagCount++] = value;
+      }
+    }
+    tagKeys[tagCount] = DDTags.THREAD_NAME;
+    tagValues[tagCount++] = threadName;
+    tagKeys[tagCount] = DDTags.THREAD_ID;
+    tagValues[tagCount++] = threadId;
+    if (spanType != null) {
+      tagKeys[tagCount] = DDTags.SPAN_TYPE;
+      tagValues[tagCount++] = spanType;
+    }
+
+    String[] baggageKeys = new String[baggageItems.size()];
+    String[] baggageValues = new String[baggageKeys.length];
+    int baggageCount = 0;
+    for (final Map.Entry<String, String> entry : baggageItems.entrySet()) {
+      final String key = entry.getKey();
+      if (baggageCount < baggageKeys.length && !tags.containsKey(key) && !isAddedTag(key)) {
+        baggageKeys[baggageCount] = key;
+        baggageValues[baggageCount++] = entry.getValue();
+      }
+    }
+
+    final Map<String, Number> metrics = getMetrics();
+    String[] metricKeys = new String[metrics.size()];
+    Number[] metricValues = new Number[metricKeys.length];
+    int metricCount = 0;
+    for (final Map.Entry<String, Number> entry : metrics.entrySet()) {
+      if (metricCount < metricKeys.length) {
+        metricKeys[metricCount] = entry.getKey();
+        metricValues[metricCount++] = entry.getValue();
+      }
+    }
+
+    // Concurrent maps may have shrunk while being copied
+    if (baggageCount < baggageKeys.length) {
+      baggageKeys = Arrays.copyOf(baggageKeys, baggageCount);
+      baggageValues = Arrays.copyOf(baggageValues, baggageCount);
+    }
+    if (metricCount < metricKeys.length) {
+      metricKeys = Arrays.copyOf(metricKeys, metricCount);
+      metricValues = Arrays.copyOf(metricValues, metricCount);
+    }
+    return new SpanSnapshot(
+        traceIdHigh,
+        traceIdLow,
+        spanId,
+        parentId,
+        startTime,
+        durationNano,
+        serviceName,
+        operationName,
+        resourceName,
+        spanType,
+        errorFlag,
+        tagCount < tagKeys.length ? Arrays.copyOf(tagKeys, tagCount) : tagKeys,
+        tagCount < tagValues.length ? Arrays.copyOf(tagValues, tagCount) : tagValues,
+        baggageKeys,
+        baggageValues,
+        metricKeys,
+        metricValues);
+  }
+
+  /** Tags getTags() puts in the tag map on each call */
+  private static boolean isAddedTag(final String key) {
+    return DDTags.THREAD_NAME.equals(key)
+        || DDTags.THREAD_ID.equals(key)
+        || DDTags.SPAN_TYPE.equals(key);
+  }
+
   @Override
   public String toString() {
     final StringBuilder s =
         new StringBuilder()
             .append("DDSpan [ t_id=")
-            .append(traceId)
+            .append(getTraceId())
             .append(", s_id=")
-            .append(spanId)
+            .append(getSpanId())
             .append(", p_id=")
-            .append(parentId)
+            .append(getParentId())
             .append("] trace=")
             .append(getServiceName())
             .append("/")
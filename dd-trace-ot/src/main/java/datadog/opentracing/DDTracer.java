@@ -17,6 +17,7 @@ import datadog.trace.api.interceptor.TraceInterceptor;
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.common.sampling.RateByServiceSampler;
 import datadog.trace.common.sampling.Sampler;
+import datadog.trace.common.sampling.TailSamplingInterceptor;
 import datadog.trace.common.writer.DDAgentWriter;
 import datadog.trace.common.writer.DDApi;
 import datadog.trace.common.writer.Writer;
@@ -41,9 +42,9 @@ import java.util.Properties;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
 import java.util.SortedSet;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -71,15 +72,17 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
   /** number of spans in a pending trace before they get flushed */
   @Getter private final int partialFlushMinSpans;
 
+  /** Expires pending traces in strict lifecycle mode, null when spans are tracked by weak refs */
+  private final PendingTraceWheel pendingTraceWheel;
+
   /**
    * JVM shutdown callback, keeping a reference to it to remove this if DDTracer gets destroyed
    * earlier
    */
   private final Thread shutdownCallback;
 
-  /** Span context decorators */
-  private final Map<String, List<AbstractDecorator>> spanContextDecorators =
-      new ConcurrentHashMap<>();
+  /** Span context decorators, replaced as a whole when one is added */
+  private volatile DecoratorTable decoratorTable = DecoratorTable.EMPTY;
 
   private final SortedSet<TraceInterceptor> interceptors =
       new ConcurrentSkipListSet<>(
@@ -127,7 +130,11 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
         config.getServiceMapping(),
         config.getHeaderTags(),
         config.getPartialFlushMinSpans(),
-        config.isUseB3Propagation());
+        config.isUseB3Propagation(),
+        config.isTraceStrictLifecycle(),
+        config.getTracePendingTimeout());
+    addTailSampling(config);
+    setDecoratorsDeferred(config.isDecoratorsDeferred());
     log.debug("Using config: {}", config);
   }
 
@@ -163,7 +170,11 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
         config.getServiceMapping(),
         config.getHeaderTags(),
         config.getPartialFlushMinSpans(),
-        config.isUseB3Propagation());
+        config.isUseB3Propagation(),
+        config.isTraceStrictLifecycle(),
+        config.getTracePendingTimeout());
+    addTailSampling(config);
+    setDecoratorsDeferred(config.isDecoratorsDeferred());
   }
 
   /**
@@ -226,6 +237,36 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
       final Map<String, String> taggedHeaders,
       final int partialFlushMinSpans,
       final boolean useB3Propagation) {
+    this(
+        serviceName,
+        writer,
+        sampler,
+        runtimeTags,
+        defaultSpanTags,
+        serviceNameMappings,
+        taggedHeaders,
+        partialFlushMinSpans,
+        useB3Propagation,
+        false,
+        0);
+  }
+
+  /**
+   * @param strictTraceLifecycle only count the spans of pending traces instead of watching them
+   *     with weak references, traces still pending after pendingTraceTimeoutSeconds are dropped
+   */
+  public DDTracer(
+      final String serviceName,
+      final Writer writer,
+      final Sampler sampler,
+      final Map<String, String> runtimeTags,
+      final Map<String, String> defaultSpanTags,
+      final Map<String, String> serviceNameMappings,
+      final Map<String, String> taggedHeaders,
+      final int partialFlushMinSpans,
+      final boolean useB3Propagation,
+      final boolean strictTraceLifecycle,
+      final int pendingTraceTimeoutSeconds) {
     assert runtimeTags != null;
     assert defaultSpanTags != null;
     assert serviceNameMappings != null;
@@ -239,6 +280,10 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
     this.runtimeTags = runtimeTags;
     this.serviceNameMappings = serviceNameMappings;
     this.partialFlushMinSpans = partialFlushMinSpans;
+    pendingTraceWheel =
+        strictTraceLifecycle
+            ? new PendingTraceWheel(pendingTraceTimeoutSeconds, TimeUnit.SECONDS)
+            : null;
 
     shutdownCallback = new ShutdownHook(this);
     try {
@@ -286,7 +331,11 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
    * @return the list of span context decorators
    */
   public List<AbstractDecorator> getSpanContextDecorators(final String tag) {
-    return spanContextDecorators.get(tag);
+    return decoratorTable.decorators(tag);
+  }
+
+  DecoratorTable getDecoratorTable() {
+    return decoratorTable;
   }
 
   /**
@@ -294,15 +343,16 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
    *
    * @param decorator The decorator in the list
    */
-  public void addDecorator(final AbstractDecorator decorator) {
-
-    List<AbstractDecorator> list = spanContextDecorators.get(decorator.getMatchingTag());
-    if (list == null) {
-      list = new ArrayList<>();
-    }
-    list.add(decorator);
+  public synchronized void addDecorator(final AbstractDecorator decorator) {
+    decoratorTable = decoratorTable.with(decorator);
+  }
 
-    spanContextDecorators.put(decorator.getMatchingTag(), list);
+  /**
+   * Run the decorators that support it when spans finish rather than each time their tag is set,
+   * see {@link AbstractDecorator#isDeferrable()}.
+   */
+  public synchronized void setDecoratorsDeferred(final boolean deferred) {
+    decoratorTable = decoratorTable.withDeferral(deferred);
   }
 
   public void addScopeContext(final ScopeContext context) {
@@ -390,6 +440,10 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
     // TODO: current trace implementation doesn't guarantee that first span is the root span
     // We may want to reconsider way this check is done.
     if (!writtenTrace.isEmpty() && sampler.sample(writtenTrace.get(0))) {
+      // Freeze the spans before the writer thread encodes them
+      for (final DDSpan span : writtenTrace) {
+        span.snapshot();
+      }
       writer.write(writtenTrace);
     }
   }
@@ -430,9 +484,16 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
   @Override
   public void close() {
     PendingTrace.close();
+    if (pendingTraceWheel != null) {
+      pendingTraceWheel.close();
+    }
     writer.close();
   }
 
+  PendingTraceWheel getPendingTraceWheel() {
+    return pendingTraceWheel;
+  }
+
   @Override
   public String toString() {
     return "DDTracer-"
@@ -448,6 +509,18 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
         + '}';
   }
 
+  private void addTailSampling(final Config config) {
+    if (!config.isTailSamplingEnabled()) {
+      return;
+    }
+    if (config.isPrioritySamplingEnabled()) {
+      // The agent computes stats from every trace, dropping some here would skew them.
+      log.warn("Tail sampling ignored, priority sampling sends every trace to the agent.");
+      return;
+    }
+    addTraceInterceptor(TailSamplingInterceptor.forConfig(config));
+  }
+
   @Deprecated
   private static Map<String, String> customRuntimeTags(final String runtimeId) {
     final Map<String, String> runtimeTags = new HashMap<>();
@@ -464,7 +537,10 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
     private final String operationName;
 
     // Builder attributes
-    private final Map<String, Object> tags = new HashMap<String, Object>(defaultSpanTags);
+    /** Handed over to the span context once built, copied if the builder is used again */
+    private TagMap tags = new TagMap(defaultSpanTags);
+
+    private boolean tagsHandedOver = false;
     private long timestampMicro;
     private SpanContext parent;
     private String serviceName;
@@ -594,6 +670,7 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
 
     // Private methods
     private DDSpanBuilder withTag(final String tag, final Object value) {
+      ownTags();
       if (value == null || (value instanceof String && ((String) value).isEmpty())) {
         tags.remove(tag);
       } else {
@@ -602,10 +679,17 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
       return this;
     }
 
-    private String generateNewId() {
+    private void ownTags() {
+      if (tagsHandedOver) {
+        tags = new TagMap(tags);
+        tagsHandedOver = false;
+      }
+    }
+
+    private long generateNewId() {
       // TODO: expand the range of numbers generated to be from 1 to uint 64 MAX
       // Ensure the generated ID is in a valid range:
-      return String.valueOf(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE));
+      return ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
     }
 
     /**
@@ -615,14 +699,16 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
      * @return the context
      */
     private DDSpanContext buildSpanContext() {
-      final String traceId;
-      final String spanId = generateNewId();
-      final String parentSpanId;
+      final long traceIdHigh;
+      final long traceIdLow;
+      final long spanId = generateNewId();
+      final long parentSpanId;
       final Map<String, String> baggage;
       final PendingTrace parentTrace;
       final int samplingPriority;
 
       final DDSpanContext context;
+      ownTags();
       SpanContext parentContext = parent;
       if (parentContext == null && !ignoreScope) {
         // use the Scope as parent unless overridden or ignored.
@@ -635,8 +721,9 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
       // Propagate internal trace
       if (parentContext instanceof DDSpanContext) {
         final DDSpanContext ddsc = (DDSpanContext) parentContext;
-        traceId = ddsc.getTraceId();
-        parentSpanId = ddsc.getSpanId();
+        traceIdHigh = ddsc.getTraceIdHigh();
+        traceIdLow = ddsc.getTraceIdLow();
+        parentSpanId = ddsc.getSpanIdBits();
         baggage = ddsc.getBaggageItems();
         parentTrace = ddsc.getTrace();
         samplingPriority = PrioritySampling.UNSET;
@@ -651,14 +738,16 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
         if (parentContext instanceof ExtractedContext) {
           // Propagate external trace
           final ExtractedContext extractedContext = (ExtractedContext) parentContext;
-          traceId = extractedContext.getTraceId();
-          parentSpanId = extractedContext.getSpanId();
+          traceIdHigh = extractedContext.getTraceIdHigh();
+          traceIdLow = extractedContext.getTraceIdLow();
+          parentSpanId = extractedContext.getSpanIdBits();
           samplingPriority = extractedContext.getSamplingPriority();
           baggage = extractedContext.getBaggage();
         } else {
           // Start a new trace
-          traceId = generateNewId();
-          parentSpanId = "0";
+          traceIdHigh = 0;
+          traceIdLow = generateNewId();
+          parentSpanId = 0;
           samplingPriority = PrioritySampling.UNSET;
           baggage = null;
         }
@@ -671,7 +760,8 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
           tags.put(runtimeTag.getKey(), runtimeTag.getValue());
         }
 
-        parentTrace = new PendingTrace(DDTracer.this, traceId, serviceNameMappings);
+        parentTrace =
+            new PendingTrace(DDTracer.this, traceIdHigh, traceIdLow, serviceNameMappings);
       }
 
       if (serviceName == null) {
@@ -680,10 +770,12 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
 
       final String operationName = this.operationName != null ? this.operationName : resourceName;
 
+      tagsHandedOver = true;
       // some attributes are inherited from the parent
       context =
           new DDSpanContext(
-              traceId,
+              traceIdHigh,
+              traceIdLow,
               spanId,
               parentSpanId,
               serviceName,
@@ -698,31 +790,33 @@ public class DDTracer implements io.opentracing.Tracer, Closeable, datadog.trace
               DDTracer.this);
 
       // Apply Decorators to handle any tags that may have been set via the builder.
-      for (final Map.Entry<String, Object> tag : tags.entrySet()) {
-        if (tag.getValue() == null) {
-          context.setTag(tag.getKey(), null);
+      // The context now owns the tags and decorators may change them, they are given the values
+      // set on the builder, copied before the first decorator runs.
+      final DecoratorTable decoratorTable = DDTracer.this.decoratorTable;
+      final int builderTagCount = tags.slotCount();
+      Object[] builderTags = null;
+      for (int i = 0; i < builderTagCount; i++) {
+        final String key;
+        final Object value;
+        if (builderTags == null) {
+          key = tags.keyAt(i);
+          value = tags.valueAt(i);
+        } else {
+          key = (String) builderTags[2 * i];
+          value = builderTags[2 * i + 1];
+        }
+        if (value == null) {
           continue;
         }
-
-        boolean addTag = true;
-
-        // Call decorators
-        final List<AbstractDecorator> decorators = getSpanContextDecorators(tag.getKey());
-        if (decorators != null) {
-          for (final AbstractDecorator decorator : decorators) {
-            try {
-              addTag &= decorator.shouldSetTag(context, tag.getKey(), tag.getValue());
-            } catch (final Throwable ex) {
-              log.debug(
-                  "Could not decorate the span decorator={}: {}",
-                  decorator.getClass().getSimpleName(),
-                  ex.getMessage());
-            }
-          }
+        final DecoratorTable.Entry decorators = decoratorTable.get(key);
+        if (decorators == null) {
+          continue;
         }
-
-        if (!addTag) {
-          context.setTag(tag.getKey(), null);
+        if (builderTags == null) {
+          builderTags = tags.copySlots();
+        }
+        if (!context.decorate(decorators, key, value)) {
+          context.setTag(key, null);
         }
       }
 
@@ -0,0 +1,153 @@
+package datadog.opentracing;
+
+import datadog.opentracing.decorators.AbstractDecorator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Immutable dispatch table from tag keys to their decorators, rebuilt whenever a decorator is
+ * added.
+ *
+ * <p>Most tags have no decorator. Keys are first checked against a bit mask of the lengths of the
+ * decorated keys, so those usually cost a length read and a bit test, without hashing the key.
+ */
+@Slf4j
+final class DecoratorTable {
+  static final DecoratorTable EMPTY =
+      new DecoratorTable(Collections.<String, Entry>emptyMap(), false);
+
+  private static final AbstractDecorator[] NONE = new AbstractDecorator[0];
+
+  /** The decorators of a tag key, in the order they were added */
+  static final class Entry {
+    final String tag;
+    final AbstractDecorator[] all;
+    /** Run as the tag is set */
+    final AbstractDecorator[] immediate;
+    /** Run once the span finishes, empty unless deferral is enabled */
+    final AbstractDecorator[] deferred;
+
+    private Entry(
+        final String tag,
+        final AbstractDecorator[] all,
+        final AbstractDecorator[] immediate,
+        final AbstractDecorator[] deferred) {
+      this.tag = tag;
+      this.all = all;
+      this.immediate = immediate;
+      this.deferred = deferred;
+    }
+  }
+
+  private final Map<String, Entry> entries;
+  /** Bit n set if a key of length n, or of length 63 and more for the last bit, is decorated */
+  private final long lengthMask;
+  /** Entries with deferred decorators */
+  private final Entry[] deferredEntries;
+
+  final boolean deferral;
+
+  private DecoratorTable(final Map<String, Entry> entries, final boolean deferral) {
+    this.entries = entries;
+    this.deferral = deferral;
+    long mask = 0;
+    final List<Entry> deferred = new ArrayList<>();
+    for (final Entry entry : entries.values()) {
+      mask |= lengthBit(entry.tag);
+      if (entry.deferred.length > 0) {
+        deferred.add(entry);
+      }
+    }
+    lengthMask = mask;
+    deferredEntries = deferred.toArray(new Entry[0]);
+  }
+
+  private static long lengthBit(final String tag) {
+    return 1L << Math.min(tag.length(), 63);
+  }
+
+  /** @return the decorators of the tag, or null if it has none */
+  Entry get(final String tag) {
+    if ((lengthMask & lengthBit(tag)) == 0) {
+      return null;
+    }
+    return entries.get(tag);
+  }
+
+  /** @return the number of decorated tag keys */
+  int size() {
+    return entries.size();
+  }
+
+  Entry[] deferredEntries() {
+    return deferredEntries;
+  }
+
+  /** @return every decorator of the tag, deferred ones included, or null if it has none */
+  List<AbstractDecorator> decorators(final String tag) {
+    final Entry entry = get(tag);
+    return entry == null ? null : new ArrayList<>(Arrays.asList(entry.all));
+  }
+
+  DecoratorTable with(final AbstractDecorator decorator) {
+    final String tag = decorator.getMatchingTag();
+    final List<AbstractDecorator> decorators = decorators(tag);
+    final List<AbstractDecorator> list =
+        decorators == null ? new ArrayList<AbstractDecorator>() : decorators;
+    list.add(decorator);
+    final Map<String, Entry> copy = new HashMap<>(entries);
+    copy.put(tag, entry(tag, list, deferral));
+    return new DecoratorTable(copy, deferral);
+  }
+
+  DecoratorTable withDeferral(final boolean deferral) {
+    if (deferral == this.deferral) {
+      return this;
+    }
+    final Map<String, Entry> copy = new HashMap<>();
+    for (final Entry entry : entries.values()) {
+      copy.put(entry.tag, entry(entry.tag, decorators(entry.tag), deferral));
+    }
+    return new DecoratorTable(copy, deferral);
+  }
+
+  private static Entry entry(
+      final String tag, final List<AbstractDecorator> decorators, final boolean deferral) {
+    final List<AbstractDecorator> immediate = new ArrayList<>();
+    final List<AbstractDecorator> deferred = new ArrayList<>();
+    for (final AbstractDecorator decorator : decorators) {
+      if (deferral && decorator.isDeferrable()) {
+        deferred.add(decorator);
+      } else {
+        immediate.add(decorator);
+      }
+    }
+    return new Entry(
+        tag, decorators.toArray(NONE), immediate.toArray(NONE), deferred.toArray(NONE));
+  }
+
+  /** @return false if one of the decorators asked for the tag not to be set */
+  static boolean apply(
+      final AbstractDecorator[] decorators,
+      final DDSpanContext context,
+      final String tag,
+      final Object value) {
+    boolean addTag = true;
+    for (final AbstractDecorator decorator : decorators) {
+      try {
+        addTag &= decorator.shouldSetTag(context, tag, value);
+      } catch (final Throwable ex) {
+        log.debug(
+            "Could not decorate the span decorator={}: {}",
+            decorator.getClass().getSimpleName(),
+            ex.getMessage());
+      }
+    }
+    return addTag;
+  }
+}
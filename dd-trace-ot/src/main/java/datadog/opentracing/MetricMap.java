@@ -0,0 +1,162 @@
+package datadog.opentracing;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Metrics of a span kept in primitive slots, boxed again only when read.
+ *
+ * <p>Integers, longs and floats keep their type, any other number is stored as a double. Metrics
+ * are never removed. Like {@link TagMap}, writes are synchronized by {@link DDSpanContext} and
+ * readers on other threads never fail but may miss concurrent changes.
+ */
+final class MetricMap extends AbstractMap<String, Number> {
+  private static final int INITIAL_CAPACITY = 4;
+
+  private static final byte INT = 0;
+  private static final byte LONG = 1;
+  private static final byte FLOAT = 2;
+  private static final byte DOUBLE = 3;
+
+  private volatile String[] keys = new String[INITIAL_CAPACITY];
+  /** Long values, or the raw bits of floating point ones */
+  private volatile long[] bits = new long[INITIAL_CAPACITY];
+
+  private volatile byte[] kinds = new byte[INITIAL_CAPACITY];
+  private volatile int size;
+
+  @Override
+  public Number get(final Object key) {
+    final String[] keys = this.keys;
+    final long[] bits = this.bits;
+    final byte[] kinds = this.kinds;
+    final int count = Math.min(size, Math.min(keys.length, Math.min(bits.length, kinds.length)));
+    final int index = indexOf(keys, count, key);
+    return index < 0 ? null : box(kinds[index], bits[index]);
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public Number put(final String key, final Number value) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    final byte kind;
+    final long raw;
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      kind = INT;
+      raw = value.intValue();
+    } else if (value instanceof Long) {
+      kind = LONG;
+      raw = value.longValue();
+    } else if (value instanceof Float) {
+      kind = FLOAT;
+      raw = Float.floatToRawIntBits(value.floatValue());
+    } else {
+      kind = DOUBLE;
+      raw = Double.doubleToRawLongBits(value.doubleValue());
+    }
+
+    final int count = size;
+    final int index = indexOf(keys, count, key);
+    if (index >= 0) {
+      final Number previous = box(kinds[index], bits[index]);
+      kinds[index] = kind;
+      bits[index] = raw;
+      return previous;
+    }
+    if (count == keys.length) {
+      final int capacity = count * 2;
+      bits = Arrays.copyOf(bits, capacity);
+      kinds = Arrays.copyOf(kinds, capacity);
+      keys = Arrays.copyOf(keys, capacity);
+    }
+    bits[count] = raw;
+    kinds[count] = kind;
+    keys[count] = key;
+    size = count + 1;
+    return null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private static int indexOf(final String[] keys, final int count, final Object key) {
+    for (int i = 0; i < count; i++) {
+      final String candidate = keys[i];
+      if (candidate == key || (candidate != null && candidate.equals(key))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static Number box(final byte kind, final long raw) {
+    switch (kind) {
+      case INT:
+        return (int) raw;
+      case LONG:
+        return raw;
+      case FLOAT:
+        return Float.intBitsToFloat((int) raw);
+      default:
+        return Double.longBitsToDouble(raw);
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<String, Number>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Number>>() {
+      @Override
+      public Iterator<Map.Entry<String, Number>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<String, Number>> {
+    private final String[] keys = MetricMap.this.keys;
+    private final long[] bits = MetricMap.this.bits;
+    private final byte[] kinds = MetricMap.this.kinds;
+    private final int count =
+        Math.min(size, Math.min(keys.length, Math.min(bits.length, kinds.length)));
+    private int index;
+
+    @Override
+    public boolean hasNext() {
+      return index < count;
+    }
+
+    @Override
+    public Map.Entry<String, Number> next() {
+      if (index >= count) {
+        throw new NoSuchElementException();
+      }
+      final Map.Entry<String, Number> entry =
+          new SimpleImmutableEntry<>(keys[index], box(kinds[index], bits[index]));
+      index++;
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -2,6 +2,7 @@ package datadog.opentracing;
 
 import datadog.opentracing.scopemanager.ContinuableScope;
 import datadog.trace.common.util.Clock;
+import datadog.trace.common.util.Ids;
 import java.io.Closeable;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
@@ -14,6 +15,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -23,12 +25,26 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Spans of a trace, written once every span and continuation registered with it is finished.
+ *
+ * <p>By default each span is watched with a weak reference so that traces whose spans are garbage
+ * collected without being finished are noticed by the {@link SpanCleaner}. In strict lifecycle
+ * mode (see {@link DDTracer#getPendingTraceWheel()}) spans are only counted, relying on each span
+ * being registered once when built and expired once when finished, and traces still pending after
+ * a timeout are dropped by a {@link PendingTraceWheel} instead.
+ */
 @Slf4j
 public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   private static final SpanCleaner SPAN_CLEANER = new SpanCleaner();
 
+  /** Marks continuations counted in strict lifecycle mode, which have no weak reference */
+  private static final WeakReference<ContinuableScope.Continuation> COUNTED =
+      new WeakReference<>(null);
+
   private final DDTracer tracer;
-  private final String traceId;
+  private final long traceIdHigh;
+  private final long traceIdLow;
   private final Map<String, String> serviceNameMappings;
 
   // TODO: consider moving these time fields into DDTracer to ensure that traces have precise
@@ -58,16 +74,38 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   /** Ensure a trace is never written multiple times */
   private final AtomicBoolean isWritten = new AtomicBoolean(false);
 
+  /** Where the trace waits for its timeout in strict lifecycle mode, null otherwise */
+  private final PendingTraceWheel.Entry timeoutEntry;
+
+  /** Decisions of the sampling stages, created when the first one is taken */
+  private final AtomicReference<ConcurrentMap<Object, Boolean>> samplingDecisions =
+      new AtomicReference<>();
+
   PendingTrace(
       final DDTracer tracer, final String traceId, final Map<String, String> serviceNameMappings) {
+    this(tracer, Ids.parseHighBits(traceId), Ids.parseLowBits(traceId), serviceNameMappings);
+  }
+
+  PendingTrace(
+      final DDTracer tracer,
+      final long traceIdHigh,
+      final long traceIdLow,
+      final Map<String, String> serviceNameMappings) {
     this.tracer = tracer;
-    this.traceId = traceId;
+    this.traceIdHigh = traceIdHigh;
+    this.traceIdLow = traceIdLow;
     this.serviceNameMappings = serviceNameMappings;
 
     startTimeNano = Clock.currentNanoTime();
     startNanoTicks = Clock.currentNanoTicks();
 
-    SPAN_CLEANER.pendingTraces.add(this);
+    final PendingTraceWheel wheel = tracer.getPendingTraceWheel();
+    if (wheel == null) {
+      timeoutEntry = null;
+      SPAN_CLEANER.pendingTraces.add(this);
+    } else {
+      timeoutEntry = wheel.add(this, traceIdLow, startNanoTicks);
+    }
   }
 
   /**
@@ -85,42 +123,54 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   }
 
   public void registerSpan(final DDSpan span) {
-    if (traceId == null || span.context() == null) {
-      log.error(
-          "Failed to register span ({}) due to null PendingTrace traceId or null span context",
-          span);
+    if (span.context() == null) {
+      log.error("Failed to register span ({}) due to null span context", span);
+      return;
+    }
+    if (!isSameTrace(span.context())) {
+      log.debug("{} - span registered for wrong trace ({})", span, getTraceId());
       return;
     }
-    if (!traceId.equals(span.context().getTraceId())) {
-      log.debug("{} - span registered for wrong trace ({})", span, traceId);
+    if (rootSpan.get() == null) {
+      rootSpan.compareAndSet(null, new WeakReference<>(span));
+    }
+    if (timeoutEntry != null) {
+      final int count = pendingReferenceCount.incrementAndGet();
+      if (log.isDebugEnabled()) {
+        log.debug("traceId: {} -- registered span {}. count = {}", getTraceId(), span, count);
+      }
       return;
     }
-    rootSpan.compareAndSet(null, new WeakReference<>(span));
     synchronized (span) {
       if (null == span.ref) {
         span.ref = new WeakReference<DDSpan>(span, referenceQueue);
         weakReferences.add(span.ref);
         final int count = pendingReferenceCount.incrementAndGet();
-        log.debug("traceId: {} -- registered span {}. count = {}", traceId, span, count);
+        if (log.isDebugEnabled()) {
+          log.debug("traceId: {} -- registered span {}. count = {}", getTraceId(), span, count);
+        }
       } else {
-        log.debug("span {} already registered in trace {}", span, traceId);
+        log.debug("span {} already registered in trace {}", span, getTraceId());
       }
     }
   }
 
   private void expireSpan(final DDSpan span) {
-    if (traceId == null || span.context() == null) {
-      log.error(
-          "Failed to expire span ({}) due to null PendingTrace traceId or null span context", span);
+    if (span.context() == null) {
+      log.error("Failed to expire span ({}) due to null span context", span);
+      return;
+    }
+    if (!isSameTrace(span.context())) {
+      log.debug("{} - span expired for wrong trace ({})", span, getTraceId());
       return;
     }
-    if (!traceId.equals(span.context().getTraceId())) {
-      log.debug("{} - span expired for wrong trace ({})", span, traceId);
+    if (timeoutEntry != null) {
+      expireReference();
       return;
     }
     synchronized (span) {
       if (null == span.ref) {
-        log.debug("span {} not registered in trace {}", span, traceId);
+        log.debug("span {} not registered in trace {}", span, getTraceId());
       } else {
         weakReferences.remove(span.ref);
         span.ref.clear();
@@ -135,12 +185,11 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
       log.debug("{} - added to trace, but not complete.", span);
       return;
     }
-    if (traceId == null || span.context() == null) {
-      log.error(
-          "Failed to add span ({}) due to null PendingTrace traceId or null span context", span);
+    if (span.context() == null) {
+      log.error("Failed to add span ({}) due to null span context", span);
       return;
     }
-    if (!traceId.equals(span.getTraceId())) {
+    if (!isSameTrace(span.context())) {
       log.debug("{} - added to a mismatched trace.", span);
       return;
     }
@@ -157,11 +206,42 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
     expireSpan(span);
   }
 
+  private boolean isSameTrace(final DDSpanContext context) {
+    return context.getTraceIdLow() == traceIdLow && context.getTraceIdHigh() == traceIdHigh;
+  }
+
+  /** @return the trace id in decimal form, for logging */
+  private String getTraceId() {
+    return Ids.toUnsignedString(traceIdHigh, traceIdLow);
+  }
+
   public DDSpan getRootSpan() {
     final WeakReference<DDSpan> rootRef = rootSpan.get();
     return rootRef == null ? null : rootRef.get();
   }
 
+  /** @return whether the sampling stage already decided to keep the trace, null if it did not */
+  public Boolean getSamplingDecision(final Object stage) {
+    final Map<Object, Boolean> decisions = samplingDecisions.get();
+    return decisions == null ? null : decisions.get(stage);
+  }
+
+  /**
+   * Records the decision of a sampling stage, so that the chunks written by partial flush are all
+   * kept or all dropped.
+   *
+   * @return the decision recorded, the one of another chunk if it was taken first
+   */
+  public boolean setSamplingDecision(final Object stage, final boolean keep) {
+    ConcurrentMap<Object, Boolean> decisions = samplingDecisions.get();
+    if (decisions == null) {
+      samplingDecisions.compareAndSet(null, new ConcurrentHashMap<Object, Boolean>(2));
+      decisions = samplingDecisions.get();
+    }
+    final Boolean previous = decisions.putIfAbsent(stage, keep);
+    return previous == null ? keep : previous;
+  }
+
   /**
    * When using continuations, it's possible one may be used after all existing spans are otherwise
    * completed, so we need to wait till continuations are de-referenced before reporting.
@@ -169,14 +249,23 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   public void registerContinuation(final ContinuableScope.Continuation continuation) {
     synchronized (continuation) {
       if (continuation.ref == null) {
-        continuation.ref =
-            new WeakReference<ContinuableScope.Continuation>(continuation, referenceQueue);
-        weakReferences.add(continuation.ref);
+        if (timeoutEntry == null) {
+          continuation.ref =
+              new WeakReference<ContinuableScope.Continuation>(continuation, referenceQueue);
+          weakReferences.add(continuation.ref);
+        } else {
+          continuation.ref = COUNTED;
+        }
         final int count = pendingReferenceCount.incrementAndGet();
-        log.debug(
-            "traceId: {} -- registered continuation {}. count = {}", traceId, continuation, count);
+        if (log.isDebugEnabled()) {
+          log.debug(
+              "traceId: {} -- registered continuation {}. count = {}",
+              getTraceId(),
+              continuation,
+              count);
+        }
       } else {
-        log.debug("continuation {} already registered in trace {}", continuation, traceId);
+        log.debug("continuation {} already registered in trace {}", continuation, getTraceId());
       }
     }
   }
@@ -184,10 +273,12 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
   public void cancelContinuation(final ContinuableScope.Continuation continuation) {
     synchronized (continuation) {
       if (continuation.ref == null) {
-        log.debug("continuation {} not registered in trace {}", continuation, traceId);
+        log.debug("continuation {} not registered in trace {}", continuation, getTraceId());
       } else {
-        weakReferences.remove(continuation.ref);
-        continuation.ref.clear();
+        if (continuation.ref != COUNTED) {
+          weakReferences.remove(continuation.ref);
+          continuation.ref.clear();
+        }
         continuation.ref = null;
         expireReference();
       }
@@ -212,18 +303,24 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
                 it.remove();
               }
             }
-            log.debug("Writing partial trace {} of size {}", traceId, partialTrace.size());
+            log.debug("Writing partial trace {} of size {}", getTraceId(), partialTrace.size());
             tracer.write(partialTrace);
           }
         }
       }
     }
-    log.debug("traceId: {} -- Expired reference. count = {}", traceId, count);
+    if (log.isDebugEnabled()) {
+      log.debug("traceId: {} -- Expired reference. count = {}", getTraceId(), count);
+    }
   }
 
   private synchronized void write() {
     if (isWritten.compareAndSet(false, true)) {
-      SPAN_CLEANER.pendingTraces.remove(this);
+      if (timeoutEntry == null) {
+        SPAN_CLEANER.pendingTraces.remove(this);
+      } else {
+        timeoutEntry.remove();
+      }
       if (!isEmpty()) {
         log.debug("Writing {} spans to {}.", size(), tracer.writer);
         tracer.write(this);
@@ -248,12 +345,25 @@ public class PendingTrace extends ConcurrentLinkedDeque<DDSpan> {
     if (count > 0) {
       log.debug(
           "trace {} : {} unfinished spans garbage collected. Trace will not report.",
-          traceId,
+          getTraceId(),
           count);
     }
     return count > 0;
   }
 
+  /** Drops a strict lifecycle trace that is still pending after the timeout. */
+  synchronized void expire() {
+    if (isWritten.compareAndSet(false, true)) {
+      // Same as a garbage collected trace: count it but don't report suspect data.
+      tracer.incrementTraceCount();
+      log.debug(
+          "trace {} : {} spans or continuations still pending after the timeout. Trace will not report.",
+          getTraceId(),
+          pendingReferenceCount.get());
+      clear();
+    }
+  }
+
   static void close() {
     SPAN_CLEANER.close();
   }
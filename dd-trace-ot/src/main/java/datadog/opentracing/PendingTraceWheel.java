@@ -0,0 +1,240 @@
+package datadog.opentracing;
+
+import datadog.trace.common.util.Clock;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Leak detection for traces tracked in strict lifecycle mode, where nothing notices spans that are
+ * never finished.
+ *
+ * <p>Each trace is dropped in the slot of a timing wheel matching the tick it started in. The wheel
+ * has just enough slots to cover the timeout, so when the cleaner comes back to a slot everything
+ * in it is at least as old as the timeout and is expired. Traces finishing in time unlink their
+ * entry as they are written, so the wheel only holds the traces still pending. Slots are split in
+ * shards picked by trace id, each a linked list with its own lock, so that threads starting and
+ * writing traces rarely contend.
+ */
+@Slf4j
+class PendingTraceWheel implements Runnable, Closeable {
+  private static final int MAX_SLOTS = 64;
+  private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final int MAX_SHARDS = 16;
+
+  private static final ThreadFactory FACTORY =
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "dd-pending-trace-cleaner");
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+
+  /** What the wheel keeps of a trace, the trace is let go as soon as it is written */
+  static final class Entry {
+    volatile PendingTrace trace;
+    private final long startNanoTicks;
+
+    /** Shard the entry is linked in, null once taken out, only written holding the shard's lock */
+    private volatile Shard shard;
+
+    private Entry previous;
+    private Entry next;
+
+    private Entry(final PendingTrace trace, final long startNanoTicks) {
+      this.trace = trace;
+      this.startNanoTicks = startNanoTicks;
+    }
+
+    /** Lets the trace go and unlinks the entry, called once the trace is written. */
+    void remove() {
+      trace = null;
+      while (true) {
+        final Shard current = shard;
+        if (current == null) {
+          return;
+        }
+        synchronized (current) {
+          // the cleaner may have moved the entry meanwhile
+          if (shard == current) {
+            current.unlink(this);
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /** Entries of a slot sharing a lock, doubly linked so that written traces unlink in place */
+  private static final class Shard {
+    private Entry head;
+    private Entry tail;
+    private int size;
+
+    synchronized void link(final Entry entry) {
+      entry.shard = this;
+      entry.previous = tail;
+      entry.next = null;
+      if (tail == null) {
+        head = entry;
+      } else {
+        tail.next = entry;
+      }
+      tail = entry;
+      size++;
+    }
+
+    /** Called holding the lock */
+    void unlink(final Entry entry) {
+      if (entry.previous == null) {
+        head = entry.next;
+      } else {
+        entry.previous.next = entry.next;
+      }
+      if (entry.next == null) {
+        tail = entry.previous;
+      } else {
+        entry.next.previous = entry.previous;
+      }
+      entry.shard = null;
+      entry.previous = null;
+      entry.next = null;
+      size--;
+    }
+
+    /** @return the entries of the shard, now taken out of it */
+    synchronized List<Entry> takeAll() {
+      if (head == null) {
+        return Collections.emptyList();
+      }
+      final List<Entry> entries = new ArrayList<>(size);
+      Entry entry = head;
+      while (entry != null) {
+        final Entry next = entry.next;
+        entry.shard = null;
+        entry.previous = null;
+        entry.next = null;
+        entries.add(entry);
+        entry = next;
+      }
+      head = null;
+      tail = null;
+      size = 0;
+      return entries;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+  }
+
+  private final long timeoutNanos;
+  private final long tickNanos;
+  private final Shard[][] slots;
+  private final int shardMask;
+  private final ScheduledExecutorService executorService;
+
+  /** Next tick to process, only used by the cleaner thread */
+  private long nextTick;
+
+  PendingTraceWheel(final long timeout, final TimeUnit unit) {
+    timeoutNanos = Math.max(unit.toNanos(timeout), MIN_TICK_NANOS);
+    tickNanos = Math.max(timeoutNanos / (MAX_SLOTS - 2), MIN_TICK_NANOS);
+    // Two more slots than the timeout needs: the one being filled, and one for the partial tick
+    // the oldest traces may have started in.
+    final int slotCount = (int) ((timeoutNanos + tickNanos - 1) / tickNanos) + 2;
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final int shardCount =
+        Math.min(MAX_SHARDS, processors <= 1 ? 1 : Integer.highestOneBit(processors - 1) << 1);
+    slots = new Shard[slotCount][shardCount];
+    for (final Shard[] slot : slots) {
+      for (int i = 0; i < shardCount; i++) {
+        slot[i] = new Shard();
+      }
+    }
+    shardMask = shardCount - 1;
+    nextTick = Clock.currentNanoTicks() / tickNanos;
+
+    executorService = Executors.newSingleThreadScheduledExecutor(FACTORY);
+    executorService.scheduleWithFixedDelay(this, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+  }
+
+  Entry add(final PendingTrace trace, final long traceIdLow, final long startNanoTicks) {
+    final Entry entry = new Entry(trace, startNanoTicks);
+    offer(entry, startNanoTicks / tickNanos, (int) traceIdLow);
+    return entry;
+  }
+
+  private void offer(final Entry entry, final long tick, final int hash) {
+    slots[slotIndex(tick)][hash & shardMask].link(entry);
+  }
+
+  private int slotIndex(final long tick) {
+    final int index = (int) (tick % slots.length);
+    return index < 0 ? index + slots.length : index;
+  }
+
+  /** @return the number of traces waiting for their timeout */
+  int size() {
+    int size = 0;
+    for (final Shard[] slot : slots) {
+      for (final Shard shard : slot) {
+        size += shard.size();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void run() {
+    try {
+      final long now = Clock.currentNanoTicks();
+      final long currentTick = now / tickNanos;
+      // After a long pause every slot is due, no need to go around more than once
+      final long firstTick = Math.max(nextTick, currentTick - slots.length + 1);
+      for (long tick = firstTick; tick <= currentTick; tick++) {
+        // The slot after the current one holds the oldest traces
+        drain(tick + 1, now);
+      }
+      nextTick = currentTick + 1;
+    } catch (final Throwable e) {
+      log.debug("Failed to expire pending traces", e);
+    }
+  }
+
+  private void drain(final long tick, final long now) {
+    for (final Shard shard : slots[slotIndex(tick)]) {
+      for (final Entry entry : shard.takeAll()) {
+        final PendingTrace trace = entry.trace;
+        if (trace == null) {
+          continue;
+        }
+        if (now - entry.startNanoTicks >= timeoutNanos) {
+          entry.trace = null;
+          trace.expire();
+        } else {
+          // Offered late by a thread that read the clock before a tick
+          offer(entry, now / tickNanos, System.identityHashCode(entry));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    executorService.shutdownNow();
+    try {
+      executorService.awaitTermination(500, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      log.info("Pending trace cleaner interrupted while closing.");
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package datadog.opentracing;
+
+/**
+ * Immutable copy of a finished span, taken once when its trace is handed to the writer (see {@link
+ * DDSpan#snapshot()}).
+ *
+ * <p>Tags, baggage and metrics are kept as parallel key and value arrays. Encoders read them
+ * without taking the span context monitor, and tags set on the span afterwards are not seen.
+ */
+public final class SpanSnapshot {
+  private final long traceIdHigh;
+  private final long traceIdLow;
+  private final long spanId;
+  private final long parentId;
+  private final long startTime;
+  private final long durationNano;
+  private final String serviceName;
+  private final String operationName;
+  private final String resourceName;
+  private final String spanType;
+  private final boolean error;
+
+  /** Tags, including the thread and type tags DDSpan#getTags() adds */
+  private final String[] tagKeys;
+
+  private final Object[] tagValues;
+  /** Baggage items without a tag of the same name */
+  private final String[] baggageKeys;
+
+  private final String[] baggageValues;
+  private final String[] metricKeys;
+  private final Number[] metricValues;
+
+  SpanSnapshot(
+      final long traceIdHigh,
+      final long traceIdLow,
+      final long spanId,
+      final long parentId,
+      final long startTime,
+      final long durationNano,
+      final String serviceName,
+      final String operationName,
+      final String resourceName,
+      final String spanType,
+      final boolean error,
+      final String[] tagKeys,
+      final Object[] tagValues,
+      final String[] baggageKeys,
+      final String[] baggageValues,
+      final String[] metricKeys,
+      final Number[] metricValues) {
+    this.traceIdHigh = traceIdHigh;
+    this.traceIdLow = traceIdLow;
+    this.spanId = spanId;
+    this.parentId = parentId;
+    this.startTime = startTime;
+    this.durationNano = durationNano;
+    this.serviceName = serviceName;
+    this.operationName = operationName;
+    this.resourceName = resourceName;
+    this.spanType = spanType;
+    this.error = error;
+    this.tagKeys = tagKeys;
+    this.tagValues = tagValues;
+    this.baggageKeys = baggageKeys;
+    this.baggageValues = baggageValues;
+    this.metricKeys = metricKeys;
+    this.metricValues = metricValues;
+  }
+
+  public long getTraceIdHigh() {
+    return traceIdHigh;
+  }
+
+  public long getTraceIdLow() {
+    return traceIdLow;
+  }
+
+  public long getSpanId() {
+    return spanId;
+  }
+
+  /** Zero for root spans */
+  public long getParentId() {
+    return parentId;
+  }
+
+  /** @return Start time with nanosecond scale */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getDurationNano() {
+    return durationNano;
+  }
+
+  public String getServiceName() {
+    return serviceName;
+  }
+
+  public String getOperationName() {
+    return operationName;
+  }
+
+  public String getResourceName() {
+    return resourceName;
+  }
+
+  public String getSpanType() {
+    return spanType;
+  }
+
+  public boolean isError() {
+    return error;
+  }
+
+  public int getTagCount() {
+    return tagKeys.length;
+  }
+
+  public String getTagKey(final int index) {
+    return tagKeys[index];
+  }
+
+  public Object getTagValue(final int index) {
+    return tagValues[index];
+  }
+
+  /** @return the value of the tag, or null. Scans the tags, which are few. */
+  public Object getTag(final String key) {
+    for (int i = 0; i < tagKeys.length; i++) {
+      if (tagKeys[i].equals(key)) {
+        return tagValues[i];
+      }
+    }
+    return null;
+  }
+
+  public int getBaggageCount() {
+    return baggageKeys.length;
+  }
+
+  public String getBaggageKey(final int index) {
+    return baggageKeys[index];
+  }
+
+  public String getBaggageValue(final int index) {
+    return baggageValues[index];
+  }
+
+  public int getMetricCount() {
+    return metricKeys.length;
+  }
+
+  public String getMetricKey(final int index) {
+    return metricKeys[index];
+  }
+
+  public Number getMetricValue(final int index) {
+    return metricValues[index];
+  }
+}
@@ -0,0 +1,199 @@
+package datadog.opentracing;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Tags of a span, for the few entries most spans have.
+ *
+ * <p>Keys and values sit next to each other in one array and lookups scan it linearly, comparing
+ * references before calling equals since keys are mostly constants. Removed tags leave their key
+ * behind with a null value, so an entry never moves once added: iterating by index stays valid
+ * while tags are set.
+ *
+ * <p>Meant for a single writer at a time, {@link DDSpanContext} synchronizes its writes. Readers on
+ * other threads never fail but may miss concurrent changes.
+ */
+final class TagMap extends AbstractMap<String, Object> {
+  private static final int DEFAULT_CAPACITY = 8;
+
+  /** Key at 2 * i, value at 2 * i + 1, null for removed entries */
+  private volatile Object[] slots;
+  /** Number of keys in slots, removed ones included */
+  private volatile int slotCount;
+
+  private int size;
+
+  TagMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  TagMap(final int capacity) {
+    slots = new Object[Math.max(capacity, 1) * 2];
+  }
+
+  TagMap(final Map<String, ?> tags) {
+    this(Math.max(tags.size(), DEFAULT_CAPACITY));
+    for (final Map.Entry<String, ?> entry : tags.entrySet()) {
+      if (entry.getValue() != null) {
+        put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  @Override
+  public Object get(final Object key) {
+    final Object[] slots = this.slots;
+    final int index = indexOf(slots, Math.min(slotCount, slots.length / 2), key);
+    return index < 0 ? null : slots[2 * index + 1];
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return get(key) != null;
+  }
+
+  /** Null values remove the tag. */
+  @Override
+  public Object put(final String key, final Object value) {
+    if (value == null) {
+      return remove(key);
+    }
+    Object[] slots = this.slots;
+    final int count = slotCount;
+    final int index = indexOf(slots, count, key);
+    if (index >= 0) {
+      final Object previous = slots[2 * index + 1];
+      slots[2 * index + 1] = value;
+      if (previous == null) {
+        size++;
+      }
+      return previous;
+    }
+    if (2 * count == slots.length) {
+      slots = Arrays.copyOf(slots, slots.length * 2);
+      this.slots = slots;
+    }
+    slots[2 * count] = key;
+    slots[2 * count + 1] = value;
+    slotCount = count + 1;
+    size++;
+    return null;
+  }
+
+  @Override
+  public Object remove(final Object key) {
+    final Object[] slots = this.slots;
+    final int index = indexOf(slots, slotCount, key);
+    if (index < 0) {
+      return null;
+    }
+    final Object previous = slots[2 * index + 1];
+    if (previous != null) {
+      slots[2 * index + 1] = null;
+      size--;
+    }
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(slots, null);
+    slotCount = 0;
+    size = 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** @return the number of keys, removed ones included, to iterate with {@link #keyAt(int)} */
+  int slotCount() {
+    return slotCount;
+  }
+
+  String keyAt(final int index) {
+    return (String) slots[2 * index];
+  }
+
+  /** @return the value at the index, null if the tag was removed */
+  Object valueAt(final int index) {
+    return slots[2 * index + 1];
+  }
+
+  /** @return keys and values as laid out by index, unaffected by later changes */
+  Object[] copySlots() {
+    return Arrays.copyOf(slots, 2 * slotCount);
+  }
+
+  private static int indexOf(final Object[] slots, final int count, final Object key) {
+    for (int i = 0; i < count; i++) {
+      final Object candidate = slots[2 * i];
+      if (candidate == key || (candidate != null && candidate.equals(key))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Object>>() {
+      @Override
+      public Iterator<Map.Entry<String, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+    private final Object[] slots = TagMap.this.slots;
+    private final int count = Math.min(slotCount, slots.length / 2);
+    private int index;
+    private Map.Entry<String, Object> next = advance();
+
+    /** Reads each value once, so entries removed meanwhile are either skipped or complete */
+    private Map.Entry<String, Object> advance() {
+      while (index < count) {
+        final Object value = slots[2 * index + 1];
+        final String key = (String) slots[2 * index];
+        index++;
+        if (value != null) {
+          return new SimpleImmutableEntry<>(key, value);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, Object> next() {
+      final Map.Entry<String, Object> entry = next;
+      if (entry == null) {
+        throw new NoSuchElementException();
+      }
+      next = advance();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -29,6 +29,15 @@ public abstract class AbstractDecorator {
     }
   }
 
+  /**
+   * Deferrable decorators keep their tag and only derive the resource name from it. When the tracer
+   * defers decorators they run once as the span finishes, with its final tags, unless the resource
+   * name was changed after the tag was set.
+   */
+  public boolean isDeferrable() {
+    return false;
+  }
+
   public String getMatchingTag() {
     return matchingTag;
   }
@@ -1,50 +1,55 @@
 package datadog.opentracing.decorators;
 
 import datadog.opentracing.DDSpanContext;
+import datadog.trace.api.Config;
 import datadog.trace.api.DDTags;
 import io.opentracing.tag.Tags;
-import java.net.MalformedURLException;
-import java.util.regex.Pattern;
+import java.util.List;
 
 /** Decorator for servlet contrib */
 public class URLAsResourceName extends AbstractDecorator {
 
-  // Matches everything after the ? character.
-  public static final Pattern QUERYSTRING = Pattern.compile("\\?.*$");
-  // Matches any path segments with numbers in them. (exception for versioning: "/v1/")
-  public static final Pattern PATH_MIXED_ALPHANUMERICS =
-      Pattern.compile("(?<=/)(?![vV]\\d{1,2}/)(?:[^\\/\\d\\?]*[\\d]+[^\\/\\?]*)");
+  private final URLPathNormalizer normalizer;
 
   public URLAsResourceName() {
+    this(Config.get());
+  }
+
+  public URLAsResourceName(final Config config) {
+    this(config.getHttpResourceTemplates(), config.getHttpResourceCacheSize());
+  }
+
+  /**
+   * @param templates route templates like /users/{id}, used as is for the urls they match
+   * @param cacheSize number of urls whose normalized path is kept
+   */
+  public URLAsResourceName(final List<String> templates, final int cacheSize) {
     super();
     setMatchingTag(Tags.HTTP_URL.getKey());
     setReplacementTag(DDTags.RESOURCE_NAME);
+    normalizer = new URLPathNormalizer(templates, cacheSize);
+  }
+
+  @Override
+  public boolean isDeferrable() {
+    return true;
   }
 
   @Override
   public boolean shouldSetTag(final DDSpanContext context, final String tag, final Object value) {
-    final String statusCode = String.valueOf(context.getTags().get(Tags.HTTP_STATUS.getKey()));
     // do nothing if the status code is already set and equals to 404.
     // TODO: it assumes that Status404Decorator is active. If it's not, it will lead to unexpected
     // behaviors
-    if (statusCode != null && statusCode.equals("404")) {
+    if (isNotFound(context.getTag(Tags.HTTP_STATUS.getKey()))) {
       return true;
     }
 
-    // Get the path without host:port
-    String path = String.valueOf(value);
-
-    try {
-      path = new java.net.URL(path).getPath();
-    } catch (final MalformedURLException e) {
-      // do nothing, use the value instead of the path
-    }
-    // normalize the path
-    path = norm(path);
+    // Get the normalized path without host:port
+    String path = normalizer.normalize(String.valueOf(value));
 
     // if the verb (GET, POST ...) is present, add it
-    final String verb = (String) context.getTags().get(Tags.HTTP_METHOD.getKey());
-    if (verb != null && !verb.isEmpty()) {
+    final Object verb = context.getTag(Tags.HTTP_METHOD.getKey());
+    if (verb instanceof String && !((String) verb).isEmpty()) {
       path = verb + " " + path;
     }
 
@@ -52,17 +57,15 @@ public class URLAsResourceName extends AbstractDecorator {
     return true;
   }
 
-  // Method to normalise the url string
-  private String norm(final String origin) {
-
-    String norm = origin;
-    norm = QUERYSTRING.matcher(norm).replaceAll("");
-    norm = PATH_MIXED_ALPHANUMERICS.matcher(norm).replaceAll("?");
-
-    if (norm.trim().isEmpty()) {
-      norm = "/";
+  private static boolean isNotFound(final Object statusCode) {
+    if (statusCode instanceof Integer) {
+      return (Integer) statusCode == 404;
     }
+    return statusCode != null && "404".equals(String.valueOf(statusCode));
+  }
 
-    return norm;
+  // Method to normalise the url string
+  private String norm(final String origin) {
+    return URLPathNormalizer.normalizePath(origin);
   }
 }
@@ -0,0 +1,290 @@
+package datadog.opentracing.decorators;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns http.url values into resource names in a single pass over the url.
+ *
+ * <p>The path is the url without scheme, authority, query string and fragment. Path segments
+ * containing a digit are replaced by {@code ?}, except version segments like {@code /v1/}. Paths
+ * matching one of the route templates, like {@code /users/{id}}, are replaced by the template.
+ *
+ * <p>Results are kept in an LRU cache split in stripes so that threads rarely wait on each other.
+ * The cache is keyed by path, so that urls differing only by host or query string share an entry.
+ * Paths longer than {@link #MAX_CACHED_LENGTH} are not cached, so the cache holds at most {@code
+ * cacheSize * 2 * MAX_CACHED_LENGTH} chars.
+ */
+final class URLPathNormalizer {
+  static final int MAX_CACHED_LENGTH = 512;
+  private static final int MAX_STRIPES = 16;
+
+  private final RouteNode routes;
+  private final Stripe[] stripes;
+
+  URLPathNormalizer(final List<String> templates, final int cacheSize) {
+    routes = templates == null || templates.isEmpty() ? null : RouteNode.compile(templates);
+    if (cacheSize <= 0) {
+      stripes = null;
+    } else {
+      final int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(cacheSize));
+      stripes = new Stripe[stripeCount];
+      for (int i = 0; i < stripeCount; i++) {
+        stripes[i] = new Stripe((cacheSize + stripeCount - 1) / stripeCount);
+      }
+    }
+  }
+
+  String normalize(final String url) {
+    final int start = pathStart(url);
+    // java.net.URL leaves the fragment out of the path, plain paths only lose their query string
+    final int end = pathEnd(url, start, start > 0);
+    if (stripes == null || end - start > MAX_CACHED_LENGTH) {
+      return compute(url, start, end);
+    }
+    final String path = start == 0 && end == url.length() ? url : url.substring(start, end);
+    final int hash = path.hashCode();
+    final Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    String resource;
+    synchronized (stripe) {
+      resource = stripe.get(path);
+    }
+    if (resource == null) {
+      resource = compute(path, 0, path.length());
+      synchronized (stripe) {
+        stripe.put(path, resource);
+      }
+    }
+    return resource;
+  }
+
+  private String compute(final String url, final int start, final int end) {
+    if (routes != null) {
+      final String template = routes.match(url, start, end);
+      if (template != null) {
+        return template;
+      }
+    }
+    return normalizePath(url, start, end);
+  }
+
+  /** Normalizes a path that may still have a query string. */
+  static String normalizePath(final String path) {
+    return normalizePath(path, 0, pathEnd(path, 0, false));
+  }
+
+  /** @return where the path starts, after the authority if the url starts with a scheme */
+  private static int pathStart(final String url) {
+    final int length = url.length();
+    if (length == 0 || !isLetter(url.charAt(0))) {
+      return 0;
+    }
+    int i = 1;
+    while (i < length && isSchemeChar(url.charAt(i))) {
+      i++;
+    }
+    if (!url.startsWith("://", i)) {
+      return 0;
+    }
+    for (i += 3; i < length; i++) {
+      final char c = url.charAt(i);
+      if (c == '/' || c == '?' || c == '#') {
+        return i;
+      }
+    }
+    return length;
+  }
+
+  private static int pathEnd(final String url, final int start, final boolean dropFragment) {
+    for (int i = start; i < url.length(); i++) {
+      final char c = url.charAt(i);
+      if (c == '?' || (dropFragment && c == '#')) {
+        return i;
+      }
+    }
+    return url.length();
+  }
+
+  private static String normalizePath(final String url, final int start, final int end) {
+    StringBuilder normalized = null;
+    // The text before the first slash is never replaced
+    int segmentStart = indexOf(url, '/', start, end) + 1;
+    if (segmentStart > 0) {
+      while (segmentStart <= end) {
+        int segmentEnd = indexOf(url, '/', segmentStart, end);
+        if (segmentEnd < 0) {
+          segmentEnd = end;
+        }
+        if (isIdentifier(url, segmentStart, segmentEnd, segmentEnd < end)) {
+          if (normalized == null) {
+            normalized = new StringBuilder(end - start);
+            normalized.append(url, start, segmentStart);
+          }
+          normalized.append('?');
+        } else if (normalized != null) {
+          normalized.append(url, segmentStart, segmentEnd);
+        }
+        if (normalized != null && segmentEnd < end) {
+          normalized.append('/');
+        }
+        segmentStart = segmentEnd + 1;
+      }
+    }
+    if (normalized != null) {
+      return normalized.toString();
+    }
+    if (isBlank(url, start, end)) {
+      return "/";
+    }
+    return start == 0 && end == url.length() ? url : url.substring(start, end);
+  }
+
+  /** @return true if the segment has a digit and isn't a version like v1 followed by a slash */
+  private static boolean isIdentifier(
+      final String url, final int start, final int end, final boolean followedBySlash) {
+    boolean digits = false;
+    for (int i = start; i < end && !digits; i++) {
+      digits = isDigit(url.charAt(i));
+    }
+    if (!digits) {
+      return false;
+    }
+    final int length = end - start;
+    if (!followedBySlash || length < 2 || length > 3) {
+      return true;
+    }
+    final char first = url.charAt(start);
+    if (first != 'v' && first != 'V') {
+      return true;
+    }
+    for (int i = start + 1; i < end; i++) {
+      if (!isDigit(url.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int indexOf(final String url, final char c, final int from, final int end) {
+    final int index = url.indexOf(c, from);
+    return index < end ? index : -1;
+  }
+
+  private static boolean isBlank(final String url, final int start, final int end) {
+    for (int i = start; i < end; i++) {
+      if (url.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLetter(final char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isSchemeChar(final char c) {
+    return isLetter(c) || isDigit(c) || c == '+' || c == '-' || c == '.';
+  }
+
+  private static final class Stripe extends LinkedHashMap<String, String> {
+    private final int capacity;
+
+    private Stripe(final int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  /**
+   * Trie of route templates by path segment. Segments in braces match any segment, literal segments
+   * are tried first.
+   */
+  static final class RouteNode {
+    private final List<String> names = new ArrayList<>();
+    private final List<RouteNode> children = new ArrayList<>();
+    private RouteNode parameter;
+    private String template;
+
+    static RouteNode compile(final List<String> templates) {
+      final RouteNode root = new RouteNode();
+      for (final String template : templates) {
+        final String path = template.trim();
+        if (path.isEmpty()) {
+          continue;
+        }
+        RouteNode node = root;
+        int start = 0;
+        while (true) {
+          int end = path.indexOf('/', start);
+          if (end < 0) {
+            end = path.length();
+          }
+          node = node.child(path.substring(start, end));
+          if (end == path.length()) {
+            break;
+          }
+          start = end + 1;
+        }
+        if (node.template == null) {
+          node.template = path;
+        }
+      }
+      return root;
+    }
+
+    private RouteNode child(final String segment) {
+      if (segment.length() > 1 && segment.startsWith("{") && segment.endsWith("}")) {
+        if (parameter == null) {
+          parameter = new RouteNode();
+        }
+        return parameter;
+      }
+      final int index = names.indexOf(segment);
+      if (index >= 0) {
+        return children.get(index);
+      }
+      final RouteNode child = new RouteNode();
+      names.add(segment);
+      children.add(child);
+      return child;
+    }
+
+    /** @return the template matching the path between start and end, or null */
+    String match(final String url, final int start, final int end) {
+      int segmentEnd = indexOf(url, '/', start, end);
+      if (segmentEnd < 0) {
+        segmentEnd = end;
+      }
+      final int length = segmentEnd - start;
+      for (int i = 0; i < names.size(); i++) {
+        final String name = names.get(i);
+        if (name.length() == length && url.regionMatches(start, name, 0, length)) {
+          final String template = children.get(i).matchRest(url, segmentEnd, end);
+          if (template != null) {
+            return template;
+          }
+        }
+      }
+      if (parameter != null && length > 0) {
+        return parameter.matchRest(url, segmentEnd, end);
+      }
+      return null;
+    }
+
+    private String matchRest(final String url, final int segmentEnd, final int end) {
+      return segmentEnd == end ? template : match(url, segmentEnd + 1, end);
+    }
+  }
+}
@@ -1,15 +1,10 @@
 package datadog.opentracing.propagation;
 
-import com.google.common.base.Strings;
 import datadog.opentracing.DDSpanContext;
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.common.util.Ids;
 import io.opentracing.SpanContext;
 import io.opentracing.propagation.TextMap;
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -23,10 +18,6 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class B3HttpCodec implements Injector, Extractor {
 
-  // uint 64 bits max value, 2^64 - 1
-  static final BigInteger BIG_INTEGER_UINT64_MAX =
-      new BigInteger("2").pow(64).subtract(BigInteger.ONE);
-
   private static final String OT_BAGGAGE_PREFIX = "ot-baggage-";
   private static final String TRACE_ID_KEY = "x-b3-traceid";
   private static final String SPAN_ID_KEY = "x-b3-spanid";
@@ -34,15 +25,21 @@ public class B3HttpCodec implements Injector, Extractor {
   private static final String SAMPLED_KEY = "x-b3-sampled";
   private static final String FLAGS_KEY = "x-b3-flags";
 
+  // Positions in EXTRACTED_HEADERS
+  private static final int TRACE_ID = 0;
+  private static final int SPAN_ID = 1;
+  private static final int SAMPLED = 2;
+  private static final int FLAGS = 3;
+  private static final HeaderNames EXTRACTED_HEADERS =
+      new HeaderNames(TRACE_ID_KEY, SPAN_ID_KEY, SAMPLED_KEY, FLAGS_KEY);
+
   public B3HttpCodec() {}
 
   @Override
   public void inject(final DDSpanContext context, final TextMap carrier) {
-    carrier.put(TRACE_ID_KEY, Ids.idToHex(context.getTraceId()));
-    carrier.put(SPAN_ID_KEY, Ids.idToHex(context.getSpanId()));
-    if (!Strings.isNullOrEmpty(context.getParentId())) {
-      carrier.put(PARENT_SPAN_ID_KEY, Ids.idToHex(context.getParentId()));
-    }
+    carrier.put(TRACE_ID_KEY, Ids.idToHex(context.getTraceIdHigh(), context.getTraceIdLow()));
+    carrier.put(SPAN_ID_KEY, Ids.idToHex(context.getSpanIdBits()));
+    carrier.put(PARENT_SPAN_ID_KEY, Ids.idToHex(context.getParentIdBits()));
 
     int ps = context.getSamplingPriority();
     switch (ps) {
@@ -60,21 +57,24 @@ public class B3HttpCodec implements Injector, Extractor {
     }
 
     for (final Map.Entry<String, String> entry : context.baggageItems()) {
-      carrier.put(OT_BAGGAGE_PREFIX + entry.getKey(), encode(entry.getValue()));
+      carrier.put(OT_BAGGAGE_PREFIX + entry.getKey(), HeaderValues.encode(entry.getValue()));
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("{} - Parent context injected", context.getTraceId());
     }
-    log.debug("{} - Parent context injected", context.getTraceId());
   }
 
   @Override
   public SpanContext extract(final TextMap carrier) {
     Map<String, String> baggage = Collections.emptyMap();
     Map<String, String> tags = Collections.emptyMap();
-    String traceId = "0";
-    String spanId = "0";
+    long traceIdHigh = 0;
+    long traceIdLow = 0;
+    long spanId = 0;
     int samplingPriority = PrioritySampling.UNSET;
 
     for (final Map.Entry<String, String> entry : carrier) {
-      final String key = entry.getKey().toLowerCase();
+      final String key = entry.getKey();
       final String val = entry.getValue();
 
       if (val == null) {
@@ -82,83 +82,75 @@ public class B3HttpCodec implements Injector, Extractor {
       }
 
       // No need to decode parent span id since we don't use it for anything.
-      if (TRACE_ID_KEY.equalsIgnoreCase(key)) {
-        traceId = validateUInt64BitsID(Ids.hexToId(val));
-      } else if (SPAN_ID_KEY.equalsIgnoreCase(key)) {
-        spanId = validateUInt64BitsID(Ids.hexToId(val));
-      } else if (key.startsWith(OT_BAGGAGE_PREFIX)) {
-        if (baggage.isEmpty()) {
-          baggage = new HashMap<>();
-        }
-        baggage.put(key.replace(OT_BAGGAGE_PREFIX, ""), decode(val));
-      } else if (SAMPLED_KEY.equalsIgnoreCase(key)) {
-        if ("1".equals(val)) {
-          samplingPriority = PrioritySampling.SAMPLER_KEEP;
-        } else if ("0".equals(val)) {
-          samplingPriority = PrioritySampling.SAMPLER_DROP;
-        } else {
-          log.debug("Unknown B3 sampled header value: {}", val);
-        }
-      } else if (FLAGS_KEY.equalsIgnoreCase(key)) {
-        if ("1".equals(val)) {
-          samplingPriority = PrioritySampling.USER_KEEP;
-        }
+      switch (EXTRACTED_HEADERS.indexOf(key)) {
+        case TRACE_ID:
+          if (val.length() == 32) {
+            traceIdHigh = Ids.parseHex(val, 0, 16);
+            traceIdLow = Ids.parseHex(val, 16, 32);
+          } else {
+            traceIdHigh = 0;
+            traceIdLow = parseUInt64BitsID(val);
+          }
+          break;
+        case SPAN_ID:
+          spanId = parseUInt64BitsID(val);
+          break;
+        case SAMPLED:
+          if ("1".equals(val)) {
+            samplingPriority = PrioritySampling.SAMPLER_KEEP;
+          } else if ("0".equals(val)) {
+            samplingPriority = PrioritySampling.SAMPLER_DROP;
+          } else {
+            log.debug("Unknown B3 sampled header value: {}", val);
+          }
+          break;
+        case FLAGS:
+          if ("1".equals(val)) {
+            samplingPriority = PrioritySampling.USER_KEEP;
+          }
+          break;
+        default:
+          if (HeaderNames.startsWithIgnoreCase(key, OT_BAGGAGE_PREFIX)) {
+            if (baggage.isEmpty()) {
+              baggage = new HashMap<>();
+            }
+            baggage.put(
+                key.substring(OT_BAGGAGE_PREFIX.length()).toLowerCase(),
+                HeaderValues.decode(val));
+          }
       }
     }
 
     SpanContext context = null;
-    if (!"0".equals(traceId)) {
+    if (traceIdHigh != 0 || traceIdLow != 0) {
       final ExtractedContext ctx =
-          new ExtractedContext(traceId, spanId, samplingPriority, baggage, tags);
+          new ExtractedContext(traceIdHigh, traceIdLow, spanId, samplingPriority, baggage, tags);
       ctx.lockSamplingPriority();
 
-      log.debug("{} - Parent context extracted", ctx.getTraceId());
+      if (log.isDebugEnabled()) {
+        log.debug("{} - Parent context extracted", ctx.getTraceId());
+      }
       context = ctx;
     }
 
     return context;
   }
 
-  private String encode(final String value) {
-    String encoded = value;
-    try {
-      encoded = URLEncoder.encode(value, "UTF-8");
-    } catch (final UnsupportedEncodingException e) {
-      log.info("Failed to encode value - {}", value);
-    }
-    return encoded;
-  }
-
-  private String decode(final String value) {
-    String decoded = value;
-    try {
-      decoded = URLDecoder.decode(value, "UTF-8");
-    } catch (final UnsupportedEncodingException e) {
-      log.info("Failed to decode value - {}", value);
-    }
-    return decoded;
-  }
-
   /**
-   * Helper method to validate an ID String to verify that it is an unsigned 64 bits number and is
-   * within range.
+   * Helper method to parse a hex ID String, verifying that it is an unsigned 64 bits number.
    *
    * @param val the String that contains the ID
-   * @return the ID in String format if it passes validations
-   * @throws IllegalArgumentException if val is not a number or if the number is out of range
+   * @return the bits of the ID
+   * @throws NumberFormatException if val contains anything but hex digits
+   * @throws IllegalArgumentException if the number is out of range
    */
-  private String validateUInt64BitsID(final String val) throws IllegalArgumentException {
-    try {
-      final BigInteger validate = new BigInteger(val);
-      if (validate.compareTo(BigInteger.ZERO) == -1
-          || validate.compareTo(BIG_INTEGER_UINT64_MAX) == 1) {
-        throw new IllegalArgumentException(
-            "ID out of range, must be between 0 and 2^64-1, got: " + val);
-      }
-      return val;
-    } catch (final NumberFormatException nfe) {
+  private static long parseUInt64BitsID(final String val) throws IllegalArgumentException {
+    final int length = val.length();
+    // Leading zeros are fine as long as the value itself fits
+    if (length > 16 && Ids.parseHex(val, 0, length - 16) != 0) {
       throw new IllegalArgumentException(
-          "Expecting a number for trace ID or span ID, but got: " + val, nfe);
+          "ID out of range, must be between 0 and 2^64-1, got: " + val);
     }
+    return Ids.parseHex(val, Math.max(0, length - 16), length);
   }
 }
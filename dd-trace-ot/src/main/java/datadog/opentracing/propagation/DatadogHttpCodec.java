@@ -3,14 +3,13 @@ package datadog.opentracing.propagation;
 
 import datadog.opentracing.DDSpanContext;
 import datadog.trace.api.sampling.PrioritySampling;
+import datadog.trace.common.util.Ids;
 import io.opentracing.SpanContext;
 import io.opentracing.propagation.TextMap;
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
 
@@ -27,41 +26,57 @@ public class DatadogHttpCodec {
   private static final String SPAN_ID_KEY = "x-datadog-parent-id";
   private static final String SAMPLING_PRIORITY_KEY = "x-datadog-sampling-priority";
 
+  // Positions in EXTRACTED_HEADERS
+  private static final int TRACE_ID = 0;
+  private static final int SPAN_ID = 1;
+  private static final int SAMPLING_PRIORITY = 2;
+  private static final HeaderNames EXTRACTED_HEADERS =
+      new HeaderNames(TRACE_ID_KEY, SPAN_ID_KEY, SAMPLING_PRIORITY_KEY);
+
+  // Header values for USER_DROP to USER_KEEP
+  private static final String[] SAMPLING_PRIORITY_VALUES = {"-1", "0", "1", "2"};
+
   public static class Injector implements datadog.opentracing.propagation.Injector {
 
     @Override
     public void inject(final DDSpanContext context, final TextMap carrier) {
-      carrier.put(TRACE_ID_KEY, String.valueOf(context.getTraceId()));
-      carrier.put(SPAN_ID_KEY, String.valueOf(context.getSpanId()));
+      carrier.put(
+          TRACE_ID_KEY,
+          Ids.toUnsignedString(context.getTraceIdHigh(), context.getTraceIdLow()));
+      carrier.put(SPAN_ID_KEY, Ids.toUnsignedString(context.getSpanIdBits()));
       if (context.lockSamplingPriority()) {
-        carrier.put(SAMPLING_PRIORITY_KEY, String.valueOf(context.getSamplingPriority()));
+        carrier.put(SAMPLING_PRIORITY_KEY, samplingPriorityValue(context.getSamplingPriority()));
       }
 
       for (final Map.Entry<String, String> entry : context.baggageItems()) {
-        carrier.put(OT_BAGGAGE_PREFIX + entry.getKey(), encode(entry.getValue()));
+        carrier.put(OT_BAGGAGE_PREFIX + entry.getKey(), HeaderValues.encode(entry.getValue()));
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("{} - Parent context injected", context.getTraceId());
       }
-      log.debug("{} - Parent context injected", context.getTraceId());
     }
 
-    private String encode(final String value) {
-      String encoded = value;
-      try {
-        encoded = URLEncoder.encode(value, "UTF-8");
-      } catch (final UnsupportedEncodingException e) {
-        log.info("Failed to encode value - {}", value);
+    private static String samplingPriorityValue(final int samplingPriority) {
+      if (samplingPriority >= PrioritySampling.USER_DROP
+          && samplingPriority <= PrioritySampling.USER_KEEP) {
+        return SAMPLING_PRIORITY_VALUES[samplingPriority - PrioritySampling.USER_DROP];
       }
-      return encoded;
+      return String.valueOf(samplingPriority);
     }
   }
 
   public static class Extractor implements datadog.opentracing.propagation.Extractor {
-    private final Map<String, String> taggedHeaders;
+    private final HeaderNames taggedHeaders;
+    /** Tag names, at the position of the header they are taken from in taggedHeaders */
+    private final String[] tagNames;
 
     public Extractor(final Map<String, String> taggedHeaders) {
-      this.taggedHeaders = new HashMap<>();
+      final Map<String, String> normalized = new LinkedHashMap<>();
       for (final Map.Entry<String, String> mapping : taggedHeaders.entrySet()) {
-        this.taggedHeaders.put(mapping.getKey().trim().toLowerCase(), mapping.getValue());
+        normalized.put(mapping.getKey().trim().toLowerCase(), mapping.getValue());
       }
+      this.taggedHeaders = new HeaderNames(normalized.keySet().toArray(new String[0]));
+      tagNames = normalized.values().toArray(new String[0]);
     }
 
     @Override
@@ -69,46 +84,59 @@ public class DatadogHttpCodec {
 
       Map<String, String> baggage = Collections.emptyMap();
       Map<String, String> tags = Collections.emptyMap();
-      String traceId = "0";
-      String spanId = "0";
+      long traceId = 0;
+      long spanId = 0;
       int samplingPriority = PrioritySampling.UNSET;
 
       for (final Map.Entry<String, String> entry : carrier) {
-        final String key = entry.getKey().toLowerCase();
+        final String key = entry.getKey();
         final String val = entry.getValue();
 
         if (val == null) {
           continue;
         }
 
-        if (TRACE_ID_KEY.equalsIgnoreCase(key)) {
-          traceId = validateUInt64BitsID(val);
-        } else if (SPAN_ID_KEY.equalsIgnoreCase(key)) {
-          spanId = validateUInt64BitsID(val);
-        } else if (key.startsWith(OT_BAGGAGE_PREFIX)) {
-          if (baggage.isEmpty()) {
-            baggage = new HashMap<>();
-          }
-          baggage.put(key.replace(OT_BAGGAGE_PREFIX, ""), decode(val));
-        } else if (SAMPLING_PRIORITY_KEY.equalsIgnoreCase(key)) {
-          samplingPriority = Integer.parseInt(val);
+        switch (EXTRACTED_HEADERS.indexOf(key)) {
+          case TRACE_ID:
+            traceId = parseUInt64BitsID(val);
+            break;
+          case SPAN_ID:
+            spanId = parseUInt64BitsID(val);
+            break;
+          case SAMPLING_PRIORITY:
+            samplingPriority = Integer.parseInt(val);
+            break;
+          default:
+            if (HeaderNames.startsWithIgnoreCase(key, OT_BAGGAGE_PREFIX)) {
+              if (baggage.isEmpty()) {
+                baggage = new HashMap<>();
+              }
+              baggage.put(
+                  key.substring(OT_BAGGAGE_PREFIX.length()).toLowerCase(),
+                  HeaderValues.decode(val));
+            }
         }
 
-        if (taggedHeaders.containsKey(key)) {
-          if (tags.isEmpty()) {
-            tags = new HashMap<>();
+        if (tagNames.length > 0) {
+          final int tagged = taggedHeaders.indexOf(key);
+          if (tagged != HeaderNames.UNKNOWN) {
+            if (tags.isEmpty()) {
+              tags = new HashMap<>();
+            }
+            tags.put(tagNames[tagged], HeaderValues.decode(val));
           }
-          tags.put(taggedHeaders.get(key), decode(val));
         }
       }
 
       SpanContext context = null;
-      if (!"0".equals(traceId)) {
+      if (traceId != 0) {
         final ExtractedContext ctx =
-            new ExtractedContext(traceId, spanId, samplingPriority, baggage, tags);
+            new ExtractedContext(0, traceId, spanId, samplingPriority, baggage, tags);
         ctx.lockSamplingPriority();
 
-        log.debug("{} - Parent context extracted", ctx.getTraceId());
+        if (log.isDebugEnabled()) {
+          log.debug("{} - Parent context extracted", ctx.getTraceId());
+        }
         context = ctx;
       } else if (!tags.isEmpty()) {
         context = new TagContext(tags);
@@ -117,36 +145,21 @@ public class DatadogHttpCodec {
       return context;
     }
 
-    private String decode(final String value) {
-      String decoded = value;
-      try {
-        decoded = URLDecoder.decode(value, "UTF-8");
-      } catch (final UnsupportedEncodingException e) {
-        log.info("Failed to decode value - {}", value);
-      }
-      return decoded;
-    }
-
     /**
-     * Helper method to validate an ID String to verify that it is an unsigned 64 bits number and is
+     * Helper method to parse an ID String, verifying that it is an unsigned 64 bits number and is
      * within range.
      *
      * @param val the String that contains the ID
-     * @return the ID in String format if it passes validations
+     * @return the bits of the ID
      * @throws IllegalArgumentException if val is not a number or if the number is out of range
      */
-    private String validateUInt64BitsID(final String val) throws IllegalArgumentException {
+    private long parseUInt64BitsID(final String val) throws IllegalArgumentException {
       try {
-        final BigInteger validate = new BigInteger(val);
-        if (validate.compareTo(BigInteger.ZERO) == -1
-            || validate.compareTo(BIG_INTEGER_UINT64_MAX) == 1) {
-          throw new IllegalArgumentException(
-              "ID out of range, must be between 0 and 2^64-1, got: " + val);
-        }
-        return val;
+        return Ids.parseUnsignedLong(val);
       } catch (final NumberFormatException nfe) {
         throw new IllegalArgumentException(
-            "Expecting a number for trace ID or span ID, but got: " + val, nfe);
+            "Expecting a number between 0 and 2^64-1 for trace ID or span ID, but got: " + val,
+            nfe);
       }
     }
   }
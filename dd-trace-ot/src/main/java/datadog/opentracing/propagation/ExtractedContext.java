@@ -1,5 +1,6 @@
 package datadog.opentracing.propagation;
 
+import datadog.trace.common.util.Ids;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -7,8 +8,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Propagated data resulting from calling tracer.extract with header data from an incoming request.
  */
 public class ExtractedContext extends TagContext {
+  private final long traceIdHigh;
+  private final long traceIdLow;
+  private final long spanId;
   private final String traceId;
-  private final String spanId;
+  private final String spanIdString;
   private final int samplingPriority;
   private final Map<String, String> baggage;
   private final AtomicBoolean samplingPriorityLocked = new AtomicBoolean(false);
@@ -19,9 +23,28 @@ public class ExtractedContext extends TagContext {
       final int samplingPriority,
       final Map<String, String> baggage,
       final Map<String, String> tags) {
+    this(
+        Ids.parseHighBits(traceId),
+        Ids.parseLowBits(traceId),
+        Ids.parseUnsignedLong(spanId),
+        samplingPriority,
+        baggage,
+        tags);
+  }
+
+  public ExtractedContext(
+      final long traceIdHigh,
+      final long traceIdLow,
+      final long spanId,
+      final int samplingPriority,
+      final Map<String, String> baggage,
+      final Map<String, String> tags) {
     super(tags);
-    this.traceId = traceId;
+    this.traceIdHigh = traceIdHigh;
+    this.traceIdLow = traceIdLow;
     this.spanId = spanId;
+    traceId = Ids.toUnsignedString(traceIdHigh, traceIdLow);
+    spanIdString = Ids.toUnsignedString(spanId);
     this.samplingPriority = samplingPriority;
     this.baggage = baggage;
   }
@@ -40,6 +63,18 @@ public class ExtractedContext extends TagContext {
   }
 
   public String getSpanId() {
+    return spanIdString;
+  }
+
+  public long getTraceIdHigh() {
+    return traceIdHigh;
+  }
+
+  public long getTraceIdLow() {
+    return traceIdLow;
+  }
+
+  public long getSpanIdBits() {
     return spanId;
   }
 
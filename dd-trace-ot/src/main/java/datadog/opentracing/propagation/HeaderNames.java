@@ -0,0 +1,58 @@
+package datadog.opentracing.propagation;
+
+/**
+ * Case insensitive lookup of a fixed set of header names.
+ *
+ * <p>Carriers hand out header names in whatever case the client sent them. Instead of lower casing
+ * every key, candidates are bucketed by length and compared in place with {@link
+ * String#regionMatches(boolean, int, String, int, int)}, so headers we don't care about are
+ * usually rejected on their length alone.
+ */
+final class HeaderNames {
+  static final int UNKNOWN = -1;
+
+  private final String[][] namesByLength;
+  private final int[][] indexesByLength;
+
+  /** @param names lower case header names, lookups return the position of the matching name */
+  HeaderNames(final String... names) {
+    int maxLength = 0;
+    for (final String name : names) {
+      maxLength = Math.max(maxLength, name.length());
+    }
+    namesByLength = new String[maxLength + 1][0];
+    indexesByLength = new int[maxLength + 1][0];
+    for (int i = 0; i < names.length; i++) {
+      final int length = names[i].length();
+      final int size = namesByLength[length].length;
+      final String[] bucket = new String[size + 1];
+      final int[] indexes = new int[size + 1];
+      System.arraycopy(namesByLength[length], 0, bucket, 0, size);
+      System.arraycopy(indexesByLength[length], 0, indexes, 0, size);
+      bucket[size] = names[i];
+      indexes[size] = i;
+      namesByLength[length] = bucket;
+      indexesByLength[length] = indexes;
+    }
+  }
+
+  /** @return the position of the key in the constructor names, or {@link #UNKNOWN} */
+  int indexOf(final String key) {
+    final int length = key.length();
+    if (length >= namesByLength.length) {
+      return UNKNOWN;
+    }
+    final String[] bucket = namesByLength[length];
+    for (int i = 0; i < bucket.length; i++) {
+      if (key.regionMatches(true, 0, bucket[i], 0, length)) {
+        return indexesByLength[length][i];
+      }
+    }
+    return UNKNOWN;
+  }
+
+  /** @return true if the key starts with the lower case prefix, ignoring case */
+  static boolean startsWithIgnoreCase(final String key, final String prefix) {
+    return key.regionMatches(true, 0, prefix, 0, prefix.length());
+  }
+}
@@ -0,0 +1,60 @@
+package datadog.opentracing.propagation;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * URL encoding of baggage values. Most values are plain words that come out of {@link URLEncoder}
+ * and {@link URLDecoder} unchanged, so those are returned as is without going through the JDK
+ * coders, which always allocate a buffer.
+ */
+@Slf4j
+final class HeaderValues {
+
+  private HeaderValues() {}
+
+  static String encode(final String value) {
+    if (isUnreserved(value)) {
+      return value;
+    }
+    String encoded = value;
+    try {
+      encoded = URLEncoder.encode(value, "UTF-8");
+    } catch (final UnsupportedEncodingException e) {
+      log.info("Failed to encode value - {}", value);
+    }
+    return encoded;
+  }
+
+  static String decode(final String value) {
+    if (value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+      return value;
+    }
+    String decoded = value;
+    try {
+      decoded = URLDecoder.decode(value, "UTF-8");
+    } catch (final UnsupportedEncodingException e) {
+      log.info("Failed to decode value - {}", value);
+    }
+    return decoded;
+  }
+
+  /** True if every char is one {@link URLEncoder} leaves alone. */
+  private static boolean isUnreserved(final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (!((c >= 'a' && c <= 'z')
+          || (c >= 'A' && c <= 'Z')
+          || (c >= '0' && c <= '9')
+          || c == '.'
+          || c == '-'
+          || c == '*'
+          || c == '_')) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
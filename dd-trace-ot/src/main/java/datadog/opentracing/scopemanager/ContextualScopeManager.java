@@ -5,22 +5,38 @@ import datadog.trace.context.ScopeListener;
 import io.opentracing.Scope;
 import io.opentracing.ScopeManager;
 import io.opentracing.Span;
-import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ContextualScopeManager implements ScopeManager {
-  static final ThreadLocal<Scope> tlsScope = new ThreadLocal<>();
-  final Deque<ScopeContext> scopeContexts = new ConcurrentLinkedDeque<>();
+  /**
+   * Scope active on the thread. The holder is mutated in place so that activating and closing a
+   * scope reads the thread local once and never sets it.
+   */
+  static final ThreadLocal<ScopeHolder> tlsScope =
+      new ThreadLocal<ScopeHolder>() {
+        @Override
+        protected ScopeHolder initialValue() {
+          return new ScopeHolder();
+        }
+      };
+
+  private static final ScopeContext[] NO_CONTEXTS = new ScopeContext[0];
+
+  /** Copied on write, contexts are added at startup and read on each activation */
+  volatile ScopeContext[] scopeContexts = NO_CONTEXTS;
+
   final List<ScopeListener> scopeListeners = new CopyOnWriteArrayList<>();
 
+  static final class ScopeHolder {
+    Scope scope;
+  }
+
   @Override
   public Scope activate(final Span span, final boolean finishOnClose) {
-    for (final ScopeContext context : scopeContexts) {
-      if (context.inContext()) {
-        return context.activate(span, finishOnClose);
-      }
+    final ScopeContext context = activeContext();
+    if (context != null) {
+      return context.activate(span, finishOnClose);
     }
     if (span instanceof DDSpan) {
       return new ContinuableScope(this, (DDSpan) span, finishOnClose);
@@ -31,20 +47,75 @@ public class ContextualScopeManager implements ScopeManager {
 
   @Override
   public Scope active() {
-    for (final ScopeContext csm : scopeContexts) {
-      if (csm.inContext()) {
-        return csm.active();
+    final ScopeContext context = activeContext();
+    if (context != null) {
+      return context.active();
+    }
+    return tlsScope.get().scope;
+  }
+
+  /** @return the first context to respond true, or null if the thread local is in control */
+  private ScopeContext activeContext() {
+    for (final ScopeContext context : scopeContexts) {
+      if (context.inContext()) {
+        return context;
       }
     }
-    return tlsScope.get();
+    return null;
   }
 
-  public void addScopeContext(final ScopeContext context) {
-    scopeContexts.addFirst(context);
+  public synchronized void addScopeContext(final ScopeContext context) {
+    final ScopeContext[] contexts = new ScopeContext[scopeContexts.length + 1];
+    contexts[0] = context;
+    System.arraycopy(scopeContexts, 0, contexts, 1, scopeContexts.length);
+    scopeContexts = contexts;
   }
 
   /** Attach a listener to scope activation events */
   public void addScopeListener(ScopeListener listener) {
     scopeListeners.add(listener);
   }
+
+  /**
+   * Puts the scope on top of the thread local. Listeners are only notified if the active span
+   * changes, activating a scope for the span already active does not affect them.
+   *
+   * @return the scope to restore when the scope is closed, may be null
+   */
+  Scope activated(final Scope scope) {
+    final ScopeHolder holder = tlsScope.get();
+    final Scope toRestore = holder.scope;
+    holder.scope = scope;
+    if (toRestore == null || toRestore.span() != scope.span()) {
+      for (final ScopeListener listener : scopeListeners) {
+        listener.afterScopeActivated();
+      }
+    }
+    return toRestore;
+  }
+
+  /**
+   * Restores the scope that was active before the closed scope. Listeners are notified of the close
+   * and of the restored scope activation, unless both have the same span.
+   *
+   * @return false if the closed scope is not on top of the thread local, which is left unchanged
+   */
+  boolean closed(final Scope scope, final Scope toRestore) {
+    final ScopeHolder holder = tlsScope.get();
+    if (holder.scope != scope) {
+      return false;
+    }
+    holder.scope = toRestore;
+    if (toRestore == null || toRestore.span() != scope.span()) {
+      for (final ScopeListener listener : scopeListeners) {
+        listener.afterScopeClosed();
+      }
+      if (toRestore != null) {
+        for (final ScopeListener listener : scopeListeners) {
+          listener.afterScopeActivated();
+        }
+      }
+    }
+    return true;
+  }
 }
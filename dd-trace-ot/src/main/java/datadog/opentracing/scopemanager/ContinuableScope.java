@@ -5,7 +5,6 @@ import com.signalfx.tracing.context.TraceScope;
 import datadog.opentracing.DDSpan;
 import datadog.opentracing.DDSpanContext;
 import datadog.opentracing.PendingTrace;
-import datadog.trace.context.ScopeListener;
 import io.opentracing.Scope;
 import java.io.Closeable;
 import java.lang.ref.WeakReference;
@@ -50,11 +49,7 @@ public class ContinuableScope implements Scope, TraceScope {
     this.continuation = continuation;
     this.spanUnderScope = spanUnderScope;
     this.finishOnClose = finishOnClose;
-    toRestore = scopeManager.tlsScope.get();
-    scopeManager.tlsScope.set(this);
-    for (final ScopeListener listener : scopeManager.scopeListeners) {
-      listener.afterScopeActivated();
-    }
+    toRestore = scopeManager.activated(this);
   }
 
   @Override
@@ -67,22 +62,11 @@ public class ContinuableScope implements Scope, TraceScope {
       spanUnderScope.finish();
     }
 
-    for (final ScopeListener listener : scopeManager.scopeListeners) {
-      listener.afterScopeClosed();
-    }
-
-    if (scopeManager.tlsScope.get() == this) {
-      scopeManager.tlsScope.set(toRestore);
-      if (toRestore != null) {
-        for (final ScopeListener listener : scopeManager.scopeListeners) {
-          listener.afterScopeActivated();
-        }
-      }
-    } else {
+    if (!scopeManager.closed(this, toRestore)) {
       log.debug(
           "Tried to close {} scope when {} is on top. Ignoring!",
           this,
-          scopeManager.tlsScope.get());
+          scopeManager.tlsScope.get().scope);
     }
   }
 
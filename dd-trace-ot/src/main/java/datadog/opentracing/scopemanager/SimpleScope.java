@@ -1,6 +1,5 @@
 package datadog.opentracing.scopemanager;
 
-import datadog.trace.context.ScopeListener;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 
@@ -18,11 +17,7 @@ public class SimpleScope implements Scope {
     this.scopeManager = scopeManager;
     this.spanUnderScope = spanUnderScope;
     this.finishOnClose = finishOnClose;
-    this.toRestore = scopeManager.tlsScope.get();
-    scopeManager.tlsScope.set(this);
-    for (final ScopeListener listener : scopeManager.scopeListeners) {
-      listener.afterScopeActivated();
-    }
+    this.toRestore = scopeManager.activated(this);
   }
 
   @Override
@@ -30,18 +25,7 @@ public class SimpleScope implements Scope {
     if (finishOnClose) {
       spanUnderScope.finish();
     }
-    for (final ScopeListener listener : scopeManager.scopeListeners) {
-      listener.afterScopeClosed();
-    }
-
-    if (scopeManager.tlsScope.get() == this) {
-      scopeManager.tlsScope.set(toRestore);
-      if (toRestore != null) {
-        for (final ScopeListener listener : scopeManager.scopeListeners) {
-          listener.afterScopeActivated();
-        }
-      }
-    }
+    scopeManager.closed(this, toRestore);
   }
 
   @Override
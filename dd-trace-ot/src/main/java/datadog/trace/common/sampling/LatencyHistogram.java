@@ -0,0 +1,106 @@
+package datadog.trace.common.sampling;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Streaming histogram of durations in nanoseconds with a fixed footprint.
+ *
+ * <p>Buckets split each power of two in four, so a percentile is known within 25%. Counts are
+ * halved once they add up to {@link #DECAY_COUNT}, letting the histogram follow changes in latency
+ * without keeping a time series. The percentile is recomputed every {@link #REFRESH_INTERVAL}
+ * records; in between, readers get the cached value.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  static final long DECAY_COUNT = 1 << 16;
+  static final int REFRESH_INTERVAL = 64;
+
+  private final double percentile;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicBoolean decaying = new AtomicBoolean();
+
+  /** Duration at the percentile, Long.MAX_VALUE until enough durations have been recorded */
+  private volatile long threshold = Long.MAX_VALUE;
+
+  /** @param percentile between 0 and 100 */
+  LatencyHistogram(final double percentile) {
+    this.percentile = Math.min(100, Math.max(0, percentile));
+  }
+
+  void record(final long durationNano) {
+    counts.incrementAndGet(bucketIndex(durationNano));
+    final long count = total.incrementAndGet();
+    if (count % REFRESH_INTERVAL == 0) {
+      threshold = computeThreshold(count);
+    }
+    if (count >= DECAY_COUNT && decaying.compareAndSet(false, true)) {
+      try {
+        decay();
+      } finally {
+        decaying.set(false);
+      }
+    }
+  }
+
+  /** @return true if the duration is past the percentile of the recorded durations */
+  boolean exceedsPercentile(final long durationNano) {
+    return durationNano >= threshold;
+  }
+
+  long getThreshold() {
+    return threshold;
+  }
+
+  private long computeThreshold(final long count) {
+    // Durations from the bucket holding the percentile onwards count as past it
+    long remaining = (long) Math.ceil(count * (100 - percentile) / 100);
+    for (int i = BUCKETS - 1; i >= 0; i--) {
+      remaining -= counts.get(i);
+      if (remaining < 0) {
+        return upperBound(i);
+      }
+    }
+    return lowerBound(0);
+  }
+
+  private void decay() {
+    long decayed = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long count;
+      do {
+        count = counts.get(i);
+      } while (!counts.compareAndSet(i, count, count - (count >>> 1)));
+      decayed += count >>> 1;
+    }
+    total.addAndGet(-decayed);
+  }
+
+  static int bucketIndex(final long durationNano) {
+    final long value = Math.max(durationNano, 1);
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent < SUB_BUCKET_BITS) {
+      return (int) value - 1;
+    }
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long lowerBound(final int index) {
+    if (index < SUB_BUCKETS) {
+      return index + 1;
+    }
+    final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final int subBucket = index % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  private static long upperBound(final int index) {
+    return index == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(index + 1);
+  }
+}
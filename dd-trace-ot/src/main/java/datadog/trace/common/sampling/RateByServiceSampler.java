@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import datadog.opentracing.DDSpan;
 import datadog.trace.api.sampling.PrioritySampling;
 import datadog.trace.common.writer.DDApi.ResponseListener;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -13,25 +14,30 @@ import lombok.extern.slf4j.Slf4j;
  * A rate sampler which maintains different sample rates per service+env name.
  *
  * <p>The configuration of (serviceName,env)->rate is configured by the core agent.
+ *
+ * <p>Rates are published as an immutable {@link ServiceRates} snapshot replaced on each agent
+ * response, and the keep or drop decision is derived from the trace id, so sampling a root span
+ * takes no lock and allocates nothing.
  */
 @Slf4j
 public class RateByServiceSampler implements Sampler, ResponseListener {
   /** Key for setting the baseline rate */
   private static final String BASE_KEY = "service:,env:";
-  /** Sampler to use if service+env is not in the map */
-  private RateSampler baseSampler = new RateSampler(1.0);
 
-  private final Map<String, RateSampler> serviceRates = new HashMap<String, RateSampler>();
+  private static final String SERVICE_PREFIX = "service:";
+  private static final String ENV_PREFIX = ",env:";
+
+  private volatile ServiceRates serviceRates = new ServiceRates();
 
   @Override
-  public synchronized boolean sample(DDSpan span) {
+  public boolean sample(final DDSpan span) {
     // Priority sampling sends all traces to the core agent, including traces marked dropped.
     // This allows the core agent to collect stats on all traces.
     return true;
   }
 
   /** If span is a root span, set the span context samplingPriority to keep or drop */
-  public void initializeSamplingPriority(DDSpan span) {
+  public void initializeSamplingPriority(final DDSpan span) {
     if (span.isRootSpan()) {
       // Run the priority sampler on the new span
       setSamplingPriorityOnSpanContext(span);
@@ -42,16 +48,10 @@ public class RateByServiceSampler implements Sampler, ResponseListener {
     }
   }
 
-  private synchronized void setSamplingPriorityOnSpanContext(DDSpan span) {
-    final String serviceName = span.getServiceName();
-    final String env = getSpanEnv(span);
-    final String key = "service:" + serviceName + ",env:" + env;
-    final RateSampler sampler;
-    if (serviceRates.containsKey(key)) {
-      sampler = serviceRates.get(key);
-    } else {
-      sampler = baseSampler;
-    }
+  private void setSamplingPriorityOnSpanContext(final DDSpan span) {
+    final Object env = span.context().getTag("env");
+    final RateSampler sampler =
+        serviceRates.getSampler(span.getServiceName(), null == env ? "" : String.valueOf(env));
     if (sampler.sample(span)) {
       span.setSamplingPriority(PrioritySampling.SAMPLER_KEEP);
     } else {
@@ -59,46 +59,91 @@ public class RateByServiceSampler implements Sampler, ResponseListener {
     }
   }
 
-  private static String getSpanEnv(DDSpan span) {
-    return null == span.getTags().get("env") ? "" : String.valueOf(span.getTags().get("env"));
-  }
-
   @Override
-  public void onResponse(String endpoint, JsonNode responseJson) {
-    JsonNode newServiceRates = responseJson.get("rate_by_service");
+  public void onResponse(final String endpoint, final JsonNode responseJson) {
+    final JsonNode newServiceRates = responseJson.get("rate_by_service");
     if (null != newServiceRates) {
       log.debug("Update service sampler rates: {} -> {}", endpoint, responseJson);
-      synchronized (this) {
-        serviceRates.clear();
-        Iterator<String> itr = newServiceRates.fieldNames();
-        while (itr.hasNext()) {
-          final String key = itr.next();
-          try {
-            final float val = Float.parseFloat(newServiceRates.get(key).toString());
-            if (BASE_KEY.equals(key)) {
-              baseSampler = new RateSampler(val);
-            } else {
-              serviceRates.put(key, new RateSampler(val));
+      RateSampler baseSampler = new RateSampler(1.0);
+      final Map<String, Map<String, RateSampler>> samplersByEnv = new HashMap<>();
+      final Iterator<String> itr = newServiceRates.fieldNames();
+      while (itr.hasNext()) {
+        final String key = itr.next();
+        try {
+          final float val = Float.parseFloat(newServiceRates.get(key).toString());
+          if (BASE_KEY.equals(key)) {
+            baseSampler = new RateSampler(val);
+          } else {
+            final int envIndex = key.indexOf(ENV_PREFIX);
+            if (!key.startsWith(SERVICE_PREFIX) || envIndex < 0) {
+              log.debug("Unable to parse service rate key {}", key);
+              continue;
             }
-          } catch (NumberFormatException nfe) {
-            log.debug("Unable to parse new service rate {} -> {}", key, newServiceRates.get(key));
+            final String service = key.substring(SERVICE_PREFIX.length(), envIndex);
+            final String env = key.substring(envIndex + ENV_PREFIX.length());
+            Map<String, RateSampler> samplersByService = samplersByEnv.get(env);
+            if (samplersByService == null) {
+              samplersByService = new HashMap<>();
+              samplersByEnv.put(env, samplersByService);
+            }
+            samplersByService.put(service, new RateSampler(val));
           }
+        } catch (final NumberFormatException nfe) {
+          log.debug("Unable to parse new service rate {} -> {}", key, newServiceRates.get(key));
+        }
+      }
+      serviceRates = new ServiceRates(baseSampler, samplersByEnv);
+    }
+  }
+
+  /**
+   * Samplers by env then service name, as sent by the agent. Looking up the pair this way avoids
+   * building the agent's "service:name,env:env" key for every root span.
+   */
+  static final class ServiceRates {
+    /** Sampler to use if service+env is not in the map */
+    final RateSampler baseSampler;
+
+    private final Map<String, Map<String, RateSampler>> samplersByEnv;
+
+    ServiceRates() {
+      this(new RateSampler(1.0), Collections.<String, Map<String, RateSampler>>emptyMap());
+    }
+
+    ServiceRates(
+        final RateSampler baseSampler, final Map<String, Map<String, RateSampler>> samplersByEnv) {
+      this.baseSampler = baseSampler;
+      this.samplersByEnv = samplersByEnv;
+    }
+
+    RateSampler getSampler(final String serviceName, final String env) {
+      final Map<String, RateSampler> samplersByService = samplersByEnv.get(env);
+      if (samplersByService != null) {
+        final RateSampler sampler = samplersByService.get(serviceName);
+        if (sampler != null) {
+          return sampler;
         }
       }
+      return baseSampler;
     }
   }
 
   /**
    * This sampler sample the traces at a predefined rate.
    *
-   * <p>Keep (100 * `sample_rate`)% of the traces. It samples randomly, its main purpose is to
-   * reduce the integration footprint.
+   * <p>Keep (100 * `sample_rate`)% of the traces. The decision is made on a hash of the trace id,
+   * so it is the same for every tracer seeing the trace and needs no random number generator.
    */
-  private static class RateSampler extends AbstractSampler {
+  static class RateSampler extends AbstractSampler {
+    /** Spreads sequential or poorly distributed trace ids over the whole range */
+    static final long KNUTH_FACTOR = 1111111111111111111L;
 
     /** The sample rate used */
     private final double sampleRate;
 
+    /** Traces are kept when the top 53 bits of their hashed id are below this */
+    private final long cutoff;
+
     public RateSampler(final String sampleRate) {
       this(sampleRate == null ? 1 : Double.valueOf(sampleRate));
     }
@@ -118,16 +163,23 @@ public class RateByServiceSampler implements Sampler, ResponseListener {
       }
 
       this.sampleRate = sampleRate;
+      cutoff = (long) (sampleRate * (1L << 53));
       log.debug("Initializing the RateSampler, sampleRate: {} %", this.sampleRate * 100);
     }
 
     @Override
     public boolean doSample(final DDSpan span) {
-      final boolean sample = Math.random() <= this.sampleRate;
-      log.debug("{} - Span is sampled: {}", span, sample);
+      final boolean sample = sample(span.context().getTraceIdLow());
+      if (log.isDebugEnabled()) {
+        log.debug("{} - Span is sampled: {}", span, sample);
+      }
       return sample;
     }
 
+    boolean sample(final long traceId) {
+      return (traceId * KNUTH_FACTOR) >>> 11 < cutoff;
+    }
+
     public double getSampleRate() {
       return this.sampleRate;
     }
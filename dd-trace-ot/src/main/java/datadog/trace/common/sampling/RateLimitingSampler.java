@@ -0,0 +1,240 @@
+package datadog.trace.common.sampling;
+
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDSpanContext;
+import datadog.opentracing.PendingTrace;
+import datadog.trace.common.util.Clock;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps at most a given number of traces per second for each service and resource name of the
+ * root span, without relying on rates sent back by an agent.
+ *
+ * <p>Traces with an error are always kept. Kept traces get the share of traces their bucket kept
+ * over the previous second recorded as {@link DDSpanContext#SAMPLE_RATE_KEY} on the root span, so
+ * that stats computed from them can be scaled back up. A trace written in chunks by partial flush
+ * takes a single token: it is decided on its first chunk, and the decision is kept on its {@link
+ * PendingTrace} for the next ones.
+ *
+ * <p>At most {@link #MAX_BUCKETS} buckets are kept. Once there are that many, buckets that stayed
+ * full for a whole second are dropped to make room, since creating them again gives the same
+ * result. Pairs that still find no room share one bucket.
+ */
+@Slf4j
+public class RateLimitingSampler extends AbstractSampler {
+  /** Past this, idle buckets are dropped and new service and resource pairs share one bucket */
+  static final int MAX_BUCKETS = 1000;
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final int tracesPerSecond;
+  private final ConcurrentMap<Key, Bucket> buckets = new ConcurrentHashMap<>();
+  private final AtomicInteger bucketCount = new AtomicInteger();
+  private final Bucket overflowBucket;
+
+  /** Idle buckets are looked for at most once per window */
+  private final AtomicLong lastEvictionNanoTicks;
+
+  public RateLimitingSampler(final int tracesPerSecond) {
+    if (tracesPerSecond <= 0) {
+      throw new IllegalArgumentException("Traces per second must be positive: " + tracesPerSecond);
+    }
+    this.tracesPerSecond = tracesPerSecond;
+    final long now = Clock.currentNanoTicks();
+    overflowBucket = new Bucket(tracesPerSecond, now);
+    lastEvictionNanoTicks = new AtomicLong(now - WINDOW_NANOS);
+  }
+
+  @Override
+  protected boolean doSample(final DDSpan span) {
+    final PendingTrace trace = span.context().getTrace();
+    final Boolean decided = trace == null ? null : trace.getSamplingDecision(this);
+    if (decided != null) {
+      return decided;
+    }
+    final boolean sample =
+        trace == null ? decide(span, null) : trace.setSamplingDecision(this, decide(span, trace));
+    if (log.isDebugEnabled()) {
+      log.debug("{} - Span is sampled: {}", span, sample);
+    }
+    return sample;
+  }
+
+  /** Decides for the whole trace from its first chunk, the only one when not partially flushed */
+  private boolean decide(final DDSpan span, final PendingTrace trace) {
+    if (hasError(span, trace)) {
+      return true;
+    }
+    final DDSpan traceRoot = trace == null ? null : trace.getRootSpan();
+    final DDSpan rootSpan = traceRoot == null ? span : traceRoot;
+    final long now = Clock.currentNanoTicks();
+    final Bucket bucket = getBucket(rootSpan.getServiceName(), rootSpan.getResourceName(), now);
+    if (!bucket.tryAcquire(now)) {
+      return false;
+    }
+    // combined with the rate of any sampling done before
+    final Number sampleRate = rootSpan.context().getMetrics().get(DDSpanContext.SAMPLE_RATE_KEY);
+    rootSpan
+        .context()
+        .setMetric(
+            DDSpanContext.SAMPLE_RATE_KEY,
+            sampleRate == null
+                ? bucket.effectiveRate
+                : sampleRate.doubleValue() * bucket.effectiveRate);
+    return true;
+  }
+
+  private static boolean hasError(final DDSpan span, final PendingTrace trace) {
+    if (span.context().getErrorFlag()) {
+      return true;
+    }
+    if (trace != null) {
+      for (final DDSpan other : trace) {
+        if (other.context().getErrorFlag()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  Bucket getBucket(final String serviceName, final String resourceName) {
+    return getBucket(serviceName, resourceName, Clock.currentNanoTicks());
+  }
+
+  Bucket getBucket(final String serviceName, final String resourceName, final long nowNanoTicks) {
+    final Key key =
+        new Key(serviceName == null ? "" : serviceName, resourceName == null ? "" : resourceName);
+    final Bucket bucket = buckets.get(key);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (bucketCount.incrementAndGet() > MAX_BUCKETS) {
+      bucketCount.decrementAndGet();
+      if (!evictIdleBuckets(nowNanoTicks) || bucketCount.incrementAndGet() > MAX_BUCKETS) {
+        bucketCount.decrementAndGet();
+        return overflowBucket;
+      }
+    }
+    final Bucket created = new Bucket(tracesPerSecond, nowNanoTicks);
+    final Bucket existing = buckets.putIfAbsent(key, created);
+    if (existing != null) {
+      bucketCount.decrementAndGet();
+      return existing;
+    }
+    return created;
+  }
+
+  /** @return false if idle buckets were already looked for during the last window */
+  private boolean evictIdleBuckets(final long nowNanoTicks) {
+    final long lastEviction = lastEvictionNanoTicks.get();
+    if (nowNanoTicks - lastEviction < WINDOW_NANOS
+        || !lastEvictionNanoTicks.compareAndSet(lastEviction, nowNanoTicks)) {
+      return false;
+    }
+    final Iterator<Map.Entry<Key, Bucket>> entries = buckets.entrySet().iterator();
+    while (entries.hasNext()) {
+      final Map.Entry<Key, Bucket> entry = entries.next();
+      if (entry.getValue().isIdle(nowNanoTicks)
+          && buckets.remove(entry.getKey(), entry.getValue())) {
+        bucketCount.decrementAndGet();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "RateLimitingSampler { tracesPerSecond=" + tracesPerSecond + " }";
+  }
+
+  private static final class Key {
+    private final String service;
+    private final String resource;
+
+    private Key(final String service, final String resource) {
+      this.service = service;
+      this.resource = resource;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return service.equals(other.service) && resource.equals(other.resource);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * service.hashCode() + resource.hashCode();
+    }
+  }
+
+  /**
+   * Token bucket holding up to one second of traces, kept as the time at which the bucket would be
+   * full again so that taking a token is a single compare and set.
+   */
+  static final class Bucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong fullAtNanoTicks;
+
+    private final AtomicLong windowStartNanoTicks;
+    private final AtomicInteger seen = new AtomicInteger();
+    private final AtomicInteger kept = new AtomicInteger();
+
+    /** Share of traces kept over the previous window, approximate under concurrent updates */
+    volatile double effectiveRate = 1.0;
+
+    Bucket(final int tracesPerSecond, final long nowNanoTicks) {
+      intervalNanos = WINDOW_NANOS / tracesPerSecond;
+      toleranceNanos = WINDOW_NANOS - intervalNanos;
+      fullAtNanoTicks = new AtomicLong(nowNanoTicks);
+      windowStartNanoTicks = new AtomicLong(nowNanoTicks);
+    }
+
+    boolean tryAcquire(final long nowNanoTicks) {
+      rollWindow(nowNanoTicks);
+      seen.incrementAndGet();
+      while (true) {
+        final long fullAt = fullAtNanoTicks.get();
+        if (fullAt - nowNanoTicks > toleranceNanos) {
+          return false;
+        }
+        final long next = Math.max(fullAt, nowNanoTicks) + intervalNanos;
+        if (fullAtNanoTicks.compareAndSet(fullAt, next)) {
+          kept.incrementAndGet();
+          return true;
+        }
+      }
+    }
+
+    /** @return true if the bucket has been full for a whole window */
+    boolean isIdle(final long nowNanoTicks) {
+      return nowNanoTicks - fullAtNanoTicks.get() >= WINDOW_NANOS;
+    }
+
+    private void rollWindow(final long nowNanoTicks) {
+      final long windowStart = windowStartNanoTicks.get();
+      if (nowNanoTicks - windowStart >= WINDOW_NANOS
+          && windowStartNanoTicks.compareAndSet(windowStart, nowNanoTicks)) {
+        final int seenInWindow = seen.getAndSet(0);
+        final int keptInWindow = kept.getAndSet(0);
+        effectiveRate =
+            seenInWindow == 0 ? 1.0 : Math.min(1.0, (double) keptInWindow / seenInWindow);
+      }
+    }
+  }
+}
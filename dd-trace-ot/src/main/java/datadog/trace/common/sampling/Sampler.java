@@ -3,6 +3,7 @@ package datadog.trace.common.sampling;
 import datadog.opentracing.DDSpan;
 import datadog.trace.api.Config;
 import java.util.Properties;
+import lombok.extern.slf4j.Slf4j;
 
 /** Main interface to sample a collection of traces. */
 public interface Sampler {
@@ -15,12 +16,22 @@ public interface Sampler {
    */
   boolean sample(DDSpan span);
 
+  @Slf4j
   final class Builder {
     public static Sampler forConfig(final Config config) {
       final Sampler sampler;
       if (config != null) {
+        final boolean rateLimited =
+            config.getTraceRateLimit() != null && config.getTraceRateLimit() > 0;
         if (config.isPrioritySamplingEnabled()) {
+          // The agent computes stats from every trace, dropping some here would skew them.
+          if (rateLimited) {
+            log.warn(
+                "Trace rate limit ignored, priority sampling sends every trace to the agent.");
+          }
           sampler = new RateByServiceSampler();
+        } else if (rateLimited) {
+          sampler = new RateLimitingSampler(config.getTraceRateLimit());
         } else {
           sampler = new AllSampler();
         }
@@ -0,0 +1,195 @@
+package datadog.trace.common.sampling;
+
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDSpanContext;
+import datadog.opentracing.PendingTrace;
+import datadog.trace.api.Config;
+import datadog.trace.api.interceptor.MutableSpan;
+import datadog.trace.api.interceptor.TraceInterceptor;
+import datadog.trace.api.sampling.PrioritySampling;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides whether to keep a trace once all of its spans are known, after every other interceptor.
+ *
+ * <p>Traces with an error, with a span matching one of the configured tags, whose root span is
+ * slower than the configured percentile of its resource name, or already kept by the sampling
+ * priority are kept. The rest are kept at the configured rate, picked from the trace id, and get
+ * that rate recorded on the root span. Each resource name has its own {@link LatencyHistogram};
+ * past {@link #MAX_RESOURCES} resource names, new ones share a single histogram.
+ *
+ * <p>A trace written in chunks by partial flush is decided on its first chunk, and the decision is
+ * kept on its {@link PendingTrace} for the next ones.
+ */
+@Slf4j
+public class TailSamplingInterceptor implements TraceInterceptor {
+  static final int MAX_RESOURCES = 1000;
+
+  /** Any value of the tag matches */
+  private static final String ANY_VALUE = "*";
+
+  private final double rate;
+  private final long cutoff;
+  private final double latencyPercentile;
+  private final Map<String, String> tags;
+  private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+  private final AtomicInteger histogramCount = new AtomicInteger();
+  private final LatencyHistogram overflowHistogram;
+
+  public TailSamplingInterceptor(
+      final double rate, final double latencyPercentile, final Map<String, String> tags) {
+    this.rate = Math.min(1, Math.max(0, rate));
+    cutoff = (long) (this.rate * (1L << 53));
+    this.latencyPercentile = latencyPercentile;
+    this.tags = tags == null ? Collections.<String, String>emptyMap() : tags;
+    overflowHistogram = new LatencyHistogram(latencyPercentile);
+  }
+
+  public static TailSamplingInterceptor forConfig(final Config config) {
+    return new TailSamplingInterceptor(
+        config.getTailSamplingRate(),
+        config.getTailSamplingLatencyPercentile(),
+        config.getTailSamplingTags());
+  }
+
+  @Override
+  public Collection<? extends MutableSpan> onTraceComplete(
+      final Collection<? extends MutableSpan> trace) {
+    final DDSpan first = firstSpan(trace);
+    if (first == null) {
+      return trace;
+    }
+    final PendingTrace pendingTrace = first.context().getTrace();
+    Boolean keep = pendingTrace == null ? null : pendingTrace.getSamplingDecision(this);
+    if (keep == null) {
+      keep = keep(trace, first, pendingTrace);
+      if (pendingTrace != null) {
+        keep = pendingTrace.setSamplingDecision(this, keep);
+      }
+    }
+    if (keep) {
+      return trace;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Dropping trace of {} spans with {}", trace.size(), first);
+    }
+    return Collections.emptyList();
+  }
+
+  /** Decides for the whole trace from its first chunk, the only one when not partially flushed */
+  private boolean keep(
+      final Collection<? extends MutableSpan> trace,
+      final DDSpan first,
+      final PendingTrace pendingTrace) {
+    final DDSpan traceRoot = pendingTrace == null ? null : pendingTrace.getRootSpan();
+    final DDSpan rootSpan = traceRoot == null ? first : traceRoot;
+    final int priority = rootSpan.context().getSamplingPriority();
+    if (priority == PrioritySampling.USER_KEEP || priority == PrioritySampling.SAMPLER_KEEP) {
+      // decided upstream or by the application
+      return true;
+    }
+    // A chunk flushed before the root finished tells nothing about the latency of the trace, and
+    // would skew the histogram of its resource
+    if (rootSpan == first || trace.contains(rootSpan)) {
+      final LatencyHistogram histogram = getHistogram(rootSpan.getResourceName());
+      final long duration = rootSpan.getDurationNano();
+      // Compared before recording so a trace doesn't raise the bar it is measured against
+      final boolean slow = histogram.exceedsPercentile(duration);
+      histogram.record(duration);
+      if (slow) {
+        return true;
+      }
+    }
+    if (isInteresting(trace)) {
+      return true;
+    }
+    if (keptAtRate(rootSpan.context().getTraceIdLow())) {
+      // combined with the rate of any sampling done before
+      final Number sampleRate = rootSpan.context().getMetrics().get(DDSpanContext.SAMPLE_RATE_KEY);
+      rootSpan
+          .context()
+          .setMetric(
+              DDSpanContext.SAMPLE_RATE_KEY,
+              sampleRate == null ? rate : sampleRate.doubleValue() * rate);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public int priority() {
+    // Last, after any interceptor that could change the trace
+    return Integer.MAX_VALUE;
+  }
+
+  /** Same trace id hashing as {@link RateByServiceSampler.RateSampler} */
+  private boolean keptAtRate(final long traceId) {
+    return (traceId * RateByServiceSampler.RateSampler.KNUTH_FACTOR) >>> 11 < cutoff;
+  }
+
+  private boolean isInteresting(final Collection<? extends MutableSpan> trace) {
+    for (final MutableSpan span : trace) {
+      if (!(span instanceof DDSpan)) {
+        continue;
+      }
+      final DDSpanContext context = ((DDSpan) span).context();
+      if (context.getErrorFlag()) {
+        return true;
+      }
+      for (final Map.Entry<String, String> entry : tags.entrySet()) {
+        final Object value = context.getTag(entry.getKey());
+        if (value != null
+            && (ANY_VALUE.equals(entry.getValue())
+                || entry.getValue().equals(String.valueOf(value)))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static DDSpan firstSpan(final Collection<? extends MutableSpan> trace) {
+    for (final MutableSpan span : trace) {
+      if (span instanceof DDSpan) {
+        return (DDSpan) span;
+      }
+    }
+    return null;
+  }
+
+  LatencyHistogram getHistogram(final String resourceName) {
+    final String resource = resourceName == null ? "" : resourceName;
+    final LatencyHistogram histogram = histograms.get(resource);
+    if (histogram != null) {
+      return histogram;
+    }
+    if (histogramCount.incrementAndGet() > MAX_RESOURCES) {
+      histogramCount.decrementAndGet();
+      return overflowHistogram;
+    }
+    final LatencyHistogram created = new LatencyHistogram(latencyPercentile);
+    final LatencyHistogram existing = histograms.putIfAbsent(resource, created);
+    if (existing != null) {
+      histogramCount.decrementAndGet();
+      return existing;
+    }
+    return created;
+  }
+
+  @Override
+  public String toString() {
+    return "TailSamplingInterceptor { rate="
+        + rate
+        + ", latencyPercentile="
+        + latencyPercentile
+        + ", tags="
+        + tags
+        + " }";
+  }
+}
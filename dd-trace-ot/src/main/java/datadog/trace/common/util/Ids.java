@@ -7,11 +7,22 @@ public class Ids {
   private static final String ID_8_BYTES = "%016x";
   private static final String ID_16_BYTES = "%032x";
 
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
   // Anything bigger than this will require more than 16 hex digits to represent
   private static final BigInteger BIGINT_UNSIGNED_LONG_MAX =
       BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.valueOf(2)).add(BigInteger.ONE);
 
+  // Largest value that can be multiplied by 10 without leaving the unsigned 64 bit range
+  private static final long UNSIGNED_LONG_MAX_DIV_10 = 0x1999999999999999L;
+
   public static String idToHex(String id) {
+    if (fitsInUnsignedLong(id)) {
+      final char[] hex = new char[16];
+      writeHex(parseUnsignedLong(id), hex, 0);
+      return new String(hex);
+    }
+
     BigInteger asInt = new BigInteger(id, 10);
 
     String formatStr = ID_8_BYTES;
@@ -22,8 +33,149 @@ public class Ids {
     return String.format(formatStr, asInt);
   }
 
+  /** Hex representation of a 64 bit id, always 16 digits. */
+  public static String idToHex(final long id) {
+    final char[] hex = new char[16];
+    writeHex(id, hex, 0);
+    return new String(hex);
+  }
+
+  /**
+   * Hex representation of an id given as its high and low 64 bits. 32 digits when the high bits
+   * are set, 16 otherwise.
+   */
+  public static String idToHex(final long high, final long low) {
+    if (high == 0) {
+      return idToHex(low);
+    }
+    final char[] hex = new char[32];
+    writeHex(high, hex, 0);
+    writeHex(low, hex, 16);
+    return new String(hex);
+  }
+
   /** The inverse of idToHex. Returns a string that is used as an id in DDSpan. */
   public static String hexToId(String hex) {
     return new BigInteger(hex, 16).toString();
   }
+
+  /**
+   * Writes the 16 zero padded lower case hex digits of an unsigned 64 bit value.
+   *
+   * @param value the id bits
+   * @param dst destination, must have 16 chars available from offset
+   * @param offset position of the first digit
+   */
+  public static void writeHex(long value, final char[] dst, final int offset) {
+    for (int i = offset + 15; i >= offset; i--) {
+      dst[i] = HEX_DIGITS[(int) value & 0xF];
+      value >>>= 4;
+    }
+  }
+
+  /**
+   * Parses the hex digits between start and end, as found in B3 headers, returning their bits.
+   *
+   * @throws NumberFormatException if the range is empty, longer than 16 digits or contains anything
+   *     but hex digits
+   */
+  public static long parseHex(final String hex, final int start, final int end) {
+    if (start >= end || end - start > 16) {
+      throw new NumberFormatException("Invalid hex id: " + hex);
+    }
+    long result = 0;
+    for (int i = start; i < end; i++) {
+      final int digit = Character.digit(hex.charAt(i), 16);
+      if (digit < 0) {
+        throw new NumberFormatException("Invalid hex id: " + hex);
+      }
+      result = (result << 4) | digit;
+    }
+    return result;
+  }
+
+  /** Decimal representation of an unsigned 64 bit id. */
+  public static String toUnsignedString(final long id) {
+    if (id >= 0) {
+      return Long.toString(id);
+    }
+    // Halve first so the division happens within the signed range
+    final long quotient = (id >>> 1) / 5;
+    final long remainder = id - quotient * 10;
+    return Long.toString(quotient) + remainder;
+  }
+
+  /** Decimal representation of an id given as its high and low 64 bits. */
+  public static String toUnsignedString(final long high, final long low) {
+    if (high == 0) {
+      return toUnsignedString(low);
+    }
+    return unsigned(high).shiftLeft(64).or(unsigned(low)).toString();
+  }
+
+  /** The upper 64 bits of a decimal id, zero unless it is bigger than an unsigned long. */
+  public static long parseHighBits(final String id) {
+    if (fitsInUnsignedLong(id)) {
+      return 0;
+    }
+    return new BigInteger(id).shiftRight(64).longValue();
+  }
+
+  /** The lower 64 bits of a decimal id. */
+  public static long parseLowBits(final String id) {
+    if (fitsInUnsignedLong(id)) {
+      return parseUnsignedLong(id);
+    }
+    return new BigInteger(id).longValue();
+  }
+
+  private static BigInteger unsigned(final long bits) {
+    final BigInteger value = BigInteger.valueOf(bits & Long.MAX_VALUE);
+    return bits < 0 ? value.setBit(63) : value;
+  }
+
+  /**
+   * True if the decimal id can go through {@link #parseUnsignedLong(String)}, that is if it only
+   * has digits and is not longer than the largest unsigned 64 bit value.
+   */
+  public static boolean fitsInUnsignedLong(final String id) {
+    final int length = id.length();
+    if (length == 0 || length > 20) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      final char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return length < 20 || id.compareTo("18446744073709551615") <= 0;
+  }
+
+  /**
+   * Parses a decimal id in the unsigned 64 bit range, returning its two's complement bits.
+   *
+   * @throws NumberFormatException if the id is not a valid unsigned 64 bit decimal number
+   */
+  public static long parseUnsignedLong(final String id) {
+    final int length = id.length();
+    if (length == 0) {
+      throw new NumberFormatException("Empty id");
+    }
+    long result = 0;
+    for (int i = 0; i < length; i++) {
+      final int digit = Character.digit(id.charAt(i), 10);
+      if (digit < 0) {
+        throw new NumberFormatException("Invalid id: " + id);
+      }
+      // Unsigned comparison: result * 10 + digit must stay below 2^64
+      if (i >= 19
+          && result + Long.MIN_VALUE > UNSIGNED_LONG_MAX_DIV_10 + Long.MIN_VALUE
+          || (result == UNSIGNED_LONG_MAX_DIV_10 && digit > 5)) {
+        throw new NumberFormatException("Id out of range: " + id);
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
 }
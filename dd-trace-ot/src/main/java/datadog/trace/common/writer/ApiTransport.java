@@ -0,0 +1,108 @@
+package datadog.trace.common.writer;
+
+import datadog.trace.api.Config;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP settings shared by the {@link Api} implementations: payload compression and timeouts.
+ *
+ * <p>Connections are left to the JDK keep-alive cache, which only takes a connection back once its
+ * response has been fully read, so {@link #readResponse(HttpURLConnection)} always drains and
+ * closes the response, error responses included.
+ */
+final class ApiTransport {
+  static final ApiTransport DEFAULT =
+      new ApiTransport(
+          PayloadCompression.NONE,
+          Config.get().getApiConnectTimeout(),
+          Config.get().getApiReadTimeout());
+
+  private final PayloadCompression compression;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+
+  ApiTransport(
+      final PayloadCompression compression,
+      final int connectTimeoutMillis,
+      final int readTimeoutMillis) {
+    this.compression = compression;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  static ApiTransport forConfig(final Config config) {
+    return new ApiTransport(
+        PayloadCompression.Builder.forConfig(config),
+        config.getApiConnectTimeout(),
+        config.getApiReadTimeout());
+  }
+
+  PayloadCompression getCompression() {
+    return compression;
+  }
+
+  /** Apply timeouts and announce the content encoding. Must be called before connecting. */
+  void configure(final HttpURLConnection httpCon) {
+    httpCon.setConnectTimeout(connectTimeoutMillis);
+    httpCon.setReadTimeout(readTimeoutMillis);
+    if (compression.getContentEncoding() != null) {
+      httpCon.setRequestProperty("Content-Encoding", compression.getContentEncoding());
+    }
+  }
+
+  /**
+   * Open the request body. When the payload is compressed its final size isn't known upfront, so
+   * it's sent chunked; otherwise the known length is used if there is one (negative if unknown).
+   */
+  OutputStream openRequestBody(final HttpURLConnection httpCon, final int uncompressedLength)
+      throws IOException {
+    if (compression.getContentEncoding() != null) {
+      httpCon.setChunkedStreamingMode(0);
+    } else if (uncompressedLength >= 0) {
+      httpCon.setFixedLengthStreamingMode(uncompressedLength);
+    }
+    return compression.compress(httpCon.getOutputStream());
+  }
+
+  /**
+   * Read the whole response body, from the error stream for non 2xx responses, and close it so the
+   * underlying connection can be reused.
+   *
+   * @return the response body, empty if there is none
+   */
+  static String readResponse(final HttpURLConnection httpCon) throws IOException {
+    final int responseCode = httpCon.getResponseCode();
+    final InputStream in =
+        responseCode >= 400 ? httpCon.getErrorStream() : httpCon.getInputStream();
+    if (in == null) {
+      return "";
+    }
+    try {
+      final ByteArrayOutputStream body = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        body.write(buffer, 0, read);
+      }
+      return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ApiTransport { compression="
+        + compression
+        + ", connectTimeoutMillis="
+        + connectTimeoutMillis
+        + ", readTimeoutMillis="
+        + readTimeoutMillis
+        + " }";
+  }
+}
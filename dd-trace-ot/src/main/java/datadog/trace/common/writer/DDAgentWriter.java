@@ -2,15 +2,18 @@
 package datadog.trace.common.writer;
 
 import datadog.opentracing.DDSpan;
+import datadog.opentracing.DDSpanContext;
+import datadog.trace.api.Config;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -22,36 +25,44 @@ import lombok.extern.slf4j.Slf4j;
  * <p>It handles writes asynchronuously so the calling threads are automatically released. However,
  * if too much spans are collected the writers can reach a state where it is forced to drop incoming
  * spans.
+ *
+ * <p>Traces are flushed every flush interval, or earlier once the queued traces pass the span count
+ * or estimated size thresholds, or fill the queue. When sending takes longer than the flush
+ * interval the writer backs off, doubling the delay between flushes (up to {@link
+ * #MAX_BACKOFF_FACTOR} times the interval) and ignoring early flush triggers until the backend
+ * catches up.
+ *
+ * <p>Each flush drains the queue into a batch that is encoded on the writer thread (for {@link
+ * EncodingApi}s) then sent by a pool of sender threads, so up to {@code maxInFlightRequests}
+ * batches are sent at once. A failed batch is retried with exponential backoff. While all the
+ * senders are busy, flushes leave the traces in the queue, which then drops traces once full: at
+ * most the queue capacity plus one batch per in flight request is kept in memory.
+ *
+ * <p>With a {@link SpillBuffer}, encoded batches that still fail after their retries are written
+ * to disk instead of being dropped, and sent again in order once a send succeeds or on the next
+ * flush.
  */
 @Slf4j
 public class DDAgentWriter implements Writer {
 
-  /** Maximum number of traces kept in memory */
-  static final int DEFAULT_MAX_TRACES = 7000;
+  /** Upper bound of the flush delay while backing off, as a multiple of the flush interval */
+  static final int MAX_BACKOFF_FACTOR = 8;
 
-  /** Timeout for the API in seconds */
-  static final long API_TIMEOUT_SECONDS = 1;
+  /** Delay before the first retry of a failed batch, doubled for each following one */
+  static final long INITIAL_RETRY_DELAY_MILLIS = 100;
 
-  /** Flush interval for the API in seconds */
-  static final long FLUSH_TIME_SECONDS = 1;
+  /** Rough encoded size of a span without its resource name and tags */
+  private static final int SPAN_OVERHEAD_BYTES = 128;
 
-  private final ThreadFactory agentWriterThreadFactory =
-      new ThreadFactory() {
-        @Override
-        public Thread newThread(final Runnable r) {
-          final Thread thread = new Thread(r, "dd-agent-writer");
-          thread.setDaemon(true);
-          return thread;
-        }
-      };
+  /** Rough encoded size of a tag, key and value */
+  private static final int TAG_BYTES = 48;
 
-  /** Scheduled thread pool, acting like a cron */
+  /** Single thread scheduling the flushes and encoding the batches */
   private final ScheduledExecutorService scheduledExecutor =
-      Executors.newScheduledThreadPool(1, agentWriterThreadFactory);
+      Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("dd-agent-writer"));
 
-  /** Effective thread pool, where real logic is done */
-  private final ExecutorService executor =
-      Executors.newSingleThreadExecutor(agentWriterThreadFactory);
+  /** Threads sending the batches, also used to delay retries */
+  private final ScheduledExecutorService senderExecutor;
 
   /** The DD agent api */
   private final Api api;
@@ -59,6 +70,47 @@ public class DDAgentWriter implements Writer {
   /** In memory collection of traces waiting for departure */
   private final WriterQueue<List<DDSpan>> traces;
 
+  private final long flushIntervalMillis;
+  private final int flushSpansThreshold;
+  private final int flushBytesThreshold;
+  private final int sendRetries;
+
+  /** One permit per batch that can be in flight */
+  private final Semaphore inFlightBatches;
+
+  /** Where failed batches go, null if spilling is disabled */
+  private final SpillBuffer spillBuffer;
+
+  private final AtomicBoolean replaying = new AtomicBoolean(false);
+  private final Runnable replayTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          replaySpilled();
+        }
+      };
+
+  /** Spans and estimated bytes queued since the last flush, only used to trigger early flushes */
+  private final AtomicLong queuedSpans = new AtomicLong(0);
+
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+
+  private final AtomicLong droppedTraces = new AtomicLong(0);
+  private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+  private final Runnable flushTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      };
+
+  /** Current delay between flushes, bigger than the flush interval while backing off */
+  private final AtomicLong flushDelayMillis = new AtomicLong();
+
+  /** Only accessed from the writer thread */
+  private ScheduledFuture<?> nextFlush;
+
   private boolean queueFullReported = false;
 
   public DDAgentWriter() {
@@ -66,13 +118,89 @@ public class DDAgentWriter implements Writer {
   }
 
   public DDAgentWriter(final Api api) {
-    this(api, new WriterQueue<List<DDSpan>>(DEFAULT_MAX_TRACES));
+    this(api, new WriterQueue<List<DDSpan>>(Config.DEFAULT_WRITER_MAX_QUEUED_TRACES));
   }
 
   public DDAgentWriter(final Api api, final WriterQueue<List<DDSpan>> queue) {
+    this(
+        api,
+        queue,
+        Config.DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS,
+        Config.DEFAULT_WRITER_FLUSH_SPANS_THRESHOLD,
+        Config.DEFAULT_WRITER_FLUSH_BYTES_THRESHOLD,
+        Config.DEFAULT_WRITER_MAX_INFLIGHT_REQUESTS,
+        Config.DEFAULT_WRITER_SEND_RETRIES);
+  }
+
+  public DDAgentWriter(final Api api, final Config config) {
+    this(
+        api,
+        new WriterQueue<List<DDSpan>>(config.getWriterMaxQueuedTraces()),
+        config.getWriterFlushInterval(),
+        config.getWriterFlushSpansThreshold(),
+        config.getWriterFlushBytesThreshold(),
+        config.getWriterMaxInflightRequests(),
+        config.getWriterSendRetries(),
+        SpillBuffer.forConfig(config));
+  }
+
+  DDAgentWriter(
+      final Api api,
+      final WriterQueue<List<DDSpan>> queue,
+      final long flushIntervalMillis,
+      final int flushSpansThreshold,
+      final int flushBytesThreshold,
+      final int maxInFlightRequests,
+      final int sendRetries) {
+    this(
+        api,
+        queue,
+        flushIntervalMillis,
+        flushSpansThreshold,
+        flushBytesThreshold,
+        maxInFlightRequests,
+        sendRetries,
+        null);
+  }
+
+  /**
+   * @param flushIntervalMillis maximum delay between two flushes when the backend keeps up
+   * @param flushSpansThreshold flush as soon as this many spans are queued, disabled if not
+   *     positive
+   * @param flushBytesThreshold flush as soon as the queued spans are estimated to take this many
+   *     bytes, disabled if not positive
+   * @param maxInFlightRequests number of batches sent at the same time
+   * @param sendRetries number of times a failed batch is sent again before being dropped
+   * @param spillBuffer where to keep batches that could not be sent, null to drop them
+   */
+  DDAgentWriter(
+      final Api api,
+      final WriterQueue<List<DDSpan>> queue,
+      final long flushIntervalMillis,
+      final int flushSpansThreshold,
+      final int flushBytesThreshold,
+      final int maxInFlightRequests,
+      final int sendRetries,
+      final SpillBuffer spillBuffer) {
     super();
+    if (flushIntervalMillis < 1) {
+      throw new IllegalArgumentException("Flush interval must be positive");
+    }
+    if (maxInFlightRequests < 1) {
+      throw new IllegalArgumentException("At least one request must be allowed in flight");
+    }
     this.api = api;
     traces = queue;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.flushSpansThreshold = flushSpansThreshold;
+    this.flushBytesThreshold = flushBytesThreshold;
+    this.sendRetries = Math.max(0, sendRetries);
+    inFlightBatches = new Semaphore(maxInFlightRequests);
+    this.spillBuffer = api instanceof EncodingApi ? spillBuffer : null;
+    senderExecutor =
+        Executors.newScheduledThreadPool(
+            maxInFlightRequests, daemonThreadFactory("dd-agent-writer-sender"));
+    flushDelayMillis.set(flushIntervalMillis);
   }
 
   /* (non-Javadoc)
@@ -81,12 +209,26 @@ public class DDAgentWriter implements Writer {
   @Override
   public void write(final List<DDSpan> trace) {
     final List<DDSpan> removed = traces.add(trace);
-    if (removed != null && !queueFullReported) {
-      log.debug("Queue is full, traces will be discarded, queue size: {}", DEFAULT_MAX_TRACES);
-      queueFullReported = true;
+    if (removed != null) {
+      droppedTraces.incrementAndGet();
+      // The queue is full, sending now is the only way to make room.
+      requestFlush();
+      if (!queueFullReported) {
+        log.debug("Queue is full, traces will be discarded, queue size: {}", traces.size());
+        queueFullReported = true;
+      }
       return;
     }
     queueFullReported = false;
+
+    final boolean spansThresholdReached =
+        flushSpansThreshold > 0 && queuedSpans.addAndGet(trace.size()) >= flushSpansThreshold;
+    final boolean bytesThresholdReached =
+        flushBytesThreshold > 0
+            && queuedBytes.addAndGet(estimateSize(trace)) >= flushBytesThreshold;
+    if (spansThresholdReached || bytesThresholdReached) {
+      requestFlush();
+    }
   }
 
   /* (non-Javadoc)
@@ -94,8 +236,7 @@ public class DDAgentWriter implements Writer {
    */
   @Override
   public void start() {
-    scheduledExecutor.scheduleAtFixedRate(
-        new TracesSendingTask(), 0, FLUSH_TIME_SECONDS, TimeUnit.SECONDS);
+    scheduledExecutor.execute(flushTask);
   }
 
   /* (non-Javadoc)
@@ -104,7 +245,7 @@ public class DDAgentWriter implements Writer {
   @Override
   public void close() {
     scheduledExecutor.shutdownNow();
-    executor.shutdownNow();
+    senderExecutor.shutdownNow();
     try {
       scheduledExecutor.awaitTermination(500, TimeUnit.MILLISECONDS);
     } catch (final InterruptedException e) {
@@ -112,7 +253,7 @@ public class DDAgentWriter implements Writer {
     }
 
     try {
-      executor.awaitTermination(500, TimeUnit.MILLISECONDS);
+      senderExecutor.awaitTermination(500, TimeUnit.MILLISECONDS);
     } catch (final InterruptedException e) {
       log.info("Writer properly closed and async writer interrupted.");
     }
@@ -127,50 +268,223 @@ public class DDAgentWriter implements Writer {
     return api;
   }
 
-  /** Infinite tasks blocking until some spans come in the blocking queue. */
-  class TracesSendingTask implements Runnable {
+  /** @return the number of traces replaced in the queue because it was full */
+  long getDroppedTraces() {
+    return droppedTraces.get();
+  }
+
+  /** Flush ahead of schedule, unless one is already pending or the writer is backing off. */
+  private void requestFlush() {
+    if (flushDelayMillis.get() > flushIntervalMillis
+        || scheduledExecutor.isShutdown()
+        || !flushRequested.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      scheduledExecutor.execute(flushTask);
+    } catch (final RejectedExecutionException e) {
+      // The writer has been closed in the meantime.
+    }
+  }
+
+  /** Hands the queued traces to the senders then schedules the next flush. */
+  private void flush() {
+    if (nextFlush != null) {
+      nextFlush.cancel(false);
+    }
+    flushRequested.set(false);
+
+    try {
+      dispatchQueuedTraces();
+      // Also retried when no new batch is sent, the backend may be back in the meantime.
+      replaySpilledLater();
+    } catch (final Throwable e) {
+      log.debug("Failed to send traces to the API: {}", e.getMessage());
+    }
+
+    try {
+      nextFlush =
+          scheduledExecutor.schedule(flushTask, flushDelayMillis.get(), TimeUnit.MILLISECONDS);
+    } catch (final RejectedExecutionException e) {
+      // The writer has been closed in the meantime.
+    }
+  }
+
+  private void dispatchQueuedTraces() {
+    if (traces.isEmpty()) {
+      return;
+    }
+    if (!inFlightBatches.tryAcquire()) {
+      // Every sender is busy: keep the traces queued rather than piling up batches in memory.
+      log.debug("All senders busy, keeping {} traces queued", traces.size());
+      backOff();
+      return;
+    }
+
+    EncodedTraces encoded = null;
+    try {
+      queuedSpans.set(0);
+      queuedBytes.set(0);
+      final List<List<DDSpan>> payload = traces.getAll();
+
+      if (log.isDebugEnabled()) {
+        int nbSpans = 0;
+        for (final List<?> trace : payload) {
+          nbSpans += trace.size();
+        }
+
+        log.debug("Sending {} traces ({} spans) to the API (async)", payload.size(), nbSpans);
+      }
+
+      if (api instanceof EncodingApi) {
+        encoded = ((EncodingApi) api).encode(payload);
+        senderExecutor.execute(new SendingTask(null, encoded, payload.size()));
+      } else {
+        senderExecutor.execute(new SendingTask(payload, null, payload.size()));
+      }
+    } catch (final Throwable e) {
+      if (encoded != null) {
+        encoded.release();
+      }
+      inFlightBatches.release();
+      log.debug("Failed to send traces to the API: {}", e.getMessage());
+    }
+  }
+
+  private void backOff() {
+    long current;
+    long next;
+    do {
+      current = flushDelayMillis.get();
+      next = Math.min(current * 2, flushIntervalMillis * MAX_BACKOFF_FACTOR);
+    } while (!flushDelayMillis.compareAndSet(current, next));
+    log.debug("Backing off, next flush in {} ms", next);
+  }
+
+  /** Sends one batch, retrying with exponential backoff, then frees its in flight permit. */
+  class SendingTask implements Runnable {
+    private final List<List<DDSpan>> payload;
+    private final EncodedTraces encoded;
+    private final int traceCount;
+    private int attempt = 0;
+    private long retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+
+    SendingTask(
+        final List<List<DDSpan>> payload, final EncodedTraces encoded, final int traceCount) {
+      this.payload = payload;
+      this.encoded = encoded;
+      this.traceCount = traceCount;
+    }
 
     @Override
     public void run() {
-      final Future<Long> future = executor.submit(new SendingTask());
+      final long start = System.nanoTime();
+      boolean isSent = false;
       try {
-        final long nbTraces = future.get(API_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        if (nbTraces > 0) {
-          log.debug("Successfully sent {} traces to the API", nbTraces);
-        }
-      } catch (final TimeoutException e) {
-        log.debug("Timeout! Failed to send traces to the API: {}", e.getMessage());
+        isSent = encoded != null ? ((EncodingApi) api).send(encoded) : api.sendTraces(payload);
       } catch (final Throwable e) {
         log.debug("Failed to send traces to the API: {}", e.getMessage());
       }
-    }
-
-    class SendingTask implements Callable<Long> {
+      final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
 
-      @Override
-      public Long call() throws Exception {
-        if (traces.isEmpty()) {
-          return 0L;
+      if (!isSent && attempt < sendRetries) {
+        attempt++;
+        final long delayMillis = retryDelayMillis;
+        // Updated before scheduling, the retry may run on another sender thread right away
+        retryDelayMillis = Math.min(delayMillis * 2, flushIntervalMillis * MAX_BACKOFF_FACTOR);
+        log.debug(
+            "Failing to send {} traces to the API, retry {} in {} ms",
+            traceCount,
+            attempt,
+            delayMillis);
+        try {
+          senderExecutor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+          return;
+        } catch (final RejectedExecutionException e) {
+          // The writer has been closed in the meantime.
         }
+      }
 
-        final List<List<DDSpan>> payload = traces.getAll();
+      if (isSent) {
+        log.debug("Successfully sent {} traces to the API", traceCount);
+      } else if (encoded != null && spillBuffer != null && spillBuffer.append(encoded)) {
+        log.debug("Failing to send {} traces to the API, spilled to disk", traceCount);
+      } else {
+        log.debug("Failing to send {} traces to the API", traceCount);
+      }
+      if (encoded != null) {
+        encoded.release();
+      }
+      if (elapsedMillis > flushIntervalMillis) {
+        backOff();
+      } else {
+        flushDelayMillis.set(flushIntervalMillis);
+      }
+      inFlightBatches.release();
 
-        if (log.isDebugEnabled()) {
-          int nbSpans = 0;
-          for (final List<?> trace : payload) {
-            nbSpans += trace.size();
-          }
+      if (isSent) {
+        // The endpoint is reachable again
+        replaySpilledLater();
+      }
+    }
+  }
 
-          log.debug("Sending {} traces ({} spans) to the API (async)", payload.size(), nbSpans);
-        }
-        final boolean isSent = api.sendTraces(payload);
+  /** Replays the spilled batches on a sender thread, unless a replay is already running. */
+  private void replaySpilledLater() {
+    if (spillBuffer == null || spillBuffer.isEmpty() || !replaying.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      senderExecutor.execute(replayTask);
+    } catch (final RejectedExecutionException e) {
+      replaying.set(false);
+    }
+  }
 
-        if (!isSent) {
-          log.debug("Failing to send {} traces to the API", payload.size());
-          return 0L;
+  /** Sends the spilled batches, oldest first, until one fails. */
+  private void replaySpilled() {
+    try {
+      EncodedTraces spilled;
+      while (!Thread.currentThread().isInterrupted() && (spilled = spillBuffer.peek()) != null) {
+        if (!((EncodingApi) api).send(spilled)) {
+          log.debug("Failing to replay {} spilled traces", spilled.getTraceCount());
+          return;
         }
-        return (long) payload.size();
+        spillBuffer.remove();
+        log.debug("Replayed {} spilled traces", spilled.getTraceCount());
+      }
+    } catch (final Throwable e) {
+      log.debug("Failed to replay spilled traces: {}", e.getMessage());
+    } finally {
+      replaying.set(false);
+    }
+  }
+
+  /**
+   * Cheap approximation of the encoded size of a trace, good enough to trigger flushes. Called on
+   * the application thread, so only counters are read and spans are not copied.
+   */
+  private static long estimateSize(final List<DDSpan> trace) {
+    long size = 0;
+    for (final DDSpan span : trace) {
+      final DDSpanContext context = span.context();
+      size += SPAN_OVERHEAD_BYTES + (long) context.getTagCount() * TAG_BYTES;
+      final String resourceName = context.getResourceName();
+      if (resourceName != null) {
+        size += resourceName.length();
       }
     }
+    return size;
+  }
+
+  private static ThreadFactory daemonThreadFactory(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
   }
 }
@@ -5,16 +5,13 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import datadog.opentracing.DDSpan;
 import datadog.opentracing.DDTraceOTInfo;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import lombok.extern.slf4j.Slf4j;
@@ -22,7 +19,7 @@ import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 /** The API pointing to a DD agent */
 @Slf4j
-public class DDApi implements Api {
+public class DDApi implements EncodingApi {
   private static final String DATADOG_META_LANG = "Datadog-Meta-Lang";
   private static final String DATADOG_META_LANG_VERSION = "Datadog-Meta-Lang-Version";
   private static final String DATADOG_META_LANG_INTERPRETER = "Datadog-Meta-Lang-Interpreter";
@@ -34,18 +31,39 @@ public class DDApi implements Api {
   private static final long MILLISECONDS_BETWEEN_ERROR_LOG = TimeUnit.MINUTES.toMillis(5);
 
   private final String tracesEndpoint;
-  private final List<ResponseListener> responseListeners = new ArrayList<>();
+  private final ApiTransport transport;
+  // Notified from concurrent sends
+  private final List<ResponseListener> responseListeners = new CopyOnWriteArrayList<>();
 
   private final AtomicInteger traceCount = new AtomicInteger(0);
   private volatile long nextAllowedLogTime = 0;
 
   private static final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
 
+  private final MsgPackTraceEncoder encoder = new MsgPackTraceEncoder();
+
   public DDApi(final String host, final int port) {
-    this(host, port, traceEndpointAvailable("http://" + host + ":" + port + TRACES_ENDPOINT_V4));
+    this(host, port, ApiTransport.DEFAULT);
+  }
+
+  DDApi(final String host, final int port, final ApiTransport transport) {
+    this(
+        host,
+        port,
+        traceEndpointAvailable("http://" + host + ":" + port + TRACES_ENDPOINT_V4),
+        transport);
   }
 
   DDApi(final String host, final int port, final boolean v4EndpointsAvailable) {
+    this(host, port, v4EndpointsAvailable, ApiTransport.DEFAULT);
+  }
+
+  DDApi(
+      final String host,
+      final int port,
+      final boolean v4EndpointsAvailable,
+      final ApiTransport transport) {
+    this.transport = transport;
     if (v4EndpointsAvailable) {
       this.tracesEndpoint = "http://" + host + ":" + port + TRACES_ENDPOINT_V4;
     } else {
@@ -72,38 +90,52 @@ public class DDApi implements Api {
    */
   @Override
   public boolean sendTraces(final List<List<DDSpan>> traces) {
+    final EncodedTraces encoded = encode(traces);
+    try {
+      return send(encoded);
+    } finally {
+      encoded.release();
+    }
+  }
+
+  @Override
+  public EncodedTraces encode(final List<List<DDSpan>> traces) {
     final int totalSize = traceCount == null ? traces.size() : traceCount.getAndSet(0);
+    final MsgPackTraceEncoder.Buffer payload = encoder.encode(traces);
+    return new EncodedTraces(
+        traces.size(),
+        totalSize,
+        payload.array(),
+        payload.size(),
+        new Runnable() {
+          @Override
+          public void run() {
+            encoder.release(payload);
+          }
+        });
+  }
+
+  @Override
+  public boolean send(final EncodedTraces traces) {
+    final int totalSize = traces.getReportedTraceCount();
     try {
       final HttpURLConnection httpCon = getHttpURLConnection(tracesEndpoint);
+      transport.configure(httpCon);
       httpCon.setRequestProperty(X_DATADOG_TRACE_COUNT, String.valueOf(totalSize));
 
-      final OutputStream out = httpCon.getOutputStream();
-      objectMapper.writeValue(out, traces);
+      final OutputStream out = transport.openRequestBody(httpCon, traces.size());
+      traces.writeTo(out);
       out.flush();
       out.close();
 
-      String responseString = null;
-      {
-        final BufferedReader responseReader =
-            new BufferedReader(
-                new InputStreamReader(httpCon.getInputStream(), StandardCharsets.UTF_8));
-        final StringBuilder sb = new StringBuilder();
-
-        String line = null;
-        while ((line = responseReader.readLine()) != null) {
-          sb.append(line);
-        }
-        responseReader.close();
-
-        responseString = sb.toString();
-      }
+      final String responseString = ApiTransport.readResponse(httpCon);
 
       final int responseCode = httpCon.getResponseCode();
       if (responseCode != 200) {
         if (log.isDebugEnabled()) {
           log.debug(
               "Error while sending {} of {} traces to the DD agent. Status: {}, ResponseMessage: ",
-              traces.size(),
+              traces.getTraceCount(),
               totalSize,
               responseCode,
               httpCon.getResponseMessage());
@@ -111,7 +143,7 @@ public class DDApi implements Api {
           nextAllowedLogTime = System.currentTimeMillis() + MILLISECONDS_BETWEEN_ERROR_LOG;
           log.warn(
               "Error while sending {} of {} traces to the DD agent. Status: {} (going silent for {} seconds)",
-              traces.size(),
+              traces.getTraceCount(),
               totalSize,
               responseCode,
               httpCon.getResponseMessage(),
@@ -120,7 +152,10 @@ public class DDApi implements Api {
         return false;
       }
 
-      log.debug("Successfully sent {} of {} traces to the DD agent.", traces.size(), totalSize);
+      log.debug(
+          "Successfully sent {} of {} traces to the DD agent.",
+          traces.getTraceCount(),
+          totalSize);
 
       try {
         if (null != responseString
@@ -140,7 +175,7 @@ public class DDApi implements Api {
       if (log.isDebugEnabled()) {
         log.debug(
             "Error while sending "
-                + traces.size()
+                + traces.getTraceCount()
                 + " of "
                 + totalSize
                 + " traces to the DD agent.",
@@ -149,7 +184,7 @@ public class DDApi implements Api {
         nextAllowedLogTime = System.currentTimeMillis() + MILLISECONDS_BETWEEN_ERROR_LOG;
         log.warn(
             "Error while sending {} of {} traces to the DD agent. {}: {} (going silent for {} minutes)",
-            traces.size(),
+            traces.getTraceCount(),
             totalSize,
             e.getClass().getName(),
             e.getMessage(),
@@ -208,7 +243,7 @@ public class DDApi implements Api {
 
   @Override
   public String toString() {
-    return "DDApi { tracesEndpoint=" + tracesEndpoint + " }";
+    return "DDApi { tracesEndpoint=" + tracesEndpoint + ", transport=" + transport + " }";
   }
 
   public interface ResponseListener {
@@ -0,0 +1,74 @@
+package datadog.trace.common.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A payload produced by {@link EncodingApi#encode(java.util.List)}, not modified once encoded.
+ *
+ * <p>The bytes may belong to a buffer the encoder reuses, which is given back by {@link
+ * #release()} once the payload will not be sent again.
+ */
+public final class EncodedTraces {
+  private final int traceCount;
+  private final int reportedTraceCount;
+  private final byte[] bytes;
+  private final int length;
+  private final Runnable onRelease;
+
+  /**
+   * @param traceCount number of traces in the payload
+   * @param reportedTraceCount number of traces the payload stands for, including the ones that
+   *     were not kept
+   * @param bytes the encoded traces, not copied
+   */
+  EncodedTraces(final int traceCount, final int reportedTraceCount, final byte[] bytes) {
+    this(traceCount, reportedTraceCount, bytes, bytes.length, null);
+  }
+
+  /**
+   * @param bytes holds the encoded traces first, not copied
+   * @param length number of bytes taken by the encoded traces
+   * @param onRelease gives the bytes back to the encoder, null if they are not reused
+   */
+  EncodedTraces(
+      final int traceCount,
+      final int reportedTraceCount,
+      final byte[] bytes,
+      final int length,
+      final Runnable onRelease) {
+    this.traceCount = traceCount;
+    this.reportedTraceCount = reportedTraceCount;
+    this.bytes = bytes;
+    this.length = length;
+    this.onRelease = onRelease;
+  }
+
+  public int getTraceCount() {
+    return traceCount;
+  }
+
+  public int getReportedTraceCount() {
+    return reportedTraceCount;
+  }
+
+  public int size() {
+    return length;
+  }
+
+  /** The array holding the encoded bytes up to {@link #size()}, not to be modified. */
+  byte[] bytes() {
+    return bytes;
+  }
+
+  void writeTo(final OutputStream out) throws IOException {
+    out.write(bytes, 0, length);
+  }
+
+  /** Called once the payload was sent, stored or dropped. The payload is not used afterwards. */
+  void release() {
+    if (onRelease != null) {
+      onRelease.run();
+    }
+  }
+}
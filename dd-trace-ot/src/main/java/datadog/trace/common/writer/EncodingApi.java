@@ -0,0 +1,31 @@
+package datadog.trace.common.writer;
+
+import datadog.opentracing.DDSpan;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An {@link Api} that can encode traces separately from sending them. This lets the writer encode
+ * a batch on its own thread while previous batches are still being sent, and retry a failed batch
+ * without encoding it again.
+ */
+public interface EncodingApi extends Api {
+
+  /**
+   * Encode the traces. The payload is given back with {@link EncodedTraces#release()} once sent
+   * for the last time, so that its buffer can be reused.
+   *
+   * @param traces the traces to encode
+   * @return the encoded payload, ready to be sent
+   */
+  EncodedTraces encode(List<List<DDSpan>> traces) throws IOException;
+
+  /**
+   * Send an encoded payload. May be called concurrently, and more than once for the same payload
+   * when retrying.
+   *
+   * @param traces the payload to send
+   * @return true if the traces were accepted
+   */
+  boolean send(EncodedTraces traces);
+}
@@ -0,0 +1,399 @@
+package datadog.trace.common.writer;
+
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.SpanSnapshot;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hand written MessagePack encoder for the payload expected by the trace agent.
+ *
+ * <p>Produces the same document as serializing the spans with Jackson (see the {@code JsonGetter}
+ * annotations on {@link DDSpan}), without bean introspection. Strings that repeat from span to span
+ * (service, operation, type and tag keys) are encoded once and their bytes reused afterwards. They
+ * are kept in a set associative cache, each set keeping its most recently used entries first, so
+ * strings no longer used are eventually replaced by new ones.
+ *
+ * <p>Encoded payloads are written into a buffer that is handed back to the encoder once sent, so a
+ * steady flush cycle does not allocate a new buffer each time.
+ */
+final class MsgPackTraceEncoder {
+  /** Buffers that grew above this size are not kept around after use. */
+  static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  private static final int STRING_CACHE_WAYS = 4;
+  private static final int STRING_CACHE_SETS = 512;
+  private static final int MAX_CACHED_STRING_LENGTH = 128;
+
+  private static final int SPAN_FIELD_COUNT = 12;
+  private static final byte[] SERVICE = encodeString("service");
+  private static final byte[] NAME = encodeString("name");
+  private static final byte[] RESOURCE = encodeString("resource");
+  private static final byte[] TRACE_ID = encodeString("trace_id");
+  private static final byte[] SPAN_ID = encodeString("span_id");
+  private static final byte[] PARENT_ID = encodeString("parent_id");
+  private static final byte[] START = encodeString("start");
+  private static final byte[] DURATION = encodeString("duration");
+  private static final byte[] TYPE = encodeString("type");
+  private static final byte[] ERROR = encodeString("error");
+  private static final byte[] META = encodeString("meta");
+  private static final byte[] METRICS = encodeString("metrics");
+
+  private final AtomicReferenceArray<CachedString> stringCache =
+      new AtomicReferenceArray<>(STRING_CACHE_SETS * STRING_CACHE_WAYS);
+  private final AtomicReference<Buffer> idleBuffer = new AtomicReference<>();
+
+  /**
+   * Encode the given traces. The returned buffer must be given back through {@link
+   * #release(Buffer)} once its content has been written out.
+   */
+  Buffer encode(final List<List<DDSpan>> traces) {
+    Buffer buffer = idleBuffer.getAndSet(null);
+    if (buffer == null) {
+      buffer = new Buffer(INITIAL_BUFFER_SIZE);
+    }
+    buffer.reset();
+
+    buffer.writeArrayHeader(traces.size());
+    for (final List<DDSpan> trace : traces) {
+      buffer.writeArrayHeader(trace.size());
+      for (final DDSpan span : trace) {
+        writeSpan(buffer, span);
+      }
+    }
+    return buffer;
+  }
+
+  void release(final Buffer buffer) {
+    if (buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+      idleBuffer.set(buffer);
+    }
+  }
+
+  private void writeSpan(final Buffer buffer, final DDSpan ddSpan) {
+    final SpanSnapshot span = ddSpan.snapshot();
+    buffer.writeMapHeader(SPAN_FIELD_COUNT);
+
+    buffer.writeRaw(SERVICE);
+    writeCachedString(buffer, span.getServiceName());
+    buffer.writeRaw(NAME);
+    writeCachedString(buffer, span.getOperationName());
+    buffer.writeRaw(RESOURCE);
+    buffer.writeString(span.getResourceName());
+    // The agent only knows about 64 bit trace ids, 128 bit B3 ids are reported by their low bits
+    buffer.writeRaw(TRACE_ID);
+    buffer.writeUnsignedId(span.getTraceIdLow());
+    buffer.writeRaw(SPAN_ID);
+    buffer.writeUnsignedId(span.getSpanId());
+    buffer.writeRaw(PARENT_ID);
+    buffer.writeUnsignedId(span.getParentId());
+    buffer.writeRaw(START);
+    buffer.writeLong(span.getStartTime());
+    buffer.writeRaw(DURATION);
+    buffer.writeLong(span.getDurationNano());
+    buffer.writeRaw(TYPE);
+    writeCachedString(buffer, span.getSpanType());
+    buffer.writeRaw(ERROR);
+    buffer.writeLong(span.isError() ? 1 : 0);
+
+    buffer.writeRaw(META);
+    writeMeta(buffer, span);
+
+    buffer.writeRaw(METRICS);
+    buffer.writeMapHeader(span.getMetricCount());
+    for (int i = 0; i < span.getMetricCount(); i++) {
+      writeCachedString(buffer, span.getMetricKey(i));
+      buffer.writeNumber(span.getMetricValue(i));
+    }
+  }
+
+  /** Same content as {@link DDSpan#getMeta()}: baggage overridden by stringified tags. */
+  private void writeMeta(final Buffer buffer, final SpanSnapshot span) {
+    buffer.writeMapHeader(span.getBaggageCount() + span.getTagCount());
+    for (int i = 0; i < span.getBaggageCount(); i++) {
+      writeCachedString(buffer, span.getBaggageKey(i));
+      buffer.writeString(span.getBaggageValue(i));
+    }
+    for (int i = 0; i < span.getTagCount(); i++) {
+      writeCachedString(buffer, span.getTagKey(i));
+      final Object value = span.getTagValue(i);
+      buffer.writeString(value instanceof String ? (String) value : String.valueOf(value));
+    }
+  }
+
+  private void writeCachedString(final Buffer buffer, final String value) {
+    if (value == null) {
+      buffer.writeNil();
+      return;
+    }
+    if (value.length() > MAX_CACHED_STRING_LENGTH) {
+      buffer.writeString(value);
+      return;
+    }
+    final int hash = value.hashCode();
+    final int base = ((hash ^ (hash >>> 16)) & (STRING_CACHE_SETS - 1)) * STRING_CACHE_WAYS;
+    for (int way = 0; way < STRING_CACHE_WAYS; way++) {
+      final CachedString cached = stringCache.get(base + way);
+      if (cached == null) {
+        break;
+      }
+      if (cached.value.equals(value)) {
+        if (way > 0) {
+          moveFirst(base, way, cached);
+        }
+        buffer.writeRaw(cached.encoded);
+        return;
+      }
+    }
+    final byte[] encoded = encodeString(value);
+    moveFirst(base, STRING_CACHE_WAYS - 1, new CachedString(value, encoded));
+    buffer.writeRaw(encoded);
+  }
+
+  /**
+   * Shifts the entries before the way down by one, dropping the one in the way. Concurrent updates
+   * may drop or duplicate an entry, which only costs encoding the string again.
+   */
+  private void moveFirst(final int base, final int way, final CachedString entry) {
+    for (int i = way; i > 0; i--) {
+      stringCache.set(base + i, stringCache.get(base + i - 1));
+    }
+    stringCache.set(base, entry);
+  }
+
+  private static byte[] encodeString(final String value) {
+    final Buffer buffer = new Buffer(value.length() * 3 + 5);
+    buffer.writeString(value);
+    return buffer.toByteArray();
+  }
+
+  private static final class CachedString {
+    private final String value;
+    private final byte[] encoded;
+
+    private CachedString(final String value, final byte[] encoded) {
+      this.value = value;
+      this.encoded = encoded;
+    }
+  }
+
+  /** A growable byte array holding one encoded payload. */
+  static final class Buffer {
+    private byte[] bytes;
+    private int position;
+
+    Buffer(final int initialCapacity) {
+      bytes = new byte[initialCapacity];
+    }
+
+    int size() {
+      return position;
+    }
+
+    int capacity() {
+      return bytes.length;
+    }
+
+    void reset() {
+      position = 0;
+    }
+
+    void writeTo(final OutputStream out) throws IOException {
+      out.write(bytes, 0, position);
+    }
+
+    /** @return the array holding the encoded bytes up to {@link #size()} */
+    byte[] array() {
+      return bytes;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, position);
+    }
+
+    void writeRaw(final byte[] raw) {
+      ensureCapacity(raw.length);
+      System.arraycopy(raw, 0, bytes, position, raw.length);
+      position += raw.length;
+    }
+
+    void writeNil() {
+      ensureCapacity(1);
+      bytes[position++] = (byte) 0xc0;
+    }
+
+    void writeArrayHeader(final int size) {
+      writeContainerHeader(size, 0x90, 0xdc, 0xdd);
+    }
+
+    void writeMapHeader(final int size) {
+      writeContainerHeader(size, 0x80, 0xde, 0xdf);
+    }
+
+    private void writeContainerHeader(
+        final int size, final int fixPrefix, final int prefix16, final int prefix32) {
+      ensureCapacity(5);
+      if (size < 16) {
+        bytes[position++] = (byte) (fixPrefix | size);
+      } else if (size < 0x10000) {
+        bytes[position++] = (byte) prefix16;
+        putShort(size);
+      } else {
+        bytes[position++] = (byte) prefix32;
+        putInt(size);
+      }
+    }
+
+    void writeNumber(final Number value) {
+      if (value instanceof Double) {
+        writeDouble(value.doubleValue());
+      } else if (value instanceof Float) {
+        ensureCapacity(5);
+        bytes[position++] = (byte) 0xca;
+        putInt(Float.floatToIntBits(value.floatValue()));
+      } else if (value instanceof Integer
+          || value instanceof Long
+          || value instanceof Short
+          || value instanceof Byte) {
+        writeLong(value.longValue());
+      } else {
+        writeDouble(value.doubleValue());
+      }
+    }
+
+    void writeDouble(final double value) {
+      ensureCapacity(9);
+      bytes[position++] = (byte) 0xcb;
+      putLong(Double.doubleToLongBits(value));
+    }
+
+    /** Packs a signed long in its most compact MessagePack representation. */
+    void writeLong(final long value) {
+      ensureCapacity(9);
+      if (value >= 0) {
+        writeUnsignedLong(value);
+      } else if (value >= -32) {
+        bytes[position++] = (byte) value;
+      } else if (value >= Byte.MIN_VALUE) {
+        bytes[position++] = (byte) 0xd0;
+        bytes[position++] = (byte) value;
+      } else if (value >= Short.MIN_VALUE) {
+        bytes[position++] = (byte) 0xd1;
+        putShort((int) value);
+      } else if (value >= Integer.MIN_VALUE) {
+        bytes[position++] = (byte) 0xd2;
+        putInt((int) value);
+      } else {
+        bytes[position++] = (byte) 0xd3;
+        putLong(value);
+      }
+    }
+
+    /**
+     * Writes the bits of an id. Ids are unsigned 64 bit integers, so values above {@link
+     * Long#MAX_VALUE} are written as uint64.
+     */
+    void writeUnsignedId(final long value) {
+      ensureCapacity(9);
+      if (value < 0) {
+        bytes[position++] = (byte) 0xcf;
+        putLong(value);
+      } else {
+        writeUnsignedLong(value);
+      }
+    }
+
+    private void writeUnsignedLong(final long value) {
+      if (value < 128) {
+        bytes[position++] = (byte) value;
+      } else if (value < 0x100) {
+        bytes[position++] = (byte) 0xcc;
+        bytes[position++] = (byte) value;
+      } else if (value < 0x10000) {
+        bytes[position++] = (byte) 0xcd;
+        putShort((int) value);
+      } else if (value < 0x100000000L) {
+        bytes[position++] = (byte) 0xce;
+        putInt((int) value);
+      } else {
+        bytes[position++] = (byte) 0xcf;
+        putLong(value);
+      }
+    }
+
+    /** Writes a str header followed by the UTF-8 bytes, without going through a byte[] copy. */
+    void writeString(final String value) {
+      if (value == null) {
+        writeNil();
+        return;
+      }
+      final int length = value.length();
+      int utf8Length = length;
+      for (int i = 0; i < length; i++) {
+        final char c = value.charAt(i);
+        if (c >= 0x80) {
+          utf8Length = -1;
+          break;
+        }
+      }
+      if (utf8Length < 0) {
+        // Rare enough that the extra copy is not worth a hand rolled encoder.
+        final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeStringHeader(utf8.length);
+        writeRaw(utf8);
+        return;
+      }
+
+      writeStringHeader(length);
+      ensureCapacity(length);
+      for (int i = 0; i < length; i++) {
+        bytes[position++] = (byte) value.charAt(i);
+      }
+    }
+
+    private void writeStringHeader(final int length) {
+      ensureCapacity(5);
+      if (length < 32) {
+        bytes[position++] = (byte) (0xa0 | length);
+      } else if (length < 0x100) {
+        bytes[position++] = (byte) 0xd9;
+        bytes[position++] = (byte) length;
+      } else if (length < 0x10000) {
+        bytes[position++] = (byte) 0xda;
+        putShort(length);
+      } else {
+        bytes[position++] = (byte) 0xdb;
+        putInt(length);
+      }
+    }
+
+    private void putShort(final int value) {
+      bytes[position++] = (byte) (value >>> 8);
+      bytes[position++] = (byte) value;
+    }
+
+    private void putInt(final int value) {
+      bytes[position++] = (byte) (value >>> 24);
+      bytes[position++] = (byte) (value >>> 16);
+      bytes[position++] = (byte) (value >>> 8);
+      bytes[position++] = (byte) value;
+    }
+
+    private void putLong(final long value) {
+      putInt((int) (value >>> 32));
+      putInt((int) value);
+    }
+
+    private void ensureCapacity(final int additional) {
+      if (position + additional > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + additional));
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package datadog.trace.common.writer;
+
+import datadog.trace.api.Config;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.zip.GZIPOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compresses request bodies sent by the {@link Api} implementations.
+ *
+ * <p>Other codecs (zstd for instance) can be plugged in by registering an implementation as a
+ * {@link ServiceLoader} service and selecting it by its content encoding through {@link
+ * Config#API_COMPRESSION}.
+ */
+public interface PayloadCompression {
+
+  /** @return the value of the Content-Encoding header, or null if the payload is sent as is */
+  String getContentEncoding();
+
+  /**
+   * Wrap the request body stream. Closing the returned stream must finish the compressed payload
+   * and close the wrapped one.
+   */
+  OutputStream compress(OutputStream out) throws IOException;
+
+  PayloadCompression NONE =
+      new PayloadCompression() {
+        @Override
+        public String getContentEncoding() {
+          return null;
+        }
+
+        @Override
+        public OutputStream compress(final OutputStream out) {
+          return out;
+        }
+
+        @Override
+        public String toString() {
+          return Config.NO_API_COMPRESSION;
+        }
+      };
+
+  PayloadCompression GZIP =
+      new PayloadCompression() {
+        @Override
+        public String getContentEncoding() {
+          return Config.GZIP_API_COMPRESSION;
+        }
+
+        @Override
+        public OutputStream compress(final OutputStream out) throws IOException {
+          return new GZIPOutputStream(out, 8192);
+        }
+
+        @Override
+        public String toString() {
+          return Config.GZIP_API_COMPRESSION;
+        }
+      };
+
+  @Slf4j
+  final class Builder {
+
+    public static PayloadCompression forConfig(final Config config) {
+      return config == null ? NONE : forName(config.getApiCompression());
+    }
+
+    static PayloadCompression forName(final String name) {
+      if (name == null
+          || name.trim().isEmpty()
+          || Config.NO_API_COMPRESSION.equalsIgnoreCase(name.trim())) {
+        return NONE;
+      }
+      if (Config.GZIP_API_COMPRESSION.equalsIgnoreCase(name.trim())) {
+        return GZIP;
+      }
+      try {
+        for (final PayloadCompression compression :
+            ServiceLoader.load(
+                PayloadCompression.class, PayloadCompression.class.getClassLoader())) {
+          if (name.trim().equalsIgnoreCase(compression.getContentEncoding())) {
+            return compression;
+          }
+        }
+      } catch (final ServiceConfigurationError e) {
+        log.warn("Problem loading PayloadCompression implementations", e);
+      }
+      log.warn("Payload compression {} not available. Sending uncompressed payloads.", name);
+      return NONE;
+    }
+
+    private Builder() {}
+  }
+}
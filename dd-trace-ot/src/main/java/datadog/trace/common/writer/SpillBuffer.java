@@ -0,0 +1,424 @@
+package datadog.trace.common.writer;
+
+import datadog.trace.api.Config;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Size capped on disk FIFO of encoded batches, used by {@link DDAgentWriter} to keep the batches it
+ * could not send while the endpoint is down, and replay them once it is back.
+ *
+ * <p>Batches are appended to memory mapped segment files named {@code spill-<sequence>.seg}, of a
+ * fixed size or, for a batch bigger than that, of the size of the batch. When the total size of the
+ * segments would exceed the cap the oldest ones are deleted, whether they were replayed or not.
+ * Each segment starts with a header holding a magic number and the offset of the next record to
+ * replay, so replayed batches are not sent again after a restart. A record is its payload length, a
+ * CRC32 of the rest of the record, its trace counts and the payload; the length is written last so
+ * a partially written record reads as the end of the segment. Records whose checksum does not match
+ * are skipped on replay.
+ *
+ * <p>Records are forced to disk as they are appended. Only the segment receiving appends and the
+ * one being replayed are mapped, other segments are unmapped once written and mapped again when
+ * their turn to be replayed comes.
+ */
+@Slf4j
+final class SpillBuffer {
+  static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final int MAGIC = 0x44445350; // "DDSP"
+  private static final int HEADER_SIZE = 8;
+  private static final int READ_POSITION_OFFSET = 4;
+  // length, crc, trace count, reported trace count
+  private static final int RECORD_HEADER_SIZE = 16;
+
+  private static final Pattern SEGMENT_NAME = Pattern.compile("spill-(\\d+)\\.seg");
+
+  private final File directory;
+  private final int segmentSize;
+  private final long maxBytes;
+  /** Total size of the segment files */
+  private long totalBytes = 0;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private final CRC32 crc = new CRC32();
+
+  /** Segment receiving the appends, null until the first one */
+  private Segment writeSegment;
+
+  private long nextSequence;
+  private long evictedSegments = 0;
+
+  /** Read position after the record returned by the last peek */
+  private int peekedEnd = -1;
+
+  /**
+   * @param directory where segments are stored, segments already there are replayed
+   * @param maxBytes total size of the segment files
+   * @param segmentSize size of the segment files, unless the cap is smaller or a batch is bigger
+   */
+  SpillBuffer(final File directory, final long maxBytes, final int segmentSize)
+      throws IOException {
+    if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+    }
+    if (maxBytes <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Spill size too small: " + maxBytes);
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create spill directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = (int) Math.min(segmentSize, maxBytes);
+    this.maxBytes = maxBytes;
+
+    final File[] existing = listSegmentFiles(directory);
+    long sequence = 0;
+    for (final File file : existing) {
+      sequence = sequenceOf(file);
+      try {
+        final Segment segment = Segment.open(file);
+        segments.add(segment);
+        totalBytes += segment.size;
+      } catch (final IOException e) {
+        log.debug("Ignoring unreadable spill segment {}: {}", file, e.getMessage());
+        delete(file);
+      }
+    }
+    nextSequence = sequence + 1;
+    while (totalBytes > maxBytes) {
+      evictOldest();
+    }
+  }
+
+  /** @return a spill buffer as configured, or null if spilling is disabled or not possible */
+  static SpillBuffer forConfig(final Config config) {
+    final String directory = config.getWriterSpillDirectory();
+    if (directory == null || directory.trim().isEmpty()) {
+      return null;
+    }
+    try {
+      return new SpillBuffer(
+          new File(directory.trim()), config.getWriterSpillMaxSize(), DEFAULT_SEGMENT_SIZE);
+    } catch (final IOException | IllegalArgumentException e) {
+      log.warn("Trace spilling disabled, cannot use {}: {}", directory, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Append a batch, evicting the oldest segment if needed.
+   *
+   * @return false if the batch could not be stored
+   */
+  synchronized boolean append(final EncodedTraces traces) {
+    final byte[] payload = traces.bytes();
+    final int length = traces.size();
+    final int recordSize = RECORD_HEADER_SIZE + length;
+    if (HEADER_SIZE + (long) recordSize > maxBytes) {
+      log.debug("Batch of {} bytes too big to be spilled", length);
+      return false;
+    }
+    try {
+      if (writeSegment == null || writeSegment.writePosition + recordSize > writeSegment.size) {
+        if (writeSegment != null && writeSegment != segments.peekFirst()) {
+          writeSegment.unmap();
+        }
+        // a batch bigger than a segment gets a segment of its own
+        final int size = Math.max(segmentSize, HEADER_SIZE + recordSize);
+        while (!segments.isEmpty() && totalBytes + size > maxBytes) {
+          evictOldest();
+        }
+        writeSegment = Segment.create(directory, nextSequence++, size);
+        segments.add(writeSegment);
+        totalBytes += size;
+      }
+    } catch (final IOException e) {
+      log.debug("Cannot create spill segment: {}", e.getMessage());
+      return false;
+    }
+
+    final MappedByteBuffer buffer = writeSegment.buffer;
+    final int position = writeSegment.writePosition;
+    buffer.putInt(position + 8, traces.getTraceCount());
+    buffer.putInt(position + 12, traces.getReportedTraceCount());
+    buffer.position(position + RECORD_HEADER_SIZE);
+    buffer.put(payload, 0, length);
+    buffer.putInt(
+        position + 4,
+        checksum(traces.getTraceCount(), traces.getReportedTraceCount(), payload, length));
+    // Written last: until then the record reads as the end of the segment.
+    buffer.putInt(position, length);
+    buffer.force();
+    writeSegment.writePosition = position + recordSize;
+    return true;
+  }
+
+  /**
+   * @return the oldest batch not replayed yet, or null if there is none. The same batch is returned
+   *     until {@link #remove()} is called.
+   */
+  synchronized EncodedTraces peek() {
+    while (!segments.isEmpty()) {
+      final Segment segment = segments.peekFirst();
+      final MappedByteBuffer buffer;
+      try {
+        buffer = segment.map();
+      } catch (final IOException e) {
+        log.debug("Dropping unreadable spill segment {}: {}", segment.file, e.getMessage());
+        segments.removeFirst();
+        totalBytes -= segment.size;
+        delete(segment.file);
+        continue;
+      }
+      final int position = segment.readPosition;
+      final int length =
+          position + RECORD_HEADER_SIZE <= buffer.capacity() ? buffer.getInt(position) : 0;
+
+      if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+        if (segment == writeSegment) {
+          return null;
+        }
+        // Fully replayed, or the end of a segment written before a restart.
+        segments.removeFirst();
+        totalBytes -= segment.size;
+        segment.unmap();
+        delete(segment.file);
+        continue;
+      }
+
+      final int end = position + RECORD_HEADER_SIZE + length;
+      final int traceCount = buffer.getInt(position + 8);
+      final int reportedTraceCount = buffer.getInt(position + 12);
+      final byte[] payload = new byte[length];
+      buffer.position(position + RECORD_HEADER_SIZE);
+      buffer.get(payload);
+      if (buffer.getInt(position + 4)
+          != checksum(traceCount, reportedTraceCount, payload, length)) {
+        log.debug("Skipping corrupted spilled batch in {} at {}", segment.file, position);
+        segment.setReadPosition(end);
+        continue;
+      }
+
+      peekedEnd = end;
+      return new EncodedTraces(traceCount, reportedTraceCount, payload);
+    }
+    return null;
+  }
+
+  /** Mark the batch returned by the last {@link #peek()} as replayed. */
+  synchronized void remove() {
+    if (peekedEnd < 0 || segments.isEmpty()) {
+      return;
+    }
+    segments.peekFirst().setReadPosition(peekedEnd);
+    peekedEnd = -1;
+  }
+
+  /** @return true if no batch is left to replay, may be false for a segment not mapped yet */
+  synchronized boolean isEmpty() {
+    for (final Segment segment : segments) {
+      final int position = segment.readPosition;
+      if (position + RECORD_HEADER_SIZE <= segment.size
+          && (segment.buffer == null || segment.buffer.getInt(position) > 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  synchronized long getEvictedSegments() {
+    return evictedSegments;
+  }
+
+  private void evictOldest() {
+    final Segment oldest = segments.removeFirst();
+    totalBytes -= oldest.size;
+    if (oldest == writeSegment) {
+      writeSegment = null;
+    }
+    peekedEnd = -1;
+    evictedSegments++;
+    log.debug("Spill buffer full, dropping segment {}", oldest.file);
+    oldest.unmap();
+    delete(oldest.file);
+  }
+
+  private int checksum(
+      final int traceCount, final int reportedTraceCount, final byte[] payload, final int length) {
+    final byte[] counts = {
+      (byte) (traceCount >>> 24),
+      (byte) (traceCount >>> 16),
+      (byte) (traceCount >>> 8),
+      (byte) traceCount,
+      (byte) (reportedTraceCount >>> 24),
+      (byte) (reportedTraceCount >>> 16),
+      (byte) (reportedTraceCount >>> 8),
+      (byte) reportedTraceCount
+    };
+    crc.reset();
+    crc.update(counts, 0, counts.length);
+    crc.update(payload, 0, length);
+    return (int) crc.getValue();
+  }
+
+  private static void delete(final File file) {
+    if (!file.delete() && file.exists()) {
+      log.debug("Cannot delete spill segment {}", file);
+    }
+  }
+
+  private static File[] listSegmentFiles(final File directory) {
+    final File[] files =
+        directory.listFiles(
+            new FilenameFilter() {
+              @Override
+              public boolean accept(final File dir, final String name) {
+                return SEGMENT_NAME.matcher(name).matches();
+              }
+            });
+    if (files == null) {
+      return new File[0];
+    }
+    Arrays.sort(
+        files,
+        new Comparator<File>() {
+          @Override
+          public int compare(final File left, final File right) {
+            final long leftSequence = sequenceOf(left);
+            final long rightSequence = sequenceOf(right);
+            return leftSequence < rightSequence ? -1 : leftSequence == rightSequence ? 0 : 1;
+          }
+        });
+    return files;
+  }
+
+  private static long sequenceOf(final File file) {
+    final Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+    return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+  }
+
+  private static final class Segment {
+    private final File file;
+    private final int size;
+    /** Null while unmapped, see {@link #map()} */
+    private MappedByteBuffer buffer;
+
+    private int readPosition;
+    private int writePosition;
+
+    private Segment(
+        final File file, final int size, final MappedByteBuffer buffer, final int position) {
+      this.file = file;
+      this.size = size;
+      this.buffer = buffer;
+      readPosition = position;
+      writePosition = position;
+    }
+
+    static Segment create(final File directory, final long sequence, final int size)
+        throws IOException {
+      final File file = new File(directory, "spill-" + sequence + ".seg");
+      final MappedByteBuffer buffer = map(file, size);
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(READ_POSITION_OFFSET, HEADER_SIZE);
+      return new Segment(file, size, buffer, HEADER_SIZE);
+    }
+
+    /**
+     * Existing segments are only read from, appends go to a new segment. They are mapped again when
+     * replayed.
+     */
+    static Segment open(final File file) throws IOException {
+      final int size = (int) file.length();
+      final MappedByteBuffer buffer = map(file, size);
+      try {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+          throw new IOException("Not a spill segment");
+        }
+        final int readPosition = buffer.getInt(READ_POSITION_OFFSET);
+        if (readPosition < HEADER_SIZE || readPosition > buffer.capacity()) {
+          throw new IOException("Invalid read position " + readPosition);
+        }
+        return new Segment(file, size, null, readPosition);
+      } finally {
+        unmap(buffer);
+      }
+    }
+
+    MappedByteBuffer map() throws IOException {
+      if (buffer == null) {
+        buffer = map(file, size);
+      }
+      return buffer;
+    }
+
+    /** Releases the mapping, the segment is mapped again if read afterwards. */
+    void unmap() {
+      if (buffer != null) {
+        buffer.force();
+        unmap(buffer);
+        buffer = null;
+      }
+    }
+
+    void setReadPosition(final int position) {
+      readPosition = position;
+      buffer.putInt(READ_POSITION_OFFSET, position);
+    }
+
+    private static MappedByteBuffer map(final File file, final int size) throws IOException {
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        // The mapping stays valid once the channel is closed.
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } finally {
+        raf.close();
+      }
+    }
+
+    /**
+     * Releases a mapping now rather than once the buffer is collected, which the JDK only allows
+     * through internal APIs. If they are not available the mapping is left to the collector. The
+     * buffer must not be used afterwards.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+      try {
+        final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Method invokeCleaner = null;
+        try {
+          invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (final NoSuchMethodException e) {
+          // Before Java 9, the buffer's cleaner is called directly.
+        }
+        if (invokeCleaner != null) {
+          final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+          theUnsafe.setAccessible(true);
+          invokeCleaner.invoke(theUnsafe.get(null), buffer);
+          return;
+        }
+        final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        final Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      } catch (final Throwable e) {
+        log.debug("Cannot unmap spill segment, left to the garbage collector: {}", e.getMessage());
+      }
+    }
+  }
+}
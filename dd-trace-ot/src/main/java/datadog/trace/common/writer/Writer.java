@@ -61,15 +61,19 @@ public interface Writer {
     }
 
     private static Writer createAgentWriter(final Config config) {
+      final ApiTransport transport = ApiTransport.forConfig(config);
       if (DD_AGENT_API_TYPE.equals(config.getApiType())) {
-        return new DDAgentWriter(new DDApi(config.getAgentHost(), config.getAgentPort()));
+        return new DDAgentWriter(
+            new DDApi(config.getAgentHost(), config.getAgentPort(), transport), config);
       } else if (ZIPKIN_V2_API_TYPE.equals(config.getApiType())) {
         return new DDAgentWriter(
             new ZipkinV2Api(
                 config.getAgentHost(),
                 config.getAgentPort(),
                 config.getAgentPath(),
-                config.getAgentUseHTTPS()));
+                config.getAgentUseHTTPS(),
+                transport),
+            config);
       } else {
         throw new IllegalArgumentException("Unknown api type: " + config.getApiType());
       }
@@ -1,8 +1,11 @@
 package datadog.trace.common.writer;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A bounded queue implementation compatible with the Datadog agent behavior. The class is
@@ -15,15 +18,18 @@ import java.util.concurrent.ThreadLocalRandom;
  * <p>
  *
  * <p>This class implements a specific behavior when it's full. Each new item added will replace an
- * exisiting one, at a random place/index. The class is backed by an ArrayList in order to perform
- * efficient random remove.
+ * exisiting one, at a random place/index.
+ *
+ * <p>Producers never take a lock: each one claims a slot of the current segment with a single
+ * atomic increment and writes its element there. Draining swaps in a fresh segment and hands the
+ * old one out as a read-only list, so no element is copied on flush.
  *
  * @param <T> The element type to store
  */
 class WriterQueue<T> {
 
   private final int capacity;
-  private volatile ArrayList<T> list;
+  private final AtomicReference<Segment<T>> segment;
 
   /**
    * Default construct, a capacity must be provided
@@ -34,8 +40,8 @@ class WriterQueue<T> {
     if (capacity < 1) {
       throw new IllegalArgumentException("Capacity couldn't be 0");
     }
-    this.list = emptyList(capacity);
     this.capacity = capacity;
+    this.segment = new AtomicReference<>(new Segment<T>(capacity));
   }
 
   /**
@@ -44,10 +50,13 @@ class WriterQueue<T> {
    *
    * @return a list contain all elements
    */
-  public synchronized List<T> getAll() {
-    final List<T> all = list;
-    list = emptyList(capacity);
-    return all;
+  public List<T> getAll() {
+    final Segment<T> drained = segment.getAndSet(new Segment<T>(capacity));
+    // Producers that picked up the old segment before the swap may still be writing into it.
+    while (drained.activeProducers.get() > 0) {
+      Thread.yield();
+    }
+    return drained.asList();
   }
 
   /**
@@ -57,16 +66,31 @@ class WriterQueue<T> {
    * @param element the element to add to the queue
    * @return null if the queue is not full, otherwise the removed element
    */
-  public synchronized T add(final T element) {
+  public T add(final T element) {
+    Segment<T> current;
+    while (true) {
+      current = segment.get();
+      current.activeProducers.incrementAndGet();
+      if (segment.get() == current) {
+        break;
+      }
+      // The segment was drained in the meantime, retry on the new one.
+      current.activeProducers.decrementAndGet();
+    }
 
-    T removed = null;
-    if (list.size() < capacity) {
-      list.add(element);
-    } else {
-      final int index = ThreadLocalRandom.current().nextInt(0, list.size());
-      removed = list.set(index, element);
+    try {
+      // Once full, stop bumping the counter so producers only read it.
+      final int index =
+          current.claimed.get() < capacity ? current.claimed.getAndIncrement() : capacity;
+      if (index < capacity) {
+        // Non-null only when a producer on a full segment already replaced this slot.
+        return current.slots.getAndSet(index, element);
+      } else {
+        return current.slots.getAndSet(ThreadLocalRandom.current().nextInt(0, capacity), element);
+      }
+    } finally {
+      current.activeProducers.decrementAndGet();
     }
-    return removed;
   }
 
   //  Methods below are essentially used for testing purposes
@@ -77,7 +101,7 @@ class WriterQueue<T> {
    * @return the current size of the queue
    */
   public int size() {
-    return list.size();
+    return segment.get().size();
   }
 
   /**
@@ -86,10 +110,41 @@ class WriterQueue<T> {
    * @return true if the queue is empty
    */
   public boolean isEmpty() {
-    return list.isEmpty();
+    return size() == 0;
   }
 
-  private ArrayList<T> emptyList(final int capacity) {
-    return new ArrayList<>(capacity);
+  private static final class Segment<T> {
+    private final int capacity;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicInteger claimed = new AtomicInteger(0);
+    private final AtomicInteger activeProducers = new AtomicInteger(0);
+
+    private Segment(final int capacity) {
+      this.capacity = capacity;
+      this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    private int size() {
+      return Math.min(claimed.get(), capacity);
+    }
+
+    /** Only valid once the segment has been detached and all producers have left it. */
+    private List<T> asList() {
+      final int size = size();
+      return new AbstractList<T>() {
+        @Override
+        public T get(final int index) {
+          if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+          }
+          return slots.get(index);
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
   }
 }
@@ -1,39 +1,42 @@
 package datadog.trace.common.writer;
 
-import static io.opentracing.tag.Tags.SPAN_KIND;
-
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.base.Strings;
 import datadog.opentracing.DDSpan;
-import datadog.trace.api.DDSpanTypes;
-import datadog.trace.api.DDTags;
-import datadog.trace.common.util.Ids;
-import io.opentracing.tag.Tags;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
 
 /** Zipkin V2 JSON HTTP encoder/sender. Follows a similar pattern to DDApi. */
 @Slf4j
-public class ZipkinV2Api implements Api {
+public class ZipkinV2Api implements EncodingApi {
   private static final ObjectMapper objectMapper = new ObjectMapper();
+  private final ZipkinV2JsonEncoder encoder = new ZipkinV2JsonEncoder(objectMapper.getFactory());
+  // Given back once the payload encoded in it is no longer needed
+  private final AtomicReference<EncodingBuffer> idleBuffer = new AtomicReference<>();
   private final String traceEndpoint;
+  private final ApiTransport transport;
 
   // Used to throttle logging when spans can't be sent
   private volatile long nextAllowedLogTime = 0;
   private static final long MILLISECONDS_BETWEEN_ERROR_LOG = TimeUnit.MINUTES.toMillis(3);
 
   ZipkinV2Api(final String host, final int port, final String path, final boolean useHTTPS) {
+    this(host, port, path, useHTTPS, ApiTransport.DEFAULT);
+  }
+
+  ZipkinV2Api(
+      final String host,
+      final int port,
+      final String path,
+      final boolean useHTTPS,
+      final ApiTransport transport) {
+    this.transport = transport;
     String portStr = ":" + String.valueOf(port);
     if ((useHTTPS && port == 443) || (!useHTTPS && port == 80)) {
       portStr = "";
@@ -43,39 +46,71 @@ public class ZipkinV2Api implements Api {
 
   @Override
   public boolean sendTraces(final List<List<DDSpan>> traces) {
+    final EncodedTraces encoded;
+    try {
+      encoded = encode(traces);
+    } catch (final IOException e) {
+      log.debug("Error while encoding " + traces.size() + " traces.", e);
+      return false;
+    }
+    try {
+      return send(encoded);
+    } finally {
+      encoded.release();
+    }
+  }
+
+  @Override
+  public EncodedTraces encode(final List<List<DDSpan>> traces) throws IOException {
+    EncodingBuffer buffer = idleBuffer.getAndSet(null);
+    if (buffer == null) {
+      buffer = new EncodingBuffer();
+    } else {
+      buffer.reset();
+    }
+    encoder.encode(traces, buffer);
+    final EncodingBuffer encoded = buffer;
+    return new EncodedTraces(
+        traces.size(),
+        traces.size(),
+        encoded.array(),
+        encoded.size(),
+        new Runnable() {
+          @Override
+          public void run() {
+            if (encoded.array().length <= MsgPackTraceEncoder.MAX_RETAINED_BUFFER_SIZE) {
+              idleBuffer.set(encoded);
+            }
+          }
+        });
+  }
+
+  @Override
+  public boolean send(final EncodedTraces traces) {
     try {
       final HttpURLConnection httpCon = getHttpURLConnection(traceEndpoint);
+      transport.configure(httpCon);
 
-      final OutputStream out = httpCon.getOutputStream();
-      objectMapper.writeValue(out, encodeTraces(traces));
-      out.flush();
+      final OutputStream out = transport.openRequestBody(httpCon, traces.size());
+      traces.writeTo(out);
       out.close();
 
+      final String responseString = ApiTransport.readResponse(httpCon);
       final int responseCode = httpCon.getResponseCode();
-      if (responseCode != 200) {
-        final BufferedReader responseReader =
-            new BufferedReader(
-                new InputStreamReader(httpCon.getInputStream(), StandardCharsets.UTF_8));
-        final StringBuilder sb = new StringBuilder();
-
-        String line;
-        while ((line = responseReader.readLine()) != null) {
-          sb.append(line);
-        }
-        responseReader.close();
-
-        log.warn("Bad response code sending traces to {}: {}", traceEndpoint, sb.toString());
+      if (responseCode < 200 || responseCode >= 300) {
+        log.warn("Bad response code sending traces to {}: {}", traceEndpoint, responseString);
+        return false;
       } else {
-        log.debug("Successfully sent {} traces", traces.size());
+        log.debug("Successfully sent {} traces", traces.getTraceCount());
       }
     } catch (final IOException e) {
       if (log.isDebugEnabled()) {
-        log.debug("Error while sending " + traces.size() + " traces.", e);
+        log.debug("Error while sending " + traces.getTraceCount() + " traces.", e);
       } else if (nextAllowedLogTime < System.currentTimeMillis()) {
         nextAllowedLogTime = System.currentTimeMillis() + MILLISECONDS_BETWEEN_ERROR_LOG;
         log.warn(
             "Error while sending {} traces to {}. {}: {} (going silent for {} minutes)",
-            traces.size(),
+            traces.getTraceCount(),
             traceEndpoint,
             e.getClass().getName(),
             e.getMessage(),
@@ -86,74 +121,6 @@ public class ZipkinV2Api implements Api {
     return true;
   }
 
-  /**
-   * We want to avoid having to import Zipkin code here so construct its V2 JSON format manually.
-   *
-   * <p>Just flatten out the lists of spans to a single output list.
-   */
-  private ArrayNode encodeTraces(final List<List<DDSpan>> traces) {
-    ArrayNode spanArr = objectMapper.createArrayNode();
-    for (List<DDSpan> trace : traces) {
-      for (DDSpan span : trace) {
-        spanArr.add(encodeSpan(span));
-      }
-    }
-    return spanArr;
-  }
-
-  private ObjectNode encodeSpan(final DDSpan span) {
-    ObjectNode spanNode = objectMapper.createObjectNode();
-    spanNode.put("id", Ids.idToHex(span.getSpanId()));
-    spanNode.put("name", span.getOperationName());
-    spanNode.put("traceId", Ids.idToHex(span.getTraceId()));
-    spanNode.put("parentId", Ids.idToHex(span.getParentId()));
-    spanNode.put("kind", deriveKind(span));
-
-    ObjectNode localEndpointNode = spanNode.putObject("localEndpoint");
-    localEndpointNode.put("serviceName", span.getServiceName());
-
-    // DDSpan outputs time in nanoseconds and Zipkin is microseconds.
-    spanNode.put("timestamp", span.getStartTime() / 1000);
-    // Same units as timestamp
-    spanNode.put("duration", span.getDurationNano() / 1000);
-
-    ObjectNode tagNode = spanNode.putObject("tags");
-    for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
-      if (Tags.SPAN_KIND.getKey().equals(tag.getKey())) {
-        continue;
-      }
-      // Zipkin tags are always string values
-      tagNode.put(tag.getKey(), tag.getValue().toString());
-    }
-
-    if (!Strings.isNullOrEmpty(span.getResourceName())) {
-      tagNode.put(DDTags.RESOURCE_NAME, span.getResourceName());
-    }
-
-    return spanNode;
-  }
-
-  private String deriveKind(DDSpan span) {
-    Map<String, Object> tags = span.getTags();
-    if (tags.containsKey(SPAN_KIND.getKey())) {
-      Object kindObj = tags.get(SPAN_KIND.getKey());
-      if (kindObj instanceof String) {
-        return (String) kindObj;
-      }
-    }
-
-    // Maybe look at span.getType() if kind tag isn't there
-    if (!Strings.isNullOrEmpty(span.getSpanType())) {
-      switch (span.getSpanType()) {
-        case DDSpanTypes.HTTP_CLIENT:
-          return Tags.SPAN_KIND_CLIENT;
-        case DDSpanTypes.HTTP_SERVER:
-          return Tags.SPAN_KIND_SERVER;
-      }
-    }
-    return null;
-  }
-
   private static HttpURLConnection getHttpURLConnection(final String endpoint) throws IOException {
     final HttpURLConnection httpCon;
     final URL url = new URL(endpoint);
@@ -168,6 +135,17 @@ public class ZipkinV2Api implements Api {
 
   @Override
   public String toString() {
-    return "ZipkinV2Api { traceEndpoint=" + traceEndpoint + " }";
+    return "ZipkinV2Api { traceEndpoint=" + traceEndpoint + ", transport=" + transport + " }";
+  }
+
+  /** Gives access to its array, so payloads are sent without being copied */
+  private static final class EncodingBuffer extends ByteArrayOutputStream {
+    private EncodingBuffer() {
+      super(64 * 1024);
+    }
+
+    byte[] array() {
+      return buf;
+    }
   }
 }
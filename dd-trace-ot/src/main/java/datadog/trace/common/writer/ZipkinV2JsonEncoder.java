@@ -0,0 +1,182 @@
+package datadog.trace.common.writer;
+
+import static io.opentracing.tag.Tags.SPAN_KIND;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.google.common.base.Strings;
+import datadog.opentracing.DDSpan;
+import datadog.opentracing.SpanSnapshot;
+import datadog.trace.api.DDSpanTypes;
+import datadog.trace.api.DDTags;
+import datadog.trace.common.util.Ids;
+import io.opentracing.tag.Tags;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams traces in the Zipkin V2 JSON format, one span at a time, without building a JSON tree.
+ *
+ * <p>The output is the document serializing the equivalent {@code ArrayNode} with a default {@code
+ * ObjectMapper} produces, which is what {@link ZipkinV2Api} used to send. Spans are read from their
+ * {@link SpanSnapshot}, so tags may come in a different order.
+ */
+final class ZipkinV2JsonEncoder {
+  private static final int MAX_CACHED_STRINGS = 2048;
+  private static final int MAX_CACHED_STRING_LENGTH = 128;
+
+  private static final SerializableString ID = new SerializedString("id");
+  private static final SerializableString NAME = new SerializedString("name");
+  private static final SerializableString TRACE_ID = new SerializedString("traceId");
+  private static final SerializableString PARENT_ID = new SerializedString("parentId");
+  private static final SerializableString KIND = new SerializedString("kind");
+  private static final SerializableString LOCAL_ENDPOINT = new SerializedString("localEndpoint");
+  private static final SerializableString SERVICE_NAME = new SerializedString("serviceName");
+  private static final SerializableString TIMESTAMP = new SerializedString("timestamp");
+  private static final SerializableString DURATION = new SerializedString("duration");
+  private static final SerializableString TAGS = new SerializedString("tags");
+
+  private final JsonFactory jsonFactory;
+  private final Map<String, SerializableString> stringCache = new ConcurrentHashMap<>();
+
+  ZipkinV2JsonEncoder(final JsonFactory jsonFactory) {
+    this.jsonFactory = jsonFactory;
+  }
+
+  /**
+   * We want to avoid having to import Zipkin code here so construct its V2 JSON format manually.
+   *
+   * <p>Just flatten out the lists of spans to a single output list. The stream is closed once the
+   * traces have been written.
+   */
+  void encode(final List<List<DDSpan>> traces, final OutputStream out) throws IOException {
+    final JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+    try {
+      // Scratch space for the hex digits of 64 bit ids
+      final char[] hex = new char[32];
+      generator.writeStartArray();
+      for (final List<DDSpan> trace : traces) {
+        for (final DDSpan span : trace) {
+          writeSpan(generator, span, hex);
+        }
+      }
+      generator.writeEndArray();
+    } finally {
+      generator.close();
+    }
+  }
+
+  private void writeSpan(final JsonGenerator generator, final DDSpan ddSpan, final char[] hex)
+      throws IOException {
+    final SpanSnapshot span = ddSpan.snapshot();
+
+    generator.writeStartObject();
+    generator.writeFieldName(ID);
+    writeId(generator, 0, span.getSpanId(), hex);
+    generator.writeFieldName(NAME);
+    generator.writeString(span.getOperationName());
+    generator.writeFieldName(TRACE_ID);
+    writeId(generator, span.getTraceIdHigh(), span.getTraceIdLow(), hex);
+    generator.writeFieldName(PARENT_ID);
+    writeId(generator, 0, span.getParentId(), hex);
+    generator.writeFieldName(KIND);
+    generator.writeString(deriveKind(span));
+
+    generator.writeFieldName(LOCAL_ENDPOINT);
+    generator.writeStartObject();
+    generator.writeFieldName(SERVICE_NAME);
+    final String serviceName = span.getServiceName();
+    if (serviceName == null) {
+      generator.writeNull();
+    } else {
+      generator.writeString(cached(serviceName));
+    }
+    generator.writeEndObject();
+
+    // DDSpan outputs time in nanoseconds and Zipkin is microseconds.
+    generator.writeFieldName(TIMESTAMP);
+    generator.writeNumber(span.getStartTime() / 1000);
+    // Same units as timestamp
+    generator.writeFieldName(DURATION);
+    generator.writeNumber(span.getDurationNano() / 1000);
+
+    generator.writeFieldName(TAGS);
+    generator.writeStartObject();
+    final String resourceName = span.getResourceName();
+    final boolean hasResourceName = !Strings.isNullOrEmpty(resourceName);
+    boolean resourceNameTag = false;
+    for (int i = 0; i < span.getTagCount(); i++) {
+      final String key = span.getTagKey(i);
+      if (SPAN_KIND.getKey().equals(key)) {
+        continue;
+      }
+      generator.writeFieldName(cached(key));
+      if (hasResourceName && DDTags.RESOURCE_NAME.equals(key)) {
+        // The tree encoder overwrote this entry in place with the resource name.
+        generator.writeString(resourceName);
+        resourceNameTag = true;
+      } else {
+        // Zipkin tags are always string values
+        generator.writeString(span.getTagValue(i).toString());
+      }
+    }
+    if (hasResourceName && !resourceNameTag) {
+      generator.writeFieldName(cached(DDTags.RESOURCE_NAME));
+      generator.writeString(resourceName);
+    }
+    generator.writeEndObject();
+
+    generator.writeEndObject();
+  }
+
+  /** Writes 16 hex digits, or 32 when the high bits of a 128 bit trace id are set. */
+  private static void writeId(
+      final JsonGenerator generator, final long high, final long low, final char[] hex)
+      throws IOException {
+    if (high == 0) {
+      Ids.writeHex(low, hex, 0);
+      generator.writeString(hex, 0, 16);
+    } else {
+      Ids.writeHex(high, hex, 0);
+      Ids.writeHex(low, hex, 16);
+      generator.writeString(hex, 0, 32);
+    }
+  }
+
+  private static String deriveKind(final SpanSnapshot span) {
+    final Object kindObj = span.getTag(SPAN_KIND.getKey());
+    if (kindObj instanceof String) {
+      return (String) kindObj;
+    }
+
+    // Maybe look at span.getType() if kind tag isn't there
+    final String spanType = span.getSpanType();
+    if (!Strings.isNullOrEmpty(spanType)) {
+      switch (spanType) {
+        case DDSpanTypes.HTTP_CLIENT:
+          return Tags.SPAN_KIND_CLIENT;
+        case DDSpanTypes.HTTP_SERVER:
+          return Tags.SPAN_KIND_SERVER;
+      }
+    }
+    return null;
+  }
+
+  /** Service names and tag keys repeat across spans, so keep their encoded form around. */
+  private SerializableString cached(final String value) {
+    SerializableString encoded = stringCache.get(value);
+    if (encoded == null) {
+      encoded = new SerializedString(value);
+      if (value.length() <= MAX_CACHED_STRING_LENGTH && stringCache.size() < MAX_CACHED_STRINGS) {
+        stringCache.put(value, encoded);
+      }
+    }
+    return encoded;
+  }
+}
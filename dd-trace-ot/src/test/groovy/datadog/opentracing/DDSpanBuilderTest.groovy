@@ -149,8 +149,8 @@ class DDSpanBuilderTest extends Specification {
     final long expectedParentId = spanId
 
     final DDSpanContext mockedContext = mock(DDSpanContext)
-    when(mockedContext.getTraceId()).thenReturn(spanId)
-    when(mockedContext.getSpanId()).thenReturn(spanId)
+    when(mockedContext.getTraceIdLow()).thenReturn(1L)
+    when(mockedContext.getSpanIdBits()).thenReturn(1L)
     when(mockedContext.getServiceName()).thenReturn("foo")
     when(mockedContext.getTrace()).thenReturn(new PendingTrace(tracer, "1", [:]))
 
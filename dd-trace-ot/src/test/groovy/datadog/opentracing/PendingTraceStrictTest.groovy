@@ -0,0 +1,166 @@
+package datadog.opentracing
+
+import datadog.opentracing.scopemanager.ContinuableScope
+import datadog.trace.api.Config
+import datadog.trace.common.util.Clock
+import datadog.trace.common.writer.ListWriter
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.TimeUnit
+
+import static datadog.trace.api.Config.TRACE_PENDING_TIMEOUT
+import static datadog.trace.api.Config.TRACE_STRICT_LIFECYCLE
+
+class PendingTraceStrictTest extends Specification {
+  def writer = new ListWriter()
+  def tracer = strictTracer()
+
+  def traceId = System.identityHashCode(this)
+
+  PendingTrace trace = new PendingTrace(tracer, String.valueOf(traceId), [:])
+
+  DDSpan rootSpan = SpanFactory.newSpanOf(trace)
+
+  def cleanup() {
+    tracer.close()
+  }
+
+  def "spans are counted without weak references"() {
+    when:
+    def child = tracer.buildSpan("child").asChildOf(rootSpan).start()
+
+    then:
+    trace.pendingReferenceCount.get() == 2
+    trace.weakReferences.size() == 0
+    child.ref == null
+    !PendingTrace.SPAN_CLEANER.pendingTraces.contains(trace)
+
+    when:
+    child.finish()
+    child.finish()
+
+    then:
+    trace.pendingReferenceCount.get() == 1
+    writer == []
+
+    when:
+    rootSpan.finish()
+
+    then:
+    trace.pendingReferenceCount.get() == 0
+    trace.asList() == [rootSpan, child]
+    writer == [[rootSpan, child]]
+    tracer.traceCount.get() == 1
+    trace.timeoutEntry.trace == null
+  }
+
+  def "continuations are counted without weak references"() {
+    setup:
+    def scope = (ContinuableScope) tracer.scopeManager().activate(rootSpan, false)
+    scope.setAsyncPropagation(true)
+
+    when:
+    def continuation = scope.capture()
+
+    then:
+    trace.pendingReferenceCount.get() == 2
+    trace.weakReferences.size() == 0
+
+    when:
+    scope.close()
+    rootSpan.finish()
+
+    then:
+    writer == []
+
+    when:
+    continuation.close()
+
+    then:
+    trace.pendingReferenceCount.get() == 0
+    writer == [[rootSpan]]
+  }
+
+  @Timeout(value = 10, unit = TimeUnit.SECONDS)
+  def "trace still pending after the timeout is dropped"() {
+    when:
+    def child = tracer.buildSpan("child").asChildOf(rootSpan).start()
+    rootSpan.finish()
+
+    then:
+    trace.asList() == [rootSpan]
+    writer == []
+
+    when:
+    while (!trace.isWritten.get()) {
+      Thread.sleep(50)
+    }
+
+    then:
+    trace.timeoutEntry.trace == null
+    trace.asList() == []
+    writer == []
+    tracer.traceCount.get() == 1
+
+    when:
+    child.finish()
+
+    then:
+    writer == []
+    tracer.traceCount.get() == 1
+  }
+
+  def "wheel only expires traces older than the timeout"() {
+    setup:
+    def wheel = new PendingTraceWheel(1, TimeUnit.HOURS)
+    def entry = wheel.add(trace, traceId, Clock.currentNanoTicks())
+
+    when:
+    wheel.run()
+
+    then:
+    entry.trace == trace
+    !trace.isWritten.get()
+
+    when:
+    def old = wheel.add(trace, traceId, Clock.currentNanoTicks() - TimeUnit.HOURS.toNanos(2))
+    // Processing every tick since the one the old trace started in
+    wheel.nextTick = (Clock.currentNanoTicks() - TimeUnit.HOURS.toNanos(2)) / wheel.tickNanos
+    wheel.run()
+
+    then:
+    old.trace == null
+    trace.isWritten.get()
+    tracer.traceCount.get() == 1
+
+    cleanup:
+    wheel.close()
+  }
+
+  def "written traces leave the wheel"() {
+    setup:
+    def wheel = tracer.pendingTraceWheel
+    def sizeBefore = wheel.size()
+
+    when:
+    def spans = (1..100).collect { tracer.buildSpan("root").start() }
+
+    then:
+    wheel.size() == sizeBefore + 100
+
+    when:
+    spans.each { it.finish() }
+
+    then:
+    wheel.size() == sizeBefore
+    writer.size() == 100
+  }
+
+  private DDTracer strictTracer() {
+    def properties = new Properties()
+    properties.setProperty(TRACE_STRICT_LIFECYCLE, "true")
+    properties.setProperty(TRACE_PENDING_TIMEOUT, "1")
+    return new DDTracer(Config.get(properties), writer)
+  }
+}
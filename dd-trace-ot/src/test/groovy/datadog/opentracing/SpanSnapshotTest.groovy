@@ -0,0 +1,88 @@
+package datadog.opentracing
+
+import datadog.trace.api.DDTags
+import datadog.trace.common.writer.ListWriter
+import spock.lang.Specification
+
+class SpanSnapshotTest extends Specification {
+  def writer = new ListWriter()
+  def tracer = new DDTracer(writer)
+
+  def "snapshot holds the span state"() {
+    setup:
+    def span = tracer.buildSpan("operation")
+      .withServiceName("service")
+      .withResourceName("resource")
+      .withSpanType("web")
+      .withTag("string", "value")
+      .withTag("number", 42)
+      .start()
+    span.context().setBaggageItem("baggage", "item")
+    span.context().setBaggageItem("string", "overridden")
+    span.context().setMetric("metric", 1.5)
+    span.setError(true)
+    span.finish()
+
+    when:
+    def snapshot = span.snapshot()
+
+    then:
+    snapshot.traceIdLow == span.context().traceIdLow
+    snapshot.spanId == span.context().spanIdBits
+    snapshot.parentId == 0
+    snapshot.startTime == span.startTime
+    snapshot.durationNano == span.durationNano
+    snapshot.serviceName == "service"
+    snapshot.operationName == "operation"
+    snapshot.resourceName == "resource"
+    snapshot.spanType == "web"
+    snapshot.error
+    tags(snapshot) == span.tags
+    snapshot.getTag("number") == 42
+    snapshot.getTag("missing") == null
+    snapshot.baggageCount == 1
+    snapshot.getBaggageKey(0) == "baggage"
+    snapshot.getBaggageValue(0) == "item"
+    metrics(snapshot) == span.metrics
+  }
+
+  def "snapshot does not add tags to the span"() {
+    setup:
+    def span = tracer.buildSpan("operation").withTag("key", "value").start()
+    span.finish()
+
+    when:
+    def snapshot = span.snapshot()
+
+    then:
+    !span.context().@tags.containsKey(DDTags.THREAD_NAME)
+    !span.context().@tags.containsKey(DDTags.THREAD_ID)
+    tags(snapshot).key == "value"
+    tags(snapshot)[DDTags.THREAD_NAME] == Thread.currentThread().name
+    tags(snapshot)[DDTags.THREAD_ID] == Thread.currentThread().id
+    !tags(snapshot).containsKey(DDTags.SPAN_TYPE)
+  }
+
+  def "snapshot taken once the trace is written"() {
+    setup:
+    def span = tracer.buildSpan("operation").withTag("key", "value").start()
+    span.finish()
+
+    when:
+    span.setTag("late", "tag")
+
+    then:
+    writer == [[span]]
+    span.snapshot().getTag("late") == null
+    span.snapshot().is(span.snapshot())
+    span.tags["late"] == "tag"
+  }
+
+  static Map<String, Object> tags(SpanSnapshot snapshot) {
+    (0..<snapshot.tagCount).collectEntries { [(snapshot.getTagKey(it)): snapshot.getTagValue(it)] }
+  }
+
+  static Map<String, Number> metrics(SpanSnapshot snapshot) {
+    (0..<snapshot.metricCount).collectEntries { [(snapshot.getMetricKey(it)): snapshot.getMetricValue(it)] }
+  }
+}
@@ -0,0 +1,116 @@
+package datadog.opentracing
+
+import datadog.trace.common.writer.ListWriter
+import spock.lang.Specification
+
+class TagMapTest extends Specification {
+
+  def "behaves like a map"() {
+    setup:
+    def map = new TagMap(2)
+
+    when:
+    map.put("a", 1)
+    map.put("b", "two")
+    map.put("c", 3L)
+    def previous = map.put("a", "one")
+
+    then:
+    previous == 1
+    map == [a: "one", b: "two", c: 3L]
+    map.size() == 3
+    map.get("b") == "two"
+    map.get("missing") == null
+    map.containsKey("c")
+    !map.containsKey("missing")
+  }
+
+  def "removed entries keep their slot"() {
+    setup:
+    def map = new TagMap([a: 1, b: 2, c: 3])
+
+    when:
+    map.remove("b")
+    map.put("c", null)
+
+    then:
+    map == [a: 1]
+    map.size() == 1
+    map.slotCount() == 3
+    map.keyAt(1) == "b"
+    map.valueAt(1) == null
+
+    when:
+    map.put("b", 4)
+    map.put("d", 5)
+
+    then:
+    map == [a: 1, b: 4, d: 5]
+    map.slotCount() == 4
+    map.keyAt(1) == "b"
+  }
+
+  def "iteration is not disturbed by later changes"() {
+    setup:
+    def map = new TagMap([a: 1, b: 2])
+    def iterator = map.entrySet().iterator()
+
+    when:
+    def first = iterator.next()
+    map.remove("b")
+    (1..20).each { map.put("key-$it".toString(), it) }
+
+    then:
+    first.key == "a"
+    !iterator.hasNext()
+  }
+
+  def "metrics keep their primitive type"() {
+    setup:
+    def map = new MetricMap()
+
+    when:
+    map.put("int", 1)
+    map.put("long", 2L)
+    map.put("float", 3.5f)
+    map.put("double", 4.25d)
+    map.put("short", (short) 5)
+    map.put("decimal", 6.5G)
+    (1..10).each { map.put("metric-$it".toString(), it) }
+    map.put("int", 7)
+
+    then:
+    map.size() == 16
+    map.get("int") instanceof Integer
+    map.get("int") == 7
+    map.get("long") instanceof Long
+    map.get("float") instanceof Float
+    map.get("float") == 3.5f
+    map.get("double") instanceof Double
+    map.get("double") == 4.25d
+    map.get("short") instanceof Integer
+    map.get("decimal") instanceof Double
+    map.get("decimal") == 6.5d
+    map.get("metric-10") == 10
+    map.get("missing") == null
+    map.collectEntries { it }.size() == 16
+  }
+
+  def "reused builder does not share tags between spans"() {
+    setup:
+    def tracer = new DDTracer(new ListWriter())
+    def builder = tracer.buildSpan("operation").withTag("first", "value")
+
+    when:
+    def first = builder.start()
+    builder.withTag("second", "value")
+    def second = builder.start()
+
+    then:
+    !first.context().@tags.is(second.context().@tags)
+    first.tags["first"] == "value"
+    first.tags["second"] == null
+    second.tags["first"] == "value"
+    second.tags["second"] == "value"
+  }
+}
@@ -345,4 +345,88 @@ class SpanDecoratorTest extends Specification {
     then:
     span.resourceName == "some-statement"
   }
+
+  def "builder decorators are given the tags set on the builder"() {
+    setup:
+    def seen = []
+    def overwriting = new AbstractDecorator() {
+      @Override
+      boolean shouldSetTag(DDSpanContext context, String tag, Object value) {
+        context.setTag("second", "changed")
+        return true
+      }
+    }
+    overwriting.setMatchingTag("first")
+    def recording = new AbstractDecorator() {
+      @Override
+      boolean shouldSetTag(DDSpanContext context, String tag, Object value) {
+        seen << value
+        return true
+      }
+    }
+    recording.setMatchingTag("second")
+    tracer.addDecorator(overwriting)
+    tracer.addDecorator(recording)
+
+    when:
+    def span = tracer.buildSpan("decorator.test").withTag("first", "value").withTag("second", "original").start()
+
+    then:
+    seen == ["changed", "original"]
+    span.tags["second"] == "changed"
+  }
+
+  def "deferred decorators run when the span finishes"() {
+    setup:
+    tracer.setDecoratorsDeferred(true)
+
+    when:
+    span = tracer.buildSpan("decorator.test").withTag(Tags.HTTP_URL.key, "http://example.com/path/number123/?param=true").start()
+    span.setTag(Tags.HTTP_METHOD.key, "GET")
+
+    then:
+    span.resourceName == "decorator.test"
+    span.tags[Tags.HTTP_URL.key] == "http://example.com/path/number123/?param=true"
+
+    when:
+    span.finish()
+
+    then:
+    span.resourceName == "GET /path/?/"
+
+    when:
+    span = tracer.buildSpan("decorator.test").start()
+    span.setTag(Tags.HTTP_URL.key, "http://example.com/path/number123/")
+    span.setResourceName("explicit")
+    span.finish()
+
+    then:
+    span.resourceName == "explicit"
+
+    when:
+    span = tracer.buildSpan("decorator.test").start()
+    span.setTag(Tags.HTTP_URL.key, "http://example.com/path/number123/")
+    span.setTag(Tags.HTTP_STATUS.key, 404)
+    span.finish()
+
+    then:
+    span.resourceName == "404"
+
+    when:
+    span = tracer.buildSpan("decorator.test").withTag("error", "true").start()
+
+    then:
+    span.error
+  }
+
+  def "tags without decorators are not looked up"() {
+    setup:
+    def table = tracer.decoratorTable
+
+    expect:
+    table.get("some.undecorated.tag.with.a.long.name") == null
+    table.get(Tags.HTTP_URL.key).all*.class == [URLAsResourceName]
+    tracer.getSpanContextDecorators("some.undecorated.tag.with.a.long.name") == null
+    tracer.getSpanContextDecorators(Tags.HTTP_URL.key)*.class == [URLAsResourceName]
+  }
 }
@@ -373,4 +373,44 @@ class B3HttpCodecTest extends Specification {
     PrioritySampling.UNSET        | _
     PrioritySampling.SAMPLER_KEEP | _
   }
+
+  def "extract and inject 128 bit trace IDs"() {
+    setup:
+    def tracer = new DDTracer(new ListWriter())
+    final ExtractedContext extracted = codec.extract(new TextMapExtractAdapter([
+      (TRACE_ID_KEY): traceId,
+      (SPAN_ID_KEY) : "00000000000000ff",
+    ]))
+    def span = tracer.buildSpan("child").asChildOf(extracted).start()
+    final Map<String, String> carrier = new HashMap<>()
+
+    when:
+    codec.inject(span.context(), new TextMapInjectAdapter(carrier))
+
+    then:
+    extracted.getTraceIdHigh() == high
+    extracted.getTraceIdLow() == low
+    extracted.getSpanId() == "255"
+    span.context().getParentId() == "255"
+    carrier.get(TRACE_ID_KEY) == traceId
+
+    where:
+    traceId                            | high                | low
+    "463ac35c9f6413ad48485a3953bb6124" | 0x463ac35c9f6413adL | 0x48485a3953bb6124L
+    "0000000000000001ffffffffffffffff" | 1L                  | -1L
+  }
+
+  def "extract trace IDs of any size below 2^64"() {
+    when:
+    final ExtractedContext context = codec.extract(new TextMapExtractAdapter([(TRACE_ID_KEY): traceId]))
+
+    then:
+    context.getTraceIdHigh() == 0
+    context.getTraceId() == expected
+
+    where:
+    traceId                 | expected
+    "a"                     | "10"
+    "00000000000000000000a" | "10"
+  }
 }
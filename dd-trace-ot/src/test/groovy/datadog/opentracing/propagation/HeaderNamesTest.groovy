@@ -0,0 +1,38 @@
+package datadog.opentracing.propagation
+
+import spock.lang.Specification
+
+class HeaderNamesTest extends Specification {
+  def names = new HeaderNames("x-b3-traceid", "x-b3-spanid", "x-b3-sampled", "x-b3-flags")
+
+  def "look up #key"() {
+    expect:
+    names.indexOf(key) == index
+
+    where:
+    key                         | index
+    "x-b3-traceid"              | 0
+    "X-B3-TraceId"              | 0
+    "x-b3-spanid"               | 1
+    "X-B3-SAMPLED"              | 2
+    "x-b3-Flags"                | 3
+    "x-b3-traceix"              | HeaderNames.UNKNOWN
+    "x-b3-trace"                | HeaderNames.UNKNOWN
+    "Accept"                    | HeaderNames.UNKNOWN
+    ""                          | HeaderNames.UNKNOWN
+    "a-much-longer-header-name" | HeaderNames.UNKNOWN
+  }
+
+  def "match prefixes ignoring case"() {
+    expect:
+    HeaderNames.startsWithIgnoreCase(key, "ot-baggage-") == matches
+
+    where:
+    key               | matches
+    "ot-baggage-k1"   | true
+    "OT-Baggage-k1"   | true
+    "ot-baggage-"     | true
+    "ot-baggage"      | false
+    "x-ot-baggage-k1" | false
+  }
+}
@@ -0,0 +1,24 @@
+package datadog.opentracing.propagation
+
+import spock.lang.Specification
+
+class HeaderValuesTest extends Specification {
+
+  def "encode and decode #value like the JDK url coders"() {
+    expect:
+    HeaderValues.encode(value) == URLEncoder.encode(value, "UTF-8")
+    HeaderValues.decode(HeaderValues.encode(value)) == value
+
+    where:
+    value << ["", "v1", "some_value-1.2*", "with space", "a=b&c", "café", "100%"]
+  }
+
+  def "plain values are returned as is"() {
+    expect:
+    HeaderValues.encode(value).is(value)
+    HeaderValues.decode(value).is(value)
+
+    where:
+    value = "plain-value_1.0"
+  }
+}
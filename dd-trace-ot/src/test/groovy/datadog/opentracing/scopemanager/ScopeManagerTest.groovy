@@ -391,7 +391,7 @@ class ScopeManagerTest extends Specification {
     def scope = (AtomicReferenceScope) builder.startActive(true)
 
     expect:
-    scopeManager.tlsScope.get() == null
+    scopeManager.tlsScope.get().scope == null
     scopeManager.active() == scope
     contexts[active].get() == scope.get()
     writer.empty
@@ -416,7 +416,7 @@ class ScopeManagerTest extends Specification {
       it.get() != null
     } == []
 
-    scopeManager.tlsScope.get() == scope
+    scopeManager.tlsScope.get().scope == scope
     scopeManager.active() == scope
     writer.empty
 
@@ -434,14 +434,14 @@ class ScopeManagerTest extends Specification {
     scope.setAsyncPropagation(true)
 
     expect:
-    scopeManager.tlsScope.get() == scope
+    scopeManager.tlsScope.get().scope == scope
 
     when:
     def cont = scope.capture()
     scope.close()
 
     then:
-    scopeManager.tlsScope.get() == null
+    scopeManager.tlsScope.get().scope == null
 
     when:
     scopeManager.addScopeContext(new AtomicReferenceScope(true))
@@ -449,7 +449,7 @@ class ScopeManagerTest extends Specification {
 
     then:
     newScope != scope
-    scopeManager.tlsScope.get() == newScope
+    scopeManager.tlsScope.get().scope == newScope
   }
 
   def "context to threadlocal (#contexts.size)"() {
@@ -462,7 +462,7 @@ class ScopeManagerTest extends Specification {
 
     expect:
     scope instanceof AtomicReferenceScope
-    scopeManager.tlsScope.get() == null
+    scopeManager.tlsScope.get().scope == null
 
     when:
     scope.close()
@@ -473,7 +473,7 @@ class ScopeManagerTest extends Specification {
 
     then:
     scope instanceof ContinuableScope
-    scopeManager.tlsScope.get() == scope
+    scopeManager.tlsScope.get().scope == scope
 
     where:
     contexts                                                         | _
@@ -508,52 +508,127 @@ class ScopeManagerTest extends Specification {
     when:
     Scope scope2 = scopeManager.activate(NoopSpan.INSTANCE, true)
 
-    then:
-    activatedCount.get() == 2
+    then: "the active span does not change"
+    activatedCount.get() == 1
     closedCount.get() == 0
 
     when:
     scope2.close()
 
     then:
-    activatedCount.get() == 3
-    closedCount.get() == 1
+    activatedCount.get() == 1
+    closedCount.get() == 0
 
     when:
     scope1.close()
 
     then:
-    activatedCount.get() == 3
-    closedCount.get() == 2
+    activatedCount.get() == 1
+    closedCount.get() == 1
 
     when:
     Scope continuableScope = tracer.buildSpan("foo").startActive(true)
 
     then:
     continuableScope instanceof ContinuableScope
-    activatedCount.get() == 4
+    activatedCount.get() == 2
 
     when:
     Scope childContinuableScope = tracer.buildSpan("child").startActive(true)
 
     then:
     childContinuableScope instanceof ContinuableScope
-    activatedCount.get() == 5
-    closedCount.get() == 2
+    activatedCount.get() == 3
+    closedCount.get() == 1
 
     when:
     childContinuableScope.close()
 
     then:
-    activatedCount.get() == 6
-    closedCount.get() == 3
+    activatedCount.get() == 4
+    closedCount.get() == 2
 
     when:
     continuableScope.close()
 
     then:
-    activatedCount.get() == 6
-    closedCount.get() == 4
+    activatedCount.get() == 4
+    closedCount.get() == 3
+  }
+
+  def "scope listeners are only notified when the active span changes"() {
+    setup:
+    AtomicInteger activatedCount = new AtomicInteger(0)
+    AtomicInteger closedCount = new AtomicInteger(0)
+    scopeManager.addScopeListener(new ScopeListener() {
+      @Override
+      void afterScopeActivated() {
+        activatedCount.incrementAndGet()
+      }
+
+      @Override
+      void afterScopeClosed() {
+        closedCount.incrementAndGet()
+      }
+    })
+    ContinuableScope scope = (ContinuableScope) tracer.buildSpan("parent").startActive(true)
+    scope.setAsyncPropagation(true)
+
+    when:
+    def continuation = scope.capture()
+    def sameSpan = scopeManager.activate(scope.span(), false)
+    def continued = continuation.activate()
+
+    then:
+    scopeManager.active() == continued
+    activatedCount.get() == 1
+    closedCount.get() == 0
+
+    when:
+    continued.close()
+    sameSpan.close()
+
+    then:
+    scopeManager.active() == scope
+    activatedCount.get() == 1
+    closedCount.get() == 0
+
+    when: "closing a scope which is not on top"
+    def child = tracer.buildSpan("child").startActive(true)
+    scope.close()
+
+    then:
+    scopeManager.active() == child
+    activatedCount.get() == 2
+    closedCount.get() == 0
+
+    when:
+    child.close()
+
+    then:
+    scopeManager.active() == scope
+    activatedCount.get() == 3
+    closedCount.get() == 1
+  }
+
+  def "scope contexts added later take control"() {
+    setup:
+    def scope = tracer.buildSpan("test").startActive(true)
+    def context = new AtomicReferenceScope(true)
+
+    expect:
+    scopeManager.scopeContexts.length == 0
+    scopeManager.active() == scope
+
+    when:
+    scopeManager.addScopeContext(context)
+    def contextScope = tracer.buildSpan("context").startActive(true)
+
+    then:
+    scopeManager.scopeContexts == [context] as ScopeContext[]
+    contextScope instanceof AtomicReferenceScope
+    scopeManager.active() == contextScope
+    scopeManager.tlsScope.get().scope == scope
   }
 
   boolean spanFinished(Span span) {
@@ -47,7 +47,7 @@ class DDTracerTest extends Specification {
     tracer.sampler instanceof AllSampler
     tracer.writer.toString() == "DDAgentWriter { api=ZipkinV2Api { traceEndpoint=http://localhost:9080/v1/trace } }"
 
-    tracer.spanContextDecorators.size() == 13
+    tracer.decoratorTable.size() == 13
   }
 
 
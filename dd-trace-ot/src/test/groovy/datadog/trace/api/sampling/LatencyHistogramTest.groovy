@@ -0,0 +1,55 @@
+package datadog.trace.api.sampling
+
+import datadog.trace.common.sampling.LatencyHistogram
+import spock.lang.Specification
+
+class LatencyHistogramTest extends Specification {
+
+  def "bucket bounds contain the value"() {
+    expect:
+    LatencyHistogram.lowerBound(LatencyHistogram.bucketIndex(value)) <= value
+    value < LatencyHistogram.lowerBound(LatencyHistogram.bucketIndex(value) + 1)
+
+    where:
+    value << [1, 2, 3, 4, 5, 7, 8, 1000, 1023, 1024, 123456789, Long.MAX_VALUE >> 1]
+  }
+
+  def "no threshold until enough durations are recorded"() {
+    setup:
+    def histogram = new LatencyHistogram(99)
+    (LatencyHistogram.REFRESH_INTERVAL - 1).times { histogram.record(1000) }
+
+    expect:
+    !histogram.exceedsPercentile(Long.MAX_VALUE - 1)
+  }
+
+  def "threshold follows the percentile within a bucket"() {
+    setup:
+    def histogram = new LatencyHistogram(percentile)
+    (1..1024).each { histogram.record(it * 1000) }
+
+    expect:
+    histogram.threshold >= expected
+    histogram.threshold <= expected * 1.25
+    !histogram.exceedsPercentile(expected * 0.75 as long)
+    histogram.exceedsPercentile(expected * 1.25 as long)
+
+    where:
+    percentile | expected
+    50         | 512_000
+    90         | 921_600
+    99         | 1_013_760
+  }
+
+  def "old durations decay"() {
+    setup:
+    def histogram = new LatencyHistogram(50)
+    LatencyHistogram.DECAY_COUNT.times { histogram.record(1_000_000) }
+
+    when:
+    (LatencyHistogram.DECAY_COUNT / 2 + LatencyHistogram.REFRESH_INTERVAL).times { histogram.record(1000) }
+
+    then:
+    histogram.exceedsPercentile(10_000)
+  }
+}
@@ -15,7 +15,7 @@ class RateByServiceSamplerTest extends Specification {
     String response = '{"rate_by_service": {"service:,env:":' + rate + '}}'
     serviceSampler.onResponse("traces", serializer.readTree(response))
     expect:
-    serviceSampler.baseSampler.sampleRate == expectedRate
+    serviceSampler.serviceRates.baseSampler.sampleRate == expectedRate
 
     where:
     rate | expectedRate
@@ -68,4 +68,52 @@ class RateByServiceSamplerTest extends Specification {
     // RateByServiceSamler must not set the sample rate
     span.getMetrics().get("_sample_rate") == null
   }
+
+  def "rates looked up by service and env"() {
+    setup:
+    RateByServiceSampler serviceSampler = new RateByServiceSampler()
+    ObjectMapper serializer = new ObjectMapper()
+    String response = '{"rate_by_service": {"service:,env:":0.1, "service:spock,env:test":0.2, "service:spock,env:":0.3, "service:foo,env:test":0.4, "bad key":0.5}}'
+    serviceSampler.onResponse("traces", serializer.readTree(response))
+
+    expect:
+    serviceSampler.serviceRates.getSampler(service, env).sampleRate == expectedRate
+
+    where:
+    service | env    | expectedRate
+    "spock" | "test" | 0.2
+    "spock" | ""     | 0.3
+    "foo"   | "test" | 0.4
+    "foo"   | ""     | 0.1
+    "spock" | "prod" | 0.1
+    ""      | ""     | 0.1
+  }
+
+  def "sampling decision is derived from the trace id"() {
+    setup:
+    def sampler = new RateByServiceSampler.RateSampler(rate)
+    def random = new Random(42)
+    def kept = 0
+    for (int i = 0; i < 10000; i++) {
+      def traceId = random.nextLong() & Long.MAX_VALUE
+      def sampled = sampler.sample(traceId)
+      assert sampler.sample(traceId) == sampled
+      kept += sampled ? 1 : 0
+    }
+
+    expect:
+    Math.abs(kept - rate * 10000) < 300
+
+    where:
+    rate << [0.1, 0.5, 0.9, 1]
+  }
+
+  def "sequential trace ids are spread"() {
+    setup:
+    def sampler = new RateByServiceSampler.RateSampler(0.5)
+    def kept = (1..1000).count { sampler.sample(it) }
+
+    expect:
+    Math.abs(kept - 500) < 100
+  }
 }
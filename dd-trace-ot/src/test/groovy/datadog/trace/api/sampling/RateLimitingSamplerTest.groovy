@@ -0,0 +1,165 @@
+package datadog.trace.api.sampling
+
+import datadog.opentracing.DDSpanContext
+import datadog.opentracing.DDTracer
+import datadog.trace.api.Config
+import datadog.trace.common.sampling.RateByServiceSampler
+import datadog.trace.common.sampling.RateLimitingSampler
+import datadog.trace.common.sampling.Sampler
+import datadog.trace.common.util.Clock
+import datadog.trace.common.writer.ListWriter
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+import static datadog.trace.api.Config.PARTIAL_FLUSH_MIN_SPANS
+import static datadog.trace.api.Config.PRIORITY_SAMPLING
+import static datadog.trace.api.Config.TRACE_RATE_LIMIT
+
+class RateLimitingSamplerTest extends Specification {
+  static final long SECOND = TimeUnit.SECONDS.toNanos(1)
+
+  def writer = new ListWriter()
+
+  def "created from config"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty(TRACE_RATE_LIMIT, "5")
+
+    expect:
+    Sampler.Builder.forConfig(properties) instanceof RateLimitingSampler
+    !(Sampler.Builder.forConfig(new Properties()) instanceof RateLimitingSampler)
+  }
+
+  def "priority sampling is kept when enabled with a rate limit"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty(TRACE_RATE_LIMIT, "5")
+    properties.setProperty(PRIORITY_SAMPLING, "true")
+
+    expect:
+    Sampler.Builder.forConfig(properties) instanceof RateByServiceSampler
+  }
+
+  def "bucket holds one second of traces and refills over time"() {
+    setup:
+    def bucket = new RateLimitingSampler.Bucket(10, 0)
+
+    expect:
+    (1..10).every { bucket.tryAcquire(0) }
+    !bucket.tryAcquire(0)
+    !bucket.tryAcquire(SECOND / 20 as long)
+    bucket.tryAcquire(SECOND / 10 as long)
+    !bucket.tryAcquire(SECOND / 10 as long)
+    (1..10).every { bucket.tryAcquire(3 * SECOND) }
+    !bucket.tryAcquire(3 * SECOND)
+  }
+
+  def "effective rate is the share kept over the previous second"() {
+    setup:
+    def bucket = new RateLimitingSampler.Bucket(10, 0)
+
+    when:
+    40.times { bucket.tryAcquire(0) }
+
+    then:
+    bucket.effectiveRate == 1.0
+
+    when:
+    bucket.tryAcquire(SECOND)
+
+    then:
+    bucket.effectiveRate == 0.25
+  }
+
+  def "traces limited per service and resource"() {
+    setup:
+    def tracer = new DDTracer("service", writer, new RateLimitingSampler(2))
+
+    when:
+    5.times {
+      tracer.buildSpan("request").withResourceName("GET /users").start().finish()
+      tracer.buildSpan("request").withResourceName("GET /orders").start().finish()
+      tracer.buildSpan("request").withServiceName("other").withResourceName("GET /users").start().finish()
+    }
+
+    then:
+    writer.size() == 6
+    writer.count { it[0].resourceName == "GET /users" && it[0].serviceName == "service" } == 2
+    writer.count { it[0].resourceName == "GET /orders" } == 2
+    writer.count { it[0].serviceName == "other" } == 2
+    writer.every { it[0].context().metrics.get(DDSpanContext.SAMPLE_RATE_KEY) == 1.0 }
+  }
+
+  def "error traces always kept"() {
+    setup:
+    def tracer = new DDTracer("service", writer, new RateLimitingSampler(1))
+
+    when:
+    5.times {
+      def root = tracer.buildSpan("request").withResourceName("GET /users").start()
+      tracer.buildSpan("query").asChildOf(root).withTag("error", true).start().finish()
+      root.finish()
+    }
+    2.times {
+      tracer.buildSpan("request").withResourceName("GET /users").start().finish()
+    }
+
+    then:
+    writer.size() == 6
+    writer.take(5).every { it[0].context().metrics.get(DDSpanContext.SAMPLE_RATE_KEY) == null }
+    writer[5][0].context().metrics.get(DDSpanContext.SAMPLE_RATE_KEY) == 1.0
+  }
+
+  def "chunks of a partially flushed trace take one token"() {
+    setup:
+    def properties = new Properties()
+    properties.setProperty(TRACE_RATE_LIMIT, "1")
+    properties.setProperty(PARTIAL_FLUSH_MIN_SPANS, "1")
+    def tracer = new DDTracer(Config.get(properties), writer)
+
+    when:
+    2.times {
+      def root = tracer.buildSpan("request").withResourceName("GET /users").start()
+      tracer.buildSpan("query").asChildOf(root).start().finish()
+      tracer.buildSpan("query").asChildOf(root).start().finish()
+      root.finish()
+    }
+
+    then:
+    tracer.traceCount.get() == 4
+    writer.size() == 2
+    writer[0].size() == 2
+    writer[1]*.operationName == ["request"]
+  }
+
+  def "pairs past the bucket limit share one bucket"() {
+    setup:
+    def sampler = new RateLimitingSampler(1)
+    def buckets = (0..<RateLimitingSampler.MAX_BUCKETS).collect { sampler.getBucket("service", "resource" + it) }
+
+    expect:
+    buckets.unique(false).size() == RateLimitingSampler.MAX_BUCKETS
+    sampler.getBucket("service", "resource0").is(buckets[0])
+    sampler.getBucket("service", "another").is(sampler.getBucket("other", "resource"))
+    sampler.getBucket(null, null) != null
+  }
+
+  def "buckets idle for a second make room for new pairs"() {
+    setup:
+    def now = Clock.currentNanoTicks()
+    def sampler = new RateLimitingSampler(1)
+    def buckets = (0..<RateLimitingSampler.MAX_BUCKETS).collect { sampler.getBucket("service", "resource" + it, now) }
+    def overflow = sampler.getBucket("service", "another", now)
+
+    when:
+    def busy = sampler.getBucket("service", "resource0", now)
+    busy.tryAcquire(now + 2 * SECOND)
+    def created = sampler.getBucket("service", "another", now + 2 * SECOND)
+
+    then:
+    !created.is(overflow)
+    sampler.getBucket("service", "resource0", now + 2 * SECOND).is(buckets[0])
+    !sampler.getBucket("service", "resource1", now + 2 * SECOND).is(buckets[1])
+  }
+}
@@ -0,0 +1,170 @@
+package datadog.trace.api.sampling
+
+import datadog.opentracing.DDSpanContext
+import datadog.opentracing.DDTracer
+import datadog.trace.api.Config
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.sampling.LatencyHistogram
+import datadog.trace.common.sampling.TailSamplingInterceptor
+import datadog.trace.common.writer.ListWriter
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+import static datadog.trace.api.Config.PARTIAL_FLUSH_MIN_SPANS
+import static datadog.trace.api.Config.PRIORITY_SAMPLING
+import static datadog.trace.api.Config.TAIL_SAMPLING_ENABLED
+import static datadog.trace.api.Config.TAIL_SAMPLING_RATE
+import static datadog.trace.api.Config.TAIL_SAMPLING_TAGS
+
+class TailSamplingInterceptorTest extends Specification {
+  def writer = new ListWriter()
+
+  def "rest of the traces kept at the configured rate"() {
+    setup:
+    def tracer = tracer(rate)
+
+    when:
+    1000.times { tracer.buildSpan("request").start().finish() }
+
+    then:
+    tracer.traceCount.get() == 1000
+    Math.abs(writer.size() - rate * 1000) < 60
+    writer.every { it[0].context().metrics.get(DDSpanContext.SAMPLE_RATE_KEY) == rate }
+
+    where:
+    rate << [0.1d, 0.5d]
+  }
+
+  def "traces with errors or matching tags kept"() {
+    setup:
+    def tracer = tracer(0)
+
+    when:
+    def root = tracer.buildSpan("request").start()
+    tracer.buildSpan("query").asChildOf(root).withTag("error", true).start().finish()
+    root.finish()
+    tracer.buildSpan("request").withTag("http.status_code", 404).start().finish()
+    tracer.buildSpan("request").withTag("http.status_code", 200).start().finish()
+    tracer.buildSpan("request").withTag("debug", "yes").start().finish()
+    tracer.buildSpan("request").start().finish()
+
+    then:
+    writer.size() == 3
+    writer[0].size() == 2
+    writer[1][0].tags["http.status_code"] == 404
+    writer[2][0].tags["debug"] == "yes"
+    writer.every { it[0].context().metrics.get(DDSpanContext.SAMPLE_RATE_KEY) == null }
+  }
+
+  def "traces slower than the percentile of their resource kept"() {
+    setup:
+    def tracer = tracer(0)
+
+    when:
+    (LatencyHistogram.REFRESH_INTERVAL * 2).times {
+      tracer.buildSpan("request").withResourceName("fast").withStartTimestamp(1000).start().finish(1001)
+    }
+    tracer.buildSpan("request").withResourceName("fast").withStartTimestamp(1000).start().finish(2000)
+    tracer.buildSpan("request").withResourceName("other").withStartTimestamp(1000).start().finish(2000)
+
+    then:
+    writer.size() == 1
+    writer[0][0].resourceName == "fast"
+    writer[0][0].durationNano == TimeUnit.MICROSECONDS.toNanos(1000)
+  }
+
+  def "traces kept by their sampling priority kept"() {
+    setup:
+    def tracer = tracer(0)
+
+    when:
+    tracer.buildSpan("request").start().setSamplingPriority(PrioritySampling.USER_KEEP).finish()
+    tracer.buildSpan("request").start().setSamplingPriority(PrioritySampling.SAMPLER_KEEP).finish()
+    tracer.buildSpan("request").start().setSamplingPriority(PrioritySampling.USER_DROP).finish()
+
+    then:
+    writer.size() == 2
+    writer*.get(0)*.context()*.samplingPriority == [PrioritySampling.USER_KEEP, PrioritySampling.SAMPLER_KEEP]
+  }
+
+  def "chunks of a partially flushed trace decided together"() {
+    setup:
+    def tracer = tracer(0, [(PARTIAL_FLUSH_MIN_SPANS): "1"])
+
+    when:
+    def root = tracer.buildSpan("request").start()
+    tracer.buildSpan("query").asChildOf(root).withTag("error", true).start().finish()
+    tracer.buildSpan("query").asChildOf(root).start().finish()
+
+    then:
+    writer.size() == 1
+
+    when:
+    root.finish()
+
+    then:
+    writer.size() == 2
+    writer[1] == [root]
+
+    when:
+    def dropped = tracer.buildSpan("request").start()
+    tracer.buildSpan("query").asChildOf(dropped).start().finish()
+    tracer.buildSpan("query").asChildOf(dropped).start().finish()
+    dropped.setTag("error", true)
+    dropped.finish()
+
+    then:
+    writer.size() == 2
+  }
+
+  def "rate combined with the one already set"() {
+    setup:
+    def tracer = tracer(1)
+
+    when:
+    def span = tracer.buildSpan("request").start()
+    span.context().setMetric(DDSpanContext.SAMPLE_RATE_KEY, 0.25d)
+    span.finish()
+
+    then:
+    writer[0][0].context().metrics.get(DDSpanContext.SAMPLE_RATE_KEY) == 0.25d
+  }
+
+  def "not installed with priority sampling"() {
+    setup:
+    def tracer = tracer(0, [(PRIORITY_SAMPLING): "true"])
+
+    when:
+    tracer.buildSpan("request").start().finish()
+
+    then:
+    tracer.interceptors.isEmpty()
+    writer.size() == 1
+  }
+
+  def "resources past the limit share a histogram"() {
+    setup:
+    def interceptor = new TailSamplingInterceptor(1, 99, [:])
+    def histograms = (0..<TailSamplingInterceptor.MAX_RESOURCES).collect { interceptor.getHistogram("resource" + it) }
+
+    expect:
+    histograms.unique(false).size() == TailSamplingInterceptor.MAX_RESOURCES
+    interceptor.getHistogram("resource0").is(histograms[0])
+    interceptor.getHistogram("another").is(interceptor.getHistogram(null))
+  }
+
+  def "runs after other interceptors"() {
+    expect:
+    new TailSamplingInterceptor(1, 99, [:]).priority() == Integer.MAX_VALUE
+  }
+
+  def tracer(double rate, Map<String, String> settings = [:]) {
+    def properties = new Properties()
+    properties.putAll(settings)
+    properties.setProperty(TAIL_SAMPLING_ENABLED, "true")
+    properties.setProperty(TAIL_SAMPLING_RATE, String.valueOf(rate))
+    properties.setProperty(TAIL_SAMPLING_TAGS, "http.status_code:404,debug:*")
+    return new DDTracer(Config.get(properties), writer)
+  }
+}
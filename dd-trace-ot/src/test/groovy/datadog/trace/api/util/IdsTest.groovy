@@ -0,0 +1,102 @@
+package datadog.trace.api.util
+
+import datadog.trace.common.util.Ids
+import spock.lang.Specification
+
+class IdsTest extends Specification {
+
+  def "convert id #id to hex"() {
+    expect:
+    Ids.idToHex(id) == hex
+
+    where:
+    id                                        | hex
+    "0"                                       | "0000000000000000"
+    "1"                                       | "0000000000000001"
+    "255"                                     | "00000000000000ff"
+    "9223372036854775807"                     | "7fffffffffffffff"
+    "9223372036854775808"                     | "8000000000000000"
+    "18446744073709551615"                    | "ffffffffffffffff"
+    "18446744073709551616"                    | "00000000000000010000000000000000"
+    "340282366920938463463374607431768211455" | "ffffffffffffffffffffffffffffffff"
+  }
+
+  def "hex round trips through ids"() {
+    expect:
+    Ids.idToHex(Ids.hexToId(hex)) == hex
+
+    where:
+    hex << ["0000000000000001", "463ac35c9f6413ad", "463ac35c9f6413ad48485a3953bb6124"]
+  }
+
+  def "parse unsigned ids"() {
+    expect:
+    Ids.parseUnsignedLong(id) == expected
+
+    where:
+    id                     | expected
+    "0"                    | 0L
+    "1"                    | 1L
+    "9223372036854775807"  | Long.MAX_VALUE
+    "9223372036854775808"  | Long.MIN_VALUE
+    "18446744073709551615" | -1L
+  }
+
+  def "parse invalid ids"() {
+    when:
+    Ids.parseUnsignedLong(id)
+
+    then:
+    thrown NumberFormatException
+
+    where:
+    id << ["", "-1", "+1", "18446744073709551616", "184467440737095516150", "12345678901234567a9"]
+  }
+
+  def "unsigned ids round trip through decimal strings"() {
+    expect:
+    Ids.toUnsignedString(Ids.parseUnsignedLong(id)) == id
+
+    where:
+    id << ["0", "1", "9223372036854775807", "9223372036854775808", "15815582334751494918", "18446744073709551615"]
+  }
+
+  def "split decimal id #id into high and low bits"() {
+    expect:
+    Ids.parseHighBits(id) == high
+    Ids.parseLowBits(id) == low
+    Ids.toUnsignedString(high, low) == id
+    Ids.idToHex(high, low) == Ids.idToHex(id)
+
+    where:
+    id                                        | high | low
+    "1"                                       | 0L   | 1L
+    "18446744073709551615"                    | 0L   | -1L
+    "18446744073709551616"                    | 1L   | 0L
+    "340282366920938463463374607431768211455" | -1L  | -1L
+  }
+
+  def "parse hex #hex"() {
+    expect:
+    Ids.parseHex(hex, 0, hex.length()) == expected
+
+    where:
+    hex                | expected
+    "1"                | 1L
+    "00000000000000ff" | 255L
+    "8429d069189dffff" | Ids.parseUnsignedLong("9523372036854775807")
+    "DB7C3C56C2CE5306" | Ids.parseUnsignedLong("15815582334751494918")
+    "ffffffffffffffff" | -1L
+  }
+
+  def "parse invalid hex #hex"() {
+    when:
+    Ids.parseHex(hex, 0, hex.length())
+
+    then:
+    thrown NumberFormatException
+
+    where:
+    hex << ["", "-1", "+1", "traceID", "10000000000000000"]
+  }
+}
@@ -0,0 +1,96 @@
+package datadog.trace.api.writer
+
+import datadog.opentracing.SpanFactory
+import datadog.trace.common.writer.ApiTransport
+import datadog.trace.common.writer.DDApi
+import datadog.trace.common.writer.PayloadCompression
+import datadog.trace.common.writer.ZipkinV2Api
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.util.zip.GZIPInputStream
+
+class ApiTransportTest extends Specification {
+  @Shared
+  def traces = (1..20).collect {
+    [SpanFactory.newSpanOf(it).setTag("http.url", "http://localhost:8080/some/path/$it").setTag("component", "test")]
+  }
+
+  def "zipkin api reuses one connection for consecutive sends"() {
+    setup:
+    def collector = new StubCollector()
+    def api = new ZipkinV2Api("localhost", collector.port, "/v1/trace", false, new ApiTransport(PayloadCompression.NONE, 1000, 1000))
+
+    when:
+    5.times {
+      assert api.sendTraces(traces)
+    }
+
+    then:
+    collector.requests.size() == 5
+    collector.connections.get() == 1
+
+    cleanup:
+    collector.close()
+  }
+
+  def "dd api reuses one connection for consecutive sends"() {
+    setup:
+    def collector = new StubCollector()
+    def api = new DDApi("localhost", collector.port, true, new ApiTransport(PayloadCompression.NONE, 1000, 1000))
+
+    when:
+    5.times {
+      assert api.sendTraces(traces)
+    }
+
+    then:
+    collector.requests.size() == 5
+    collector.connections.get() == 1
+
+    cleanup:
+    collector.close()
+  }
+
+  def "gzip payloads are smaller on the wire and decode to the same body"() {
+    setup:
+    def plainCollector = new StubCollector()
+    def gzipCollector = new StubCollector()
+    def plainApi = new ZipkinV2Api("localhost", plainCollector.port, "/v1/trace", false, new ApiTransport(PayloadCompression.NONE, 1000, 1000))
+    def gzipApi = new ZipkinV2Api("localhost", gzipCollector.port, "/v1/trace", false, new ApiTransport(PayloadCompression.GZIP, 1000, 1000))
+
+    when:
+    3.times {
+      assert plainApi.sendTraces(traces)
+      assert gzipApi.sendTraces(traces)
+    }
+
+    then:
+    gzipCollector.connections.get() == 1
+    gzipCollector.bytesReceived.get() < plainCollector.bytesReceived.get() / 2
+    plainCollector.requests.every { it.headers["content-encoding"] == null }
+    gzipCollector.requests.every { it.headers["content-encoding"] == "gzip" }
+    gunzip(gzipCollector.requests[0].body) == plainCollector.requests[0].body
+
+    cleanup:
+    plainCollector.close()
+    gzipCollector.close()
+  }
+
+  def "compression is selected by name"() {
+    expect:
+    PayloadCompression.Builder.forName(name) == expected
+
+    where:
+    name   | expected
+    null   | PayloadCompression.NONE
+    ""     | PayloadCompression.NONE
+    "none" | PayloadCompression.NONE
+    "GZIP" | PayloadCompression.GZIP
+    "zstd" | PayloadCompression.NONE // no codec registered in tests
+  }
+
+  static byte[] gunzip(byte[] bytes) {
+    return new GZIPInputStream(new ByteArrayInputStream(bytes)).bytes
+  }
+}
@@ -1,11 +1,20 @@
 package datadog.trace.api.writer
 
 import datadog.opentracing.DDSpan
+import datadog.trace.api.Config
+import datadog.trace.common.writer.Api
 import datadog.trace.common.writer.DDAgentWriter
 import datadog.trace.common.writer.DDApi
+import datadog.trace.common.writer.EncodedTraces
+import datadog.trace.common.writer.EncodingApi
+import datadog.trace.common.writer.SpillBuffer
 import datadog.trace.common.writer.WriterQueue
+import datadog.trace.common.writer.ZipkinV2Api
 import spock.lang.Specification
 
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicInteger
+
 import static datadog.opentracing.SpanFactory.newSpanOf
 import static org.mockito.Mockito.mock
 import static org.mockito.Mockito.verifyNoMoreInteractions
@@ -16,7 +25,7 @@ class DDAgentWriterTest extends Specification {
   def "calls to the API are scheduled"() {
 
     setup:
-    def api = Mock(DDApi)
+    def api = Mock(Api)
     def writer = new DDAgentWriter(api)
 
     when:
@@ -33,11 +42,11 @@ class DDAgentWriterTest extends Specification {
     }
 
     then:
-    tick * api.sendTraces([trace])
+    tick * api.sendTraces([trace]) >> true
 
     where:
     trace = [newSpanOf(0)]
-    flush_time_wait = (int) (1.2 * (DDAgentWriter.FLUSH_TIME_SECONDS * 1_000))
+    flush_time_wait = (int) (1.2 * Config.DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS)
     tick << [1, 3]
   }
 
@@ -85,6 +94,243 @@ class DDAgentWriterTest extends Specification {
     verifyNoMoreInteractions(api)
 
     where:
-    flush_time_wait = (int) (1.2 * (DDAgentWriter.FLUSH_TIME_SECONDS * 1_000))
+    flush_time_wait = (int) (1.2 * Config.DEFAULT_WRITER_FLUSH_INTERVAL_MILLIS)
+  }
+
+  def "flushes early once the span threshold is reached"() {
+    setup:
+    def api = Mock(Api)
+    def writer = new DDAgentWriter(api, new WriterQueue<List<DDSpan>>(100), 60_000, 3, 0, 1, 0)
+    writer.start()
+    Thread.sleep(100)
+
+    when:
+    writer.write([newSpanOf(0), newSpanOf(0)])
+    Thread.sleep(100)
+
+    then:
+    0 * api.sendTraces(_)
+
+    when:
+    writer.write([newSpanOf(0)])
+    Thread.sleep(100)
+
+    then:
+    1 * api.sendTraces({ it.size() == 2 }) >> true
+
+    cleanup:
+    writer.close()
+  }
+
+  def "size triggered flushes drop fewer traces than a fixed interval with the same queue size"() {
+    setup:
+    def fixed = new DDAgentWriter(instantApi(), new WriterQueue<List<DDSpan>>(capacity), 1000, 0, 0, 1, 0)
+    def adaptive = new DDAgentWriter(instantApi(), new WriterQueue<List<DDSpan>>(capacity), 1000, capacity / 2 as int, 0, 1, 0)
+
+    when:
+    load(fixed, bursts, capacity)
+    load(adaptive, bursts, capacity)
+
+    then:
+    // Without early flushes everything above the queue capacity written within a second is lost.
+    fixed.droppedTraces >= (bursts - 2) * capacity
+    adaptive.droppedTraces < fixed.droppedTraces / 4
+
+    where:
+    capacity = 500
+    bursts = 10
+  }
+
+  def "failed batches are retried with backoff"() {
+    setup:
+    def api = Mock(Api)
+    def writer = new DDAgentWriter(api, new WriterQueue<List<DDSpan>>(10), 60_000, 1, 0, 1, 2)
+    writer.start()
+
+    when:
+    writer.write([newSpanOf(0)])
+    Thread.sleep(100 + 200 + 200)
+
+    then:
+    3 * api.sendTraces(_) >> false
+
+    when:
+    writer.write([newSpanOf(0)])
+    Thread.sleep(100)
+
+    then:
+    1 * api.sendTraces(_) >> true
+
+    cleanup:
+    writer.close()
+  }
+
+  def "encoding apis get the batches encoded before sending"() {
+    setup:
+    def api = Mock(EncodingApi)
+    def encoded = new EncodedTraces(1, 1, new byte[0])
+    def writer = new DDAgentWriter(api, new WriterQueue<List<DDSpan>>(10), 60_000, 1, 0, 1, 0)
+    writer.start()
+
+    when:
+    writer.write(trace)
+    Thread.sleep(100)
+
+    then:
+    1 * api.encode([trace]) >> encoded
+    1 * api.send(encoded) >> true
+    0 * api.sendTraces(_)
+
+    cleanup:
+    writer.close()
+
+    where:
+    trace = [newSpanOf(0)]
+  }
+
+  def "encoded batches are released once sent or given up"() {
+    setup:
+    def api = Mock(EncodingApi)
+    def released = new AtomicInteger()
+    def encoded = new EncodedTraces(1, 1, new byte[0], 0, { released.incrementAndGet() } as Runnable)
+    def writer = new DDAgentWriter(api, new WriterQueue<List<DDSpan>>(10), 60_000, 1, 0, 1, 1)
+    writer.start()
+
+    when:
+    writer.write(trace)
+    Thread.sleep(300)
+
+    then:
+    1 * api.encode([trace]) >> encoded
+    (1..2) * api.send(encoded) >> sent
+    released.get() == 1
+
+    cleanup:
+    writer.close()
+
+    where:
+    sent << [true, false]
+    trace = [newSpanOf(0)]
+  }
+
+  def "no more than the max in flight batches are sent at once"() {
+    setup:
+    def inFlight = new AtomicInteger()
+    def maxInFlight = new AtomicInteger()
+    def api = [sendTraces: { traces ->
+      def current = inFlight.incrementAndGet()
+      synchronized (maxInFlight) {
+        maxInFlight.set(Math.max(maxInFlight.get(), current))
+      }
+      Thread.sleep(50)
+      inFlight.decrementAndGet()
+      true
+    }] as Api
+    def writer = new DDAgentWriter(api, new WriterQueue<List<DDSpan>>(1000), 60_000, 10, 0, 3, 0)
+    writer.start()
+
+    when:
+    200.times {
+      writer.write([newSpanOf(0)])
+      Thread.sleep(1)
+    }
+    Thread.sleep(200)
+
+    then:
+    maxInFlight.get() > 1
+    maxInFlight.get() <= 3
+
+    cleanup:
+    writer.close()
+  }
+
+  def "batches failing while the endpoint is down are spilled and replayed in order"() {
+    setup:
+    def collector = new StubCollector()
+    def directory = Files.createTempDirectory("spill-test").toFile()
+    def spill = new SpillBuffer(directory, 1024 * 1024, 64 * 1024)
+    def api = new ZipkinV2Api("localhost", collector.port, "/v1/trace", false)
+    def writer = new DDAgentWriter(api, new WriterQueue<List<DDSpan>>(100), 60_000, 1, 0, 1, 0, spill)
+    writer.start()
+
+    when:
+    collector.available = false
+    5.times {
+      writer.write([newSpanOf(it)])
+      Thread.sleep(100)
+    }
+
+    then:
+    collector.requests.size() == 5
+    !spill.isEmpty()
+
+    when:
+    collector.available = true
+    writer.write([newSpanOf(5)])
+    Thread.sleep(500)
+    def rejected = collector.requests.findAll { it.status != "200 OK" }
+    def accepted = collector.requests.findAll { it.status == "200 OK" }
+
+    then:
+    spill.isEmpty()
+    accepted.size() == 6
+    accepted.drop(1).collect { new String(it.body) } == rejected.collect { new String(it.body) }
+
+    cleanup:
+    writer.close()
+    collector.close()
+    directory.deleteDir()
+  }
+
+  def "spilled batches are replayed on the next flush without new traces"() {
+    setup:
+    def collector = new StubCollector()
+    def directory = Files.createTempDirectory("spill-test").toFile()
+    def spill = new SpillBuffer(directory, 1024 * 1024, 64 * 1024)
+    def api = new ZipkinV2Api("localhost", collector.port, "/v1/trace", false)
+    def writer = new DDAgentWriter(api, new WriterQueue<List<DDSpan>>(100), 200, 1, 0, 1, 0, spill)
+    writer.start()
+
+    when:
+    collector.available = false
+    2.times {
+      writer.write([newSpanOf(it)])
+      Thread.sleep(100)
+    }
+
+    then:
+    !spill.isEmpty()
+
+    when:
+    collector.available = true
+    Thread.sleep(600)
+
+    then:
+    spill.isEmpty()
+    collector.requests.findAll { it.status == "200 OK" }.size() == 2
+
+    cleanup:
+    writer.close()
+    collector.close()
+    directory.deleteDir()
+  }
+
+  def instantApi() {
+    return [sendTraces: { traces -> true }] as Api
+  }
+
+  def load(DDAgentWriter writer, int bursts, int burstSize) {
+    writer.start()
+    try {
+      def trace = [newSpanOf(0)]
+      bursts.times {
+        burstSize.times {
+          writer.write(trace)
+        }
+        Thread.sleep(20)
+      }
+    } finally {
+      writer.close()
+    }
   }
 }
@@ -76,16 +76,16 @@ class DDApiTest extends Specification {
     agent.lastRequest.headers.get("Datadog-Meta-Lang-Version") == System.getProperty("java.version", "unknown")
     agent.lastRequest.headers.get("Datadog-Meta-Tracer-Version") == "Stubbed-Test-Version"
     agent.lastRequest.headers.get("X-Datadog-Trace-Count") == "${traces.size()}"
-    convertList(agent.lastRequest.body) == expectedRequestBody
+    convertTraces(agent.lastRequest.body) == expectedRequestBody
 
     cleanup:
     agent.close()
 
     // Populate thread info dynamically as it is different when run via gradle vs idea.
     where:
-    traces                                                               | expectedRequestBody
-    []                                                                   | []
-    [SpanFactory.newSpanOf(1L).setTag("service", "my-service")]     | [new TreeMap<>([
+    traces                                                                 | expectedRequestBody
+    []                                                                     | []
+    [[SpanFactory.newSpanOf(1L).setTag("service", "my-service")]]          | [[new TreeMap<>([
       "duration" : 0,
       "error"    : 0,
       "meta"     : ["span.type": "fakeType", "thread.name": Thread.currentThread().getName(), "thread.id": "${Thread.currentThread().id}"],
@@ -98,8 +98,8 @@ class DDApiTest extends Specification {
       "start"    : 1000,
       "trace_id" : 1,
       "type"     : "fakeType"
-    ])]
-    [SpanFactory.newSpanOf(100L).setTag("resource.name", "my-resource")] | [new TreeMap<>([
+    ])]]
+    [[SpanFactory.newSpanOf(100L).setTag("resource.name", "my-resource")]] | [[new TreeMap<>([
       "duration" : 0,
       "error"    : 0,
       "meta"     : ["span.type": "fakeType", "thread.name": Thread.currentThread().getName(), "thread.id": "${Thread.currentThread().id}"],
@@ -112,7 +112,7 @@ class DDApiTest extends Specification {
       "start"    : 100000,
       "trace_id" : 1,
       "type"     : "fakeType"
-    ])]
+    ])]]
   }
 
   def "Api ResponseListeners see 200 responses"() {
@@ -205,6 +205,10 @@ class DDApiTest extends Specification {
     return mapper.readValue(bytes, new TypeReference<List<TreeMap<String, Object>>>() {})
   }
 
+  static List<List<TreeMap<String, Object>>> convertTraces(byte[] bytes) {
+    return mapper.readValue(bytes, new TypeReference<List<List<TreeMap<String, Object>>>>() {})
+  }
+
   static TreeMap<String, Object> convertMap(byte[] bytes) {
     return mapper.readValue(bytes, new TypeReference<TreeMap<String, Object>>() {})
   }
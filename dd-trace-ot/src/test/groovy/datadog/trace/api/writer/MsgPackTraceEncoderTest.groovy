@@ -0,0 +1,98 @@
+package datadog.trace.api.writer
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import datadog.opentracing.DDSpan
+import datadog.opentracing.DDSpanContext
+import datadog.opentracing.DDTracer
+import datadog.opentracing.PendingTrace
+import datadog.opentracing.SpanFactory
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.writer.ListWriter
+import datadog.trace.common.writer.MsgPackTraceEncoder
+import org.msgpack.jackson.dataformat.MessagePackFactory
+import spock.lang.Specification
+
+class MsgPackTraceEncoderTest extends Specification {
+  static mapper = new ObjectMapper(new MessagePackFactory())
+
+  def "encoded payload matches the Jackson serialization"() {
+    setup:
+    def encoder = new MsgPackTraceEncoder()
+
+    when:
+    def buffer = encoder.encode(traces)
+    def encoded = buffer.toByteArray()
+    encoder.release(buffer)
+
+    then:
+    mapper.readTree(encoded) == mapper.readTree(mapper.writeValueAsBytes(traces))
+
+    where:
+    traces << [
+      [],
+      [[]],
+      [[SpanFactory.newSpanOf(1L)]],
+      [[SpanFactory.newSpanOf(1L).setTag("http.status_code", 200).setTag("error", true)],
+       [SpanFactory.newSpanOf(100L).setTag("resource.name", "my-resource").setTag("key", "välue")]],
+      [[spanWithIds("9223372036854775808", "18446744073709551615", "0")]],
+      [[spanWithIds("1", "2", "1")], [spanWithIds("3", "4", "3")]],
+      [(1..40).collect { SpanFactory.newSpanOf(it).setTag("long", "x" * 300) }]
+    ]
+  }
+
+  def "buffers are reused between payloads"() {
+    setup:
+    def encoder = new MsgPackTraceEncoder()
+
+    when:
+    def first = encoder.encode([[SpanFactory.newSpanOf(1L)]])
+    encoder.release(first)
+    def second = encoder.encode([[SpanFactory.newSpanOf(2L)]])
+
+    then:
+    first.is(second)
+  }
+
+  def "strings evicted from the cache are still encoded"() {
+    setup:
+    def encoder = new MsgPackTraceEncoder()
+    def traces = [(1..50).collect { id ->
+      def span = SpanFactory.newSpanOf(id)
+      (1..100).each { span.setTag("key-$id-$it".toString(), "value") }
+      return span
+    }]
+
+    when:
+    def first = encoder.encode(traces)
+    def firstEncoded = first.toByteArray()
+    encoder.release(first)
+    def second = encoder.encode(traces)
+    def secondEncoded = second.toByteArray()
+    encoder.release(second)
+
+    then:
+    mapper.readTree(firstEncoded) == mapper.readTree(mapper.writeValueAsBytes(traces))
+    secondEncoded == firstEncoded
+  }
+
+  static DDSpan spanWithIds(String traceId, String spanId, String parentId) {
+    def tracer = new DDTracer(new ListWriter())
+    def baggage = ["baggage-key": "baggage-value"]
+    def context = new DDSpanContext(
+      traceId,
+      spanId,
+      parentId,
+      "fakeService",
+      "fakeOperation",
+      null,
+      PrioritySampling.SAMPLER_KEEP,
+      baggage,
+      false,
+      null,
+      Collections.emptyMap(),
+      new PendingTrace(tracer, traceId, [:]),
+      tracer)
+    context.setMetric("_sample_rate", 0.5d)
+    return new DDSpan(1, context)
+  }
+}
@@ -0,0 +1,170 @@
+package datadog.trace.api.writer
+
+import datadog.trace.common.writer.EncodedTraces
+import datadog.trace.common.writer.SpillBuffer
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+class SpillBufferTest extends Specification {
+  File directory = Files.createTempDirectory("spill-test").toFile()
+
+  def cleanup() {
+    directory.deleteDir()
+  }
+
+  def "batches are replayed in order"() {
+    setup:
+    def spill = new SpillBuffer(directory, 1024 * 1024, 1024)
+
+    when:
+    (1..20).each {
+      assert spill.append(batch(it))
+    }
+
+    then:
+    drain(spill) == (1..20).collect { "batch $it" }
+    spill.isEmpty()
+  }
+
+  def "a batch is returned until it is removed"() {
+    setup:
+    def spill = new SpillBuffer(directory, 1024 * 1024, 1024)
+    spill.append(batch(1))
+    spill.append(batch(2))
+
+    expect:
+    text(spill.peek()) == "batch 1"
+    text(spill.peek()) == "batch 1"
+    spill.peek().traceCount == 1
+    spill.peek().reportedTraceCount == 2
+
+    when:
+    spill.remove()
+
+    then:
+    text(spill.peek()) == "batch 2"
+  }
+
+  def "oldest segments are evicted first"() {
+    setup:
+    // Two segments of 100 bytes, each holding 4 batches
+    def spill = new SpillBuffer(directory, 200, 100)
+
+    when:
+    (1..9).each {
+      assert spill.append(batch(it))
+    }
+
+    then:
+    spill.evictedSegments == 1
+    drain(spill) == (5..9).collect { "batch $it" }
+  }
+
+  def "batches bigger than a segment get a segment of their own"() {
+    setup:
+    def spill = new SpillBuffer(directory, 1024, 100)
+
+    when:
+    spill.append(batch(1))
+    spill.append(new EncodedTraces(1, 1, new byte[500]))
+    spill.append(batch(2))
+
+    then:
+    directory.listFiles()*.length().sort() == [100L, 100L, 8L + 16 + 500]
+    drain(spill)*.length() == ["batch 1".length(), 500, "batch 2".length()]
+  }
+
+  def "batches bigger than the cap are not spilled"() {
+    setup:
+    def spill = new SpillBuffer(directory, 200, 100)
+
+    expect:
+    !spill.append(new EncodedTraces(1, 1, new byte[200]))
+    spill.isEmpty()
+  }
+
+  def "caps smaller than a segment are honoured"() {
+    setup:
+    def spill = new SpillBuffer(directory, 50, 1024)
+
+    when:
+    (1..3).each {
+      assert spill.append(batch(it))
+    }
+
+    then:
+    directory.listFiles()*.length() == [50L]
+    spill.evictedSegments == 2
+    drain(spill) == ["batch 3"]
+  }
+
+  def "corrupted batches are skipped"() {
+    setup:
+    def spill = new SpillBuffer(directory, 1024 * 1024, 1024)
+    (1..3).each {
+      spill.append(batch(it))
+    }
+    def segment = directory.listFiles().first()
+    def bytes = segment.bytes
+    def offset = indexOf(bytes, "batch 2".bytes)
+    bytes[offset] = (byte) 'X'
+
+    when:
+    // Reopen from disk: the segment is mapped again
+    segment.bytes = bytes
+    spill = new SpillBuffer(directory, 1024 * 1024, 1024)
+
+    then:
+    drain(spill) == ["batch 1", "batch 3"]
+  }
+
+  def "replay resumes where it stopped after a restart"() {
+    setup:
+    def spill = new SpillBuffer(directory, 1024 * 1024, 1024)
+    (1..4).each {
+      spill.append(batch(it))
+    }
+    spill.peek()
+    spill.remove()
+    spill.peek()
+    spill.remove()
+
+    when:
+    def reopened = new SpillBuffer(directory, 1024 * 1024, 1024)
+    reopened.append(batch(5))
+
+    then:
+    drain(reopened) == (3..5).collect { "batch $it" }
+    directory.listFiles().length == 1
+  }
+
+  static EncodedTraces batch(int index) {
+    return new EncodedTraces(1, 2, "batch $index".bytes)
+  }
+
+  static String text(EncodedTraces traces) {
+    def out = new ByteArrayOutputStream()
+    traces.writeTo(out)
+    return new String(out.toByteArray())
+  }
+
+  static List<String> drain(SpillBuffer spill) {
+    def batches = []
+    def traces
+    while ((traces = spill.peek()) != null) {
+      batches.add(text(traces))
+      spill.remove()
+    }
+    return batches
+  }
+
+  static int indexOf(byte[] bytes, byte[] part) {
+    for (int i = 0; i <= bytes.length - part.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+        return i
+      }
+    }
+    return -1
+  }
+}
@@ -0,0 +1,102 @@
+package datadog.trace.api.writer
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Minimal HTTP/1.1 server counting accepted connections and request bytes, including headers.
+ * Every request gets an empty 200 response, or a 503 while {@link #available} is false, and the
+ * connection is kept open.
+ */
+class StubCollector implements Closeable {
+  final ServerSocket serverSocket = new ServerSocket(0)
+  final AtomicInteger connections = new AtomicInteger()
+  final AtomicLong bytesReceived = new AtomicLong()
+  final List<Map> requests = new CopyOnWriteArrayList<>()
+  volatile boolean available = true
+
+  StubCollector() {
+    Thread.start {
+      while (!serverSocket.closed) {
+        def socket
+        try {
+          socket = serverSocket.accept()
+        } catch (IOException ignored) {
+          return
+        }
+        connections.incrementAndGet()
+        Thread.start { serve(socket) }
+      }
+    }
+  }
+
+  int getPort() {
+    return serverSocket.localPort
+  }
+
+  private void serve(Socket socket) {
+    socket.withCloseable {
+      def input = new BufferedInputStream(socket.inputStream)
+      def output = socket.outputStream
+      String requestLine
+      while ((requestLine = readLine(input)) != null && !requestLine.isEmpty()) {
+        def headers = [:]
+        String line
+        while (!(line = readLine(input)).isEmpty()) {
+          def separator = line.indexOf(':')
+          headers[line.substring(0, separator).trim().toLowerCase()] = line.substring(separator + 1).trim()
+        }
+        def body = new ByteArrayOutputStream()
+        if (headers["transfer-encoding"] == "chunked") {
+          int size
+          while ((size = Integer.parseInt(readLine(input).trim(), 16)) > 0) {
+            body.write(readBytes(input, size))
+            readLine(input)
+          }
+          readLine(input)
+        } else if (headers["content-length"] != null) {
+          body.write(readBytes(input, Integer.parseInt(headers["content-length"])))
+        }
+        def status = available ? "200 OK" : "503 Service Unavailable"
+        requests.add([request: requestLine, headers: headers, body: body.toByteArray(), status: status])
+        output.write("HTTP/1.1 $status\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+        output.flush()
+      }
+    }
+  }
+
+  private String readLine(InputStream input) {
+    def line = new ByteArrayOutputStream()
+    int b
+    while ((b = input.read()) != -1) {
+      bytesReceived.incrementAndGet()
+      if (b == ('\n' as char)) {
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII).replaceAll("\r\$", "")
+      }
+      line.write(b)
+    }
+    return null
+  }
+
+  private byte[] readBytes(InputStream input, int size) {
+    def bytes = new byte[size]
+    int read = 0
+    while (read < size) {
+      int count = input.read(bytes, read, size - read)
+      if (count < 0) {
+        throw new EOFException()
+      }
+      read += count
+    }
+    bytesReceived.addAndGet(size)
+    return bytes
+  }
+
+  @Override
+  void close() {
+    serverSocket.close()
+  }
+}
+}
@@ -178,4 +178,53 @@ class WriterQueueTest extends Specification {
     numberInsertionsPerThread = 100
     numberGetsPerThread = 5
   }
+
+  def "drained elements are never missing while writers race with a drain"() {
+    setup:
+    def phaser1 = new Phaser()
+    def phaser2 = new Phaser()
+    def queue = new WriterQueue<Integer>(capacity)
+    def nullCount = new AtomicInteger(0)
+
+    phaser1.register() // global start
+    phaser2.register() // global stop
+
+    numberThreadsWrites.times {
+      phaser1.register()
+      Thread.start {
+        phaser2.register()
+        phaser1.arriveAndAwaitAdvance()
+        numberInsertionsPerThread.times {
+          queue.add(1)
+        }
+        phaser2.arriveAndAwaitAdvance()
+      }
+    }
+
+    phaser1.register()
+    Thread.start {
+      phaser2.register()
+      phaser1.arriveAndAwaitAdvance()
+      numberGets.times {
+        for (def element : queue.getAll()) {
+          element == null ? nullCount.getAndIncrement() : null
+        }
+      }
+      phaser2.arriveAndAwaitAdvance()
+    }
+
+    when:
+    phaser1.arriveAndAwaitAdvance() // allow threads to start
+    phaser2.arriveAndAwaitAdvance() // wait till the job is not finished
+
+    then:
+    nullCount.get() == 0
+    !queue.getAll().contains(null)
+
+    where:
+    capacity = 100
+    numberThreadsWrites << [1, 10, 64]
+    numberInsertionsPerThread = 1000
+    numberGets = 50
+  }
 }
@@ -0,0 +1,110 @@
+package datadog.trace.api.writer
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ArrayNode
+import datadog.opentracing.DDSpan
+import datadog.opentracing.DDSpanContext
+import datadog.opentracing.DDTracer
+import datadog.opentracing.PendingTrace
+import datadog.opentracing.SpanFactory
+import datadog.trace.api.DDSpanTypes
+import datadog.trace.api.DDTags
+import datadog.trace.api.sampling.PrioritySampling
+import datadog.trace.common.util.Ids
+import datadog.trace.common.writer.ListWriter
+import datadog.trace.common.writer.ZipkinV2JsonEncoder
+import io.opentracing.tag.Tags
+import spock.lang.Specification
+
+class ZipkinV2JsonEncoderTest extends Specification {
+  static mapper = new ObjectMapper()
+
+  def "streamed json matches the tree based encoding"() {
+    setup:
+    def encoder = new ZipkinV2JsonEncoder(mapper.getFactory())
+    def out = new ByteArrayOutputStream()
+
+    when:
+    encoder.encode(traces, out)
+
+    then:
+    // Tags are streamed from the span snapshot, in a different order than getTags()
+    mapper.readTree(out.toByteArray()) == encodeAsTree(traces)
+
+    where:
+    traces << [
+      [],
+      [[]],
+      [[SpanFactory.newSpanOf(1L)]],
+      [[SpanFactory.newSpanOf(1L).setTag("span.kind", "server").setTag("http.status_code", 200)],
+       [SpanFactory.newSpanOf(100L).setTag("résumé", "naïve \"quoted\" \n value")]],
+      [[spanWithIds("9223372036854775808", "18446744073709551615", "0", DDSpanTypes.HTTP_CLIENT)]],
+      [[spanWithIds("340282366920938463463374607431768211455", "2", "1", DDSpanTypes.HTTP_SERVER)]],
+      [[spanWithIds("1", "2", "1", null).setTag(DDTags.RESOURCE_NAME, "")]],
+      [(1..40).collect { SpanFactory.newSpanOf(it).setTag("key-$it", "value-$it") }]
+    ]
+  }
+
+  static DDSpan spanWithIds(String traceId, String spanId, String parentId, String spanType) {
+    def tracer = new DDTracer(new ListWriter())
+    def context = new DDSpanContext(
+      traceId,
+      spanId,
+      parentId,
+      null,
+      null,
+      null,
+      PrioritySampling.UNSET,
+      Collections.emptyMap(),
+      false,
+      spanType,
+      Collections.emptyMap(),
+      new PendingTrace(tracer, traceId, [:]),
+      tracer)
+    return new DDSpan(1, context)
+  }
+
+  /** The tree based encoding ZipkinV2Api used before streaming. */
+  static ArrayNode encodeAsTree(List<List<DDSpan>> traces) {
+    def spanArr = mapper.createArrayNode()
+    for (List<DDSpan> trace : traces) {
+      for (DDSpan span : trace) {
+        def spanNode = mapper.createObjectNode()
+        spanNode.put("id", Ids.idToHex(span.getSpanId()))
+        spanNode.put("name", span.getOperationName())
+        spanNode.put("traceId", Ids.idToHex(span.getTraceId()))
+        spanNode.put("parentId", Ids.idToHex(span.getParentId()))
+        spanNode.put("kind", deriveKind(span))
+        spanNode.putObject("localEndpoint").put("serviceName", span.getServiceName())
+        spanNode.put("timestamp", span.getStartTime().intdiv(1000) as long)
+        spanNode.put("duration", span.getDurationNano().intdiv(1000) as long)
+        def tagNode = spanNode.putObject("tags")
+        for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
+          if (Tags.SPAN_KIND.getKey() == tag.getKey()) {
+            continue
+          }
+          tagNode.put(tag.getKey(), tag.getValue().toString())
+        }
+        if (span.getResourceName() != null && !span.getResourceName().isEmpty()) {
+          tagNode.put(DDTags.RESOURCE_NAME, span.getResourceName())
+        }
+        spanArr.add(spanNode)
+      }
+    }
+    return spanArr
+  }
+
+  static String deriveKind(DDSpan span) {
+    def kind = span.getTags().get(Tags.SPAN_KIND.getKey())
+    if (kind instanceof String) {
+      return kind
+    }
+    switch (span.getSpanType()) {
+      case DDSpanTypes.HTTP_CLIENT:
+        return Tags.SPAN_KIND_CLIENT
+      case DDSpanTypes.HTTP_SERVER:
+        return Tags.SPAN_KIND_SERVER
+    }
+    return null
+  }
+}